@@ -0,0 +1,1147 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map<String, Integer>} for counting, represented like
+ * {@code CountingMap4}, but with the keys kept as UTF-8 bytes in one shared
+ * byte array (the arena) and referred to by offset and length, with
+ * implementations of primary methods and single-probe {@code increment}s that
+ * take a {@code CharSequence} or a slice of UTF-8 bytes.
+ * <p>
+ * No {@code String} is kept for any key: an entry costs its encoded bytes
+ * plus five {@code int}s, where a {@code CountingMap4} entry also pays for a
+ * {@code String} object and its own array. A word read from a
+ * {@code StringBuilder}, a {@code CharBuffer}, or straight from a byte buffer
+ * can be counted and looked up without making a {@code String} for it first,
+ * so ingestion creates no garbage per token; {@code String}s are only made
+ * when entries are returned by the kernel methods or the iterator.
+ * <p>
+ * Keys are compared and hashed by code point, so a key given as characters
+ * and as bytes is the same key. A lone surrogate is stored as its own
+ * three-byte sequence, so every {@code String} key comes back exactly as it
+ * was added; byte slices must be well-formed UTF-8. The bytes of removed keys
+ * are reclaimed when they make up more than half of the arena.
+ * <p>
+ * As in {@code CountingMap4}, each code point hash is mixed with a random
+ * seed before it picks a bucket, and an {@code increment} whose result would
+ * not fit in an {@code int} throws {@code ArithmeticException} and leaves
+ * {@code this} unchanged.
+ *
+ * @mathdefinitions <pre>
+ * CHAIN(
+ *   m: ArenaCountingMap4,
+ *   b: integer
+ *  ): string of integer is
+ *  [the entry indices reached from $m.heads[b] - 1 by following
+ *   $m.next[i] - 1 until reaching -1]
+ *
+ * KEY(
+ *   m: ArenaCountingMap4,
+ *   i: integer
+ *  ): string of character is
+ *  [the code points encoded in
+ *   $m.arena[$m.offsets[i], $m.offsets[i] + $m.lengths[i])]
+ * </pre>
+ * @convention <pre>
+ * |$this.heads| > 0  and
+ * |$this.offsets| = |$this.lengths| = |$this.counts| = |$this.hashes| =
+ *   |$this.next| > 0  and
+ * 0 <= $this.size <= |$this.offsets|  and
+ * 0 <= $this.garbage <= $this.arenaUsed <= |$this.arena|  and
+ * ($this.size <= LOAD_FACTOR * |$this.heads|  or
+ *  |$this.heads| = MAXIMUM_HASH_TABLE_SIZE)  and
+ * for all i: integer where (0 <= i < $this.size)
+ *   ($this.offsets[i] + $this.lengths[i] <= $this.arenaUsed  and
+ *    $this.hashes[i] = [code point hash of KEY($this, i) mixed with
+ *                       $this.seed]  and
+ *    i occurs exactly once in
+ *      CHAIN($this, $this.hashes[i] mod |$this.heads|))  and
+ * for all b: integer where (0 <= b < |$this.heads|)
+ *   (every entry of CHAIN($this, b) is in [0, $this.size))  and
+ * $this.garbage = $this.arenaUsed -
+ *   sum i: integer where (0 <= i < $this.size) ($this.lengths[i])  and
+ * [the byte ranges of the entries do not overlap]  and
+ * [no two of KEY($this, 0), ..., KEY($this, $this.size - 1) are equal]
+ * </pre>
+ * @correspondence <pre>
+ * this = {i: integer where (0 <= i < $this.size)
+ *          ( (KEY($this, i), $this.counts[i]) )}
+ * </pre>
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class ArenaCountingMap4 extends MapSecondary<String, Integer> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Default size of hash table.
+     */
+    private static final int DEFAULT_HASH_TABLE_SIZE = 101;
+
+    /**
+     * Ratio of {@code size} to number of buckets at which the hash table
+     * grows.
+     */
+    private static final double LOAD_FACTOR = 0.75;
+
+    /**
+     * Largest number of buckets the hash table will grow to.
+     */
+    private static final int MAXIMUM_HASH_TABLE_SIZE = 1 << 30;
+
+    /**
+     * Number of arena bytes set aside per bucket of a new hash table.
+     */
+    private static final int ARENA_BYTES_PER_BUCKET = 8;
+
+    /**
+     * Multiplier of the code point hash, as in {@code String.hashCode}.
+     */
+    private static final int HASH_MULTIPLIER = 31;
+
+    /**
+     * First multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_1 = 0x85ebca6b;
+
+    /**
+     * Second multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_2 = 0xc2b2ae35;
+
+    /**
+     * Larger shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_1 = 16;
+
+    /**
+     * Smaller shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_2 = 13;
+
+    /**
+     * Smallest code point whose UTF-8 sequence has each length.
+     */
+    private static final int[] CODE_POINT_STARTS = { 0, 0, 0x80, 0x800,
+        0x10000 };
+
+    /**
+     * Tag bits of the first byte of a UTF-8 sequence, by sequence length.
+     */
+    private static final int[] LEAD_TAGS = { 0, 0, 0xC0, 0xE0, 0xF0 };
+
+    /**
+     * Tag bits of a continuation byte.
+     */
+    private static final int CONTINUATION_TAG = 0x80;
+
+    /**
+     * Number of code point bits in a continuation byte.
+     */
+    private static final int CONTINUATION_BITS = 6;
+
+    /**
+     * Mask of the code point bits in a continuation byte.
+     */
+    private static final int CONTINUATION_MASK = (1 << CONTINUATION_BITS) - 1;
+
+    /**
+     * Mask of the bits of a byte.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * For each bucket, one more than the index of the first entry in its
+     * chain, or 0 if the bucket is empty.
+     */
+    private int[] heads;
+
+    /**
+     * For each entry, one more than the index of the next entry in its chain,
+     * or 0 if it is last.
+     */
+    private int[] next;
+
+    /**
+     * Position in {@code arena} of the first byte of each key.
+     */
+    private int[] offsets;
+
+    /**
+     * Number of bytes in each key.
+     */
+    private int[] lengths;
+
+    /**
+     * Counts of the entries.
+     */
+    private int[] counts;
+
+    /**
+     * Cached hash codes of the keys of the entries, as computed by
+     * {@code hash}.
+     */
+    private int[] hashes;
+
+    /**
+     * Random seed mixed into every hash code.
+     */
+    private int seed;
+
+    /**
+     * UTF-8 bytes of the keys.
+     */
+    private byte[] arena;
+
+    /**
+     * Number of bytes of {@code arena} in use, live or not.
+     */
+    private int arenaUsed;
+
+    /**
+     * Number of bytes of {@code arena} in use by removed keys.
+     */
+    private int garbage;
+
+    /**
+     * Total size of abstract {@code this}.
+     */
+    private int size;
+
+    /**
+     * Computes {@code a} mod {@code b} as % should have been defined to work.
+     *
+     * @param a
+     *            the number being reduced
+     * @param b
+     *            the modulus
+     * @return the result of a mod b, which satisfies 0 <= {@code mod} < b
+     * @requires b > 0
+     * @ensures <pre>
+     * 0 <= mod  and  mod < b  and
+     * there exists k: integer (a = k * b + mod)
+     * </pre>
+     */
+    private static int mod(int a, int b) {
+        assert b > 0 : "Violation of: b > 0";
+        int result = a % b;
+        if (result < 0) {
+            result += b;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of bytes in the UTF-8 sequence starting with
+     * {@code lead}.
+     *
+     * @param lead
+     *            the first byte of the sequence
+     * @return the length of the sequence
+     */
+    private static int sequenceLength(byte lead) {
+        int b = lead & BYTE_MASK;
+        int result = 1;
+        while (result < LEAD_TAGS.length - 1 && b >= LEAD_TAGS[result + 1]) {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of UTF-8 bytes needed for code point {@code cp}.
+     *
+     * @param cp
+     *            the code point
+     * @return the length of its encoding
+     */
+    private static int encodedLength(int cp) {
+        int result = 1;
+        while (result < CODE_POINT_STARTS.length - 1
+                && cp >= CODE_POINT_STARTS[result + 1]) {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * Decodes the code point whose UTF-8 sequence starts at {@code bytes[i]}.
+     *
+     * @param bytes
+     *            the bytes
+     * @param i
+     *            the position of the sequence
+     * @return the code point
+     * @requires [a well-formed sequence starts at bytes[i]]
+     */
+    private static int decode(byte[] bytes, int i) {
+        int n = sequenceLength(bytes[i]);
+        int result = (bytes[i] & BYTE_MASK) - LEAD_TAGS[n];
+        for (int j = 1; j < n; j++) {
+            result = (result << CONTINUATION_BITS)
+                    | (bytes[i + j] & CONTINUATION_MASK);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the code point hash of {@code key}.
+     *
+     * @param key
+     *            the key
+     * @return the hash
+     */
+    private static int hashOf(CharSequence key) {
+        int result = 0;
+        int i = 0;
+        while (i < key.length()) {
+            int cp = Character.codePointAt(key, i);
+            result = HASH_MULTIPLIER * result + cp;
+            i += Character.charCount(cp);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the code point hash of the key encoded in
+     * {@code utf8[offset, offset + length)}.
+     *
+     * @param utf8
+     *            the bytes
+     * @param offset
+     *            the position of the first byte
+     * @param length
+     *            the number of bytes
+     * @return the hash
+     * @requires [the bytes are well-formed UTF-8]
+     */
+    private static int hashOf(byte[] utf8, int offset, int length) {
+        int result = 0;
+        int i = offset;
+        while (i < offset + length) {
+            result = HASH_MULTIPLIER * result + decode(utf8, i);
+            i += sequenceLength(utf8[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param hashTableSize
+     *            the size of the hash table
+     * @requires hashTableSize > 0
+     * @ensures <pre>
+     * |$this.heads| = hashTableSize  and  $this.size = 0  and
+     * [$this.seed is chosen at random]
+     * </pre>
+     */
+    private void createNewRep(int hashTableSize) {
+        this.heads = new int[hashTableSize];
+        this.next = new int[hashTableSize];
+        this.offsets = new int[hashTableSize];
+        this.lengths = new int[hashTableSize];
+        this.counts = new int[hashTableSize];
+        this.hashes = new int[hashTableSize];
+        this.arena = new byte[ARENA_BYTES_PER_BUCKET * hashTableSize];
+        this.arenaUsed = 0;
+        this.garbage = 0;
+        this.seed = ThreadLocalRandom.current().nextInt();
+        this.size = 0;
+    }
+
+    /**
+     * Returns the code point hash {@code h} mixed with {@code $this.seed}, so
+     * that every bit of it affects the bucket chosen.
+     *
+     * @param h
+     *            the code point hash of a key
+     * @return the mixed hash
+     * @ensures hash = [h mixed with $this.seed]
+     */
+    private int hash(int h) {
+        int x = h ^ this.seed;
+        x ^= x >>> MIX_SHIFT_1;
+        x *= MIX_MULTIPLIER_1;
+        x ^= x >>> MIX_SHIFT_2;
+        x *= MIX_MULTIPLIER_2;
+        x ^= x >>> MIX_SHIFT_1;
+        return x;
+    }
+
+    /**
+     * Reports whether the key of entry {@code i} is {@code key}.
+     *
+     * @param i
+     *            the entry
+     * @param key
+     *            the key
+     * @return true iff KEY($this, i) = key
+     */
+    private boolean keyEquals(int i, CharSequence key) {
+        int p = this.offsets[i];
+        int end = p + this.lengths[i];
+        int j = 0;
+        boolean same = true;
+        while (same && p < end && j < key.length()) {
+            int cp = decode(this.arena, p);
+            same = cp == Character.codePointAt(key, j);
+            p += sequenceLength(this.arena[p]);
+            j += Character.charCount(cp);
+        }
+        return same && p == end && j == key.length();
+    }
+
+    /**
+     * Reports whether the key of entry {@code i} is encoded by
+     * {@code utf8[offset, offset + length)}.
+     *
+     * @param i
+     *            the entry
+     * @param utf8
+     *            the bytes
+     * @param offset
+     *            the position of the first byte
+     * @param length
+     *            the number of bytes
+     * @return true iff the bytes of entry i are those bytes
+     */
+    private boolean keyEquals(int i, byte[] utf8, int offset, int length) {
+        boolean same = this.lengths[i] == length;
+        int p = this.offsets[i];
+        int j = 0;
+        while (same && j < length) {
+            same = this.arena[p + j] == utf8[offset + j];
+            j++;
+        }
+        return same;
+    }
+
+    /**
+     * Returns the index of the entry for {@code key}, or -1 if there is none.
+     *
+     * @param key
+     *            the key to look for
+     * @param hash
+     *            the mixed hash of {@code key}, from {@code hash}
+     * @return the entry index, or -1
+     * @requires hash = [mixed hash of key]
+     * @ensures <pre>
+     * (indexOf = -1  and  key is not in DOMAIN(this))  or
+     * KEY($this, indexOf) = key
+     * </pre>
+     */
+    private int indexOf(CharSequence key, int hash) {
+        int i = this.heads[mod(hash, this.heads.length)] - 1;
+        while (i >= 0 && !(this.hashes[i] == hash && this.keyEquals(i, key))) {
+            i = this.next[i] - 1;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index of the entry whose key is encoded by
+     * {@code utf8[offset, offset + length)}, or -1 if there is none.
+     *
+     * @param utf8
+     *            the bytes
+     * @param offset
+     *            the position of the first byte
+     * @param length
+     *            the number of bytes
+     * @param hash
+     *            the mixed hash of the key, from {@code hash}
+     * @return the entry index, or -1
+     */
+    private int indexOf(byte[] utf8, int offset, int length, int hash) {
+        int i = this.heads[mod(hash, this.heads.length)] - 1;
+        while (i >= 0 && !(this.hashes[i] == hash
+                && this.keyEquals(i, utf8, offset, length))) {
+            i = this.next[i] - 1;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the key of entry {@code i} as a {@code String}.
+     *
+     * @param i
+     *            the entry
+     * @return KEY($this, i)
+     */
+    private String keyAt(int i) {
+        StringBuilder result = new StringBuilder(this.lengths[i]);
+        int p = this.offsets[i];
+        int end = p + this.lengths[i];
+        while (p < end) {
+            result.appendCodePoint(decode(this.arena, p));
+            p += sequenceLength(this.arena[p]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Makes room for {@code length} more bytes at the end of the arena,
+     * squeezing out the bytes of removed keys or growing it as needed.
+     *
+     * @param length
+     *            the number of bytes needed
+     * @updates this
+     * @ensures this = #this and |$this.arena| - $this.arenaUsed >= length
+     */
+    private void reserve(int length) {
+        if (this.arena.length - this.arenaUsed < length) {
+            int live = this.arenaUsed - this.garbage;
+            int capacity = Math.max(2 * (live + length),
+                    ARENA_BYTES_PER_BUCKET);
+            if (this.garbage == 0) {
+                this.arena = Arrays.copyOf(this.arena, capacity);
+            } else {
+                this.compact(capacity);
+            }
+        }
+    }
+
+    /**
+     * Copies the live keys into a new arena of {@code capacity} bytes, in
+     * order of entry.
+     *
+     * @param capacity
+     *            the size of the new arena
+     * @updates this
+     * @requires capacity >= $this.arenaUsed - $this.garbage
+     * @ensures this = #this and $this.garbage = 0
+     */
+    private void compact(int capacity) {
+        byte[] fresh = new byte[capacity];
+        int used = 0;
+        for (int i = 0; i < this.size; i++) {
+            System.arraycopy(this.arena, this.offsets[i], fresh, used,
+                    this.lengths[i]);
+            this.offsets[i] = used;
+            used += this.lengths[i];
+        }
+        this.arena = fresh;
+        this.arenaUsed = used;
+        this.garbage = 0;
+    }
+
+    /**
+     * Appends a new entry whose key bytes have just been written at the end
+     * of the arena, with count {@code count}, and links it into its bucket,
+     * growing the arrays and the hash table as needed.
+     *
+     * @param length
+     *            the number of key bytes written after {@code arenaUsed}
+     * @param hash
+     *            the mixed hash of the key, from {@code hash}
+     * @param count
+     *            the count
+     * @updates this
+     * @requires <pre>
+     * [the key encoded in $this.arena[$this.arenaUsed,
+     *  $this.arenaUsed + length) is not in DOMAIN(this)]  and
+     * hash = [mixed hash of that key]
+     * </pre>
+     * @ensures this = #this union {(that key, count)}
+     */
+    private void append(int length, int hash, int count) {
+        if (this.size == this.offsets.length) {
+            int capacity = 2 * this.offsets.length;
+            this.next = Arrays.copyOf(this.next, capacity);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+            this.counts = Arrays.copyOf(this.counts, capacity);
+            this.hashes = Arrays.copyOf(this.hashes, capacity);
+        }
+        int i = this.size;
+        int bucket = mod(hash, this.heads.length);
+        this.offsets[i] = this.arenaUsed;
+        this.lengths[i] = length;
+        this.arenaUsed += length;
+        this.counts[i] = count;
+        this.hashes[i] = hash;
+        this.next[i] = this.heads[bucket];
+        this.heads[bucket] = i + 1;
+        this.size++;
+        if (this.size > LOAD_FACTOR * this.heads.length
+                && this.heads.length < MAXIMUM_HASH_TABLE_SIZE) {
+            this.relink(Math.min(2 * this.heads.length + 1,
+                    MAXIMUM_HASH_TABLE_SIZE));
+        }
+    }
+
+    /**
+     * Appends a new entry ({@code key}, {@code count}), encoding {@code key}
+     * into the arena.
+     *
+     * @param key
+     *            the key
+     * @param hash
+     *            the mixed hash of {@code key}, from {@code hash}
+     * @param count
+     *            the count
+     * @updates this
+     * @requires key is not in DOMAIN(this) and hash = [mixed hash of key]
+     * @ensures this = #this union {(key, count)}
+     */
+    private void append(CharSequence key, int hash, int count) {
+        int length = 0;
+        int i = 0;
+        while (i < key.length()) {
+            int cp = Character.codePointAt(key, i);
+            length += encodedLength(cp);
+            i += Character.charCount(cp);
+        }
+        this.reserve(length);
+        int p = this.arenaUsed;
+        i = 0;
+        while (i < key.length()) {
+            int cp = Character.codePointAt(key, i);
+            i += Character.charCount(cp);
+            int n = encodedLength(cp);
+            int bits = cp;
+            for (int j = n - 1; j > 0; j--) {
+                this.arena[p + j] = (byte) (CONTINUATION_TAG
+                        | (bits & CONTINUATION_MASK));
+                bits >>>= CONTINUATION_BITS;
+            }
+            this.arena[p] = (byte) (LEAD_TAGS[n] | bits);
+            p += n;
+        }
+        this.append(length, hash, count);
+    }
+
+    /**
+     * Appends a new entry whose key is encoded by
+     * {@code utf8[offset, offset + length)}, with count {@code count}.
+     *
+     * @param utf8
+     *            the bytes
+     * @param offset
+     *            the position of the first byte
+     * @param length
+     *            the number of bytes
+     * @param hash
+     *            the mixed hash of the key, from {@code hash}
+     * @param count
+     *            the count
+     * @updates this
+     * @requires <pre>
+     * [the key encoded by the bytes is not in DOMAIN(this)]  and
+     * hash = [mixed hash of that key]
+     * </pre>
+     * @ensures this = #this union {(that key, count)}
+     */
+    private void append(byte[] utf8, int offset, int length, int hash,
+            int count) {
+        this.reserve(length);
+        System.arraycopy(utf8, offset, this.arena, this.arenaUsed, length);
+        this.append(length, hash, count);
+    }
+
+    /**
+     * Rebuilds the chains for a hash table of {@code hashTableSize} buckets.
+     * Only the link arrays change; keys and counts stay where they are.
+     *
+     * @param hashTableSize
+     *            the new number of buckets
+     * @updates this
+     * @requires hashTableSize > 0
+     * @ensures this = #this and |$this.heads| = hashTableSize
+     */
+    private void relink(int hashTableSize) {
+        this.heads = new int[hashTableSize];
+        for (int i = 0; i < this.size; i++) {
+            int bucket = mod(this.hashes[i], hashTableSize);
+            this.next[i] = this.heads[bucket];
+            this.heads[bucket] = i + 1;
+        }
+    }
+
+    /**
+     * Changes whichever link (a bucket head or an entry's next) refers to
+     * entry {@code from} so that it refers to {@code to} instead.
+     *
+     * @param from
+     *            the entry currently linked to
+     * @param to
+     *            the link's new target, one more than an entry index or 0
+     * @updates $this.heads, $this.next
+     * @requires 0 <= from < $this.size
+     * @ensures [the link to entry from now holds to]
+     */
+    private void relinkEntry(int from, int to) {
+        int bucket = mod(this.hashes[from], this.heads.length);
+        if (this.heads[bucket] == from + 1) {
+            this.heads[bucket] = to;
+        } else {
+            int i = this.heads[bucket] - 1;
+            while (this.next[i] != from + 1) {
+                i = this.next[i] - 1;
+            }
+            this.next[i] = to;
+        }
+    }
+
+    /**
+     * Removes entry {@code i}, moving the last entry into its place so the
+     * entries stay in [0, size). The key's bytes are given back at once if
+     * they are the last ones in the arena, and otherwise counted as garbage.
+     *
+     * @param i
+     *            the entry to remove
+     * @return the removed pair
+     * @updates this
+     * @requires 0 <= i < $this.size
+     * @ensures <pre>
+     * removeAt = (KEY(#this, i), #$this.counts[i])  and
+     * this = #this \ {removeAt}
+     * </pre>
+     */
+    private Pair<String, Integer> removeAt(int i) {
+        Pair<String, Integer> result = new SimplePair<String, Integer>(
+                this.keyAt(i), this.counts[i]);
+        if (this.offsets[i] + this.lengths[i] == this.arenaUsed) {
+            this.arenaUsed -= this.lengths[i];
+        } else {
+            this.garbage += this.lengths[i];
+        }
+        this.relinkEntry(i, this.next[i]);
+        int last = this.size - 1;
+        if (i != last) {
+            this.relinkEntry(last, i + 1);
+            this.offsets[i] = this.offsets[last];
+            this.lengths[i] = this.lengths[last];
+            this.counts[i] = this.counts[last];
+            this.hashes[i] = this.hashes[last];
+            this.next[i] = this.next[last];
+        }
+        this.size--;
+        if (this.garbage > this.arenaUsed / 2) {
+            this.compact(this.arena.length);
+        }
+        return result;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public ArenaCountingMap4() {
+
+        this.createNewRep(DEFAULT_HASH_TABLE_SIZE);
+
+    }
+
+    /**
+     * Constructor resulting in a hash table of initial size
+     * {@code hashTableSize}.
+     *
+     * @param hashTableSize
+     *            initial size of hash table
+     * @requires hashTableSize > 0
+     * @ensures this = {}
+     */
+    public ArenaCountingMap4(int hashTableSize) {
+        assert hashTableSize > 0 : "Violation of: hashTableSize > 0";
+
+        this.createNewRep(hashTableSize);
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<String, Integer> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(DEFAULT_HASH_TABLE_SIZE);
+    }
+
+    @Override
+    public final void transferFrom(Map<String, Integer> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof ArenaCountingMap4 : ""
+                + "Violation of: source is of dynamic type ArenaCountingMap4";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        ArenaCountingMap4 localSource = (ArenaCountingMap4) source;
+        this.heads = localSource.heads;
+        this.next = localSource.next;
+        this.offsets = localSource.offsets;
+        this.lengths = localSource.lengths;
+        this.counts = localSource.counts;
+        this.hashes = localSource.hashes;
+        this.arena = localSource.arena;
+        this.arenaUsed = localSource.arenaUsed;
+        this.garbage = localSource.garbage;
+        this.seed = localSource.seed;
+        this.size = localSource.size;
+        localSource.createNewRep(DEFAULT_HASH_TABLE_SIZE);
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(String key, Integer value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
+
+        this.append(key, this.hash(hashOf(key)), value);
+    }
+
+    @Override
+    public final Pair<String, Integer> remove(String key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        return this.removeAt(this.indexOf(key, this.hash(hashOf(key))));
+    }
+
+    @Override
+    public final Pair<String, Integer> removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        /*
+         * The last entry can be removed without moving any other entry, and
+         * its bytes are usually the last ones in the arena
+         */
+        return this.removeAt(this.size - 1);
+    }
+
+    @Override
+    public final Integer value(String key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        return this.counts[this.indexOf(key, this.hash(hashOf(key)))];
+    }
+
+    @Override
+    public final boolean hasKey(String key) {
+        assert key != null : "Violation of: key is not null";
+
+        return this.indexOf(key, this.hash(hashOf(key))) >= 0;
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<Pair<String, Integer>> iterator() {
+        return new ArenaCountingMap4Iterator();
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code delta} to the count associated with {@code key}, first
+     * adding {@code key} with count 0 if it is not in {@code this}. The bucket
+     * for {@code key} is searched only once, and no {@code String} is made.
+     * If the new count would not fit in an {@code int},
+     * {@code ArithmeticException} is thrown and {@code this} is not changed.
+     *
+     * @param key
+     *            the key whose count is incremented
+     * @param delta
+     *            the amount to add
+     * @return the new count for {@code key}
+     * @updates this
+     * @requires key /= null
+     * @ensures <pre>
+     * (key is in DOMAIN(#this)  and
+     *  this = (#this \ {(key, #this(key))}) union {(key, #this(key) + delta)})
+     * or
+     * (key is not in DOMAIN(#this)  and  this = #this union {(key, delta)})
+     * and  increment = this(key)
+     * </pre>
+     */
+    public final int increment(CharSequence key, int delta) {
+        assert key != null : "Violation of: key is not null";
+
+        int hash = this.hash(hashOf(key));
+        int i = this.indexOf(key, hash);
+        int result;
+        if (i >= 0) {
+            this.counts[i] = Math.addExact(this.counts[i], delta);
+            result = this.counts[i];
+        } else {
+            this.append(key, hash, delta);
+            result = delta;
+        }
+        return result;
+    }
+
+    /**
+     * Adds 1 to the count associated with {@code key}, first adding
+     * {@code key} with count 0 if it is not in {@code this}.
+     *
+     * @param key
+     *            the key whose count is incremented
+     * @return the new count for {@code key}
+     * @updates this
+     * @requires key /= null
+     * @ensures <pre>
+     * (key is in DOMAIN(#this)  and
+     *  this = (#this \ {(key, #this(key))}) union {(key, #this(key) + 1)})
+     * or
+     * (key is not in DOMAIN(#this)  and  this = #this union {(key, 1)})
+     * and  increment = this(key)
+     * </pre>
+     */
+    public final int increment(CharSequence key) {
+        return this.increment(key, 1);
+    }
+
+    /**
+     * Adds {@code delta} to the count associated with the key encoded by
+     * {@code utf8[offset, offset + length)}, first adding that key with count
+     * 0 if it is not in {@code this}. The bytes are copied into the arena
+     * as they are. If the new count would not fit in an {@code int},
+     * {@code ArithmeticException} is thrown and {@code this} is not changed.
+     *
+     * @param utf8
+     *            the bytes
+     * @param offset
+     *            the position of the first byte of the key
+     * @param length
+     *            the number of bytes in the key
+     * @param delta
+     *            the amount to add
+     * @return the new count for the key
+     * @updates this
+     * @requires <pre>
+     * utf8 /= null  and  0 <= offset  and  0 <= length  and
+     * offset + length <= |utf8|  and
+     * [utf8[offset, offset + length) is well-formed UTF-8]
+     * </pre>
+     * @ensures <pre>
+     * [as increment(key, delta), where key is the string encoded by
+     *  utf8[offset, offset + length)]
+     * </pre>
+     */
+    public final int increment(byte[] utf8, int offset, int length,
+            int delta) {
+        assert utf8 != null : "Violation of: utf8 is not null";
+        assert 0 <= offset && 0 <= length
+                && offset + length <= utf8.length : ""
+                        + "Violation of: [the slice is within utf8]";
+
+        int hash = this.hash(hashOf(utf8, offset, length));
+        int i = this.indexOf(utf8, offset, length, hash);
+        int result;
+        if (i >= 0) {
+            this.counts[i] = Math.addExact(this.counts[i], delta);
+            result = this.counts[i];
+        } else {
+            this.append(utf8, offset, length, hash, delta);
+            result = delta;
+        }
+        return result;
+    }
+
+    /**
+     * Reports the count associated with {@code key}, or 0 if {@code key} is
+     * not in {@code this}, without boxing it.
+     *
+     * @param key
+     *            the key whose count is reported
+     * @return the count for {@code key}
+     * @requires key /= null
+     * @ensures <pre>
+     * (key is in DOMAIN(this)  and  count = this(key))  or
+     * (key is not in DOMAIN(this)  and  count = 0)
+     * </pre>
+     */
+    public final int count(CharSequence key) {
+        assert key != null : "Violation of: key is not null";
+
+        int i = this.indexOf(key, this.hash(hashOf(key)));
+        int result = 0;
+        if (i >= 0) {
+            result = this.counts[i];
+        }
+        return result;
+    }
+
+    /**
+     * Reports the count associated with the key encoded by
+     * {@code utf8[offset, offset + length)}, or 0 if it is not in
+     * {@code this}.
+     *
+     * @param utf8
+     *            the bytes
+     * @param offset
+     *            the position of the first byte of the key
+     * @param length
+     *            the number of bytes in the key
+     * @return the count for the key
+     * @requires <pre>
+     * utf8 /= null  and  0 <= offset  and  0 <= length  and
+     * offset + length <= |utf8|  and
+     * [utf8[offset, offset + length) is well-formed UTF-8]
+     * </pre>
+     * @ensures <pre>
+     * [as count(key), where key is the string encoded by
+     *  utf8[offset, offset + length)]
+     * </pre>
+     */
+    public final int count(byte[] utf8, int offset, int length) {
+        assert utf8 != null : "Violation of: utf8 is not null";
+        assert 0 <= offset && 0 <= length
+                && offset + length <= utf8.length : ""
+                        + "Violation of: [the slice is within utf8]";
+
+        int i = this.indexOf(utf8, offset, length,
+                this.hash(hashOf(utf8, offset, length)));
+        int result = 0;
+        if (i >= 0) {
+            result = this.counts[i];
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether {@code key} is in {@code this}, without making a
+     * {@code String} for it.
+     *
+     * @param key
+     *            the key to look for
+     * @return true iff {@code key} is in DOMAIN(this)
+     * @requires key /= null
+     * @ensures contains = (key is in DOMAIN(this))
+     */
+    public final boolean contains(CharSequence key) {
+        assert key != null : "Violation of: key is not null";
+
+        return this.indexOf(key, this.hash(hashOf(key))) >= 0;
+    }
+
+    /**
+     * Reports whether the key encoded by {@code utf8[offset, offset + length)}
+     * is in {@code this}.
+     *
+     * @param utf8
+     *            the bytes
+     * @param offset
+     *            the position of the first byte of the key
+     * @param length
+     *            the number of bytes in the key
+     * @return true iff that key is in DOMAIN(this)
+     * @requires <pre>
+     * utf8 /= null  and  0 <= offset  and  0 <= length  and
+     * offset + length <= |utf8|  and
+     * [utf8[offset, offset + length) is well-formed UTF-8]
+     * </pre>
+     * @ensures <pre>
+     * contains = ([the string encoded by utf8[offset, offset + length)] is
+     *             in DOMAIN(this))
+     * </pre>
+     */
+    public final boolean contains(byte[] utf8, int offset, int length) {
+        assert utf8 != null : "Violation of: utf8 is not null";
+        assert 0 <= offset && 0 <= length
+                && offset + length <= utf8.length : ""
+                        + "Violation of: [the slice is within utf8]";
+
+        return this.indexOf(utf8, offset, length,
+                this.hash(hashOf(utf8, offset, length))) >= 0;
+    }
+
+    /**
+     * Reports the number of bytes the arena holds for keys, including those
+     * of removed keys not yet reclaimed.
+     *
+     * @return the number of arena bytes in use
+     * @ensures arenaBytes = $this.arenaUsed
+     */
+    public final int arenaBytes() {
+        return this.arenaUsed;
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code ArenaCountingMap4}.
+     */
+    private final class ArenaCountingMap4Iterator
+            implements Iterator<Pair<String, Integer>> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int current;
+
+        /**
+         * No-argument constructor.
+         */
+        ArenaCountingMap4Iterator() {
+            this.current = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.current < ArenaCountingMap4.this.size;
+        }
+
+        @Override
+        public Pair<String, Integer> next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            Pair<String, Integer> result = new SimplePair<String, Integer>(
+                    ArenaCountingMap4.this.keyAt(this.current),
+                    ArenaCountingMap4.this.counts[this.current]);
+            this.current++;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
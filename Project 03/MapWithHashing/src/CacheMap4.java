@@ -0,0 +1,880 @@
+import java.util.Iterator;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} that holds at most a fixed total weight of entries, evicting
+ * entries as needed on {@code add}, with implementations of primary methods.
+ * It is meant for memo tables and other caches, where an entry that is
+ * dropped can be computed again.
+ * <p>
+ * The entries are indexed by a {@code Map4} and also kept in doubly linked
+ * lists in order of last use, so finding and removing the entry to evict
+ * takes constant time and never scans the buckets. Every entry weighs 1
+ * unless a {@code Weigher} is given. Two policies are offered:
+ * <ul>
+ * <li>{@code LRU} evicts the entry used least recently;</li>
+ * <li>{@code LFU} is W-TinyLFU: new entries go into a small window kept in
+ * LRU order, and an entry pushed out of the window only displaces the least
+ * recently used entry of the main list if it has been used more often
+ * recently, as estimated by a count-min sketch that is halved periodically so
+ * old popularity fades. The sketch is sized for the number of entries: the
+ * maximum weight if every entry weighs 1, and otherwise the current number
+ * of entries, growing with it.</li>
+ * </ul>
+ * A successful {@code hasKey} counts as a hit and an unsuccessful one as a
+ * miss; a hit, {@code value}, and {@code add} all count as a use of the key.
+ * <p>
+ * Because of eviction, {@code add} weakens the {@code Map} contract: after
+ * {@code add(key, value)}, (key, value) is in {@code this}, but other entries
+ * may not be. An entry heavier than the maximum weight evicts everything
+ * else.
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @convention <pre>
+ * $this.maximumWeight > 0  and
+ * [$this.index maps each key to the node holding it and its value]  and
+ * [every node of $this.index is in exactly one of $this.window and
+ *  $this.main, and those lists hold no other nodes]  and
+ * ($this.policy = LRU  implies  $this.window is empty)  and
+ * [each list's weight is the sum of the weights of its nodes]  and
+ * ($this.window.weight + $this.main.weight <= $this.maximumWeight  or
+ *  |$this.index| <= 1)
+ * </pre>
+ * @correspondence <pre>
+ * this = {(k, n): (K, node) where ((k, n) is in $this.index) (k, n.value)}
+ * </pre>
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class CacheMap4<K, V> extends MapSecondary<K, V> {
+
+    /**
+     * Eviction policy of a {@code CacheMap4}.
+     */
+    public enum Policy {
+        /**
+         * Evict the entry used least recently.
+         */
+        LRU,
+        /**
+         * Admit entries by estimated recent frequency (W-TinyLFU).
+         */
+        LFU
+    }
+
+    /**
+     * Weight of an entry, counted against the maximum weight.
+     *
+     * @param <K>
+     *            type of keys
+     * @param <V>
+     *            type of values
+     */
+    public interface Weigher<K, V> {
+
+        /**
+         * Returns the weight of ({@code key}, {@code value}).
+         *
+         * @param key
+         *            the key
+         * @param value
+         *            the value
+         * @return the weight
+         * @ensures weight > 0
+         */
+        int weight(K key, V value);
+
+    }
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Default maximum weight.
+     */
+    private static final long DEFAULT_MAXIMUM_WEIGHT = 10_000;
+
+    /**
+     * Percentage of the maximum weight kept for the window under
+     * {@code LFU}.
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * Number of percent in a whole.
+     */
+    private static final int PERCENT = 100;
+
+    /**
+     * Number of entries the first sketch is sized for when a
+     * {@code Weigher} is given, so the number of entries is not known.
+     */
+    private static final int INITIAL_SKETCH_KEYS = 64;
+
+    /**
+     * Node of an access-order list.
+     *
+     * @param <K>
+     *            type of keys
+     * @param <V>
+     *            type of values
+     */
+    private static final class Node<K, V> {
+
+        /**
+         * Key.
+         */
+        private final K key;
+
+        /**
+         * Value.
+         */
+        private final V value;
+
+        /**
+         * Weight of the entry.
+         */
+        private final int weight;
+
+        /**
+         * List holding this node, or null once it has been removed.
+         */
+        private AccessOrder<K, V> list;
+
+        /**
+         * Node used just before this one, or null.
+         */
+        private Node<K, V> previous;
+
+        /**
+         * Node used just after this one, or null.
+         */
+        private Node<K, V> next;
+
+        /**
+         * Constructor.
+         *
+         * @param key
+         *            the key
+         * @param value
+         *            the value
+         * @param weight
+         *            the weight
+         */
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+
+    }
+
+    /**
+     * Doubly linked list of nodes from most to least recently used.
+     *
+     * @param <K>
+     *            type of keys
+     * @param <V>
+     *            type of values
+     */
+    private static final class AccessOrder<K, V> {
+
+        /**
+         * Most recently used node, or null if the list is empty.
+         */
+        private Node<K, V> first;
+
+        /**
+         * Least recently used node, or null if the list is empty.
+         */
+        private Node<K, V> last;
+
+        /**
+         * Total weight of the nodes.
+         */
+        private long weight;
+
+        /**
+         * Adds {@code n} as the most recently used node.
+         *
+         * @param n
+         *            the node
+         */
+        void addFirst(Node<K, V> n) {
+            n.list = this;
+            n.previous = null;
+            n.next = this.first;
+            if (this.first == null) {
+                this.last = n;
+            } else {
+                this.first.previous = n;
+            }
+            this.first = n;
+            this.weight += n.weight;
+        }
+
+        /**
+         * Removes {@code n}, which is in this list.
+         *
+         * @param n
+         *            the node
+         */
+        void remove(Node<K, V> n) {
+            if (n.previous == null) {
+                this.first = n.next;
+            } else {
+                n.previous.next = n.next;
+            }
+            if (n.next == null) {
+                this.last = n.previous;
+            } else {
+                n.next.previous = n.previous;
+            }
+            n.list = null;
+            n.previous = null;
+            n.next = null;
+            this.weight -= n.weight;
+        }
+
+    }
+
+    /**
+     * Count-min sketch of counters that stop at {@code MAXIMUM_COUNT},
+     * estimating how often each key has been used recently.
+     */
+    private static final class FrequencySketch {
+
+        /**
+         * Number of rows.
+         */
+        private static final int ROWS = 4;
+
+        /**
+         * Largest value of a counter.
+         */
+        private static final int MAXIMUM_COUNT = 15;
+
+        /**
+         * Smallest number of counters in a row.
+         */
+        private static final int MINIMUM_WIDTH = 16;
+
+        /**
+         * Largest number of counters in a row.
+         */
+        private static final int MAXIMUM_WIDTH = 1 << 22;
+
+        /**
+         * Number of counters in a row for each expected key, so that keys
+         * seldom share a counter.
+         */
+        private static final int WIDTH_MULTIPLIER = 8;
+
+        /**
+         * Number of increments, as a multiple of the expected number of
+         * keys, after which every counter is halved.
+         */
+        private static final int SAMPLE_MULTIPLIER = 10;
+
+        /**
+         * Odd constants that make each row hash differently.
+         */
+        private static final int[] ROW_SALTS = { 0x9e3779b9, 0x7f4a7c15,
+                0x632be5ab, 0x2545f491 };
+
+        /**
+         * Counters, row after row.
+         */
+        private final byte[] counters;
+
+        /**
+         * Row width minus 1; the width is a power of 2.
+         */
+        private final int mask;
+
+        /**
+         * Number of increments after which the counters are halved.
+         */
+        private final int sampleSize;
+
+        /**
+         * Number of increments since the counters were last halved.
+         */
+        private int additions;
+
+        /**
+         * Number of distinct keys the sketch was sized for.
+         */
+        private final long keys;
+
+        /**
+         * Constructor for about {@code n} distinct keys.
+         *
+         * @param n
+         *            the expected number of distinct keys
+         */
+        FrequencySketch(long n) {
+            this.keys = n;
+            int width = MINIMUM_WIDTH;
+            while (width < WIDTH_MULTIPLIER * n && width < MAXIMUM_WIDTH) {
+                width *= 2;
+            }
+            this.counters = new byte[ROWS * width];
+            this.mask = width - 1;
+            this.sampleSize = (int) Math.min(SAMPLE_MULTIPLIER * n,
+                    SAMPLE_MULTIPLIER * MAXIMUM_WIDTH);
+            this.additions = 0;
+        }
+
+        /**
+         * Returns the counter index of {@code key} in row {@code row}.
+         *
+         * @param key
+         *            the key
+         * @param row
+         *            the row
+         * @return the counter index
+         */
+        private int indexOf(Object key, int row) {
+            int h = key.hashCode() * ROW_SALTS[row];
+            h ^= h >>> (Integer.SIZE / 2);
+            return row * (this.mask + 1) + (h & this.mask);
+        }
+
+        /**
+         * Returns the estimated number of recent uses of {@code key}.
+         *
+         * @param key
+         *            the key
+         * @return the estimate
+         */
+        int frequency(Object key) {
+            int result = MAXIMUM_COUNT;
+            for (int r = 0; r < ROWS; r++) {
+                result = Math.min(result, this.counters[this.indexOf(key, r)]);
+            }
+            return result;
+        }
+
+        /**
+         * Records a use of {@code key}, halving every counter once
+         * {@code sampleSize} uses have been recorded.
+         *
+         * @param key
+         *            the key
+         */
+        void increment(Object key) {
+            for (int r = 0; r < ROWS; r++) {
+                int i = this.indexOf(key, r);
+                if (this.counters[i] < MAXIMUM_COUNT) {
+                    this.counters[i]++;
+                }
+            }
+            this.additions++;
+            if (this.additions == this.sampleSize) {
+                for (int i = 0; i < this.counters.length; i++) {
+                    this.counters[i] >>= 1;
+                }
+                this.additions /= 2;
+            }
+        }
+
+        /**
+         * Raises every counter of {@code key} to at least {@code count}, so
+         * that an estimate from another sketch can be carried over.
+         *
+         * @param key
+         *            the key
+         * @param count
+         *            the estimate to carry over
+         * @requires 0 <= count <= MAXIMUM_COUNT
+         */
+        void raise(Object key, int count) {
+            for (int r = 0; r < ROWS; r++) {
+                int i = this.indexOf(key, r);
+                if (this.counters[i] < count) {
+                    this.counters[i] = (byte) count;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Index from keys to nodes.
+     */
+    private Map4<K, Node<K, V>> index;
+
+    /**
+     * Window of new entries, used only under {@code LFU}.
+     */
+    private AccessOrder<K, V> window;
+
+    /**
+     * Main list of entries.
+     */
+    private AccessOrder<K, V> main;
+
+    /**
+     * Estimated recent use of keys, used only under {@code LFU}.
+     */
+    private FrequencySketch sketch;
+
+    /**
+     * Largest total weight of the entries.
+     */
+    private long maximumWeight;
+
+    /**
+     * Largest total weight of the window.
+     */
+    private long windowWeight;
+
+    /**
+     * Eviction policy.
+     */
+    private Policy policy;
+
+    /**
+     * Weight of each entry, or null if every entry weighs 1.
+     */
+    private Weigher<K, V> weigher;
+
+    /**
+     * Number of successful {@code hasKey} calls since construction; this and
+     * the other counters move with the entries in {@code transferFrom}.
+     */
+    private long hits;
+
+    /**
+     * Number of unsuccessful {@code hasKey} calls since construction.
+     */
+    private long misses;
+
+    /**
+     * Number of entries evicted since construction.
+     */
+    private long evictions;
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param maximum
+     *            the maximum total weight
+     * @param p
+     *            the eviction policy
+     * @param w
+     *            the weigher, or null
+     * @requires maximum > 0 and p /= null
+     * @ensures <pre>
+     * this = {}  and  $this.maximumWeight = maximum  and
+     * $this.policy = p  and  $this.weigher = w
+     * </pre>
+     */
+    private void createNewRep(long maximum, Policy p, Weigher<K, V> w) {
+        this.index = new Map4<K, Node<K, V>>();
+        this.window = new AccessOrder<K, V>();
+        this.main = new AccessOrder<K, V>();
+        this.maximumWeight = maximum;
+        this.windowWeight = Math.max(1, maximum * WINDOW_PERCENT / PERCENT);
+        this.policy = p;
+        this.weigher = w;
+        this.sketch = null;
+        if (p == Policy.LFU) {
+            long keys = maximum;
+            if (w != null) {
+                keys = Math.min(maximum, INITIAL_SKETCH_KEYS);
+            }
+            this.sketch = new FrequencySketch(keys);
+        }
+    }
+
+    /**
+     * Replaces the sketch by one sized for twice as many keys, up to
+     * {@code $this.maximumWeight}, once {@code $this.index} holds more
+     * entries than it was sized for. The estimates for the keys in
+     * {@code this} are carried over; those for other keys are dropped.
+     *
+     * @updates $this.sketch
+     */
+    private void ensureSketchCapacity() {
+        if (this.sketch != null && this.index.size() > this.sketch.keys
+                && this.sketch.keys < this.maximumWeight) {
+            FrequencySketch larger = new FrequencySketch(
+                    Math.min(this.maximumWeight, 2L * this.index.size()));
+            for (Pair<K, Node<K, V>> p : this.index) {
+                larger.raise(p.key(), this.sketch.frequency(p.key()));
+            }
+            this.sketch = larger;
+        }
+    }
+
+    /**
+     * Records a use of {@code key} for the {@code LFU} policy.
+     *
+     * @param key
+     *            the key
+     */
+    private void recordUse(K key) {
+        if (this.sketch != null) {
+            this.sketch.increment(key);
+        }
+    }
+
+    /**
+     * Moves {@code n} to the front of its list.
+     *
+     * @param n
+     *            the node
+     * @updates $this.window, $this.main
+     * @requires n is in $this.window or $this.main
+     * @ensures [n is the most recently used node of its list]
+     */
+    private void touch(Node<K, V> n) {
+        AccessOrder<K, V> list = n.list;
+        list.remove(n);
+        list.addFirst(n);
+    }
+
+    /**
+     * Evicts {@code n}.
+     *
+     * @param n
+     *            the node
+     * @updates this
+     * @requires n is in $this.window or $this.main
+     * @ensures this = #this \ {(n.key, n.value)}
+     */
+    private void evict(Node<K, V> n) {
+        n.list.remove(n);
+        this.index.remove(n.key);
+        this.evictions++;
+    }
+
+    /**
+     * Admits {@code candidate}, just moved from the window to the front of
+     * the main list, by evicting from the end of the main list while the
+     * weight is too high and each victim has been used less often than
+     * {@code candidate}, or else evicts {@code candidate} itself.
+     *
+     * @param candidate
+     *            the node
+     * @updates this
+     * @requires candidate = $this.main.first
+     * @ensures [this has lost the less frequently used of the nodes compared]
+     */
+    private void admit(Node<K, V> candidate) {
+        int candidateFrequency = this.sketch.frequency(candidate.key);
+        while (candidate.list != null
+                && this.window.weight + this.main.weight > this.maximumWeight
+                && this.main.last != candidate) {
+            Node<K, V> victim = this.main.last;
+            if (candidateFrequency > this.sketch.frequency(victim.key)) {
+                this.evict(victim);
+            } else {
+                this.evict(candidate);
+            }
+        }
+    }
+
+    /**
+     * Evicts entries until the total weight is within the maximum, keeping
+     * the entry added last.
+     *
+     * @updates this
+     * @ensures <pre>
+     * [this is #this less the entries chosen by the policy]  and
+     * ($this.window.weight + $this.main.weight <= $this.maximumWeight  or
+     *  |$this.index| <= 1)
+     * </pre>
+     */
+    private void evictAsNeeded() {
+        while (this.window.weight > this.windowWeight
+                && this.window.first != this.window.last) {
+            Node<K, V> candidate = this.window.last;
+            this.window.remove(candidate);
+            this.main.addFirst(candidate);
+            this.admit(candidate);
+        }
+        while (this.window.weight + this.main.weight > this.maximumWeight
+                && this.index.size() > 1) {
+            if (this.main.last != null) {
+                this.evict(this.main.last);
+            } else {
+                this.evict(this.window.last);
+            }
+        }
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor, for an {@code LRU} cache of at most
+     * {@code DEFAULT_MAXIMUM_WEIGHT} entries.
+     */
+    public CacheMap4() {
+
+        this.createNewRep(DEFAULT_MAXIMUM_WEIGHT, Policy.LRU, null);
+
+    }
+
+    /**
+     * Constructor for a cache of at most {@code maximumSize} entries.
+     *
+     * @param maximumSize
+     *            the maximum number of entries
+     * @param policy
+     *            the eviction policy
+     * @requires maximumSize > 0 and policy /= null
+     * @ensures this = {}
+     */
+    public CacheMap4(long maximumSize, Policy policy) {
+        assert maximumSize > 0 : "Violation of: maximumSize > 0";
+        assert policy != null : "Violation of: policy is not null";
+
+        this.createNewRep(maximumSize, policy, null);
+
+    }
+
+    /**
+     * Constructor for a cache of entries weighing at most
+     * {@code maximumWeight} in total, as weighed by {@code weigher}.
+     *
+     * @param maximumWeight
+     *            the maximum total weight
+     * @param policy
+     *            the eviction policy
+     * @param weigher
+     *            the weight of each entry
+     * @requires maximumWeight > 0 and policy /= null and weigher /= null
+     * @ensures this = {}
+     */
+    public CacheMap4(long maximumWeight, Policy policy,
+            Weigher<K, V> weigher) {
+        assert maximumWeight > 0 : "Violation of: maximumWeight > 0";
+        assert policy != null : "Violation of: policy is not null";
+        assert weigher != null : "Violation of: weigher is not null";
+
+        this.createNewRep(maximumWeight, policy, weigher);
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            CacheMap4<K, V> result = this.getClass().getConstructor()
+                    .newInstance();
+            /*
+             * The no-argument constructor knows nothing of this cache's
+             * bound, policy, and weigher, so give the new one the same
+             */
+            result.createNewRep(this.maximumWeight, this.policy,
+                    this.weigher);
+            return result;
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.maximumWeight, this.policy, this.weigher);
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof CacheMap4<?, ?> : ""
+                + "Violation of: source is of dynamic type CacheMap4<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * CacheMap4<?,?>, and the ?,? must be K,V or the call would not have
+         * compiled.
+         */
+        CacheMap4<K, V> localSource = (CacheMap4<K, V>) source;
+        this.index = localSource.index;
+        this.window = localSource.window;
+        this.main = localSource.main;
+        this.sketch = localSource.sketch;
+        this.maximumWeight = localSource.maximumWeight;
+        this.windowWeight = localSource.windowWeight;
+        this.policy = localSource.policy;
+        this.weigher = localSource.weigher;
+        this.hits = localSource.hits;
+        this.misses = localSource.misses;
+        this.evictions = localSource.evictions;
+        localSource.createNewRep(this.maximumWeight, this.policy,
+                this.weigher);
+        localSource.hits = 0;
+        localSource.misses = 0;
+        localSource.evictions = 0;
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert !this.index.hasKey(key) : ""
+                + "Violation of: key is not in DOMAIN(this)";
+
+        int weight = 1;
+        if (this.weigher != null) {
+            weight = this.weigher.weight(key, value);
+            assert weight > 0 : "Violation of: weight > 0";
+        }
+        Node<K, V> n = new Node<K, V>(key, value, weight);
+        this.index.add(key, n);
+        this.ensureSketchCapacity();
+        this.recordUse(key);
+        if (this.policy == Policy.LFU) {
+            this.window.addFirst(n);
+        } else {
+            this.main.addFirst(n);
+        }
+        this.evictAsNeeded();
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.index.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        Node<K, V> n = this.index.remove(key).value();
+        n.list.remove(n);
+        return new SimplePair<K, V>(n.key, n.value);
+    }
+
+    @Override
+    public final Pair<K, V> removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        Node<K, V> n = this.index.removeAny().value();
+        n.list.remove(n);
+        return new SimplePair<K, V>(n.key, n.value);
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.index.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        Node<K, V> n = this.index.value(key);
+        this.recordUse(key);
+        this.touch(n);
+        return n.value;
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        Node<K, V> n = this.index.valueOrDefault(key, null);
+        boolean result = n != null;
+        this.recordUse(key);
+        if (result) {
+            this.hits++;
+            this.touch(n);
+        } else {
+            this.misses++;
+        }
+        return result;
+    }
+
+    @Override
+    public final int size() {
+        return this.index.size();
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        final Iterator<Pair<K, Node<K, V>>> it = this.index.iterator();
+        return new Iterator<Pair<K, V>>() {
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Pair<K, V> next() {
+                Node<K, V> n = it.next().value();
+                return new SimplePair<K, V>(n.key, n.value);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException(
+                        "remove operation not supported");
+            }
+
+        };
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Returns the total weight of the entries of {@code this}.
+     *
+     * @return the total weight
+     */
+    public final long weight() {
+        return this.window.weight + this.main.weight;
+    }
+
+    /**
+     * Returns the number of successful {@code hasKey} calls since
+     * {@code this} was constructed, counting those made on any map whose
+     * entries {@code transferFrom} moved into it.
+     *
+     * @return the hit count
+     */
+    public final long hitCount() {
+        return this.hits;
+    }
+
+    /**
+     * Returns the number of unsuccessful {@code hasKey} calls since
+     * {@code this} was constructed, counting those made on any map whose
+     * entries {@code transferFrom} moved into it.
+     *
+     * @return the miss count
+     */
+    public final long missCount() {
+        return this.misses;
+    }
+
+    /**
+     * Returns the number of entries evicted since {@code this} was
+     * constructed, counting those evicted from any map whose entries
+     * {@code transferFrom} moved into it.
+     *
+     * @return the eviction count
+     */
+    public final long evictionCount() {
+        return this.evictions;
+    }
+
+}
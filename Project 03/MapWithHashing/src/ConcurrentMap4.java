@@ -0,0 +1,601 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} that may be used from several threads at once, represented as a
+ * fixed number of {@code Map4} segments, each guarding its group of buckets
+ * with its own lock, with implementations of primary methods and atomic
+ * {@code addOrReplace} and {@code merge}.
+ * <p>
+ * A key always belongs to the segment chosen by its hash code, so threads
+ * working on keys in different segments never wait for each other. Each
+ * segment grows on its own (see {@code Map4}), so a resize only blocks the
+ * threads using that segment. {@code size} adds up per-thread counters and
+ * takes no lock at all.
+ * <p>
+ * Kernel methods are individually atomic, but sequences of them are not: a
+ * key found by {@code hasKey} may be gone by the time {@code value} is
+ * called. Use {@code addOrReplace}, {@code merge}, and {@code replaceValue}
+ * for read-modify-write updates; for example, a shared word count is kept
+ * with {@code m.merge(word, 1, Integer::sum)}. Since the size seen by one
+ * thread may be out of date by the time it acts on it, {@code removeAny} and
+ * {@code key} do not rely on their preconditions: they throw
+ * {@code NoSuchElementException} when they find nothing to return. Iteration
+ * visits one segment at a time and is only weakly consistent with updates
+ * made while it runs. {@code clear}, {@code newInstance}, and
+ * {@code transferFrom} are not atomic with respect to other calls and should
+ * be made by one thread while no other thread is using either map.
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @mathdefinitions <pre>
+ * SEGMENT($m, x) =
+ *   [high bits of x.hashCode() mixed with $m.seed, scaled to
+ *    [0, |$m.segments|)]
+ * </pre>
+ * @convention <pre>
+ * |$this.segments| = |$this.locks| > 0  and
+ * for all i: integer, x: K
+ *     where (0 <= i < |$this.segments|  and  x is in DOMAIN($this.segments[i]))
+ *   (SEGMENT($this, x) = i)  and
+ * [when no thread holds any of $this.locks]
+ *   $this.count = sum i: integer where (0 <= i < |$this.segments|)
+ *                   (|$this.segments[i]|)
+ * </pre>
+ * @correspondence <pre>
+ * this = union i: integer where (0 <= i < |$this.segments|)
+ *          ($this.segments[i])
+ * </pre>
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class ConcurrentMap4<K, V> extends MapSecondary<K, V> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Default number of segments (and locks).
+     */
+    private static final int DEFAULT_SEGMENTS = 64;
+
+    /**
+     * Initial size of the hash table of each segment.
+     */
+    private static final int SEGMENT_HASH_TABLE_SIZE = 17;
+
+    /**
+     * First multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_1 = 0x85ebca6b;
+
+    /**
+     * Second multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_2 = 0xc2b2ae35;
+
+    /**
+     * Larger shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_1 = 16;
+
+    /**
+     * Smaller shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_2 = 13;
+
+    /**
+     * Segments holding the entries.
+     */
+    private Map4<K, V>[] segments;
+
+    /**
+     * Locks guarding the segments with the same index.
+     */
+    private ReentrantLock[] locks;
+
+    /**
+     * Total size of abstract {@code this}, kept without a lock.
+     */
+    private LongAdder count;
+
+    /**
+     * Random seed mixed into every hash code, so that which keys share a
+     * segment cannot be chosen in advance.
+     */
+    private int seed;
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param segmentCount
+     *            the number of segments
+     * @requires segmentCount > 0
+     * @ensures <pre>
+     * |$this.segments| = segmentCount  and
+     * [every segment is empty]  and  $this.count = 0  and
+     * [$this.seed is chosen at random]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep(int segmentCount) {
+        /*
+         * With "new Map4<K, V>[...]" in place of "new Map4[...]" it does not
+         * compile; as shown, it results in a warning about an unchecked
+         * conversion, though it cannot fail.
+         */
+        this.segments = new Map4[segmentCount];
+        this.locks = new ReentrantLock[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Map4<K, V>(SEGMENT_HASH_TABLE_SIZE);
+            this.locks[i] = new ReentrantLock();
+        }
+        this.count = new LongAdder();
+        this.seed = ThreadLocalRandom.current().nextInt();
+    }
+
+    /**
+     * Returns the index of the segment for {@code key}. The hash code is
+     * mixed first, so that keys whose hash codes differ only in a few bits
+     * still spread over all segments, and the index is taken from the high
+     * bits of the result. Each segment's {@code Map4} picks its bucket from
+     * its own mix, with its own seed, reduced mod its table size, so the
+     * keys in one segment still spread over all of its buckets.
+     *
+     * @param key
+     *            the key
+     * @return the segment index
+     * @ensures segmentFor = SEGMENT($this, key)
+     */
+    private int segmentFor(K key) {
+        int h = key.hashCode() ^ this.seed;
+        h ^= h >>> MIX_SHIFT_1;
+        h *= MIX_MULTIPLIER_1;
+        h ^= h >>> MIX_SHIFT_2;
+        h *= MIX_MULTIPLIER_2;
+        h ^= h >>> MIX_SHIFT_1;
+        return (int) ((Integer.toUnsignedLong(h) * this.segments.length)
+                >>> Integer.SIZE);
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public ConcurrentMap4() {
+
+        this.createNewRep(DEFAULT_SEGMENTS);
+
+    }
+
+    /**
+     * Constructor resulting in {@code segmentCount} independently locked
+     * segments. Roughly, up to {@code segmentCount} threads can update
+     * {@code this} without waiting for each other.
+     *
+     * @param segmentCount
+     *            number of segments
+     * @requires segmentCount > 0
+     * @ensures this = {}
+     */
+    public ConcurrentMap4(int segmentCount) {
+        assert segmentCount > 0 : "Violation of: segmentCount > 0";
+
+        this.createNewRep(segmentCount);
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.segments.length);
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof ConcurrentMap4<?, ?> : ""
+                + "Violation of: source is of dynamic type ConcurrentMap4<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * ConcurrentMap4<?,?>, and the ?,? must be K,V or the call would not
+         * have compiled.
+         */
+        ConcurrentMap4<K, V> localSource = (ConcurrentMap4<K, V>) source;
+        this.segments = localSource.segments;
+        this.locks = localSource.locks;
+        this.count = localSource.count;
+        this.seed = localSource.seed;
+        localSource.createNewRep(this.segments.length);
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        int i = this.segmentFor(key);
+        this.locks[i].lock();
+        try {
+            assert !this.segments[i].hasKey(
+                    key) : "Violation of: key is not in DOMAIN(this)";
+            this.segments[i].add(key, value);
+        } finally {
+            this.locks[i].unlock();
+        }
+        this.count.increment();
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        int i = this.segmentFor(key);
+        Pair<K, V> result;
+        this.locks[i].lock();
+        try {
+            assert this.segments[i]
+                    .hasKey(key) : "Violation of: key is in DOMAIN(this)";
+            result = this.segments[i].remove(key);
+        } finally {
+            this.locks[i].unlock();
+        }
+        this.count.decrement();
+        return result;
+    }
+
+    /**
+     * Removes and returns an arbitrary pair from {@code this}. Other threads
+     * may empty {@code this} between a check of {@code size} and this call,
+     * so instead of relying on {@code this /= empty_set}, this throws
+     * {@code NoSuchElementException} if it finds every segment empty.
+     *
+     * @return the pair removed from {@code this}
+     * @throws NoSuchElementException
+     *             if every segment was empty when visited
+     * @updates this
+     * @ensures <pre>
+     * removeAny is in #this  and
+     * this = #this \ {removeAny}
+     * </pre>
+     */
+    @Override
+    public final Pair<K, V> removeAny() {
+        /*
+         * Start at a random segment so concurrent callers spread out, and
+         * take the first non-empty one
+         */
+        int n = this.segments.length;
+        int start = ThreadLocalRandom.current().nextInt(n);
+        Pair<K, V> result = null;
+        for (int k = 0; k < n && result == null; k++) {
+            int i = (start + k) % n;
+            this.locks[i].lock();
+            try {
+                if (this.segments[i].size() > 0) {
+                    result = this.segments[i].removeAny();
+                }
+            } finally {
+                this.locks[i].unlock();
+            }
+        }
+        if (result == null) {
+            throw new NoSuchElementException("every segment was empty");
+        }
+        this.count.decrement();
+        return result;
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        int i = this.segmentFor(key);
+        V result;
+        this.locks[i].lock();
+        try {
+            assert this.segments[i]
+                    .hasKey(key) : "Violation of: key is in DOMAIN(this)";
+            result = this.segments[i].value(key);
+        } finally {
+            this.locks[i].unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        int i = this.segmentFor(key);
+        boolean result;
+        this.locks[i].lock();
+        try {
+            result = this.segments[i].hasKey(key);
+        } finally {
+            this.locks[i].unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public final int size() {
+        return this.count.intValue();
+    }
+
+    /*
+     * The secondary methods below run under the lock of the segment they
+     * read, so that another thread never sees them half done.
+     */
+
+    @Override
+    public final V replaceValue(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        int i = this.segmentFor(key);
+        V result;
+        this.locks[i].lock();
+        try {
+            assert this.segments[i]
+                    .hasKey(key) : "Violation of: key is in DOMAIN(this)";
+            result = this.segments[i].replaceValue(key, value);
+        } finally {
+            this.locks[i].unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Reports some key associated with {@code value} in {@code this}. Each
+     * segment is searched under its lock; since other threads may remove
+     * {@code value} meanwhile, this throws {@code NoSuchElementException}
+     * rather than relying on {@code value is in RANGE(this)}.
+     *
+     * @param value
+     *            the value whose key is wanted
+     * @return a key associated with {@code value}
+     * @throws NoSuchElementException
+     *             if no segment held {@code value} when searched
+     * @aliases reference returned by {@code key}
+     * @requires value /= null
+     * @ensures (key, value) is in this
+     */
+    @Override
+    public final K key(V value) {
+        assert value != null : "Violation of: value is not null";
+
+        K result = null;
+        for (int i = 0; i < this.segments.length && result == null; i++) {
+            this.locks[i].lock();
+            try {
+                if (this.segments[i].hasValue(value)) {
+                    result = this.segments[i].key(value);
+                }
+            } finally {
+                this.locks[i].unlock();
+            }
+        }
+        if (result == null) {
+            throw new NoSuchElementException("no key has this value");
+        }
+        return result;
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        return new ConcurrentMap4Iterator();
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Atomically associates {@code value} with {@code key}, whether or not
+     * {@code key} was already in {@code this}.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value to associate with {@code key}
+     * @return the value previously associated with {@code key}, or null if
+     *         there was none
+     * @aliases references {@code key, value}
+     * @updates this
+     * @requires key /= null and value /= null
+     * @ensures <pre>
+     * this = (#this \ {(key, #this(key))}) union {(key, value)}  and
+     * ((key is in DOMAIN(#this)  and  addOrReplace = #this(key))  or
+     *  (key is not in DOMAIN(#this)  and  addOrReplace = null))
+     * </pre>
+     */
+    public final V addOrReplace(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        int i = this.segmentFor(key);
+        V result = null;
+        this.locks[i].lock();
+        try {
+            result = this.segments[i].addOrReplace(key, value);
+        } finally {
+            this.locks[i].unlock();
+        }
+        if (result == null) {
+            this.count.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Atomically associates {@code value} with {@code key} if {@code key} is
+     * not in {@code this}, and otherwise replaces the value associated with
+     * {@code key} by {@code remapping} applied to it and {@code value}. For
+     * example, {@code merge(word, 1, Integer::sum)} counts {@code word}.
+     * {@code remapping} is called while a lock is held and must not use
+     * {@code this}.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value to add or to combine with the existing value
+     * @param remapping
+     *            the function combining the existing value with
+     *            {@code value}
+     * @return the value now associated with {@code key}
+     * @aliases references {@code key, value}
+     * @updates this
+     * @requires <pre>
+     * key /= null  and  value /= null  and  remapping /= null  and
+     * [remapping never returns null]
+     * </pre>
+     * @ensures <pre>
+     * ((key is in DOMAIN(#this)  and
+     *   this = (#this \ {(key, #this(key))}) union
+     *          {(key, remapping(#this(key), value))})  or
+     *  (key is not in DOMAIN(#this)  and  this = #this union {(key, value)}))
+     * and  merge = this(key)
+     * </pre>
+     */
+    public final V merge(K key, V value, BinaryOperator<V> remapping) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert remapping != null : "Violation of: remapping is not null";
+
+        int i = this.segmentFor(key);
+        V result = value;
+        boolean added = false;
+        this.locks[i].lock();
+        try {
+            Map4<K, V> segment = this.segments[i];
+            int before = segment.size();
+            result = segment.merge(key, value, remapping);
+            added = segment.size() > before;
+        } finally {
+            this.locks[i].unlock();
+        }
+        if (added) {
+            this.count.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code ConcurrentMap4}. Each segment is copied under its lock when the
+     * iterator reaches it, so later segments reflect updates made since the
+     * iterator was created.
+     */
+    private final class ConcurrentMap4Iterator
+            implements Iterator<Pair<K, V>> {
+
+        /**
+         * Index of the next segment to copy.
+         */
+        private int nextSegment;
+
+        /**
+         * Copy of the current segment from which the next element will come.
+         */
+        private Iterator<Pair<K, V>> segmentIterator;
+
+        /**
+         * No-argument constructor.
+         */
+        ConcurrentMap4Iterator() {
+            this.nextSegment = 0;
+            this.segmentIterator = null;
+            this.advance();
+        }
+
+        /**
+         * Copies segments until reaching a non-empty one or running out.
+         */
+        private void advance() {
+            Map4<K, V>[] segments = ConcurrentMap4.this.segments;
+            while ((this.segmentIterator == null
+                    || !this.segmentIterator.hasNext())
+                    && this.nextSegment < segments.length) {
+                int i = this.nextSegment;
+                this.nextSegment++;
+                List<Pair<K, V>> copy = new ArrayList<Pair<K, V>>();
+                ConcurrentMap4.this.locks[i].lock();
+                try {
+                    for (Pair<K, V> p : segments[i]) {
+                        copy.add(p);
+                    }
+                } finally {
+                    ConcurrentMap4.this.locks[i].unlock();
+                }
+                this.segmentIterator = copy.iterator();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.segmentIterator != null
+                    && this.segmentIterator.hasNext();
+        }
+
+        @Override
+        public Pair<K, V> next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            Pair<K, V> result = this.segmentIterator.next();
+            this.advance();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,149 @@
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+import components.map.Map;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Contention benchmark for {@code ConcurrentMap4}: several threads count words
+ * into one shared map, first through {@code ConcurrentMap4.merge} and then
+ * through a single {@code Map4} guarded by one lock, for 1, 2, 4, ... threads
+ * up to the number of available processors.
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public final class ConcurrentMap4Benchmark {
+
+    /**
+     * Number of distinct words.
+     */
+    private static final int WORDS = 100_000;
+
+    /**
+     * Number of words counted by each thread.
+     */
+    private static final int OPERATIONS_PER_THREAD = 2_000_000;
+
+    /**
+     * Number of untimed warm-up rounds.
+     */
+    private static final int WARM_UP_ROUNDS = 2;
+
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private ConcurrentMap4Benchmark() {
+    }
+
+    /**
+     * Counts {@code OPERATIONS_PER_THREAD} random words from {@code words}
+     * into a shared map on each of {@code threads} threads, and returns the
+     * elapsed time in nanoseconds.
+     *
+     * @param words
+     *            the words to count
+     * @param threads
+     *            the number of threads
+     * @param striped
+     *            whether to use {@code ConcurrentMap4} (true) or one
+     *            {@code Map4} behind a single lock (false)
+     * @return the elapsed time in nanoseconds
+     * @requires threads > 0
+     * @ensures countWords = [time taken to count all the words]
+     */
+    private static long countWords(final String[] words, int threads,
+            final boolean striped) {
+        final ConcurrentMap4<String, Integer> shared = new ConcurrentMap4<>();
+        final Map<String, Integer> single = new Map4<>();
+        final ReentrantLock singleLock = new ReentrantLock();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread(() -> {
+                Random rand = new Random(seed);
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    String word = words[rand.nextInt(words.length)];
+                    if (striped) {
+                        shared.merge(word, 1, Integer::sum);
+                    } else {
+                        singleLock.lock();
+                        try {
+                            if (single.hasKey(word)) {
+                                single.replaceValue(word,
+                                        single.value(word) + 1);
+                            } else {
+                                single.add(word, 1);
+                            }
+                        } finally {
+                            singleLock.unlock();
+                        }
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers) {
+            w.start();
+        }
+        try {
+            for (Thread w : workers) {
+                w.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError("Benchmark interrupted");
+        }
+        long elapsed = System.nanoTime() - start;
+        int size = shared.size();
+        if (!striped) {
+            size = single.size();
+        }
+        assert size <= words.length : "Violation of: counted known words";
+        return elapsed;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments
+     */
+    public static void main(String[] args) {
+        SimpleWriter out = new SimpleWriter1L();
+        String[] words = new String[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = "word" + i;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        out.println("Counting " + OPERATIONS_PER_THREAD
+                + " words per thread, " + cores + " processors available");
+        for (int r = 0; r < WARM_UP_ROUNDS; r++) {
+            countWords(words, cores, true);
+            countWords(words, cores, false);
+        }
+        out.println("threads\tstriped Mops/s\tspeedup\tone lock Mops/s");
+        double base = 0;
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            double ops = (double) threads * OPERATIONS_PER_THREAD;
+            double striped = ops / countWords(words, threads, true)
+                    * NANOS_PER_SECOND / 1e6;
+            double single = ops / countWords(words, threads, false)
+                    * NANOS_PER_SECOND / 1e6;
+            if (threads == 1) {
+                base = striped;
+            }
+            out.println(threads + "\t" + String.format("%.2f", striped) + "\t"
+                    + String.format("%.2fx", striped / base) + "\t"
+                    + String.format("%.2f", single));
+        }
+        out.close();
+    }
+
+}
@@ -0,0 +1,621 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map<String, Integer>} for counting, represented as a chained hash
+ * table like {@code Map4}, but with entries kept in parallel arrays and counts
+ * kept as primitive {@code int}s, with implementations of primary methods and
+ * a single-probe {@code increment}. As in {@code Map4}, each hash code is
+ * mixed with a random seed before it picks a bucket, so keys whose hash codes
+ * collide in their low bits still spread out, and which keys share a bucket
+ * cannot be chosen in advance.
+ * <p>
+ * The usual counting idiom
+ *
+ * <pre>
+ * if (m.hasKey(word)) {
+ *     m.replaceValue(word, m.value(word) + 1);
+ * } else {
+ *     m.add(word, 1);
+ * }
+ * </pre>
+ *
+ * hashes {@code word} and walks its bucket three times and boxes the count
+ * twice; {@code m.increment(word)} does the same work with one walk and no
+ * boxing. Since this is still a {@code Map<String, Integer>}, it can be
+ * iterated over as {@code Map.Pair<String, Integer>}s and passed to code that
+ * expects a {@code Map}.
+ * <p>
+ * Counts are {@code int}s, like the {@code Integer} values of the
+ * {@code Map}: an {@code increment} whose result would not fit in an
+ * {@code int} throws {@code ArithmeticException} and leaves {@code this}
+ * unchanged.
+ *
+ * @mathdefinitions <pre>
+ * HASH(
+ *   m: CountingMap4,
+ *   key: String
+ *  ): integer is
+ *  [key.hashCode() mixed with $m.seed]
+ *
+ * CHAIN(
+ *   m: CountingMap4,
+ *   b: integer
+ *  ): string of integer is
+ *  [the entry indices reached from $m.heads[b] - 1 by following
+ *   $m.next[i] - 1 until reaching -1]
+ * </pre>
+ * @convention <pre>
+ * |$this.heads| > 0  and
+ * |$this.keys| = |$this.counts| = |$this.hashes| = |$this.next| > 0  and
+ * 0 <= $this.size <= |$this.keys|  and
+ * ($this.size <= LOAD_FACTOR * |$this.heads|  or
+ *  |$this.heads| = MAXIMUM_HASH_TABLE_SIZE)  and
+ * for all i: integer where (0 <= i < $this.size)
+ *   ($this.keys[i] /= null  and
+ *    $this.hashes[i] = HASH($this, $this.keys[i])  and
+ *    i occurs exactly once in
+ *      CHAIN($this, $this.hashes[i] mod |$this.heads|))  and
+ * for all b: integer where (0 <= b < |$this.heads|)
+ *   (every entry of CHAIN($this, b) is in [0, $this.size))  and
+ * for all i: integer where ($this.size <= i < |$this.keys|)
+ *   ($this.keys[i] = null)  and
+ * [no two of $this.keys[0, $this.size) are equal]
+ * </pre>
+ * @correspondence <pre>
+ * this = {i: integer where (0 <= i < $this.size)
+ *          ( ($this.keys[i], $this.counts[i]) )}
+ * </pre>
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class CountingMap4 extends MapSecondary<String, Integer> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Default size of hash table.
+     */
+    private static final int DEFAULT_HASH_TABLE_SIZE = 101;
+
+    /**
+     * Ratio of {@code size} to number of buckets at which the hash table
+     * grows.
+     */
+    private static final double LOAD_FACTOR = 0.75;
+
+    /**
+     * Largest number of buckets the hash table will grow to.
+     */
+    private static final int MAXIMUM_HASH_TABLE_SIZE = 1 << 30;
+
+    /**
+     * First multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_1 = 0x85ebca6b;
+
+    /**
+     * Second multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_2 = 0xc2b2ae35;
+
+    /**
+     * Larger shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_1 = 16;
+
+    /**
+     * Smaller shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_2 = 13;
+
+    /**
+     * For each bucket, one more than the index of the first entry in its
+     * chain, or 0 if the bucket is empty.
+     */
+    private int[] heads;
+
+    /**
+     * For each entry, one more than the index of the next entry in its chain,
+     * or 0 if it is last.
+     */
+    private int[] next;
+
+    /**
+     * Keys of the entries.
+     */
+    private String[] keys;
+
+    /**
+     * Counts of the entries.
+     */
+    private int[] counts;
+
+    /**
+     * Cached hash codes of the keys of the entries, as computed by
+     * {@code hash}.
+     */
+    private int[] hashes;
+
+    /**
+     * Random seed mixed into every hash code.
+     */
+    private int seed;
+
+    /**
+     * Total size of abstract {@code this}.
+     */
+    private int size;
+
+    /**
+     * Computes {@code a} mod {@code b} as % should have been defined to work.
+     *
+     * @param a
+     *            the number being reduced
+     * @param b
+     *            the modulus
+     * @return the result of a mod b, which satisfies 0 <= {@code mod} < b
+     * @requires b > 0
+     * @ensures <pre>
+     * 0 <= mod  and  mod < b  and
+     * there exists k: integer (a = k * b + mod)
+     * </pre>
+     */
+    private static int mod(int a, int b) {
+        assert b > 0 : "Violation of: b > 0";
+        int result = a % b;
+        if (result < 0) {
+            result += b;
+        }
+
+        return result;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param hashTableSize
+     *            the size of the hash table
+     * @requires hashTableSize > 0
+     * @ensures <pre>
+     * |$this.heads| = hashTableSize  and  $this.size = 0  and
+     * [$this.seed is chosen at random]
+     * </pre>
+     */
+    private void createNewRep(int hashTableSize) {
+        this.heads = new int[hashTableSize];
+        this.next = new int[hashTableSize];
+        this.keys = new String[hashTableSize];
+        this.counts = new int[hashTableSize];
+        this.hashes = new int[hashTableSize];
+        this.seed = ThreadLocalRandom.current().nextInt();
+        this.size = 0;
+    }
+
+    /**
+     * Returns {@code key.hashCode()} mixed with {@code $this.seed}, so that
+     * every bit of the hash code affects the bucket chosen.
+     *
+     * @param key
+     *            the key to hash
+     * @return HASH($this, key)
+     * @ensures hash = HASH($this, key)
+     */
+    private int hash(String key) {
+        int h = key.hashCode() ^ this.seed;
+        h ^= h >>> MIX_SHIFT_1;
+        h *= MIX_MULTIPLIER_1;
+        h ^= h >>> MIX_SHIFT_2;
+        h *= MIX_MULTIPLIER_2;
+        h ^= h >>> MIX_SHIFT_1;
+        return h;
+    }
+
+    /**
+     * Returns the index of the entry for {@code key}, or -1 if there is none.
+     *
+     * @param key
+     *            the key to look for
+     * @param hash
+     *            the hash code of {@code key}, as computed by {@code hash}
+     * @return the entry index, or -1
+     * @requires hash = HASH($this, key)
+     * @ensures <pre>
+     * (indexOf = -1  and  key is not in DOMAIN(this))  or
+     * $this.keys[indexOf] = key
+     * </pre>
+     */
+    private int indexOf(String key, int hash) {
+        int i = this.heads[mod(hash, this.heads.length)] - 1;
+        while (i >= 0
+                && !(this.hashes[i] == hash && this.keys[i].equals(key))) {
+            i = this.next[i] - 1;
+        }
+        return i;
+    }
+
+    /**
+     * Appends a new entry ({@code key}, {@code count}) and links it into its
+     * bucket, growing the arrays and the hash table as needed.
+     *
+     * @param key
+     *            the key
+     * @param hash
+     *            the hash code of {@code key}, as computed by {@code hash}
+     * @param count
+     *            the count
+     * @updates this
+     * @requires key is not in DOMAIN(this) and hash = HASH($this, key)
+     * @ensures this = #this union {(key, count)}
+     */
+    private void append(String key, int hash, int count) {
+        if (this.size == this.keys.length) {
+            int capacity = 2 * this.keys.length;
+            this.next = Arrays.copyOf(this.next, capacity);
+            this.keys = Arrays.copyOf(this.keys, capacity);
+            this.counts = Arrays.copyOf(this.counts, capacity);
+            this.hashes = Arrays.copyOf(this.hashes, capacity);
+        }
+        int i = this.size;
+        int bucket = mod(hash, this.heads.length);
+        this.keys[i] = key;
+        this.counts[i] = count;
+        this.hashes[i] = hash;
+        this.next[i] = this.heads[bucket];
+        this.heads[bucket] = i + 1;
+        this.size++;
+        if (this.size > LOAD_FACTOR * this.heads.length
+                && this.heads.length < MAXIMUM_HASH_TABLE_SIZE) {
+            this.relink(Math.min(2 * this.heads.length + 1,
+                    MAXIMUM_HASH_TABLE_SIZE));
+        }
+    }
+
+    /**
+     * Rebuilds the chains for a hash table of {@code hashTableSize} buckets.
+     * Only the link arrays change; keys and counts stay where they are.
+     *
+     * @param hashTableSize
+     *            the new number of buckets
+     * @updates this
+     * @requires hashTableSize > 0
+     * @ensures this = #this and |$this.heads| = hashTableSize
+     */
+    private void relink(int hashTableSize) {
+        this.heads = new int[hashTableSize];
+        for (int i = 0; i < this.size; i++) {
+            int bucket = mod(this.hashes[i], hashTableSize);
+            this.next[i] = this.heads[bucket];
+            this.heads[bucket] = i + 1;
+        }
+    }
+
+    /**
+     * Changes whichever link (a bucket head or an entry's next) refers to
+     * entry {@code from} so that it refers to {@code to} instead.
+     *
+     * @param from
+     *            the entry currently linked to
+     * @param to
+     *            the link's new target, one more than an entry index or 0
+     * @updates $this.heads, $this.next
+     * @requires 0 <= from < $this.size
+     * @ensures [the link to entry from now holds to]
+     */
+    private void relinkEntry(int from, int to) {
+        int bucket = mod(this.hashes[from], this.heads.length);
+        if (this.heads[bucket] == from + 1) {
+            this.heads[bucket] = to;
+        } else {
+            int i = this.heads[bucket] - 1;
+            while (this.next[i] != from + 1) {
+                i = this.next[i] - 1;
+            }
+            this.next[i] = to;
+        }
+    }
+
+    /**
+     * Removes entry {@code i}, moving the last entry into its place so the
+     * entries stay in [0, size).
+     *
+     * @param i
+     *            the entry to remove
+     * @return the removed pair
+     * @updates this
+     * @requires 0 <= i < $this.size
+     * @ensures <pre>
+     * removeAt = (#$this.keys[i], #$this.counts[i])  and
+     * this = #this \ {removeAt}
+     * </pre>
+     */
+    private Pair<String, Integer> removeAt(int i) {
+        Pair<String, Integer> result = new SimplePair<String, Integer>(
+                this.keys[i], this.counts[i]);
+        this.relinkEntry(i, this.next[i]);
+        int last = this.size - 1;
+        if (i != last) {
+            this.relinkEntry(last, i + 1);
+            this.keys[i] = this.keys[last];
+            this.counts[i] = this.counts[last];
+            this.hashes[i] = this.hashes[last];
+            this.next[i] = this.next[last];
+        }
+        this.keys[last] = null;
+        this.size--;
+        return result;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public CountingMap4() {
+
+        this.createNewRep(DEFAULT_HASH_TABLE_SIZE);
+
+    }
+
+    /**
+     * Constructor resulting in a hash table of initial size
+     * {@code hashTableSize}.
+     *
+     * @param hashTableSize
+     *            initial size of hash table
+     * @requires hashTableSize > 0
+     * @ensures this = {}
+     */
+    public CountingMap4(int hashTableSize) {
+        assert hashTableSize > 0 : "Violation of: hashTableSize > 0";
+
+        this.createNewRep(hashTableSize);
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<String, Integer> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(DEFAULT_HASH_TABLE_SIZE);
+    }
+
+    @Override
+    public final void transferFrom(Map<String, Integer> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof CountingMap4 : ""
+                + "Violation of: source is of dynamic type CountingMap4";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        CountingMap4 localSource = (CountingMap4) source;
+        this.heads = localSource.heads;
+        this.next = localSource.next;
+        this.keys = localSource.keys;
+        this.counts = localSource.counts;
+        this.hashes = localSource.hashes;
+        this.seed = localSource.seed;
+        this.size = localSource.size;
+        localSource.createNewRep(DEFAULT_HASH_TABLE_SIZE);
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(String key, Integer value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
+
+        this.append(key, this.hash(key), value);
+    }
+
+    @Override
+    public final Pair<String, Integer> remove(String key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        return this.removeAt(this.indexOf(key, this.hash(key)));
+    }
+
+    @Override
+    public final Pair<String, Integer> removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        /*
+         * The last entry can be removed without moving any other entry
+         */
+        return this.removeAt(this.size - 1);
+    }
+
+    @Override
+    public final Integer value(String key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        return this.counts[this.indexOf(key, this.hash(key))];
+    }
+
+    @Override
+    public final boolean hasKey(String key) {
+        assert key != null : "Violation of: key is not null";
+
+        return this.indexOf(key, this.hash(key)) >= 0;
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<Pair<String, Integer>> iterator() {
+        return new CountingMap4Iterator();
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code delta} to the count associated with {@code key}, first
+     * adding {@code key} with count 0 if it is not in {@code this}. The bucket
+     * for {@code key} is searched only once. If the new count would not fit
+     * in an {@code int}, {@code ArithmeticException} is thrown and
+     * {@code this} is not changed.
+     *
+     * @param key
+     *            the key whose count is incremented
+     * @param delta
+     *            the amount to add
+     * @return the new count for {@code key}
+     * @aliases reference {@code key}
+     * @updates this
+     * @requires key /= null
+     * @ensures <pre>
+     * (key is in DOMAIN(#this)  and
+     *  this = (#this \ {(key, #this(key))}) union {(key, #this(key) + delta)})
+     * or
+     * (key is not in DOMAIN(#this)  and  this = #this union {(key, delta)})
+     * and  increment = this(key)
+     * </pre>
+     */
+    public final int increment(String key, int delta) {
+        assert key != null : "Violation of: key is not null";
+
+        int hash = this.hash(key);
+        int i = this.indexOf(key, hash);
+        int result;
+        if (i >= 0) {
+            this.counts[i] = Math.addExact(this.counts[i], delta);
+            result = this.counts[i];
+        } else {
+            this.append(key, hash, delta);
+            result = delta;
+        }
+        return result;
+    }
+
+    /**
+     * Adds 1 to the count associated with {@code key}, first adding
+     * {@code key} with count 0 if it is not in {@code this}.
+     *
+     * @param key
+     *            the key whose count is incremented
+     * @return the new count for {@code key}
+     * @aliases reference {@code key}
+     * @updates this
+     * @requires key /= null
+     * @ensures <pre>
+     * (key is in DOMAIN(#this)  and
+     *  this = (#this \ {(key, #this(key))}) union {(key, #this(key) + 1)})
+     * or
+     * (key is not in DOMAIN(#this)  and  this = #this union {(key, 1)})
+     * and  increment = this(key)
+     * </pre>
+     */
+    public final int increment(String key) {
+        return this.increment(key, 1);
+    }
+
+    /**
+     * Reports the count associated with {@code key}, or 0 if {@code key} is
+     * not in {@code this}, without boxing it.
+     *
+     * @param key
+     *            the key whose count is reported
+     * @return the count for {@code key}
+     * @requires key /= null
+     * @ensures <pre>
+     * (key is in DOMAIN(this)  and  count = this(key))  or
+     * (key is not in DOMAIN(this)  and  count = 0)
+     * </pre>
+     */
+    public final int count(String key) {
+        assert key != null : "Violation of: key is not null";
+
+        int i = this.indexOf(key, this.hash(key));
+        int result = 0;
+        if (i >= 0) {
+            result = this.counts[i];
+        }
+        return result;
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code CountingMap4}.
+     */
+    private final class CountingMap4Iterator
+            implements Iterator<Pair<String, Integer>> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int current;
+
+        /**
+         * No-argument constructor.
+         */
+        CountingMap4Iterator() {
+            this.current = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.current < CountingMap4.this.size;
+        }
+
+        @Override
+        public Pair<String, Integer> next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            Pair<String, Integer> result = new SimplePair<String, Integer>(
+                    CountingMap4.this.keys[this.current],
+                    CountingMap4.this.counts[this.current]);
+            this.current++;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,582 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * Immutable {@code Map} built once from another {@code Map} by
+ * {@code freeze}, and represented by a minimal perfect hash over flat arrays,
+ * with implementations of primary methods.
+ * <p>
+ * The perfect hash is built by hash and displace (CHD): hash codes are
+ * grouped into buckets of about {@code LAMBDA}, and each bucket, largest
+ * first, is given the smallest displacement that sends all of its hash codes
+ * to distinct free slots. If some bucket finds no such displacement among the
+ * first {@code DISPLACEMENTS_PER_SLOT} per slot, every bucket is placed again
+ * with a new random seed mixed into the slot function, so that an unlucky
+ * seed cannot keep {@code freeze} searching forever. A lookup reads the
+ * displacement of its bucket and then one slot, and compares its hash code
+ * and key with the one stored there; there are no chains and no empty slots.
+ * Keys whose hash codes are equal cannot be told apart by any function of
+ * the hash code, so the rare keys that share a hash code with another key
+ * are kept in a small {@code Map4} instead, and their slot holds only the
+ * hash code.
+ * <p>
+ * Every method that would change {@code this} throws
+ * {@code UnsupportedOperationException}.
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @mathdefinitions <pre>
+ * SLOT(
+ *   m: FrozenMap4,
+ *   h: integer
+ *  ): integer is
+ *  [h mixed with $m.seed and the displacement $m.displacements[h mod
+ *   |$m.displacements|], scaled into [0, |$m.hashes|)]
+ * </pre>
+ * @convention <pre>
+ * |$this.hashes| = |$this.keys| = |$this.values|  and
+ * [$this.hashes holds distinct mixed hash codes]  and
+ * (|$this.hashes| = 0  or  |$this.displacements| > 0)  and
+ * for all i: integer
+ *     where (0 <= i < |$this.hashes|)
+ *   (SLOT($this, $this.hashes[i]) = i  and
+ *    (($this.keys[i] /= null  and  $this.values[i] /= null  and
+ *      [$this.hashes[i] is the mixed hash code of $this.keys[i]]  and
+ *      [no key of $this.shared has that hash code])  or
+ *     ($this.keys[i] = null  and  $this.values[i] = null  and
+ *      [at least two keys of $this.shared have that hash code])))  and
+ * $this.size = |$this.shared| +
+ *              |{i: integer where ($this.keys[i] /= null) (i)}|
+ * </pre>
+ * @correspondence <pre>
+ * this = {i: integer where (0 <= i < |$this.keys|  and
+ *                           $this.keys[i] /= null)
+ *          ( ($this.keys[i], $this.values[i]) )} union $this.shared
+ * </pre>
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class FrozenMap4<K, V> extends MapSecondary<K, V> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Average number of hash codes per bucket of displacements.
+     */
+    private static final int LAMBDA = 3;
+
+    /**
+     * Number of displacements, per slot of the table, tried for one bucket
+     * before every bucket is placed again with a new seed. The last buckets
+     * placed have about one free slot to aim for, so they need about as many
+     * tries as there are slots.
+     */
+    private static final int DISPLACEMENTS_PER_SLOT = 32;
+
+    /**
+     * Odd constant by which displacements are multiplied before mixing.
+     */
+    private static final int DISPLACEMENT_MULTIPLIER = 0x9e3779b9;
+
+    /**
+     * First multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_1 = 0x85ebca6b;
+
+    /**
+     * Second multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_2 = 0xc2b2ae35;
+
+    /**
+     * Larger shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_1 = 16;
+
+    /**
+     * Smaller shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_2 = 13;
+
+    /**
+     * Mask of the low 32 bits of a {@code long}.
+     */
+    private static final long LOW_BITS = 0xffffffffL;
+
+    /**
+     * Message of the exception thrown by every method that would change
+     * {@code this}.
+     */
+    private static final String FROZEN = "FrozenMap4 cannot be changed";
+
+    /**
+     * Random seed mixed into the slot function.
+     */
+    private int seed;
+
+    /**
+     * Displacement of each bucket.
+     */
+    private int[] displacements;
+
+    /**
+     * Mixed hash code in each slot.
+     */
+    private int[] hashes;
+
+    /**
+     * Key in each slot, or null if its hash code is shared.
+     */
+    private K[] keys;
+
+    /**
+     * Value associated with the key in the same slot.
+     */
+    private V[] values;
+
+    /**
+     * Entries whose keys share a hash code with another key.
+     */
+    private Map<K, V> shared;
+
+    /**
+     * Total size of abstract {@code this}.
+     */
+    private int size;
+
+    /**
+     * Computes {@code a} mod {@code b} as % should have been defined to work.
+     *
+     * @param a
+     *            the number being reduced
+     * @param b
+     *            the modulus
+     * @return the result of a mod b, which satisfies 0 <= {@code mod} < b
+     * @requires b > 0
+     * @ensures <pre>
+     * 0 <= mod  and  mod < b  and
+     * there exists k: integer (a = k * b + mod)
+     * </pre>
+     */
+    private static int mod(int a, int b) {
+        assert b > 0 : "Violation of: b > 0";
+
+        return Math.floorMod(a, b);
+    }
+
+    /**
+     * Returns {@code h} with its bits mixed, so that every bit affects every
+     * bit of the result.
+     *
+     * @param h
+     *            the value to mix
+     * @return the mixed value
+     * @ensures mix = [h mixed]
+     */
+    private static int mix(int h) {
+        int x = h;
+        x ^= x >>> MIX_SHIFT_1;
+        x *= MIX_MULTIPLIER_1;
+        x ^= x >>> MIX_SHIFT_2;
+        x *= MIX_MULTIPLIER_2;
+        x ^= x >>> MIX_SHIFT_1;
+        return x;
+    }
+
+    /**
+     * Returns the slot for mixed hash code {@code h} under seed {@code seed}
+     * and displacement {@code d} in a table of {@code slots} slots.
+     *
+     * @param h
+     *            the mixed hash code
+     * @param seed
+     *            the seed
+     * @param d
+     *            the displacement
+     * @param slots
+     *            the number of slots
+     * @return the slot
+     * @requires slots > 0
+     * @ensures 0 <= slot < slots
+     */
+    private static int slot(int h, int seed, int d, int slots) {
+        // scale the mixed value into [0, slots) without dividing
+        long x = mix(h ^ seed ^ (d * DISPLACEMENT_MULTIPLIER)) & LOW_BITS;
+        return (int) ((x * slots) >>> Integer.SIZE);
+    }
+
+    /**
+     * Returns the slot that would hold a key with mixed hash code {@code h}.
+     *
+     * @param h
+     *            the mixed hash code
+     * @return SLOT($this, h)
+     * @requires |$this.hashes| > 0
+     * @ensures slotOf = SLOT($this, h)
+     */
+    private int slotOf(int h) {
+        return slot(h, this.seed,
+                this.displacements[mod(h, this.displacements.length)],
+                this.hashes.length);
+    }
+
+    /**
+     * Creator of initial representation, for the empty map.
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep() {
+        this.seed = 0;
+        this.displacements = new int[0];
+        this.hashes = new int[0];
+        /*
+         * With "new K[...]" in place of "(K[]) new Object[...]" it does not
+         * compile; as shown, it results in a warning about an unchecked
+         * conversion, though it cannot fail since the arrays never escape.
+         */
+        this.keys = (K[]) new Object[0];
+        this.values = (V[]) new Object[0];
+        this.shared = new Map4<K, V>();
+        this.size = 0;
+    }
+
+    /**
+     * Finds a displacement for each bucket of {@code distinct} such that
+     * every hash code goes to a different slot of a table with one slot per
+     * hash code, trying larger buckets first. Gives up, returning null, as
+     * soon as one bucket has tried {@code DISPLACEMENTS_PER_SLOT} times as
+     * many displacements as there are slots.
+     *
+     * @param distinct
+     *            the distinct mixed hash codes
+     * @param buckets
+     *            the number of buckets
+     * @param seed
+     *            the seed of the slot function
+     * @return the displacement of each bucket, or null
+     * @requires buckets > 0 and [the entries of distinct are distinct]
+     * @ensures <pre>
+     * placeBuckets = null  or
+     * (|placeBuckets| = buckets  and
+     *  [the slots of the entries of distinct are all different])
+     * </pre>
+     */
+    private static int[] placeBuckets(int[] distinct, int buckets,
+            int seed) {
+        int n = distinct.length;
+        // group the hash codes by bucket with a counting sort
+        int[] start = new int[buckets + 1];
+        for (int h : distinct) {
+            start[mod(h, buckets) + 1]++;
+        }
+        for (int b = 0; b < buckets; b++) {
+            start[b + 1] += start[b];
+        }
+        int[] grouped = new int[n];
+        int[] fill = Arrays.copyOf(start, buckets);
+        for (int h : distinct) {
+            int b = mod(h, buckets);
+            grouped[fill[b]] = h;
+            fill[b]++;
+        }
+        // visit the buckets from largest to smallest
+        long[] order = new long[buckets];
+        for (int b = 0; b < buckets; b++) {
+            long bucketSize = start[b + 1] - start[b];
+            order[b] = (-bucketSize << Integer.SIZE) | b;
+        }
+        Arrays.sort(order);
+        int limit = (int) Math.min((long) DISPLACEMENTS_PER_SLOT * n,
+                Integer.MAX_VALUE);
+        int[] result = new int[buckets];
+        boolean[] taken = new boolean[n];
+        int[] slots = new int[n];
+        int k = 0;
+        while (result != null && k < buckets) {
+            int b = (int) (order[k] & LOW_BITS);
+            int from = start[b];
+            int to = start[b + 1];
+            int d = 0;
+            boolean placed = false;
+            while (!placed && d < limit) {
+                placed = true;
+                int i = from;
+                while (placed && i < to) {
+                    slots[i] = slot(grouped[i], seed, d, n);
+                    placed = !taken[slots[i]];
+                    // claim as we go, so a bucket cannot collide with itself
+                    taken[slots[i]] = true;
+                    i++;
+                }
+                if (!placed) {
+                    // release the slots claimed before the collision
+                    for (int j = from; j < i - 1; j++) {
+                        taken[slots[j]] = false;
+                    }
+                    d++;
+                }
+            }
+            if (placed) {
+                result[b] = d;
+            } else {
+                result = null;
+            }
+            k++;
+        }
+        return result;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor, for the empty map.
+     */
+    public FrozenMap4() {
+
+        this.createNewRep();
+
+    }
+
+    /**
+     * Returns an immutable copy of {@code source}.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param source
+     *            the map to copy
+     * @return the frozen copy
+     * @ensures freeze = source
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> FrozenMap4<K, V> freeze(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+
+        int n = source.size();
+        K[] entryKeys = (K[]) new Object[n];
+        V[] entryValues = (V[]) new Object[n];
+        long[] byHash = new long[n];
+        int count = 0;
+        for (Pair<K, V> p : source) {
+            entryKeys[count] = p.key();
+            entryValues[count] = p.value();
+            byHash[count] = ((long) mix(p.key().hashCode()) << Integer.SIZE)
+                    | count;
+            count++;
+        }
+        Arrays.sort(byHash);
+        // the distinct hash codes, and which of them are shared
+        int[] distinct = new int[n];
+        boolean[] isShared = new boolean[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int h = (int) (byHash[i] >> Integer.SIZE);
+            if (m > 0 && distinct[m - 1] == h) {
+                isShared[m - 1] = true;
+            } else {
+                distinct[m] = h;
+                m++;
+            }
+        }
+        distinct = Arrays.copyOf(distinct, m);
+        FrozenMap4<K, V> result = new FrozenMap4<K, V>();
+        if (m > 0) {
+            int buckets = (m + LAMBDA - 1) / LAMBDA;
+            do {
+                result.seed = ThreadLocalRandom.current().nextInt();
+                result.displacements = placeBuckets(distinct, buckets,
+                        result.seed);
+            } while (result.displacements == null);
+            result.hashes = new int[m];
+            result.keys = (K[]) new Object[m];
+            result.values = (V[]) new Object[m];
+            int j = 0;
+            for (int i = 0; i < n; i++) {
+                int h = (int) (byHash[i] >> Integer.SIZE);
+                int e = (int) (byHash[i] & LOW_BITS);
+                if (distinct[j] != h) {
+                    j++;
+                }
+                int s = result.slotOf(h);
+                result.hashes[s] = h;
+                if (isShared[j]) {
+                    result.shared.add(entryKeys[e], entryValues[e]);
+                } else {
+                    result.keys[s] = entryKeys[e];
+                    result.values[s] = entryValues[e];
+                }
+            }
+        }
+        result.size = n;
+        return result;
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        throw new UnsupportedOperationException(FROZEN);
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        throw new UnsupportedOperationException(FROZEN);
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        throw new UnsupportedOperationException(FROZEN);
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        throw new UnsupportedOperationException(FROZEN);
+    }
+
+    @Override
+    public final Pair<K, V> removeAny() {
+        throw new UnsupportedOperationException(FROZEN);
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        int s = this.slotOf(mix(key.hashCode()));
+        V result = this.values[s];
+        if (result == null) {
+            result = this.shared.value(key);
+        }
+        return result;
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        boolean result = false;
+        if (this.hashes.length > 0) {
+            int h = mix(key.hashCode());
+            int s = this.slotOf(h);
+            if (this.hashes[s] == h) {
+                if (this.keys[s] == null) {
+                    result = this.shared.hasKey(key);
+                } else {
+                    result = key.equals(this.keys[s]);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        return new FrozenMap4Iterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code FrozenMap4}.
+     */
+    private final class FrozenMap4Iterator implements Iterator<Pair<K, V>> {
+
+        /**
+         * Number of elements seen already (i.e., |~this.seen|).
+         */
+        private int numberSeen;
+
+        /**
+         * Slot from which the next element will come (or before it).
+         */
+        private int currentSlot;
+
+        /**
+         * Iterator over the entries with shared hash codes, which come last.
+         */
+        private final Iterator<Pair<K, V>> sharedIterator;
+
+        /**
+         * No-argument constructor.
+         */
+        FrozenMap4Iterator() {
+            this.numberSeen = 0;
+            this.currentSlot = 0;
+            this.sharedIterator = FrozenMap4.this.shared.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.numberSeen < FrozenMap4.this.size;
+        }
+
+        @Override
+        public Pair<K, V> next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            this.numberSeen++;
+            K[] slotKeys = FrozenMap4.this.keys;
+            while (this.currentSlot < slotKeys.length
+                    && slotKeys[this.currentSlot] == null) {
+                this.currentSlot++;
+            }
+            Pair<K, V> result;
+            if (this.currentSlot < slotKeys.length) {
+                result = new SimplePair<K, V>(slotKeys[this.currentSlot],
+                        FrozenMap4.this.values[this.currentSlot]);
+                this.currentSlot++;
+            } else {
+                result = this.sharedIterator.next();
+            }
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import components.map.Map;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Lookup latency benchmark for {@code Map6} (cuckoo hashing) against
+ * {@code Map4} (chained buckets): for each table size, both maps are filled
+ * with that many keys and then timed one {@code hasKey} call at a time, half
+ * of them for keys that are present, and the 50th, 99th, and 99.9th
+ * percentile and maximum latencies are reported in nanoseconds.
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public final class LookupLatencyBenchmark {
+
+    /**
+     * Table sizes to compare, including those of the {@code Map4} test
+     * fixtures.
+     */
+    private static final int[] TABLE_SIZES = { 101, 1009, 8848, 100_003 };
+
+    /**
+     * Number of timed lookups for each map.
+     */
+    private static final int LOOKUPS = 1_000_000;
+
+    /**
+     * Number of untimed warm-up rounds.
+     */
+    private static final int WARM_UP_ROUNDS = 2;
+
+    /**
+     * Percentiles reported, in thousandths.
+     */
+    private static final int[] PERMILLES = { 500, 990, 999 };
+
+    /**
+     * Thousandths in a whole.
+     */
+    private static final int PER_MILLE = 1000;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private LookupLatencyBenchmark() {
+    }
+
+    /**
+     * Times {@code LOOKUPS} calls of {@code m.hasKey}, each for a random key
+     * of {@code keys}, and returns the latencies sorted in increasing order.
+     *
+     * @param m
+     *            the map
+     * @param keys
+     *            the keys to look up
+     * @param seed
+     *            seed for choosing the keys
+     * @return the sorted latencies in nanoseconds
+     * @ensures <pre>
+     * |timeLookups| = LOOKUPS  and  [timeLookups is sorted]
+     * </pre>
+     */
+    private static long[] timeLookups(Map<String, Integer> m, String[] keys,
+            long seed) {
+        Random rand = new Random(seed);
+        long[] latencies = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            String key = keys[rand.nextInt(keys.length)];
+            long start = System.nanoTime();
+            m.hasKey(key);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    /**
+     * Fills {@code m} with the first {@code n} keys of {@code keys}, times
+     * lookups of all of {@code keys}, and returns a row of the report.
+     *
+     * @param name
+     *            name of the map
+     * @param m
+     *            the map
+     * @param keys
+     *            the keys, of which the first {@code n} are added
+     * @param n
+     *            the number of keys to add
+     * @return the report row
+     * @updates m
+     * @requires m = {} and n <= |keys|
+     * @ensures <pre>
+     * m = [the first n keys of keys, each with its position]  and
+     * row = [name, percentiles, and maximum separated by tabs]
+     * </pre>
+     */
+    private static String row(String name, Map<String, Integer> m,
+            String[] keys, int n) {
+        for (int i = 0; i < n; i++) {
+            m.add(keys[i], i);
+        }
+        for (int r = 0; r < WARM_UP_ROUNDS; r++) {
+            timeLookups(m, keys, r);
+        }
+        long[] latencies = timeLookups(m, keys, WARM_UP_ROUNDS);
+        StringBuilder result = new StringBuilder(name);
+        for (int p : PERMILLES) {
+            result.append('\t')
+                    .append(latencies[(int) ((long) LOOKUPS * p / PER_MILLE)]);
+        }
+        result.append('\t').append(latencies[LOOKUPS - 1]);
+        return result.toString();
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments
+     */
+    public static void main(String[] args) {
+        SimpleWriter out = new SimpleWriter1L();
+        out.println("hasKey latency in ns over " + LOOKUPS
+                + " lookups, half of them misses");
+        out.println("map\tp50\tp99\tp99.9\tmax");
+        for (int size : TABLE_SIZES) {
+            String[] keys = new String[2 * size];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "key" + i;
+            }
+            out.println(row("Map4(" + size + ")",
+                    new Map4<String, Integer>(size), keys, size));
+            out.println(row("Map6(" + size + ")",
+                    new Map6<String, Integer>(size), keys, size));
+        }
+        out.close();
+    }
+
+}
@@ -1,39 +1,129 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import components.map.Map;
 import components.map.Map1L;
 import components.map.MapSecondary;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 
 /**
  * {@code Map} represented as a hash table using {@code Map}s for the buckets,
  * with implementations of primary methods.
+ * <p>
+ * The hash table grows when {@code size} exceeds {@code loadFactor} times the
+ * number of buckets, and shrinks again (never below its initial size) when
+ * {@code size} falls under a quarter of that. Rather than copying every entry
+ * at once, a resize keeps the old table around and moves a few of its buckets
+ * into the new table on each later {@code add}, {@code remove}, or
+ * {@code removeAny}, so no single call pays for the whole rehash.
+ * <p>
+ * Keys are placed by their {@code hashCode} mixed with a random seed chosen
+ * for each new representation, so inputs crafted to collide for one map do
+ * not reliably collide for another. Keys whose hash codes are actually equal
+ * still share a bucket, so a bucket that grows past
+ * {@code TREEIFY_THRESHOLD} entries is turned into a balanced search tree
+ * (ordered by hash code and then, for {@code Comparable} keys, by
+ * {@code compareTo}) and turned back into a list-based {@code Map1L} once it
+ * shrinks below {@code UNTREEIFY_THRESHOLD}.
+ * <p>
+ * Buckets are allocated lazily: an empty bucket is just a {@code null} entry
+ * in the table, and an empty map holds no table at all until its first
+ * {@code add}, so constructing, clearing, or transferring from a
+ * {@code Map4} costs the same whatever its table size.
+ * <p>
+ * {@code statistics} reports how the keys are spread over the buckets, and
+ * Flight Recorder events ({@code Map4.Resize} and {@code Map4.LongProbe},
+ * both under the "Map4" category) are emitted when a resize starts and when
+ * a lookup has to examine {@code LONG_PROBE_THRESHOLD} or more entries.
+ * <p>
+ * {@code spliterator} splits the buckets into ranges, so {@code stream} and
+ * {@code parallelStream} can spread work over the buckets across threads.
+ * {@code bulkLoad} builds a {@code Map4} from many pairs at once, sizing the
+ * table up front and filling disjoint ranges of buckets on separate threads.
  *
  * @param <K>
  *            type of {@code Map} domain (key) entries
  * @param <V>
  *            type of {@code Map} range (associated value) entries
+ * @mathdefinitions <pre>
+ * HASH(
+ *   m: Map4,
+ *   x: K
+ *  ): integer is
+ *  [computed result of x.hashCode() mixed with $m.seed]
+ *
+ * OLD_BUCKETS(
+ *   m: Map4
+ *  ): set of integer is
+ *  {i: integer where ($m.oldTable /= null  and
+ *                     $m.rehashIndex <= i  and  i < |$m.oldTable|) (i)}
+ * </pre>
  * @convention <pre>
- * |$this.hashTable| > 0  and
+ * ($this.hashTable = null  iff  $this.size = 0)  and
+ * ($this.hashTable = null  implies  $this.oldTable = null)  and
+ * ($this.hashTable /= null  implies  |$this.hashTable| > 0)  and
  * for all i: integer, pf: PARTIAL_FUNCTION, x: K
  *     where (0 <= i  and  i < |$this.hashTable|  and
  *            <pf> = $this.hashTable[i, i+1)  and
  *            x is in DOMAIN(pf))
- *   ([computed result of x.hashCode()] mod |$this.hashTable| = i))  and
+ *   (HASH($this, x) mod |$this.hashTable| = i  and
+ *    HASH($this, x) mod |$this.oldTable| is not in OLD_BUCKETS($this))  and
+ * for all i: integer, pf: PARTIAL_FUNCTION, x: K
+ *     where (i is in OLD_BUCKETS($this)  and
+ *            <pf> = $this.oldTable[i, i+1)  and
+ *            x is in DOMAIN(pf))
+ *   (HASH($this, x) mod |$this.oldTable| = i))  and
  * for all i: integer
  *     where (0 <= i  and  i < |$this.hashTable|)
- *   ([entry at position i in $this.hashTable is not null])  and
- * $this.size = sum i: integer, pf: PARTIAL_FUNCTION
- *     where (0 <= i  and  i < |$this.hashTable|  and
- *            <pf> = $this.hashTable[i, i+1))
- *   (|pf|)
+ *   ([entry at position i in $this.hashTable is null iff
+ *     $this.hashTable[i, i+1) = <{}>])  and
+ * for all i: integer
+ *     where (i is in OLD_BUCKETS($this))
+ *   ([entry at position i in $this.oldTable is null iff
+ *     $this.oldTable[i, i+1) = <{}>])  and
+ * ($this.oldTable = null  or  $this.rehashIndex < |$this.oldTable|)  and
+ * $this.occupied lists exactly the i with $this.hashTable[i, i+1) /= <{}>  and
+ * ($this.oldTable = null  or
+ *  $this.oldOccupied lists exactly the i in OLD_BUCKETS($this) with
+ *    $this.oldTable[i, i+1) /= <{}>)  and
+ * ($this.hashTable = null  or
+ *  0 < $this.initialTableSize <= |$this.hashTable|)  and
+ * $this.initialTableSize > 0  and
+ * $this.loadFactor > 0  and
+ * $this.size = (sum i: integer, pf: PARTIAL_FUNCTION
+ *                  where (0 <= i  and  i < |$this.hashTable|  and
+ *                         <pf> = $this.hashTable[i, i+1))
+ *                (|pf|)) +
+ *              (sum i: integer, pf: PARTIAL_FUNCTION
+ *                  where (i is in OLD_BUCKETS($this)  and
+ *                         <pf> = $this.oldTable[i, i+1))
+ *                (|pf|))
  * </pre>
  * @correspondence <pre>
- * this = union i: integer, pf: PARTIAL_FUNCTION
- *            where (0 <= i  and  i < |$this.hashTable|  and
- *                   <pf> = $this.hashTable[i, i+1))
- *          (pf)
+ * this = (union i: integer, pf: PARTIAL_FUNCTION
+ *             where (0 <= i  and  i < |$this.hashTable|  and
+ *                    <pf> = $this.hashTable[i, i+1))
+ *           (pf)) union
+ *        (union i: integer, pf: PARTIAL_FUNCTION
+ *             where (i is in OLD_BUCKETS($this)  and
+ *                    <pf> = $this.oldTable[i, i+1))
+ *           (pf))
  * </pre>
  *
  * @author Zhuoyang Li + Xinci Ma
@@ -50,16 +140,154 @@ public class Map4<K, V> extends MapSecondary<K, V> {
      */
     private static final int DEFAULT_HASH_TABLE_SIZE = 101;
 
+    /**
+     * Default ratio of {@code size} to number of buckets at which the hash
+     * table grows.
+     */
+    private static final double DEFAULT_LOAD_FACTOR = 0.75;
+
+    /**
+     * The hash table shrinks when {@code size} drops below
+     * {@code loadFactor / SHRINK_DIVISOR} times the number of buckets.
+     */
+    private static final int SHRINK_DIVISOR = 4;
+
+    /**
+     * Number of entries or buckets below which a bulk load task does its
+     * work itself instead of splitting it.
+     */
+    private static final int BULK_LOAD_GRAIN = 1 << 12;
+
+    /**
+     * Largest number of buckets the hash table will grow to.
+     */
+    private static final int MAXIMUM_HASH_TABLE_SIZE = 1 << 30;
+
+    /**
+     * Number of old buckets moved into the new hash table by each
+     * {@code add}, {@code remove}, or {@code removeAny} while a resize is in
+     * progress.
+     */
+    private static final int REHASH_BUCKETS_PER_STEP = 4;
+
+    /**
+     * A list-based bucket with more entries than this becomes a tree.
+     */
+    private static final int TREEIFY_THRESHOLD = 8;
+
+    /**
+     * A tree bucket with fewer entries than this becomes list-based again.
+     */
+    private static final int UNTREEIFY_THRESHOLD = 6;
+
+    /**
+     * First multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_1 = 0x85ebca6b;
+
+    /**
+     * Second multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_2 = 0xc2b2ae35;
+
+    /**
+     * Larger shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_1 = 16;
+
+    /**
+     * Smaller shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_2 = 13;
+
+    /**
+     * A lookup that may examine at least this many entries of its bucket is
+     * reported by a {@code LongProbeEvent}.
+     */
+    private static final int LONG_PROBE_THRESHOLD = 8;
+
+    /**
+     * Approximate bytes used by each slot of a hash table: the bucket
+     * reference and its position in {@code OccupiedBuckets}.
+     */
+    private static final int ESTIMATED_SLOT_BYTES = 12;
+
+    /**
+     * Approximate bytes used by an empty {@code Map1L} bucket.
+     */
+    private static final int ESTIMATED_LIST_BUCKET_BYTES = 48;
+
+    /**
+     * Approximate bytes used by each entry of a {@code Map1L} bucket.
+     */
+    private static final int ESTIMATED_LIST_ENTRY_BYTES = 40;
+
+    /**
+     * Approximate bytes used by an empty {@code TreeBucket}.
+     */
+    private static final int ESTIMATED_TREE_BUCKET_BYTES = 24;
+
+    /**
+     * Approximate bytes used by each node of a {@code TreeBucket}.
+     */
+    private static final int ESTIMATED_TREE_NODE_BYTES = 40;
+
     /**
      * Buckets for hashing.
      */
     private Map<K, V>[] hashTable;
 
+    /**
+     * Buckets of the hash table being resized away from, or null when no
+     * resize is in progress.
+     */
+    private Map<K, V>[] oldTable;
+
+    /**
+     * Index of the next bucket in {@code oldTable} to be moved into
+     * {@code hashTable}.
+     */
+    private int rehashIndex;
+
+    /**
+     * Indices of the non-empty buckets of {@code hashTable}.
+     */
+    private OccupiedBuckets occupied;
+
+    /**
+     * Indices of the non-empty buckets of {@code oldTable} not yet moved, or
+     * null when no resize is in progress.
+     */
+    private OccupiedBuckets oldOccupied;
+
+    /**
+     * Number of buckets the hash table starts with (and shrinks back to at
+     * most).
+     */
+    private int initialTableSize;
+
+    /**
+     * Ratio of {@code size} to number of buckets at which the hash table
+     * grows.
+     */
+    private double loadFactor;
+
+    /**
+     * Random seed mixed into every hash code.
+     */
+    private int seed;
+
     /**
      * Total size of abstract {@code this}.
      */
     private int size;
 
+    /**
+     * Number of resizes started on the entries of {@code this}, which
+     * {@code transferFrom} moves along with them.
+     */
+    private int resizeCount;
+
     /**
      * Computes {@code a} mod {@code b} as % should have been defined to work.
      *
@@ -85,228 +313,2397 @@ public class Map4<K, V> extends MapSecondary<K, V> {
     }
 
     /**
-     * Creator of initial representation.
-     *
-     * @param hashTableSize
-     *            the size of the hash table
-     * @requires hashTableSize > 0
-     * @ensures <pre>
-     * |$this.hashTable| = hashTableSize  and
-     * for all i: integer
-     *     where (0 <= i  and  i < |$this.hashTable|)
-     *   ($this.hashTable[i, i+1) = <{}>)  and
-     * $this.size = 0
-     * </pre>
-     */
-    @SuppressWarnings("unchecked")
-    private void createNewRep(int hashTableSize) {
-        /*
-         * With "new Map<K, V>[...]" in place of "new Map[...]" it does not
-         * compile; as shown, it results in a warning about an unchecked
-         * conversion, though it cannot fail.
-         */
-        this.hashTable = new Map[hashTableSize];
-        for (int i = 0; i < hashTableSize; i++) {
-            this.hashTable[i] = new Map1L<K, V>();
-        }
-        this.size = 0;
-
-    }
-
-    /*
-     * Constructors -----------------------------------------------------------
-     */
-
-    /**
-     * No-argument constructor.
+     * Dense list of the indices of the non-empty buckets of one hash table,
+     * so that {@code removeAny} can pick a non-empty bucket in constant time
+     * instead of probing random buckets until it finds one.
      */
-    public Map4() {
+    private static final class OccupiedBuckets {
 
-        this.createNewRep(DEFAULT_HASH_TABLE_SIZE);
-
-    }
+        /**
+         * Indices of the non-empty buckets, in entries [0, count).
+         */
+        private final int[] indices;
 
-    /**
-     * Constructor resulting in a hash table of size {@code hashTableSize}.
-     *
-     * @param hashTableSize
-     *            size of hash table
-     * @requires hashTableSize > 0
-     * @ensures this = {}
-     */
-    public Map4(int hashTableSize) {
+        /**
+         * For each bucket, one more than its position in {@code indices}, or 0
+         * if it is not listed.
+         */
+        private final int[] positions;
 
-        this.createNewRep(hashTableSize);
+        /**
+         * Number of buckets listed.
+         */
+        private int count;
 
-    }
+        /**
+         * Constructor for a hash table of {@code hashTableSize} empty buckets.
+         *
+         * @param hashTableSize
+         *            the number of buckets
+         */
+        OccupiedBuckets(int hashTableSize) {
+            this.indices = new int[hashTableSize];
+            this.positions = new int[hashTableSize];
+            this.count = 0;
+        }
 
-    /*
-     * Standard methods -------------------------------------------------------
-     */
+        /**
+         * Lists {@code bucket} if it is not listed already.
+         *
+         * @param bucket
+         *            the bucket index
+         */
+        void add(int bucket) {
+            if (this.positions[bucket] == 0) {
+                this.indices[this.count] = bucket;
+                this.count++;
+                this.positions[bucket] = this.count;
+            }
+        }
 
-    @SuppressWarnings("unchecked")
-    @Override
-    public final Map<K, V> newInstance() {
-        try {
-            return this.getClass().getConstructor().newInstance();
-        } catch (ReflectiveOperationException e) {
-            throw new AssertionError(
-                    "Cannot construct object of type " + this.getClass());
+        /**
+         * Stops listing {@code bucket} if it is listed, moving the last listed
+         * bucket into its place.
+         *
+         * @param bucket
+         *            the bucket index
+         */
+        void remove(int bucket) {
+            int position = this.positions[bucket] - 1;
+            if (position >= 0) {
+                this.count--;
+                int last = this.indices[this.count];
+                this.indices[position] = last;
+                this.positions[last] = position + 1;
+                this.positions[bucket] = 0;
+            }
         }
-    }
 
-    @Override
-    public final void clear() {
-        this.createNewRep(DEFAULT_HASH_TABLE_SIZE);
-    }
+        /**
+         * Returns the bucket listed at {@code position}.
+         *
+         * @param position
+         *            the position in the list
+         * @return the bucket index
+         */
+        int get(int position) {
+            return this.indices[position];
+        }
 
-    @Override
-    public final void transferFrom(Map<K, V> source) {
-        assert source != null : "Violation of: source is not null";
-        assert source != this : "Violation of: source is not this";
-        assert source instanceof Map4<?, ?> : ""
-                + "Violation of: source is of dynamic type Map4<?,?>";
-        /*
-         * This cast cannot fail since the assert above would have stopped
-         * execution in that case: source must be of dynamic type Map4<?,?>, and
-         * the ?,? must be K,V or the call would not have compiled.
+        /**
+         * Returns the number of buckets listed.
+         *
+         * @return the number of non-empty buckets
          */
-        Map4<K, V> localSource = (Map4<K, V>) source;
-        this.hashTable = localSource.hashTable;
-        this.size = localSource.size;
-        localSource.createNewRep(DEFAULT_HASH_TABLE_SIZE);
+        int count() {
+            return this.count;
+        }
+
     }
 
-    /*
-     * Kernel methods ---------------------------------------------------------
+    /**
+     * {@code Map} represented as an AVL tree ordered by hash code and then,
+     * when two keys of the same class are {@code Comparable}, by
+     * {@code compareTo}, used in place of a {@code Map1L} for crowded buckets
+     * so lookups stay logarithmic even when many keys share a bucket. Keys
+     * that tie under this order (equal hash codes but not comparable) are
+     * kept in order of insertion, and searching for one of them looks at both
+     * sides of a tie.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
      */
+    private static final class TreeBucket<K, V> extends MapSecondary<K, V> {
 
-    @Override
-    public final void add(K key, V value) {
-        assert key != null : "Violation of: key is not null";
-        assert value != null : "Violation of: value is not null";
-        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
+        /**
+         * Node of the tree.
+         *
+         * @param <K>
+         *            type of keys
+         * @param <V>
+         *            type of values
+         */
+        private static final class Node<K, V> {
 
-        //use the hash function to find the index of the bucket
-        int index = mod(key.hashCode(), this.hashTable.length);
-        this.hashTable[index].add(key, value);
-        this.size++;
-    }
+            /**
+             * Hash code of {@code key}.
+             */
+            private final int hash;
 
-    @Override
-    public final Pair<K, V> remove(K key) {
-        assert key != null : "Violation of: key is not null";
-        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+            /**
+             * Key.
+             */
+            private final K key;
 
-        int index = mod(key.hashCode(), this.hashTable.length);
-        this.size--;
-        return this.hashTable[index].remove(key);
-    }
+            /**
+             * Value.
+             */
+            private V value;
 
-    @Override
-    public final Pair<K, V> removeAny() {
-        assert this.size() > 0 : "Violation of: this /= empty_set";
+            /**
+             * Left subtree.
+             */
+            private Node<K, V> left;
 
-        //use a random number generator to choose a bucket
-        Random rand = new Random();
-        int index = rand.nextInt(this.hashTable.length);
-        while (this.hashTable[index].size() == 0) {
-            index = rand.nextInt(this.hashTable.length);
-        }
-        this.size--;
-        return this.hashTable[index].removeAny();
+            /**
+             * Right subtree.
+             */
+            private Node<K, V> right;
 
-    }
+            /**
+             * Height of the subtree rooted here.
+             */
+            private int height;
 
-    @Override
-    public final V value(K key) {
-        assert key != null : "Violation of: key is not null";
-        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+            /**
+             * Constructor of a leaf.
+             *
+             * @param hash
+             *            hash code of {@code key}
+             * @param key
+             *            the key
+             * @param value
+             *            the value
+             */
+            Node(int hash, K key, V value) {
+                this.hash = hash;
+                this.key = key;
+                this.value = value;
+                this.height = 1;
+            }
 
-        //use the hash function to find the index of the bucket
-        int index = mod(key.hashCode(), this.hashTable.length);
-        return this.hashTable[index].value(key);
+        }
 
-    }
+        /**
+         * Root of the tree.
+         */
+        private Node<K, V> root;
 
-    @Override
-    public final boolean hasKey(K key) {
-        assert key != null : "Violation of: key is not null";
+        /**
+         * Number of nodes in the tree.
+         */
+        private int size;
 
-        int index = mod(key.hashCode(), this.hashTable.length);
-        return this.hashTable[index].hasKey(key);
-    }
+        /**
+         * No-argument constructor.
+         */
+        TreeBucket() {
+            this.root = null;
+            this.size = 0;
+        }
 
-    @Override
-    public final int size() {
-        return this.size;
-    }
+        /**
+         * Returns the height of {@code n}, or 0 if it is null.
+         *
+         * @param n
+         *            the subtree
+         * @return the height
+         */
+        private static int height(Node<?, ?> n) {
+            int result = 0;
+            if (n != null) {
+                result = n.height;
+            }
+            return result;
+        }
 
-    @Override
-    public final Iterator<Pair<K, V>> iterator() {
-        return new Map4Iterator();
-    }
+        /**
+         * Returns the sum over the nodes of {@code n} of the number of nodes
+         * on the path from the root of the whole tree to each one, given that
+         * the path to {@code n} itself has {@code depth} nodes.
+         *
+         * @param n
+         *            the subtree
+         * @param depth
+         *            number of nodes on the path to {@code n}
+         * @return the total path length
+         */
+        private static long pathLength(Node<?, ?> n, int depth) {
+            long result = 0;
+            if (n != null) {
+                result = depth + pathLength(n.left, depth + 1)
+                        + pathLength(n.right, depth + 1);
+            }
+            return result;
+        }
 
-    /**
-     * Implementation of {@code Iterator} interface for {@code Map4}.
-     */
-    private final class Map4Iterator implements Iterator<Pair<K, V>> {
+        /**
+         * Returns the height of this tree.
+         *
+         * @return the height
+         */
+        int height() {
+            return height(this.root);
+        }
 
         /**
-         * Number of elements seen already (i.e., |~this.seen|).
+         * Returns the total number of nodes examined by looking up every key
+         * of this tree once.
+         *
+         * @return the total path length
          */
-        private int numberSeen;
+        long pathLength() {
+            return pathLength(this.root, 1);
+        }
 
         /**
-         * Bucket from which current bucket iterator comes.
+         * Compares ({@code hash}, {@code key}) with the key of {@code n}.
+         *
+         * @param hash
+         *            hash code of {@code key}
+         * @param key
+         *            the key
+         * @param n
+         *            the node
+         * @return negative, zero, or positive as the key is before, tied
+         *         with, or after the key of {@code n}
          */
-        private int currentBucket;
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private static int compare(int hash, Object key, Node<?, ?> n) {
+            int result = Integer.compare(hash, n.hash);
+            if (result == 0 && key instanceof Comparable
+                    && key.getClass() == n.key.getClass()) {
+                result = ((Comparable) key).compareTo(n.key);
+            }
+            return result;
+        }
 
         /**
-         * Bucket iterator from which next element will come.
+         * Returns the node for {@code key} in {@code n}, or null.
+         *
+         * @param <K>
+         *            type of keys
+         * @param <V>
+         *            type of values
+         * @param n
+         *            the subtree
+         * @param hash
+         *            hash code of {@code key}
+         * @param key
+         *            the key
+         * @return the node whose key equals {@code key}, or null
          */
-        private Iterator<Pair<K, V>> bucketIterator;
+        private static <K, V> Node<K, V> find(Node<K, V> n, int hash,
+                Object key) {
+            Node<K, V> current = n;
+            Node<K, V> result = null;
+            while (current != null && result == null) {
+                if (current.hash == hash && current.key.equals(key)) {
+                    result = current;
+                } else {
+                    int c = compare(hash, key, current);
+                    if (c < 0) {
+                        current = current.left;
+                    } else if (c > 0) {
+                        current = current.right;
+                    } else {
+                        result = find(current.right, hash, key);
+                        current = current.left;
+                    }
+                }
+            }
+            return result;
+        }
 
         /**
-         * No-argument constructor.
+         * Returns a node of the subtree rooted at {@code n} whose value equals
+         * {@code value}, or null if there is none. The tree is not ordered by
+         * value, so every node may be visited.
+         *
+         * @param <K>
+         *            type of keys
+         * @param <V>
+         *            type of values
+         * @param n
+         *            the subtree
+         * @param value
+         *            the value
+         * @return a node whose value equals {@code value}, or null
          */
-        Map4Iterator() {
-            this.numberSeen = 0;
-            this.currentBucket = 0;
-            this.bucketIterator = Map4.this.hashTable[0].iterator();
+        private static <K, V> Node<K, V> findValue(Node<K, V> n,
+                Object value) {
+            Node<K, V> result = null;
+            if (n != null) {
+                if (n.value.equals(value)) {
+                    result = n;
+                } else {
+                    result = findValue(n.left, value);
+                    if (result == null) {
+                        result = findValue(n.right, value);
+                    }
+                }
+            }
+            return result;
         }
 
-        @Override
-        public boolean hasNext() {
-            return this.numberSeen < Map4.this.size;
+        /**
+         * Recomputes the height of {@code n} and restores the AVL balance
+         * at {@code n} with at most two rotations.
+         *
+         * @param <K>
+         *            type of keys
+         * @param <V>
+         *            type of values
+         * @param n
+         *            the subtree, whose children are balanced
+         * @return the root of the balanced subtree
+         */
+        private static <K, V> Node<K, V> balance(Node<K, V> n) {
+            Node<K, V> result = n;
+            int lean = height(n.left) - height(n.right);
+            if (lean > 1) {
+                if (height(n.left.left) < height(n.left.right)) {
+                    n.left = rotateLeft(n.left);
+                }
+                result = rotateRight(n);
+            } else if (lean < -1) {
+                if (height(n.right.right) < height(n.right.left)) {
+                    n.right = rotateRight(n.right);
+                }
+                result = rotateLeft(n);
+            } else {
+                n.height = 1 + Math.max(height(n.left), height(n.right));
+            }
+            return result;
+        }
+
+        /**
+         * Rotates {@code n} right.
+         *
+         * @param <K>
+         *            type of keys
+         * @param <V>
+         *            type of values
+         * @param n
+         *            the subtree, with a left child
+         * @return the new root of the subtree
+         */
+        private static <K, V> Node<K, V> rotateRight(Node<K, V> n) {
+            Node<K, V> l = n.left;
+            n.left = l.right;
+            l.right = n;
+            n.height = 1 + Math.max(height(n.left), height(n.right));
+            l.height = 1 + Math.max(height(l.left), height(l.right));
+            return l;
+        }
+
+        /**
+         * Rotates {@code n} left.
+         *
+         * @param <K>
+         *            type of keys
+         * @param <V>
+         *            type of values
+         * @param n
+         *            the subtree, with a right child
+         * @return the new root of the subtree
+         */
+        private static <K, V> Node<K, V> rotateLeft(Node<K, V> n) {
+            Node<K, V> r = n.right;
+            n.right = r.left;
+            r.left = n;
+            n.height = 1 + Math.max(height(n.left), height(n.right));
+            r.height = 1 + Math.max(height(r.left), height(r.right));
+            return r;
+        }
+
+        /**
+         * Inserts {@code leaf} into {@code n}.
+         *
+         * @param <K>
+         *            type of keys
+         * @param <V>
+         *            type of values
+         * @param n
+         *            the subtree
+         * @param leaf
+         *            the new node
+         * @return the root of the updated subtree
+         */
+        private static <K, V> Node<K, V> insert(Node<K, V> n,
+                Node<K, V> leaf) {
+            Node<K, V> result = leaf;
+            if (n != null) {
+                if (compare(leaf.hash, leaf.key, n) < 0) {
+                    n.left = insert(n.left, leaf);
+                } else {
+                    n.right = insert(n.right, leaf);
+                }
+                result = balance(n);
+            }
+            return result;
+        }
+
+        /**
+         * Removes the smallest node of {@code n}, reporting it in
+         * {@code removed[0]}.
+         *
+         * @param <K>
+         *            type of keys
+         * @param <V>
+         *            type of values
+         * @param n
+         *            the non-empty subtree
+         * @param removed
+         *            receives the removed node
+         * @return the root of the updated subtree
+         */
+        private static <K, V> Node<K, V> removeSmallest(Node<K, V> n,
+                Node<K, V>[] removed) {
+            Node<K, V> result;
+            if (n.left == null) {
+                removed[0] = n;
+                result = n.right;
+            } else {
+                n.left = removeSmallest(n.left, removed);
+                result = balance(n);
+            }
+            return result;
+        }
+
+        /**
+         * Removes the node for {@code key} from {@code n}, reporting it in
+         * {@code removed[0]}.
+         *
+         * @param <K>
+         *            type of keys
+         * @param <V>
+         *            type of values
+         * @param n
+         *            the subtree, which contains {@code key}
+         * @param hash
+         *            hash code of {@code key}
+         * @param key
+         *            the key
+         * @param removed
+         *            receives the removed node
+         * @return the root of the updated subtree
+         */
+        private static <K, V> Node<K, V> delete(Node<K, V> n, int hash,
+                Object key, Node<K, V>[] removed) {
+            Node<K, V> result;
+            if (n.hash == hash && n.key.equals(key)) {
+                removed[0] = n;
+                if (n.left == null) {
+                    result = n.right;
+                } else if (n.right == null) {
+                    result = n.left;
+                } else {
+                    Node<K, V>[] smallest = newHolder();
+                    Node<K, V> right = removeSmallest(n.right, smallest);
+                    Node<K, V> s = smallest[0];
+                    s.left = n.left;
+                    s.right = right;
+                    result = balance(s);
+                }
+            } else {
+                int c = compare(hash, key, n);
+                if (c < 0 || (c == 0 && find(n.right, hash, key) == null)) {
+                    n.left = delete(n.left, hash, key, removed);
+                } else {
+                    n.right = delete(n.right, hash, key, removed);
+                }
+                result = balance(n);
+            }
+            return result;
+        }
+
+        /**
+         * Returns a one-element array for reporting a removed node.
+         *
+         * @param <K>
+         *            type of keys
+         * @param <V>
+         *            type of values
+         * @return the new array
+         */
+        @SuppressWarnings("unchecked")
+        private static <K, V> Node<K, V>[] newHolder() {
+            return new Node[1];
+        }
+
+        /**
+         * Removes the node for {@code key} and returns its pair.
+         *
+         * @param hash
+         *            hash code of {@code key}
+         * @param key
+         *            the key, which is in this
+         * @return the removed pair
+         */
+        private Pair<K, V> delete(int hash, Object key) {
+            Node<K, V>[] removed = newHolder();
+            this.root = delete(this.root, hash, key, removed);
+            this.size--;
+            return new SimplePair<K, V>(removed[0].key, removed[0].value);
+        }
+
+        @Override
+        public Map<K, V> newInstance() {
+            return new TreeBucket<K, V>();
+        }
+
+        @Override
+        public void clear() {
+            this.root = null;
+            this.size = 0;
+        }
+
+        @Override
+        public void transferFrom(Map<K, V> source) {
+            TreeBucket<K, V> localSource = (TreeBucket<K, V>) source;
+            this.root = localSource.root;
+            this.size = localSource.size;
+            localSource.clear();
+        }
+
+        @Override
+        public void add(K key, V value) {
+            this.root = insert(this.root,
+                    new Node<K, V>(key.hashCode(), key, value));
+            this.size++;
+        }
+
+        @Override
+        public Pair<K, V> remove(K key) {
+            return this.delete(key.hashCode(), key);
+        }
+
+        @Override
+        public Pair<K, V> removeAny() {
+            return this.delete(this.root.hash, this.root.key);
+        }
+
+        @Override
+        public V value(K key) {
+            return find(this.root, key.hashCode(), key).value;
+        }
+
+        @Override
+        public boolean hasKey(K key) {
+            return find(this.root, key.hashCode(), key) != null;
+        }
+
+        @Override
+        public V replaceValue(K key, V value) {
+            Node<K, V> n = find(this.root, key.hashCode(), key);
+            V result = n.value;
+            n.value = value;
+            return result;
+        }
+
+        @Override
+        public K key(V value) {
+            return findValue(this.root, value).key;
+        }
+
+        @Override
+        public boolean hasValue(V value) {
+            return findValue(this.root, value) != null;
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public Iterator<Pair<K, V>> iterator() {
+            final Deque<Node<K, V>> path = new ArrayDeque<Node<K, V>>();
+            for (Node<K, V> n = this.root; n != null; n = n.left) {
+                path.push(n);
+            }
+            return new Iterator<Pair<K, V>>() {
+
+                @Override
+                public boolean hasNext() {
+                    return !path.isEmpty();
+                }
+
+                @Override
+                public Pair<K, V> next() {
+                    if (path.isEmpty()) {
+                        throw new NoSuchElementException();
+                    }
+                    Node<K, V> n = path.pop();
+                    for (Node<K, V> m = n.right; m != null; m = m.left) {
+                        path.push(m);
+                    }
+                    return new SimplePair<K, V>(n.key, n.value);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException(
+                            "remove operation not supported");
+                }
+
+            };
+        }
+
+    }
+
+    /**
+     * Flight Recorder event for the start of a resize.
+     */
+    @Name("Map4.Resize")
+    @Label("Map4 Resize")
+    @Category("Map4")
+    private static final class ResizeEvent extends Event {
+
+        /**
+         * Number of buckets before the resize.
+         */
+        @Label("Old Buckets")
+        private int oldBuckets;
+
+        /**
+         * Number of buckets after the resize.
+         */
+        @Label("New Buckets")
+        private int newBuckets;
+
+        /**
+         * Size of the map.
+         */
+        @Label("Size")
+        private int size;
+
+    }
+
+    /**
+     * Flight Recorder event for a lookup in a crowded bucket.
+     */
+    @Name("Map4.LongProbe")
+    @Label("Map4 Long Probe")
+    @Category("Map4")
+    private static final class LongProbeEvent extends Event {
+
+        /**
+         * Largest number of entries the lookup may have examined.
+         */
+        @Label("Probes")
+        private int probes;
+
+        /**
+         * Number of buckets in the hash table.
+         */
+        @Label("Buckets")
+        private int buckets;
+
+        /**
+         * Size of the map.
+         */
+        @Label("Size")
+        private int size;
+
+    }
+
+    /**
+     * Creates and returns an array of {@code hashTableSize} empty buckets,
+     * each represented by {@code null}.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param hashTableSize
+     *            the number of buckets
+     * @return the new buckets
+     * @requires hashTableSize > 0
+     * @ensures <pre>
+     * |newTable| = hashTableSize  and
+     * for all i: integer
+     *     where (0 <= i  and  i < |newTable|)
+     *   ([entry at position i in newTable is null])
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> Map<K, V>[] newTable(int hashTableSize) {
+        assert hashTableSize > 0 : "Violation of: hashTableSize > 0";
+        /*
+         * With "new Map<K, V>[...]" in place of "new Map[...]" it does not
+         * compile; as shown, it results in a warning about an unchecked
+         * conversion, though it cannot fail.
+         */
+        return new Map[hashTableSize];
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param hashTableSize
+     *            the size of the hash table
+     * @param lf
+     *            the load factor at which the hash table grows
+     * @requires hashTableSize > 0 and lf > 0
+     * @ensures <pre>
+     * $this.hashTable = null  and
+     * $this.oldTable = null  and  $this.initialTableSize = hashTableSize  and
+     * $this.loadFactor = lf  and  $this.size = 0
+     * </pre>
+     */
+    private void createNewRep(int hashTableSize, double lf) {
+        this.hashTable = null;
+        this.oldTable = null;
+        this.rehashIndex = 0;
+        this.occupied = null;
+        this.oldOccupied = null;
+        this.initialTableSize = hashTableSize;
+        this.loadFactor = lf;
+        this.seed = ThreadLocalRandom.current().nextInt();
+        this.size = 0;
+
+    }
+
+    /**
+     * Returns {@code key.hashCode()} mixed with {@code $this.seed}, so that
+     * every bit of the hash code affects the bucket chosen.
+     *
+     * @param key
+     *            the key to hash
+     * @return HASH($this, key)
+     * @ensures hash = HASH($this, key)
+     */
+    private int hash(Object key) {
+        int h = key.hashCode() ^ this.seed;
+        h ^= h >>> MIX_SHIFT_1;
+        h *= MIX_MULTIPLIER_1;
+        h ^= h >>> MIX_SHIFT_2;
+        h *= MIX_MULTIPLIER_2;
+        h ^= h >>> MIX_SHIFT_1;
+        return h;
+    }
+
+    /**
+     * Adds ({@code key}, {@code value}) to bucket {@code index} of
+     * {@code table}, listing the bucket in {@code occupied} and turning it
+     * into a tree if it has become crowded. An empty bucket is created first
+     * if there is none at {@code index}.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param table
+     *            the buckets
+     * @param occupied
+     *            the non-empty buckets of {@code table}
+     * @param index
+     *            the bucket index
+     * @param key
+     *            the key to add
+     * @param value
+     *            the value to add
+     * @updates table, occupied
+     * @requires <pre>
+     * 0 <= index < |table|  and  key is not in DOMAIN(table[index])  and
+     * occupied lists exactly the non-empty buckets of table
+     * </pre>
+     * @ensures <pre>
+     * table[index] = #table[index] union {(key, value)}  and
+     * occupied lists exactly the non-empty buckets of table
+     * </pre>
+     */
+    private static <K, V> void addToBucket(Map<K, V>[] table,
+            OccupiedBuckets occupied, int index, K key, V value) {
+        Map<K, V> bucket = table[index];
+        if (bucket == null) {
+            bucket = new Map1L<K, V>();
+            table[index] = bucket;
+            occupied.add(index);
+        }
+        bucket.add(key, value);
+        if (bucket.size() > TREEIFY_THRESHOLD
+                && !(bucket instanceof TreeBucket<?, ?>)) {
+            Map<K, V> tree = new TreeBucket<K, V>();
+            moveAll(bucket, tree);
+            table[index] = tree;
+        }
+    }
+
+    /**
+     * Updates {@code occupied} after an entry has been removed from bucket
+     * {@code index} of {@code table}, dropping the bucket if it is now empty
+     * and turning it back into a list-based {@code Map} if it is a tree that
+     * has become sparse.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param table
+     *            the buckets
+     * @param occupied
+     *            the non-empty buckets of {@code table}, except perhaps for
+     *            bucket {@code index}
+     * @param index
+     *            the bucket index
+     * @updates table, occupied
+     * @requires 0 <= index < |table|
+     * @ensures <pre>
+     * table[index] = #table[index]  and
+     * occupied lists exactly the non-empty buckets of table
+     * </pre>
+     */
+    private static <K, V> void bucketShrunk(Map<K, V>[] table,
+            OccupiedBuckets occupied, int index) {
+        Map<K, V> bucket = table[index];
+        if (bucket.size() == 0) {
+            table[index] = null;
+            occupied.remove(index);
+        } else if (bucket.size() < UNTREEIFY_THRESHOLD
+                && bucket instanceof TreeBucket<?, ?>) {
+            Map<K, V> list = new Map1L<K, V>();
+            moveAll(bucket, list);
+            table[index] = list;
+        }
+    }
+
+    /**
+     * Moves every entry of {@code from} into {@code to}.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param from
+     *            the source
+     * @param to
+     *            the destination
+     * @updates from, to
+     * @requires DOMAIN(from) intersection DOMAIN(to) = {}
+     * @ensures from = {} and to = #to union #from
+     */
+    private static <K, V> void moveAll(Map<K, V> from, Map<K, V> to) {
+        while (from.size() > 0) {
+            Pair<K, V> p = from.removeAny();
+            to.add(p.key(), p.value());
+        }
+    }
+
+    /**
+     * Returns the bucket that holds, or would hold, {@code key}.
+     *
+     * @param key
+     *            the key to look for
+     * @return the bucket for {@code key}, or {@code null} if that bucket is
+     *         empty
+     * @ensures <pre>
+     * [bucket is $this.oldTable[i] if i = (HASH($this, key) mod
+     *  |$this.oldTable|) is in OLD_BUCKETS($this), else
+     *  $this.hashTable[HASH($this, key) mod |$this.hashTable|]]
+     * </pre>
+     */
+    private Map<K, V> bucket(K key) {
+        return this.bucketFor(this.hash(key));
+    }
+
+    /**
+     * Returns the bucket that holds, or would hold, keys with hash code
+     * {@code hash}.
+     *
+     * @param hash
+     *            the hash code, as computed by {@code hash}
+     * @return the bucket for {@code hash}, or {@code null} if that bucket is
+     *         empty
+     * @ensures <pre>
+     * [bucketFor is $this.oldTable[i] if i = (hash mod |$this.oldTable|) is
+     *  in OLD_BUCKETS($this), else $this.hashTable[hash mod
+     *  |$this.hashTable|]]
+     * </pre>
+     */
+    private Map<K, V> bucketFor(int hash) {
+        Map<K, V> result;
+        if (this.hashTable == null) {
+            result = null;
+        } else if (this.inOldTable(hash)) {
+            result = this.oldTable[mod(hash, this.oldTable.length)];
+        } else {
+            result = this.hashTable[mod(hash, this.hashTable.length)];
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether keys with hash code {@code hash} belong in a bucket of
+     * {@code $this.oldTable} that has not been moved yet.
+     *
+     * @param hash
+     *            the hash code
+     * @return true iff the bucket for {@code hash} is an old bucket
+     * @ensures <pre>
+     * inOldTable = ($this.oldTable /= null  and
+     *               hash mod |$this.oldTable| is in OLD_BUCKETS($this))
+     * </pre>
+     */
+    private boolean inOldTable(int hash) {
+        return this.oldTable != null
+                && mod(hash, this.oldTable.length) >= this.rehashIndex;
+    }
+
+    /**
+     * Returns the number of live buckets, old and new, that {@code bucketAt}
+     * can return.
+     *
+     * @return |$this.hashTable| + |OLD_BUCKETS($this)|, or 0 if
+     *         {@code $this.hashTable} is null
+     */
+    private int bucketCount() {
+        int result = 0;
+        if (this.hashTable != null) {
+            result = this.hashTable.length;
+            if (this.oldTable != null) {
+                result += this.oldTable.length - this.rehashIndex;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the live bucket at position {@code i}, where the old buckets not
+     * yet moved come first, followed by the buckets of the new hash table.
+     *
+     * @param i
+     *            the position of the bucket
+     * @return the bucket at position {@code i}, or {@code null} if that
+     *         bucket is empty
+     * @requires 0 <= i < |$this.hashTable| + |OLD_BUCKETS($this)|
+     * @ensures <pre>
+     * [bucketAt is the i-th bucket of OLD_BUCKETS($this) followed by
+     *  $this.hashTable]
+     * </pre>
+     */
+    private Map<K, V> bucketAt(int i) {
+        int oldCount = 0;
+        if (this.oldTable != null) {
+            oldCount = this.oldTable.length - this.rehashIndex;
+        }
+        Map<K, V> result;
+        if (i < oldCount) {
+            result = this.oldTable[this.rehashIndex + i];
+        } else {
+            result = this.hashTable[i - oldCount];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the largest number of entries a lookup in {@code bucket} may
+     * examine, which is also the number examined by a failed lookup.
+     *
+     * @param bucket
+     *            the bucket, or {@code null} for an empty bucket
+     * @return the number of entries examined
+     */
+    private static int probeLength(Map<?, ?> bucket) {
+        int result = 0;
+        if (bucket instanceof TreeBucket<?, ?>) {
+            result = ((TreeBucket<?, ?>) bucket).height();
+        } else if (bucket != null) {
+            result = bucket.size();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total number of entries examined by looking up every key
+     * of {@code bucket} once.
+     *
+     * @param bucket
+     *            the bucket, or {@code null} for an empty bucket
+     * @return the total number of entries examined
+     */
+    private static long totalProbes(Map<?, ?> bucket) {
+        long result = 0;
+        if (bucket instanceof TreeBucket<?, ?>) {
+            result = ((TreeBucket<?, ?>) bucket).pathLength();
+        } else if (bucket != null) {
+            long n = bucket.size();
+            result = n * (n + 1) / 2;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by {@code bucket},
+     * excluding its keys and values.
+     *
+     * @param bucket
+     *            the bucket, or {@code null} for an empty bucket
+     * @return the approximate size in bytes
+     */
+    private static long estimatedBytes(Map<?, ?> bucket) {
+        long result = 0;
+        if (bucket instanceof TreeBucket<?, ?>) {
+            result = ESTIMATED_TREE_BUCKET_BYTES
+                    + (long) ESTIMATED_TREE_NODE_BYTES * bucket.size();
+        } else if (bucket != null) {
+            result = ESTIMATED_LIST_BUCKET_BYTES
+                    + (long) ESTIMATED_LIST_ENTRY_BYTES * bucket.size();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of entries in {@code bucket}.
+     *
+     * @param bucket
+     *            the bucket, or {@code null} for an empty bucket
+     * @return the number of entries
+     */
+    private static int sizeOf(Map<?, ?> bucket) {
+        int result = 0;
+        if (bucket != null) {
+            result = bucket.size();
+        }
+        return result;
+    }
+
+    /**
+     * Emits a {@code LongProbeEvent} if a lookup in {@code bucket} may
+     * examine {@code LONG_PROBE_THRESHOLD} or more entries.
+     *
+     * @param bucket
+     *            the bucket just looked up, or {@code null} if it is empty
+     */
+    private void checkProbe(Map<K, V> bucket) {
+        int probes = probeLength(bucket);
+        if (probes >= LONG_PROBE_THRESHOLD) {
+            LongProbeEvent event = new LongProbeEvent();
+            if (event.shouldCommit()) {
+                event.probes = probes;
+                event.buckets = this.hashTable.length;
+                event.size = this.size;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Adds ({@code key}, {@code value}) to {@code this}, whose hash code has
+     * already been computed, allocating the hash table first if there is none.
+     *
+     * @param hash
+     *            the hash code of {@code key}, as computed by {@code hash}
+     * @param key
+     *            the key to add
+     * @param value
+     *            the value to add
+     * @updates this
+     * @requires <pre>
+     * hash = HASH($this, key)  and  key is not in DOMAIN(this)
+     * </pre>
+     * @ensures this = #this union {(key, value)}
+     */
+    private void addHashed(int hash, K key, V value) {
+        if (this.hashTable == null) {
+            this.hashTable = newTable(this.initialTableSize);
+            this.occupied = new OccupiedBuckets(this.initialTableSize);
+        }
+        this.rehashStep();
+        if (this.inOldTable(hash)) {
+            addToBucket(this.oldTable, this.oldOccupied,
+                    mod(hash, this.oldTable.length), key, value);
+        } else {
+            addToBucket(this.hashTable, this.occupied,
+                    mod(hash, this.hashTable.length), key, value);
+        }
+        this.size++;
+        this.checkLoad();
+    }
+
+    /**
+     * Starts moving the entries of {@code this} into a new hash table of
+     * {@code hashTableSize} buckets.
+     *
+     * @param hashTableSize
+     *            the number of buckets in the new hash table
+     * @updates this
+     * @requires hashTableSize > 0 and $this.oldTable = null
+     * @ensures <pre>
+     * this = #this  and  |$this.hashTable| = hashTableSize
+     * </pre>
+     */
+    private void startResize(int hashTableSize) {
+        assert this.oldTable == null : "Violation of: $this.oldTable = null";
+
+        this.oldTable = this.hashTable;
+        this.oldOccupied = this.occupied;
+        this.rehashIndex = 0;
+        this.hashTable = newTable(hashTableSize);
+        this.occupied = new OccupiedBuckets(hashTableSize);
+        this.resizeCount++;
+        ResizeEvent event = new ResizeEvent();
+        if (event.shouldCommit()) {
+            event.oldBuckets = this.oldTable.length;
+            event.newBuckets = hashTableSize;
+            event.size = this.size;
+            event.commit();
+        }
+        this.rehashStep();
+    }
+
+    /**
+     * Moves up to {@code REHASH_BUCKETS_PER_STEP} buckets of
+     * {@code $this.oldTable} into {@code $this.hashTable}, discarding
+     * {@code $this.oldTable} once every bucket has been moved.
+     *
+     * @updates this
+     * @ensures this = #this
+     */
+    private void rehashStep() {
+        if (this.oldTable != null) {
+            int stop = Math.min(this.rehashIndex + REHASH_BUCKETS_PER_STEP,
+                    this.oldTable.length);
+            while (this.rehashIndex < stop) {
+                Map<K, V> oldBucket = this.oldTable[this.rehashIndex];
+                this.oldTable[this.rehashIndex] = null;
+                this.oldOccupied.remove(this.rehashIndex);
+                this.rehashIndex++;
+                while (oldBucket != null && oldBucket.size() > 0) {
+                    Pair<K, V> p = oldBucket.removeAny();
+                    int index = mod(this.hash(p.key()),
+                            this.hashTable.length);
+                    addToBucket(this.hashTable, this.occupied, index, p.key(),
+                            p.value());
+                }
+            }
+            if (this.rehashIndex == this.oldTable.length) {
+                this.oldTable = null;
+                this.oldOccupied = null;
+                this.rehashIndex = 0;
+            }
+        }
+    }
+
+    /**
+     * Starts a resize if {@code size} has moved outside the range the load
+     * factor allows for the current number of buckets. Nothing happens while
+     * an earlier resize is still in progress; the check is repeated by later
+     * calls once it has finished. Once {@code this} is empty its tables are
+     * released altogether.
+     *
+     * @updates this
+     * @ensures this = #this
+     */
+    private void checkLoad() {
+        int buckets = this.hashTable.length;
+        if (this.size == 0) {
+            this.createNewRep(this.initialTableSize, this.loadFactor);
+        } else if (this.oldTable == null) {
+            if (this.size > this.loadFactor * buckets
+                    && buckets < MAXIMUM_HASH_TABLE_SIZE) {
+                this.startResize(
+                        Math.min(2 * buckets + 1, MAXIMUM_HASH_TABLE_SIZE));
+            } else if (buckets > this.initialTableSize && this.size
+                    < this.loadFactor * buckets / SHRINK_DIVISOR) {
+                this.startResize(Math.max(buckets / 2, this.initialTableSize));
+            }
+        }
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public Map4() {
+
+        this.createNewRep(DEFAULT_HASH_TABLE_SIZE, DEFAULT_LOAD_FACTOR);
+
+    }
+
+    /**
+     * Constructor resulting in a hash table of initial size
+     * {@code hashTableSize}.
+     *
+     * @param hashTableSize
+     *            initial size of hash table
+     * @requires hashTableSize > 0
+     * @ensures this = {}
+     */
+    public Map4(int hashTableSize) {
+
+        this.createNewRep(hashTableSize, DEFAULT_LOAD_FACTOR);
+
+    }
+
+    /**
+     * Constructor resulting in a hash table of initial size
+     * {@code hashTableSize} that grows once {@code size} exceeds
+     * {@code loadFactor} times the number of buckets.
+     *
+     * @param hashTableSize
+     *            initial size of hash table
+     * @param loadFactor
+     *            ratio of size to number of buckets at which the hash table
+     *            grows
+     * @requires hashTableSize > 0 and loadFactor > 0
+     * @ensures this = {}
+     */
+    public Map4(int hashTableSize, double loadFactor) {
+        assert hashTableSize > 0 : "Violation of: hashTableSize > 0";
+        assert loadFactor > 0 : "Violation of: loadFactor > 0";
+
+        this.createNewRep(hashTableSize, loadFactor);
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.initialTableSize, this.loadFactor);
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof Map4<?, ?> : ""
+                + "Violation of: source is of dynamic type Map4<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type Map4<?,?>, and
+         * the ?,? must be K,V or the call would not have compiled.
+         */
+        Map4<K, V> localSource = (Map4<K, V>) source;
+        this.hashTable = localSource.hashTable;
+        this.oldTable = localSource.oldTable;
+        this.rehashIndex = localSource.rehashIndex;
+        this.seed = localSource.seed;
+        this.occupied = localSource.occupied;
+        this.oldOccupied = localSource.oldOccupied;
+        this.initialTableSize = localSource.initialTableSize;
+        this.loadFactor = localSource.loadFactor;
+        this.size = localSource.size;
+        this.resizeCount = localSource.resizeCount;
+        localSource.createNewRep(this.initialTableSize, this.loadFactor);
+        localSource.resizeCount = 0;
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
+
+        this.addHashed(this.hash(key), key, value);
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        this.rehashStep();
+        int hash = this.hash(key);
+        Pair<K, V> result;
+        if (this.inOldTable(hash)) {
+            int index = mod(hash, this.oldTable.length);
+            result = this.oldTable[index].remove(key);
+            bucketShrunk(this.oldTable, this.oldOccupied, index);
+        } else {
+            int index = mod(hash, this.hashTable.length);
+            result = this.hashTable[index].remove(key);
+            bucketShrunk(this.hashTable, this.occupied, index);
+        }
+        this.size--;
+        this.checkLoad();
+        return result;
+    }
+
+    @Override
+    public final Pair<K, V> removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        this.rehashStep();
+        //choose one of the non-empty buckets, old or new, at random
+        int oldCount = 0;
+        if (this.oldTable != null) {
+            oldCount = this.oldOccupied.count();
+        }
+        int choice = ThreadLocalRandom.current()
+                .nextInt(oldCount + this.occupied.count());
+        Pair<K, V> result;
+        if (choice < oldCount) {
+            int index = this.oldOccupied.get(choice);
+            result = this.oldTable[index].removeAny();
+            bucketShrunk(this.oldTable, this.oldOccupied, index);
+        } else {
+            int index = this.occupied.get(choice - oldCount);
+            result = this.hashTable[index].removeAny();
+            bucketShrunk(this.hashTable, this.occupied, index);
+        }
+        this.size--;
+        this.checkLoad();
+        return result;
+
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        Map<K, V> bucket = this.bucket(key);
+        this.checkProbe(bucket);
+        return bucket.value(key);
+
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        Map<K, V> bucket = this.bucket(key);
+        this.checkProbe(bucket);
+        return bucket != null && bucket.hasKey(key);
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        return new Map4Iterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code Map4}.
+     */
+    private final class Map4Iterator implements Iterator<Pair<K, V>> {
+
+        /**
+         * Number of elements seen already (i.e., |~this.seen|).
+         */
+        private int numberSeen;
+
+        /**
+         * Bucket from which current bucket iterator comes.
+         */
+        private int currentBucket;
+
+        /**
+         * Bucket iterator from which next element will come.
+         */
+        private Iterator<Pair<K, V>> bucketIterator;
+
+        /**
+         * No-argument constructor.
+         */
+        Map4Iterator() {
+            this.numberSeen = 0;
+            this.currentBucket = -1;
+            this.bucketIterator = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.numberSeen < Map4.this.size;
+        }
+
+        @Override
+        public Pair<K, V> next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            this.numberSeen++;
+            while (this.bucketIterator == null
+                    || !this.bucketIterator.hasNext()) {
+                this.currentBucket++;
+                Map<K, V> bucket = Map4.this.bucketAt(this.currentBucket);
+                if (bucket != null) {
+                    this.bucketIterator = bucket.iterator();
+                }
+            }
+            return this.bucketIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /*
+     * The methods below find the bucket for their key once and then work on
+     * it directly, instead of the hasKey-value-remove-add round trips the
+     * kernel methods would need. key and hasValue have no key to hash, so
+     * they walk the non-empty buckets in place instead.
+     */
+
+    @Override
+    public final V replaceValue(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        Map<K, V> bucket = this.bucket(key);
+        this.checkProbe(bucket);
+        return bucket.replaceValue(key, value);
+    }
+
+    /**
+     * Returns a key that {@code bucket} maps to {@code value}, or null if
+     * there is none. A tree bucket is walked node by node and a list bucket
+     * is iterated, so neither is changed.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param bucket
+     *            the bucket
+     * @param value
+     *            the value to look for
+     * @return a key of {@code bucket} mapped to {@code value}, or null
+     * @ensures <pre>
+     * (keyIn = null  and  value is not in RANGE(bucket))  or
+     * (keyIn, value) is in bucket
+     * </pre>
+     */
+    private static <K, V> K keyIn(Map<K, V> bucket, V value) {
+        K result = null;
+        if (bucket instanceof TreeBucket<?, ?>) {
+            TreeBucket.Node<K, V> n = TreeBucket
+                    .findValue(((TreeBucket<K, V>) bucket).root, value);
+            if (n != null) {
+                result = n.key;
+            }
+        } else {
+            Iterator<Pair<K, V>> it = bucket.iterator();
+            while (result == null && it.hasNext()) {
+                Pair<K, V> p = it.next();
+                if (p.value().equals(value)) {
+                    result = p.key();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a key that {@code this} maps to {@code value}, or null if there
+     * is none, looking only at the non-empty buckets, old and new.
+     *
+     * @param value
+     *            the value to look for
+     * @return a key of {@code this} mapped to {@code value}, or null
+     * @ensures <pre>
+     * (keyOf = null  and  value is not in RANGE(this))  or
+     * (keyOf, value) is in this
+     * </pre>
+     */
+    private K keyOf(V value) {
+        K result = null;
+        if (this.oldTable != null) {
+            for (int i = 0; result == null
+                    && i < this.oldOccupied.count(); i++) {
+                result = keyIn(this.oldTable[this.oldOccupied.get(i)], value);
+            }
+        }
+        if (this.hashTable != null) {
+            for (int i = 0; result == null && i < this.occupied.count(); i++) {
+                result = keyIn(this.hashTable[this.occupied.get(i)], value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public final K key(V value) {
+        assert value != null : "Violation of: value is not null";
+        assert this.hasValue(value) : "Violation of: value is in RANGE(this)";
+
+        return this.keyOf(value);
+    }
+
+    @Override
+    public final boolean hasValue(V value) {
+        assert value != null : "Violation of: value is not null";
+
+        return this.keyOf(value) != null;
+    }
+
+    /**
+     * Reports the value associated with {@code key}, or {@code defaultValue}
+     * if {@code key} is not in {@code this}, hashing {@code key} and finding
+     * its bucket once.
+     *
+     * @param key
+     *            the key whose associated value is to be reported
+     * @param defaultValue
+     *            the value to report if {@code key} is not in {@code this}
+     * @return the value associated with {@code key}, or {@code defaultValue}
+     * @aliases reference returned by {@code valueOrDefault}
+     * @requires key /= null
+     * @ensures <pre>
+     * (key is in DOMAIN(this)  and  valueOrDefault = this(key))  or
+     * (key is not in DOMAIN(this)  and  valueOrDefault = defaultValue)
+     * </pre>
+     */
+    public final V valueOrDefault(K key, V defaultValue) {
+        assert key != null : "Violation of: key is not null";
+
+        Map<K, V> bucket = this.bucket(key);
+        this.checkProbe(bucket);
+        V result = defaultValue;
+        if (bucket != null && bucket.hasKey(key)) {
+            result = bucket.value(key);
+        }
+        return result;
+    }
+
+    /**
+     * Associates {@code value} with {@code key}, whether or not {@code key}
+     * was already in {@code this}.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value to associate with {@code key}
+     * @return the value previously associated with {@code key}, or null if
+     *         there was none
+     * @aliases references {@code key, value}
+     * @updates this
+     * @requires key /= null and value /= null
+     * @ensures <pre>
+     * this = (#this \ {(key, #this(key))}) union {(key, value)}  and
+     * ((key is in DOMAIN(#this)  and  addOrReplace = #this(key))  or
+     *  (key is not in DOMAIN(#this)  and  addOrReplace = null))
+     * </pre>
+     */
+    public final V addOrReplace(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        int hash = this.hash(key);
+        Map<K, V> bucket = this.bucketFor(hash);
+        this.checkProbe(bucket);
+        V result = null;
+        if (bucket != null && bucket.hasKey(key)) {
+            result = bucket.replaceValue(key, value);
+        } else {
+            this.addHashed(hash, key, value);
+        }
+        return result;
+    }
+
+    /**
+     * Associates {@code value} with {@code key} if {@code key} is not in
+     * {@code this}, and otherwise replaces the value associated with
+     * {@code key} by {@code remapping} applied to it and {@code value}. For
+     * example, {@code merge(word, 1, Integer::sum)} counts {@code word}.
+     * {@code remapping} must not use {@code this}.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value to add or to combine with the existing value
+     * @param remapping
+     *            the function combining the existing value with
+     *            {@code value}
+     * @return the value now associated with {@code key}
+     * @aliases references {@code key, value}
+     * @updates this
+     * @requires <pre>
+     * key /= null  and  value /= null  and  remapping /= null  and
+     * [remapping never returns null]
+     * </pre>
+     * @ensures <pre>
+     * ((key is in DOMAIN(#this)  and
+     *   this = (#this \ {(key, #this(key))}) union
+     *          {(key, remapping(#this(key), value))})  or
+     *  (key is not in DOMAIN(#this)  and  this = #this union {(key, value)}))
+     * and  merge = this(key)
+     * </pre>
+     */
+    public final V merge(K key, V value, BinaryOperator<V> remapping) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert remapping != null : "Violation of: remapping is not null";
+
+        int hash = this.hash(key);
+        Map<K, V> bucket = this.bucketFor(hash);
+        this.checkProbe(bucket);
+        V result = value;
+        if (bucket != null && bucket.hasKey(key)) {
+            result = remapping.apply(bucket.value(key), value);
+            assert result != null : ""
+                    + "Violation of: remapping never returns null";
+            bucket.replaceValue(key, result);
+        } else {
+            this.addHashed(hash, key, value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value associated with {@code key}, first associating
+     * {@code mapping} applied to {@code key} with it if {@code key} is not in
+     * {@code this}. {@code mapping} must not use {@code this}.
+     *
+     * @param key
+     *            the key
+     * @param mapping
+     *            the function computing a value for a new key
+     * @return the value now associated with {@code key}
+     * @aliases references {@code key}
+     * @updates this
+     * @requires <pre>
+     * key /= null  and  mapping /= null  and
+     * [mapping never returns null]
+     * </pre>
+     * @ensures <pre>
+     * ((key is in DOMAIN(#this)  and  this = #this)  or
+     *  (key is not in DOMAIN(#this)  and
+     *   this = #this union {(key, mapping(key))}))  and
+     * computeIfAbsent = this(key)
+     * </pre>
+     */
+    public final V computeIfAbsent(K key,
+            Function<? super K, ? extends V> mapping) {
+        assert key != null : "Violation of: key is not null";
+        assert mapping != null : "Violation of: mapping is not null";
+
+        int hash = this.hash(key);
+        Map<K, V> bucket = this.bucketFor(hash);
+        this.checkProbe(bucket);
+        V result;
+        if (bucket != null && bucket.hasKey(key)) {
+            result = bucket.value(key);
+        } else {
+            result = mapping.apply(key);
+            assert result != null : ""
+                    + "Violation of: mapping never returns null";
+            this.addHashed(hash, key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new {@code Map4} holding the given pairs, built with the hash
+     * table sized for them up front. The keys are hashed, and the buckets
+     * filled, by tasks in the common {@code ForkJoinPool} working on disjoint
+     * ranges, so large loads use every core and no locks. The pairs are only
+     * read, and {@code pairs} is not changed.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param pairs
+     *            the pairs to load
+     * @return the new map
+     * @requires <pre>
+     * pairs /= null  and
+     * [no key or value of an entry of pairs is null]  and
+     * [no two entries of pairs have equal keys]
+     * </pre>
+     * @ensures bulkLoad = [the set of the entries of pairs]
+     */
+    public static <K, V> Map4<K, V> bulkLoad(Pair<K, V>[] pairs) {
+        assert pairs != null : "Violation of: pairs is not null";
+
+        Map4<K, V> result = new Map4<K, V>();
+        int n = pairs.length;
+        if (n > 0) {
+            int buckets = (int) Math.min(MAXIMUM_HASH_TABLE_SIZE,
+                    Math.max(DEFAULT_HASH_TABLE_SIZE,
+                            (long) Math.ceil(n / DEFAULT_LOAD_FACTOR)));
+            result.hashTable = newTable(buckets);
+            int[] indices = new int[n];
+            ForkJoinPool.commonPool()
+                    .invoke(new IndexTask<K, V>(result, pairs, indices, 0, n));
+            /*
+             * Group the positions by bucket with a counting sort; this pass
+             * only moves ints, so it is left sequential
+             */
+            int[] starts = new int[buckets + 1];
+            for (int i = 0; i < n; i++) {
+                starts[indices[i] + 1]++;
+            }
+            for (int b = 0; b < buckets; b++) {
+                starts[b + 1] += starts[b];
+            }
+            int[] next = Arrays.copyOf(starts, buckets);
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++) {
+                order[next[indices[i]]] = i;
+                next[indices[i]]++;
+            }
+            ForkJoinPool.commonPool().invoke(new FillTask<K, V>(
+                    result.hashTable, pairs, order, starts, 0, buckets));
+            result.occupied = new OccupiedBuckets(buckets);
+            for (int b = 0; b < buckets; b++) {
+                if (result.hashTable[b] != null) {
+                    result.occupied.add(b);
+                }
+            }
+            result.size = n;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new {@code Map4} holding the pairs {@code pairs} produces,
+     * loaded as by {@code bulkLoad} on an array.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param pairs
+     *            the pairs to load
+     * @return the new map
+     * @updates pairs
+     * @requires <pre>
+     * pairs /= null  and
+     * [no key or value of a pair produced by pairs is null]  and
+     * [no two pairs produced by pairs have equal keys]
+     * </pre>
+     * @ensures <pre>
+     * bulkLoad = [the set of the pairs produced by pairs]  and
+     * [pairs has no more pairs]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> Map4<K, V> bulkLoad(Iterator<Pair<K, V>> pairs) {
+        assert pairs != null : "Violation of: pairs is not null";
+
+        ArrayList<Pair<K, V>> list = new ArrayList<Pair<K, V>>();
+        while (pairs.hasNext()) {
+            list.add(pairs.next());
+        }
+        return bulkLoad((Pair<K, V>[]) list.toArray(new Pair[list.size()]));
+    }
+
+    /**
+     * Returns a new {@code Map4} holding the pairs of {@code pairs}, loaded as
+     * by {@code bulkLoad} on an array. A parallel stream is also collected in
+     * parallel.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param pairs
+     *            the pairs to load
+     * @return the new map
+     * @updates pairs
+     * @requires <pre>
+     * pairs /= null  and
+     * [no key or value of a pair of pairs is null]  and
+     * [no two pairs of pairs have equal keys]
+     * </pre>
+     * @ensures <pre>
+     * bulkLoad = [the set of the pairs of pairs]  and
+     * [pairs has been consumed]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> Map4<K, V> bulkLoad(Stream<Pair<K, V>> pairs) {
+        assert pairs != null : "Violation of: pairs is not null";
+
+        return bulkLoad((Pair<K, V>[]) pairs.toArray(Pair[]::new));
+    }
+
+    /**
+     * Returns a {@code Spliterator} over the entries of {@code this} that
+     * splits on ranges of buckets and knows the exact number of entries in
+     * each range. As with {@code iterator}, {@code this} must not be changed
+     * while it is in use.
+     *
+     * @return a spliterator over the entries of {@code this}
+     */
+    @Override
+    public final Spliterator<Pair<K, V>> spliterator() {
+        return new Map4Spliterator(0, this.bucketCount(), this.size);
+    }
+
+    /**
+     * Returns a sequential {@code Stream} of the entries of {@code this}.
+     *
+     * @return a stream over the entries of {@code this}
+     */
+    public final Stream<Pair<K, V>> stream() {
+        return StreamSupport.stream(this.spliterator(), false);
+    }
+
+    /**
+     * Returns a possibly parallel {@code Stream} of the entries of
+     * {@code this}, which splits its work by ranges of buckets.
+     *
+     * @return a parallel stream over the entries of {@code this}
+     */
+    public final Stream<Pair<K, V>> parallelStream() {
+        return StreamSupport.stream(this.spliterator(), true);
+    }
+
+    /**
+     * Task computing the bucket of each key in a range of the pairs given to
+     * {@code bulkLoad}, splitting the range in half until it is small.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     */
+    private static final class IndexTask<K, V> extends RecursiveAction {
+
+        /**
+         * Serialization version, as required of a {@code RecursiveAction}.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The map being loaded, whose seed the keys are hashed with.
+         */
+        private final transient Map4<K, V> map;
+
+        /**
+         * The pairs being loaded.
+         */
+        private final transient Pair<K, V>[] pairs;
+
+        /**
+         * Receives the bucket index of each pair.
+         */
+        private final int[] indices;
+
+        /**
+         * Position of the first pair of the range.
+         */
+        private final int from;
+
+        /**
+         * Position just past the last pair of the range.
+         */
+        private final int to;
+
+        /**
+         * Constructor.
+         *
+         * @param map
+         *            the map being loaded
+         * @param pairs
+         *            the pairs being loaded
+         * @param indices
+         *            receives the bucket index of each pair
+         * @param from
+         *            position of the first pair of the range
+         * @param to
+         *            position just past the last pair of the range
+         */
+        IndexTask(Map4<K, V> map, Pair<K, V>[] pairs, int[] indices, int from,
+                int to) {
+            this.map = map;
+            this.pairs = pairs;
+            this.indices = indices;
+            this.from = from;
+            this.to = to;
         }
 
         @Override
-        public Pair<K, V> next() {
-            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
-            if (!this.hasNext()) {
-                /*
-                 * Exception is supposed to be thrown in this case, but with
-                 * assertion-checking enabled it cannot happen because of assert
-                 * above.
-                 */
-                throw new NoSuchElementException();
+        protected void compute() {
+            if (this.to - this.from <= BULK_LOAD_GRAIN) {
+                int buckets = this.map.hashTable.length;
+                for (int i = this.from; i < this.to; i++) {
+                    K key = this.pairs[i].key();
+                    assert key != null : "Violation of: key is not null";
+                    assert this.pairs[i].value() != null : ""
+                            + "Violation of: value is not null";
+                    this.indices[i] = mod(this.map.hash(key), buckets);
+                }
+            } else {
+                int mid = (this.from + this.to) >>> 1;
+                invokeAll(
+                        new IndexTask<K, V>(this.map, this.pairs,
+                                this.indices, this.from, mid),
+                        new IndexTask<K, V>(this.map, this.pairs,
+                                this.indices, mid, this.to));
             }
-            this.numberSeen++;
-            while (!this.bucketIterator.hasNext()) {
-                this.currentBucket++;
-                this.bucketIterator = Map4.this.hashTable[this.currentBucket]
-                        .iterator();
+        }
+
+    }
+
+    /**
+     * Task filling a range of buckets with the pairs given to
+     * {@code bulkLoad}, splitting the range in half until it holds few
+     * entries. No two tasks share a bucket, so no locking is needed.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     */
+    private static final class FillTask<K, V> extends RecursiveAction {
+
+        /**
+         * Serialization version, as required of a {@code RecursiveAction}.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The buckets being filled.
+         */
+        private final transient Map<K, V>[] table;
+
+        /**
+         * The pairs being loaded.
+         */
+        private final transient Pair<K, V>[] pairs;
+
+        /**
+         * Positions in {@code pairs}, grouped by bucket.
+         */
+        private final int[] order;
+
+        /**
+         * For each bucket, the position in {@code order} of its first pair;
+         * the last entry is the number of pairs.
+         */
+        private final int[] starts;
+
+        /**
+         * First bucket of the range.
+         */
+        private final int from;
+
+        /**
+         * Bucket just past the range.
+         */
+        private final int to;
+
+        /**
+         * Constructor.
+         *
+         * @param table
+         *            the buckets being filled
+         * @param pairs
+         *            the pairs being loaded
+         * @param order
+         *            positions in {@code pairs}, grouped by bucket
+         * @param starts
+         *            where each bucket's positions start in {@code order}
+         * @param from
+         *            first bucket of the range
+         * @param to
+         *            bucket just past the range
+         */
+        FillTask(Map<K, V>[] table, Pair<K, V>[] pairs, int[] order,
+                int[] starts, int from, int to) {
+            this.table = table;
+            this.pairs = pairs;
+            this.order = order;
+            this.starts = starts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1 || this.starts[this.to]
+                    - this.starts[this.from] <= BULK_LOAD_GRAIN) {
+                for (int b = this.from; b < this.to; b++) {
+                    int start = this.starts[b];
+                    int end = this.starts[b + 1];
+                    if (end > start) {
+                        Map<K, V> bucket;
+                        if (end - start > TREEIFY_THRESHOLD) {
+                            bucket = new TreeBucket<K, V>();
+                        } else {
+                            bucket = new Map1L<K, V>();
+                        }
+                        for (int j = start; j < end; j++) {
+                            Pair<K, V> p = this.pairs[this.order[j]];
+                            assert !bucket.hasKey(p.key()) : ""
+                                    + "Violation of: [no two entries of pairs"
+                                    + " have equal keys]";
+                            bucket.add(p.key(), p.value());
+                        }
+                        this.table[b] = bucket;
+                    }
+                }
+            } else {
+                int mid = (this.from + this.to) >>> 1;
+                invokeAll(
+                        new FillTask<K, V>(this.table, this.pairs, this.order,
+                                this.starts, this.from, mid),
+                        new FillTask<K, V>(this.table, this.pairs, this.order,
+                                this.starts, mid, this.to));
             }
-            return this.bucketIterator.next();
+        }
+
+    }
+
+    /**
+     * Implementation of {@code Spliterator} interface for {@code Map4}, over
+     * a range of bucket positions as numbered by {@code bucketAt}.
+     */
+    private final class Map4Spliterator implements Spliterator<Pair<K, V>> {
+
+        /**
+         * Position of the next bucket to start on.
+         */
+        private int index;
+
+        /**
+         * Position just past the last bucket of the range.
+         */
+        private int fence;
+
+        /**
+         * Number of entries not yet returned.
+         */
+        private long remaining;
+
+        /**
+         * Iterator over the bucket currently being traversed, or null.
+         */
+        private Iterator<Pair<K, V>> bucketIterator;
+
+        /**
+         * Constructor for the buckets at positions [{@code index},
+         * {@code fence}), which hold {@code remaining} entries.
+         *
+         * @param index
+         *            position of the first bucket
+         * @param fence
+         *            position just past the last bucket
+         * @param remaining
+         *            number of entries in the range
+         */
+        Map4Spliterator(int index, int fence, long remaining) {
+            this.index = index;
+            this.fence = fence;
+            this.remaining = remaining;
+            this.bucketIterator = null;
         }
 
         @Override
-        public void remove() {
-            throw new UnsupportedOperationException(
-                    "remove operation not supported");
+        public boolean tryAdvance(Consumer<? super Pair<K, V>> action) {
+            assert action != null : "Violation of: action is not null";
+            while ((this.bucketIterator == null
+                    || !this.bucketIterator.hasNext())
+                    && this.index < this.fence) {
+                Map<K, V> bucket = Map4.this.bucketAt(this.index);
+                this.index++;
+                if (bucket != null) {
+                    this.bucketIterator = bucket.iterator();
+                }
+            }
+            boolean advanced = this.bucketIterator != null
+                    && this.bucketIterator.hasNext();
+            if (advanced) {
+                this.remaining--;
+                action.accept(this.bucketIterator.next());
+            }
+            return advanced;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Pair<K, V>> action) {
+            assert action != null : "Violation of: action is not null";
+            if (this.bucketIterator != null) {
+                while (this.bucketIterator.hasNext()) {
+                    action.accept(this.bucketIterator.next());
+                }
+                this.bucketIterator = null;
+            }
+            while (this.index < this.fence) {
+                Map<K, V> bucket = Map4.this.bucketAt(this.index);
+                this.index++;
+                if (bucket != null) {
+                    for (Pair<K, V> p : bucket) {
+                        action.accept(p);
+                    }
+                }
+            }
+            this.remaining = 0;
+        }
+
+        @Override
+        public Spliterator<Pair<K, V>> trySplit() {
+            Spliterator<Pair<K, V>> result = null;
+            int mid = (this.index + this.fence) >>> 1;
+            if (this.index < mid) {
+                long upper = 0;
+                for (int i = mid; i < this.fence; i++) {
+                    upper += sizeOf(Map4.this.bucketAt(i));
+                }
+                result = new Map4Spliterator(mid, this.fence, upper);
+                this.remaining -= upper;
+                this.fence = mid;
+            }
+            return result;
+        }
+
+        @Override
+        public long estimateSize() {
+            return this.remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.SIZED | Spliterator.SUBSIZED
+                    | Spliterator.DISTINCT | Spliterator.NONNULL;
+        }
+
+    }
+
+    /**
+     * Snapshot of how the entries of a {@code Map4} are spread over its
+     * buckets. Probe counts are the number of entries examined, averaged
+     * over every key for successful lookups and over every bucket for
+     * failed ones.
+     */
+    public static final class Statistics {
+
+        /**
+         * Number of buckets.
+         */
+        private final int bucketCount;
+
+        /**
+         * Number of buckets holding each number of entries.
+         */
+        private final int[] histogram;
+
+        /**
+         * Number of entries.
+         */
+        private final int size;
+
+        /**
+         * Average entries examined by a successful lookup.
+         */
+        private final double successfulProbes;
+
+        /**
+         * Average entries examined by a failed lookup.
+         */
+        private final double failedProbes;
+
+        /**
+         * Number of resizes started.
+         */
+        private final int resizeCount;
+
+        /**
+         * Approximate bytes used by the table and buckets.
+         */
+        private final long bytes;
+
+        /**
+         * Constructor from the values gathered by {@code statistics}.
+         *
+         * @param bucketCount
+         *            number of buckets
+         * @param histogram
+         *            number of buckets holding each number of entries
+         * @param size
+         *            number of entries
+         * @param successfulProbes
+         *            average entries examined by a successful lookup
+         * @param failedProbes
+         *            average entries examined by a failed lookup
+         * @param resizeCount
+         *            number of resizes started
+         * @param bytes
+         *            approximate bytes used by the table and buckets
+         */
+        private Statistics(int bucketCount, int[] histogram, int size,
+                double successfulProbes, double failedProbes,
+                int resizeCount, long bytes) {
+            this.bucketCount = bucketCount;
+            this.histogram = histogram;
+            this.size = size;
+            this.successfulProbes = successfulProbes;
+            this.failedProbes = failedProbes;
+            this.resizeCount = resizeCount;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns the number of buckets, counting those of a resize in
+         * progress that have not been moved yet. An empty map has no
+         * buckets.
+         *
+         * @return the number of buckets
+         */
+        public int bucketCount() {
+            return this.bucketCount;
+        }
+
+        /**
+         * Returns the occupancy histogram: entry {@code i} is the number of
+         * buckets holding exactly {@code i} entries.
+         *
+         * @return the histogram, of length {@code maxChainLength() + 1}
+         */
+        public int[] occupancyHistogram() {
+            return this.histogram.clone();
+        }
+
+        /**
+         * Returns the number of entries in the fullest bucket.
+         *
+         * @return the longest chain length
+         */
+        public int maxChainLength() {
+            return this.histogram.length - 1;
+        }
+
+        /**
+         * Returns the mean number of entries in a non-empty bucket.
+         *
+         * @return the mean chain length, or 0 if there are no entries
+         */
+        public double meanChainLength() {
+            int nonEmpty = this.bucketCount - this.histogram[0];
+            double result = 0;
+            if (nonEmpty > 0) {
+                result = (double) this.size / nonEmpty;
+            }
+            return result;
+        }
+
+        /**
+         * Returns the average number of entries examined when looking up a
+         * key that is present.
+         *
+         * @return the average probes per successful lookup
+         */
+        public double successfulProbes() {
+            return this.successfulProbes;
+        }
+
+        /**
+         * Returns the average number of entries examined when looking up a
+         * key that is absent.
+         *
+         * @return the average probes per failed lookup
+         */
+        public double failedProbes() {
+            return this.failedProbes;
+        }
+
+        /**
+         * Returns the number of resizes started over the lifetime of the
+         * map.
+         *
+         * @return the resize count
+         */
+        public int resizeCount() {
+            return this.resizeCount;
+        }
+
+        /**
+         * Returns the approximate number of bytes used by the table and
+         * buckets for each entry, not counting the keys and values
+         * themselves.
+         *
+         * @return the approximate bytes per entry, or 0 if there are no
+         *         entries
+         */
+        public double bytesPerEntry() {
+            double result = 0;
+            if (this.size > 0) {
+                result = (double) this.bytes / this.size;
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "buckets=" + this.bucketCount + " size=" + this.size
+                    + " maxChain=" + this.maxChainLength() + " meanChain="
+                    + this.meanChainLength() + " successfulProbes="
+                    + this.successfulProbes + " failedProbes="
+                    + this.failedProbes + " resizes=" + this.resizeCount
+                    + " bytesPerEntry=" + this.bytesPerEntry();
         }
 
     }
 
+    /**
+     * Reports how the entries of {@code this} are spread over its buckets.
+     * Takes time proportional to the number of buckets.
+     *
+     * @return a snapshot of the bucket statistics
+     * @ensures [statistics describes the current representation of this]
+     */
+    public final Statistics statistics() {
+        int buckets = this.bucketCount();
+        long bytes = 0;
+        if (this.hashTable != null) {
+            bytes += (long) ESTIMATED_SLOT_BYTES * this.hashTable.length;
+        }
+        if (this.oldTable != null) {
+            bytes += (long) ESTIMATED_SLOT_BYTES * this.oldTable.length;
+        }
+        int longest = 0;
+        for (int i = 0; i < buckets; i++) {
+            longest = Math.max(longest, sizeOf(this.bucketAt(i)));
+        }
+        int[] histogram = new int[longest + 1];
+        long successful = 0;
+        long failed = 0;
+        for (int i = 0; i < buckets; i++) {
+            Map<K, V> bucket = this.bucketAt(i);
+            histogram[sizeOf(bucket)]++;
+            successful += totalProbes(bucket);
+            failed += probeLength(bucket);
+            bytes += estimatedBytes(bucket);
+        }
+        double successfulProbes = 0;
+        if (this.size > 0) {
+            successfulProbes = (double) successful / this.size;
+        }
+        double failedProbes = 0;
+        if (buckets > 0) {
+            failedProbes = (double) failed / buckets;
+        }
+        return new Statistics(buckets, histogram, this.size,
+                successfulProbes, failedProbes, this.resizeCount, bytes);
+    }
+
 }
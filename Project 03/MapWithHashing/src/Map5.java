@@ -0,0 +1,524 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} represented as an open-addressing hash table of parallel arrays
+ * (keys, values, and cached hash codes) using Robin Hood linear probing, with
+ * implementations of primary methods.
+ * <p>
+ * Unlike {@code Map4}, there are no bucket objects: each entry occupies one
+ * slot of three flat arrays, and a lookup scans neighboring slots instead of
+ * following references. Robin Hood insertion keeps every entry at most a few
+ * slots away from its home slot by letting an entry that is farther from home
+ * take the place of one that is closer, and removal shifts the following
+ * entries back so no tombstones are needed.
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @mathdefinitions <pre>
+ * HOME(
+ *   h: integer,
+ *   n: integer
+ *  ): integer is
+ *  [the slot in a table of n slots at which probing for hash h starts]
+ *
+ * DIST(
+ *   m: Map5,
+ *   i: integer
+ *  ): integer is
+ *  (i - HOME($m.hashes[i], |$m.keys|)) mod |$m.keys|
+ * </pre>
+ * @convention <pre>
+ * |$this.keys| = |$this.values| = |$this.hashes|  and
+ * |$this.keys| is a power of 2  and  |$this.keys| >= MINIMUM_CAPACITY  and
+ * $this.size = |{i: integer where (0 <= i < |$this.keys|  and
+ *                                  $this.keys[i] /= null) (i)}|  and
+ * $this.size <= MAXIMUM_LOAD * |$this.keys|  and
+ * for all i: integer
+ *     where (0 <= i < |$this.keys|  and  $this.keys[i] /= null)
+ *   ($this.values[i] /= null  and
+ *    $this.hashes[i] = [spread of $this.keys[i].hashCode()]  and
+ *    for all j: integer
+ *        where (0 <= j < DIST($this, i))
+ *      ($this.keys[(i - DIST($this, i) + j) mod |$this.keys|] /= null  and
+ *       DIST($this, (i - DIST($this, i) + j) mod |$this.keys|) >= j))  and
+ * for all i: integer
+ *     where (0 <= i < |$this.keys|  and  $this.keys[i] = null)
+ *   ($this.values[i] = null)  and
+ * [no two non-null entries of $this.keys are equal]
+ * </pre>
+ * @correspondence <pre>
+ * this = {i: integer where (0 <= i < |$this.keys|  and
+ *                           $this.keys[i] /= null)
+ *          ( ($this.keys[i], $this.values[i]) )}
+ * </pre>
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class Map5<K, V> extends MapSecondary<K, V> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Default number of slots; must be a power of 2.
+     */
+    private static final int DEFAULT_CAPACITY = 128;
+
+    /**
+     * Smallest number of slots; must be a power of 2.
+     */
+    private static final int MINIMUM_CAPACITY = 8;
+
+    /**
+     * Largest number of slots.
+     */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * Largest allowed ratio of {@code size} to number of slots.
+     */
+    private static final double MAXIMUM_LOAD = 0.8;
+
+    /**
+     * Keys, or null for an empty slot.
+     */
+    private K[] keys;
+
+    /**
+     * Values associated with the keys in the same slots.
+     */
+    private V[] values;
+
+    /**
+     * Spread hash codes of the keys in the same slots.
+     */
+    private int[] hashes;
+
+    /**
+     * Total size of abstract {@code this}.
+     */
+    private int size;
+
+    /**
+     * Slot at which the next {@code removeAny} starts looking.
+     */
+    private int removeAnyIndex;
+
+    /**
+     * Returns the hash code of {@code key} with its high bits folded into its
+     * low bits, since only the low bits choose a slot.
+     *
+     * @param key
+     *            the key to hash
+     * @return the spread hash code
+     * @ensures spread = [key.hashCode() with high bits mixed into low bits]
+     */
+    private static int spread(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> (Integer.SIZE / 2));
+    }
+
+    /**
+     * Returns the smallest power of 2 that is at least {@code n} and at least
+     * {@code MINIMUM_CAPACITY}.
+     *
+     * @param n
+     *            the lower bound
+     * @return the capacity
+     * @requires n <= MAXIMUM_CAPACITY
+     * @ensures <pre>
+     * capacityFor is a power of 2  and  capacityFor >= n  and
+     * capacityFor >= MINIMUM_CAPACITY
+     * </pre>
+     */
+    private static int capacityFor(int n) {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < n) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param capacity
+     *            the number of slots
+     * @requires capacity is a power of 2 and capacity >= MINIMUM_CAPACITY
+     * @ensures <pre>
+     * |$this.keys| = capacity  and  [every slot is empty]  and  $this.size = 0
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep(int capacity) {
+        /*
+         * With "new K[...]" in place of "(K[]) new Object[...]" it does not
+         * compile; as shown, it results in a warning about an unchecked
+         * conversion, though it cannot fail since the arrays never escape.
+         */
+        this.keys = (K[]) new Object[capacity];
+        this.values = (V[]) new Object[capacity];
+        this.hashes = new int[capacity];
+        this.size = 0;
+        this.removeAnyIndex = 0;
+    }
+
+    /**
+     * Returns how far the entry in slot {@code i} is from its home slot.
+     *
+     * @param i
+     *            the slot
+     * @return DIST($this, i)
+     * @requires 0 <= i < |$this.keys| and $this.keys[i] /= null
+     * @ensures probeDistance = DIST($this, i)
+     */
+    private int probeDistance(int i) {
+        int mask = this.keys.length - 1;
+        return (i - (this.hashes[i] & mask)) & mask;
+    }
+
+    /**
+     * Returns the slot holding {@code key}, or -1 if there is none.
+     *
+     * @param key
+     *            the key to look for
+     * @param hash
+     *            the spread hash code of {@code key}
+     * @return the slot of {@code key}, or -1
+     * @requires hash = [spread of key.hashCode()]
+     * @ensures <pre>
+     * (indexOf = -1  and  key is not in DOMAIN(this))  or
+     * $this.keys[indexOf] = key
+     * </pre>
+     */
+    private int indexOf(Object key, int hash) {
+        int mask = this.keys.length - 1;
+        int i = hash & mask;
+        int dist = 0;
+        int result = -1;
+        /*
+         * Robin Hood ordering means key cannot be past a slot whose entry is
+         * closer to home than key would be there
+         */
+        while (result < 0 && this.keys[i] != null
+                && dist <= this.probeDistance(i)) {
+            if (this.hashes[i] == hash && this.keys[i].equals(key)) {
+                result = i;
+            }
+            i = (i + 1) & mask;
+            dist++;
+        }
+        return result;
+    }
+
+    /**
+     * Places ({@code key}, {@code value}) into the table using Robin Hood
+     * insertion, without checking the load or updating {@code size}.
+     *
+     * @param key
+     *            the key to place
+     * @param value
+     *            the value to place
+     * @param hash
+     *            the spread hash code of {@code key}
+     * @updates $this.keys, $this.values, $this.hashes
+     * @requires <pre>
+     * key is not in DOMAIN(this)  and  [there is an empty slot]  and
+     * hash = [spread of key.hashCode()]
+     * </pre>
+     * @ensures [the table holds its old entries and (key, value)]
+     */
+    private void place(K key, V value, int hash) {
+        int mask = this.keys.length - 1;
+        int i = hash & mask;
+        int dist = 0;
+        K k = key;
+        V v = value;
+        int h = hash;
+        while (this.keys[i] != null) {
+            int existing = this.probeDistance(i);
+            if (existing < dist) {
+                // the resident is closer to home, so it moves on instead
+                K tk = this.keys[i];
+                V tv = this.values[i];
+                int th = this.hashes[i];
+                this.keys[i] = k;
+                this.values[i] = v;
+                this.hashes[i] = h;
+                k = tk;
+                v = tv;
+                h = th;
+                dist = existing;
+            }
+            i = (i + 1) & mask;
+            dist++;
+        }
+        this.keys[i] = k;
+        this.values[i] = v;
+        this.hashes[i] = h;
+    }
+
+    /**
+     * Empties slot {@code i} and shifts the entries that follow it back by
+     * one until reaching an empty slot or an entry already in its home slot.
+     *
+     * @param i
+     *            the slot to empty
+     * @updates this
+     * @requires 0 <= i < |$this.keys| and $this.keys[i] /= null
+     * @ensures this = #this \ {(#$this.keys[i], #$this.values[i])}
+     */
+    private void removeAt(int i) {
+        int mask = this.keys.length - 1;
+        int hole = i;
+        int next = (hole + 1) & mask;
+        while (this.keys[next] != null && this.probeDistance(next) > 0) {
+            this.keys[hole] = this.keys[next];
+            this.values[hole] = this.values[next];
+            this.hashes[hole] = this.hashes[next];
+            hole = next;
+            next = (next + 1) & mask;
+        }
+        this.keys[hole] = null;
+        this.values[hole] = null;
+        this.hashes[hole] = 0;
+        this.size--;
+    }
+
+    /**
+     * Moves every entry into new arrays of {@code capacity} slots.
+     *
+     * @param capacity
+     *            the new number of slots
+     * @updates this
+     * @requires <pre>
+     * capacity is a power of 2  and  capacity >= MINIMUM_CAPACITY  and
+     * |this| <= MAXIMUM_LOAD * capacity
+     * </pre>
+     * @ensures this = #this and |$this.keys| = capacity
+     */
+    private void resize(int capacity) {
+        K[] oldKeys = this.keys;
+        V[] oldValues = this.values;
+        int[] oldHashes = this.hashes;
+        int oldSize = this.size;
+        this.createNewRep(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                this.place(oldKeys[i], oldValues[i], oldHashes[i]);
+            }
+        }
+        this.size = oldSize;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public Map5() {
+
+        this.createNewRep(DEFAULT_CAPACITY);
+
+    }
+
+    /**
+     * Constructor resulting in a table with room for {@code expectedSize}
+     * entries before it has to grow.
+     *
+     * @param expectedSize
+     *            number of entries expected
+     * @requires 0 <= expectedSize <= MAXIMUM_LOAD * MAXIMUM_CAPACITY
+     * @ensures this = {}
+     */
+    public Map5(int expectedSize) {
+        assert expectedSize >= 0 : "Violation of: expectedSize >= 0";
+
+        this.createNewRep(
+                capacityFor((int) Math.ceil(expectedSize / MAXIMUM_LOAD)));
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof Map5<?, ?> : ""
+                + "Violation of: source is of dynamic type Map5<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type Map5<?,?>, and
+         * the ?,? must be K,V or the call would not have compiled.
+         */
+        Map5<K, V> localSource = (Map5<K, V>) source;
+        this.keys = localSource.keys;
+        this.values = localSource.values;
+        this.hashes = localSource.hashes;
+        this.size = localSource.size;
+        this.removeAnyIndex = localSource.removeAnyIndex;
+        localSource.createNewRep(DEFAULT_CAPACITY);
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
+
+        if (this.size + 1 > MAXIMUM_LOAD * this.keys.length
+                && this.keys.length < MAXIMUM_CAPACITY) {
+            this.resize(2 * this.keys.length);
+        }
+        this.place(key, value, spread(key));
+        this.size++;
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        int i = this.indexOf(key, spread(key));
+        Pair<K, V> result = new SimplePair<K, V>(this.keys[i], this.values[i]);
+        this.removeAt(i);
+        return result;
+    }
+
+    @Override
+    public final Pair<K, V> removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        /*
+         * Removal only shifts entries back into the slot just emptied, so
+         * resuming from there finds the next entry without rescanning the
+         * slots already known to be empty
+         */
+        int mask = this.keys.length - 1;
+        int i = this.removeAnyIndex & mask;
+        while (this.keys[i] == null) {
+            i = (i + 1) & mask;
+        }
+        this.removeAnyIndex = i;
+        Pair<K, V> result = new SimplePair<K, V>(this.keys[i], this.values[i]);
+        this.removeAt(i);
+        return result;
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        return this.values[this.indexOf(key, spread(key))];
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        return this.indexOf(key, spread(key)) >= 0;
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        return new Map5Iterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code Map5}.
+     */
+    private final class Map5Iterator implements Iterator<Pair<K, V>> {
+
+        /**
+         * Number of elements seen already (i.e., |~this.seen|).
+         */
+        private int numberSeen;
+
+        /**
+         * Slot from which the next element will come (or before it).
+         */
+        private int currentSlot;
+
+        /**
+         * No-argument constructor.
+         */
+        Map5Iterator() {
+            this.numberSeen = 0;
+            this.currentSlot = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.numberSeen < Map5.this.size;
+        }
+
+        @Override
+        public Pair<K, V> next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            this.numberSeen++;
+            while (Map5.this.keys[this.currentSlot] == null) {
+                this.currentSlot++;
+            }
+            Pair<K, V> result = new SimplePair<K, V>(
+                    Map5.this.keys[this.currentSlot],
+                    Map5.this.values[this.currentSlot]);
+            this.currentSlot++;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,717 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} represented by two-table cuckoo hashing with a small stash, with
+ * implementations of primary methods.
+ * <p>
+ * Every key has exactly one candidate slot in each of two tables, chosen by
+ * two independently seeded hash functions, so {@code value} and
+ * {@code hasKey} look at no more than two slots and the few stash entries,
+ * however many entries there are. {@code add} puts a key in
+ * one of its slots, evicting the resident into that resident's other slot,
+ * and so on; if that goes on for {@code MAXIMUM_KICKS} moves the entry left
+ * over goes into the stash, and if the stash is full every entry is placed
+ * again with new seeds.
+ * <p>
+ * New seeds cannot separate keys whose hash codes are equal, so if placing
+ * every entry fails {@code REHASHES_BEFORE_GROWING} times in a row the stash
+ * is doubled instead. The stash therefore stays at {@code STASH_SIZE} unless
+ * more keys share a hash code than the two tables and the stash can hold,
+ * and only then do lookups look at more than {@code STASH_SIZE + 2} keys.
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @mathdefinitions <pre>
+ * SLOT(
+ *   m: Map6,
+ *   t: integer,
+ *   x: K
+ *  ): integer is
+ *  [t * |$m.keys| / 2 plus x.hashCode() mixed with the seed of table t,
+ *   mod |$m.keys| / 2]
+ *
+ * POSITIONS(
+ *   m: Map6
+ *  ): set of integer is
+ *  {p: integer where ((0 <= p < |$m.keys|  and  $m.keys[p] /= null)  or
+ *                     (|$m.keys| <= p < |$m.keys| + $m.stashSize)) (p)}
+ * </pre>
+ * @convention <pre>
+ * |$this.keys| = |$this.values|  and
+ * |$this.keys| / 2 is a power of 2  and
+ * |$this.keys| / 2 >= MINIMUM_CAPACITY  and
+ * |$this.stashKeys| = |$this.stashValues| >= STASH_SIZE  and
+ * 0 <= $this.stashSize <= |$this.stashKeys|  and
+ * $this.size = |POSITIONS($this)|  and
+ * for all p: integer
+ *     where (0 <= p < |$this.keys|  and  $this.keys[p] /= null)
+ *   ($this.values[p] /= null  and
+ *    (p = SLOT($this, 0, $this.keys[p])  or
+ *     p = SLOT($this, 1, $this.keys[p])))  and
+ * for all p: integer
+ *     where (0 <= p < |$this.keys|  and  $this.keys[p] = null)
+ *   ($this.values[p] = null)  and
+ * for all j: integer
+ *     where (0 <= j < $this.stashSize)
+ *   ($this.stashKeys[j] /= null  and  $this.stashValues[j] /= null)  and
+ * for all j: integer
+ *     where ($this.stashSize <= j < |$this.stashKeys|)
+ *   ($this.stashKeys[j] = null  and  $this.stashValues[j] = null)  and
+ * [no two keys in $this.keys and $this.stashKeys are equal]
+ * </pre>
+ * @correspondence <pre>
+ * this = {p: integer where (0 <= p < |$this.keys|  and
+ *                           $this.keys[p] /= null)
+ *          ( ($this.keys[p], $this.values[p]) )} union
+ *        {j: integer where (0 <= j < $this.stashSize)
+ *          ( ($this.stashKeys[j], $this.stashValues[j]) )}
+ * </pre>
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class Map6<K, V> extends MapSecondary<K, V> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Default number of slots in each table; must be a power of 2.
+     */
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * Smallest number of slots in each table; must be a power of 2.
+     */
+    private static final int MINIMUM_CAPACITY = 8;
+
+    /**
+     * Largest number of slots in each table.
+     */
+    private static final int MAXIMUM_CAPACITY = 1 << 29;
+
+    /**
+     * Largest allowed ratio of {@code size} to the number of slots in both
+     * tables; cuckoo insertion starts failing often just above one half.
+     */
+    private static final double MAXIMUM_LOAD = 0.45;
+
+    /**
+     * Number of entries the stash can hold at first.
+     */
+    private static final int STASH_SIZE = 4;
+
+    /**
+     * Number of evictions {@code add} tries before using the stash.
+     */
+    private static final int MAXIMUM_KICKS = 32;
+
+    /**
+     * Number of failed attempts in a row to place every entry with new seeds
+     * after which the stash is made larger.
+     */
+    private static final int REHASHES_BEFORE_GROWING = 3;
+
+    /**
+     * First multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_1 = 0x85ebca6b;
+
+    /**
+     * Second multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_2 = 0xc2b2ae35;
+
+    /**
+     * Larger shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_1 = 16;
+
+    /**
+     * Smaller shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_2 = 13;
+
+    /**
+     * Keys of both tables, table 0 first, or null for an empty slot.
+     */
+    private K[] keys;
+
+    /**
+     * Values associated with the keys in the same slots.
+     */
+    private V[] values;
+
+    /**
+     * Keys in the stash, in positions [0, {@code stashSize}).
+     */
+    private K[] stashKeys;
+
+    /**
+     * Values associated with the keys in the same stash positions.
+     */
+    private V[] stashValues;
+
+    /**
+     * Number of entries in the stash.
+     */
+    private int stashSize;
+
+    /**
+     * Random seed of the hash function of table 0.
+     */
+    private int seed0;
+
+    /**
+     * Random seed of the hash function of table 1.
+     */
+    private int seed1;
+
+    /**
+     * Total size of abstract {@code this}.
+     */
+    private int size;
+
+    /**
+     * Slot at which the next {@code removeAny} starts looking.
+     */
+    private int removeAnyIndex;
+
+    /**
+     * Returns {@code key.hashCode()} mixed with {@code seed}, so that every
+     * bit of the hash code affects the slot chosen.
+     *
+     * @param key
+     *            the key to hash
+     * @param seed
+     *            the seed
+     * @return the mixed hash code
+     * @ensures hash = [key.hashCode() mixed with seed]
+     */
+    private static int hash(Object key, int seed) {
+        int h = key.hashCode() ^ seed;
+        h ^= h >>> MIX_SHIFT_1;
+        h *= MIX_MULTIPLIER_1;
+        h ^= h >>> MIX_SHIFT_2;
+        h *= MIX_MULTIPLIER_2;
+        h ^= h >>> MIX_SHIFT_1;
+        return h;
+    }
+
+    /**
+     * Returns the smallest power of 2 that is at least {@code n} and at least
+     * {@code MINIMUM_CAPACITY}.
+     *
+     * @param n
+     *            the lower bound
+     * @return the capacity
+     * @requires n <= MAXIMUM_CAPACITY
+     * @ensures <pre>
+     * capacityFor is a power of 2  and  capacityFor >= n  and
+     * capacityFor >= MINIMUM_CAPACITY
+     * </pre>
+     */
+    private static int capacityFor(int n) {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < n) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * Creator of initial representation, with new seeds.
+     *
+     * @param capacity
+     *            the number of slots in each table
+     * @param stashCapacity
+     *            the number of entries the stash can hold
+     * @requires <pre>
+     * capacity is a power of 2  and  capacity >= MINIMUM_CAPACITY  and
+     * stashCapacity >= STASH_SIZE
+     * </pre>
+     * @ensures <pre>
+     * |$this.keys| = 2 * capacity  and  [every slot is empty]  and
+     * |$this.stashKeys| = stashCapacity  and  $this.stashSize = 0  and
+     * $this.size = 0
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep(int capacity, int stashCapacity) {
+        /*
+         * With "new K[...]" in place of "(K[]) new Object[...]" it does not
+         * compile; as shown, it results in a warning about an unchecked
+         * conversion, though it cannot fail since the arrays never escape.
+         */
+        this.keys = (K[]) new Object[2 * capacity];
+        this.values = (V[]) new Object[2 * capacity];
+        this.stashKeys = (K[]) new Object[stashCapacity];
+        this.stashValues = (V[]) new Object[stashCapacity];
+        this.stashSize = 0;
+        this.seed0 = ThreadLocalRandom.current().nextInt();
+        this.seed1 = ThreadLocalRandom.current().nextInt();
+        this.size = 0;
+        this.removeAnyIndex = 0;
+    }
+
+    /**
+     * Returns the slot {@code key} may occupy in table {@code table}.
+     *
+     * @param table
+     *            0 or 1
+     * @param key
+     *            the key
+     * @return SLOT($this, table, key)
+     * @requires table = 0 or table = 1
+     * @ensures slot = SLOT($this, table, key)
+     */
+    private int slot(int table, Object key) {
+        int capacity = this.keys.length / 2;
+        int seed = this.seed0;
+        if (table == 1) {
+            seed = this.seed1;
+        }
+        return table * capacity + (hash(key, seed) & (capacity - 1));
+    }
+
+    /**
+     * Returns the position of {@code key}: a slot in [0, |$this.keys|), or
+     * |$this.keys| plus its index in the stash, or -1 if it is not there.
+     * Looks at no more than two slots and the stash.
+     *
+     * @param key
+     *            the key to look for
+     * @return the position of {@code key}, or -1
+     * @ensures <pre>
+     * (indexOf = -1  and  key is not in DOMAIN(this))  or
+     * (indexOf is in POSITIONS($this)  and  [the key there is key])
+     * </pre>
+     */
+    private int indexOf(Object key) {
+        int result = -1;
+        int i0 = this.slot(0, key);
+        int i1 = this.slot(1, key);
+        if (key.equals(this.keys[i0])) {
+            result = i0;
+        } else if (key.equals(this.keys[i1])) {
+            result = i1;
+        } else {
+            int j = 0;
+            while (result < 0 && j < this.stashSize) {
+                if (key.equals(this.stashKeys[j])) {
+                    result = this.keys.length + j;
+                }
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the entry at position {@code p}.
+     *
+     * @param p
+     *            the position
+     * @return the entry at {@code p}
+     * @requires p is in POSITIONS($this)
+     * @ensures [entryAt is the key and value at position p]
+     */
+    private Pair<K, V> entryAt(int p) {
+        Pair<K, V> result;
+        if (p < this.keys.length) {
+            result = new SimplePair<K, V>(this.keys[p], this.values[p]);
+        } else {
+            int j = p - this.keys.length;
+            result = new SimplePair<K, V>(this.stashKeys[j],
+                    this.stashValues[j]);
+        }
+        return result;
+    }
+
+    /**
+     * Removes the entry at position {@code p}, filling a stash hole with the
+     * last stash entry.
+     *
+     * @param p
+     *            the position
+     * @return the removed entry
+     * @updates this
+     * @requires p is in POSITIONS($this)
+     * @ensures <pre>
+     * removeAt = [the entry at position p in #this]  and
+     * this = #this \ {removeAt}
+     * </pre>
+     */
+    private Pair<K, V> removeAt(int p) {
+        Pair<K, V> result = this.entryAt(p);
+        if (p < this.keys.length) {
+            this.keys[p] = null;
+            this.values[p] = null;
+        } else {
+            int j = p - this.keys.length;
+            this.stashSize--;
+            this.stashKeys[j] = this.stashKeys[this.stashSize];
+            this.stashValues[j] = this.stashValues[this.stashSize];
+            this.stashKeys[this.stashSize] = null;
+            this.stashValues[this.stashSize] = null;
+        }
+        this.size--;
+        return result;
+    }
+
+    /**
+     * Places ({@code key}, {@code value}) by cuckoo insertion, using the
+     * stash if that does not settle within {@code MAXIMUM_KICKS} evictions,
+     * without checking the load or updating {@code size}. If the stash is
+     * full too, the entry left without a place is returned instead.
+     *
+     * @param key
+     *            the key to place
+     * @param value
+     *            the value to place
+     * @return null if every entry was placed, or else the entry left over
+     * @updates $this.keys, $this.values, $this.stashKeys, $this.stashValues,
+     *          $this.stashSize
+     * @requires key is not in DOMAIN(this)
+     * @ensures <pre>
+     * [the entries held, together with place if it is not null, are the
+     *  entries held before and (key, value)]
+     * </pre>
+     */
+    private Pair<K, V> place(K key, V value) {
+        K k = key;
+        V v = value;
+        int table = 0;
+        if (this.keys[this.slot(0, k)] != null
+                && this.keys[this.slot(1, k)] == null) {
+            table = 1;
+        }
+        boolean placed = false;
+        int kicks = 0;
+        while (!placed && kicks < MAXIMUM_KICKS) {
+            int i = this.slot(table, k);
+            K residentKey = this.keys[i];
+            V residentValue = this.values[i];
+            this.keys[i] = k;
+            this.values[i] = v;
+            if (residentKey == null) {
+                placed = true;
+            } else {
+                // the evicted resident tries its slot in the other table
+                k = residentKey;
+                v = residentValue;
+                table = 1 - table;
+                kicks++;
+            }
+        }
+        Pair<K, V> result = null;
+        if (!placed) {
+            if (this.stashSize < this.stashKeys.length) {
+                this.stashKeys[this.stashSize] = k;
+                this.stashValues[this.stashSize] = v;
+                this.stashSize++;
+            } else {
+                result = new SimplePair<K, V>(k, v);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Places the first {@code n} entries of {@code ks} and {@code vs} that are
+     * not null, stopping at the first one left over.
+     *
+     * @param ks
+     *            the keys
+     * @param vs
+     *            the values associated with the keys in the same positions
+     * @param n
+     *            number of positions to look at
+     * @return true iff every entry was placed
+     * @updates $this.keys, $this.values, $this.stashKeys, $this.stashValues,
+     *          $this.stashSize
+     * @requires <pre>
+     * 0 <= n <= |ks| = |vs|  and
+     * [the keys are distinct and not in DOMAIN(this)]
+     * </pre>
+     * @ensures [placeAll returns whether every entry was placed]
+     */
+    private boolean placeAll(K[] ks, V[] vs, int n) {
+        boolean result = true;
+        int i = 0;
+        while (result && i < n) {
+            if (ks[i] != null) {
+                result = this.place(ks[i], vs[i]) == null;
+            }
+            i++;
+        }
+        return result;
+    }
+
+    /**
+     * Places every entry, and {@code extra} if it is not null, again with new
+     * seeds in tables of {@code capacity} slots, retrying with new seeds (and
+     * after every {@code REHASHES_BEFORE_GROWING} tries, a stash twice as
+     * large) until no entry is left over. {@code size} is not changed.
+     *
+     * @param capacity
+     *            the number of slots in each new table
+     * @param extra
+     *            an entry to place as well, or null
+     * @updates this
+     * @requires <pre>
+     * capacity is a power of 2  and  capacity >= MINIMUM_CAPACITY  and
+     * (extra = null  or  extra.key is not in DOMAIN(this))
+     * </pre>
+     * @ensures <pre>
+     * (extra = null  and  this = #this)  or
+     * (extra /= null  and  this = #this union {extra})
+     * </pre>
+     */
+    private void rebuild(int capacity, Pair<K, V> extra) {
+        K[] oldKeys = this.keys;
+        V[] oldValues = this.values;
+        K[] oldStashKeys = this.stashKeys;
+        V[] oldStashValues = this.stashValues;
+        int oldStashSize = this.stashSize;
+        int oldSize = this.size;
+        int stashCapacity = oldStashKeys.length;
+        int attempts = 0;
+        boolean placed = false;
+        while (!placed) {
+            this.createNewRep(capacity, stashCapacity);
+            placed = this.placeAll(oldKeys, oldValues, oldKeys.length);
+            if (placed) {
+                placed = this.placeAll(oldStashKeys, oldStashValues,
+                        oldStashSize);
+            }
+            if (placed && extra != null) {
+                placed = this.place(extra.key(), extra.value()) == null;
+            }
+            attempts++;
+            if (attempts % REHASHES_BEFORE_GROWING == 0) {
+                stashCapacity *= 2;
+            }
+        }
+        this.size = oldSize;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public Map6() {
+
+        this.createNewRep(DEFAULT_CAPACITY, STASH_SIZE);
+
+    }
+
+    /**
+     * Constructor resulting in tables with room for {@code expectedSize}
+     * entries before they have to grow.
+     *
+     * @param expectedSize
+     *            number of entries expected
+     * @requires 0 <= expectedSize <= MAXIMUM_LOAD * 2 * MAXIMUM_CAPACITY
+     * @ensures this = {}
+     */
+    public Map6(int expectedSize) {
+        assert expectedSize >= 0 : "Violation of: expectedSize >= 0";
+
+        this.createNewRep(capacityFor(
+                (int) Math.ceil(expectedSize / (2 * MAXIMUM_LOAD))),
+                STASH_SIZE);
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(DEFAULT_CAPACITY, STASH_SIZE);
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof Map6<?, ?> : ""
+                + "Violation of: source is of dynamic type Map6<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type Map6<?,?>, and
+         * the ?,? must be K,V or the call would not have compiled.
+         */
+        Map6<K, V> localSource = (Map6<K, V>) source;
+        this.keys = localSource.keys;
+        this.values = localSource.values;
+        this.stashKeys = localSource.stashKeys;
+        this.stashValues = localSource.stashValues;
+        this.stashSize = localSource.stashSize;
+        this.seed0 = localSource.seed0;
+        this.seed1 = localSource.seed1;
+        this.size = localSource.size;
+        this.removeAnyIndex = localSource.removeAnyIndex;
+        localSource.createNewRep(DEFAULT_CAPACITY, STASH_SIZE);
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
+
+        int capacity = this.keys.length / 2;
+        if (this.size + 1 > MAXIMUM_LOAD * this.keys.length
+                && capacity < MAXIMUM_CAPACITY) {
+            capacity *= 2;
+            this.rebuild(capacity, null);
+        }
+        Pair<K, V> leftOver = this.place(key, value);
+        if (leftOver != null) {
+            this.rebuild(capacity, leftOver);
+        }
+        this.size++;
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        return this.removeAt(this.indexOf(key));
+    }
+
+    @Override
+    public final Pair<K, V> removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        Pair<K, V> result;
+        if (this.stashSize > 0) {
+            result = this.removeAt(this.keys.length + this.stashSize - 1);
+        } else {
+            /*
+             * Removal never moves the other entries, so resuming from the
+             * last slot emptied skips the slots already known to be empty
+             */
+            int i = this.removeAnyIndex;
+            while (this.keys[i] == null) {
+                i = (i + 1) % this.keys.length;
+            }
+            this.removeAnyIndex = i;
+            result = this.removeAt(i);
+        }
+        return result;
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        return this.entryAt(this.indexOf(key)).value();
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        return this.indexOf(key) >= 0;
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        return new Map6Iterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code Map6}.
+     */
+    private final class Map6Iterator implements Iterator<Pair<K, V>> {
+
+        /**
+         * Number of elements seen already (i.e., |~this.seen|).
+         */
+        private int numberSeen;
+
+        /**
+         * Position from which the next element will come (or before it).
+         */
+        private int currentPosition;
+
+        /**
+         * No-argument constructor.
+         */
+        Map6Iterator() {
+            this.numberSeen = 0;
+            this.currentPosition = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.numberSeen < Map6.this.size;
+        }
+
+        @Override
+        public Pair<K, V> next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            this.numberSeen++;
+            while (this.currentPosition < Map6.this.keys.length
+                    && Map6.this.keys[this.currentPosition] == null) {
+                this.currentPosition++;
+            }
+            Pair<K, V> result = Map6.this.entryAt(this.currentPosition);
+            this.currentPosition++;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
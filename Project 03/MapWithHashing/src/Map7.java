@@ -0,0 +1,830 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} represented as a persistent hash array mapped trie (HAMT, in the
+ * compact CHAMP layout), with implementations of primary methods.
+ * <p>
+ * Each trie node covers five bits of the mixed hash code and holds a bitmap
+ * of the entries stored in it and one of its children, with the entries and
+ * children packed into one array. Nodes are never changed once they may be
+ * reachable from more than one map, so {@code snapshot} returns a copy of
+ * {@code this} in constant time by sharing the whole trie, and each later
+ * change copies only the O(log32 n) nodes on the path it touches.
+ * <p>
+ * Bulk loading is transient automatically: every map owns the nodes it has
+ * created since its last {@code snapshot} (or since it was created) and
+ * changes them in place, so a run of {@code add}s copies a path only the
+ * first time it reaches nodes shared with a snapshot. Keys whose hash codes
+ * are equal are kept together in a collision node below the last level.
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @convention <pre>
+ * $this.root is a BitmapNode  and  $this.owner /= null  and
+ * $this.size = [number of entries in the trie rooted at $this.root]  and
+ * [every entry of a node at depth d has a mixed hash code whose first d
+ *  5-bit fragments lead from $this.root to that node]  and
+ * [every node other than $this.root holds at least two entries in its
+ *  subtree]  and
+ * [no two entries of the trie have equal keys]  and
+ * [a node whose owner is not $this.owner is not changed]
+ * </pre>
+ * @correspondence <pre>
+ * this = [the set of (key, value) entries in the trie rooted at $this.root]
+ * </pre>
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class Map7<K, V> extends MapSecondary<K, V> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Number of hash code bits used by each level of the trie.
+     */
+    private static final int BITS = 5;
+
+    /**
+     * Mask of a hash code fragment.
+     */
+    private static final int FRAGMENT_MASK = (1 << BITS) - 1;
+
+    /**
+     * First multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_1 = 0x85ebca6b;
+
+    /**
+     * Second multiplier of the hash mixing function.
+     */
+    private static final int MIX_MULTIPLIER_2 = 0xc2b2ae35;
+
+    /**
+     * Larger shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_1 = 16;
+
+    /**
+     * Smaller shift of the hash mixing function.
+     */
+    private static final int MIX_SHIFT_2 = 13;
+
+    /**
+     * Node holding entries and children selected by one fragment of the hash
+     * code. The content array holds the key and value of each entry, in order
+     * of fragment, followed by the children in reverse order of fragment.
+     */
+    private static final class BitmapNode {
+
+        /**
+         * Token of the map that may change this node in place, or null.
+         */
+        private final Object owner;
+
+        /**
+         * Bit i is set iff an entry with fragment i is in this node.
+         */
+        private final int dataMap;
+
+        /**
+         * Bit i is set iff a child with fragment i is in this node.
+         */
+        private final int nodeMap;
+
+        /**
+         * Keys and values, then children.
+         */
+        private final Object[] content;
+
+        /**
+         * Constructor.
+         *
+         * @param owner
+         *            token of the owning map, or null
+         * @param dataMap
+         *            bitmap of entries
+         * @param nodeMap
+         *            bitmap of children
+         * @param content
+         *            keys and values, then children
+         */
+        BitmapNode(Object owner, int dataMap, int nodeMap, Object[] content) {
+            this.owner = owner;
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+    }
+
+    /**
+     * Node below the last level of the trie, holding entries whose keys have
+     * equal hash codes, as keys alternating with values.
+     */
+    private static final class CollisionNode {
+
+        /**
+         * Keys and values.
+         */
+        private final Object[] content;
+
+        /**
+         * Constructor.
+         *
+         * @param content
+         *            keys and values
+         */
+        CollisionNode(Object[] content) {
+            this.content = content;
+        }
+
+    }
+
+    /**
+     * Root of the trie.
+     */
+    private BitmapNode root;
+
+    /**
+     * Token identifying the nodes this map may change in place.
+     */
+    private Object owner;
+
+    /**
+     * Total size of abstract {@code this}.
+     */
+    private int size;
+
+    /**
+     * Returns {@code key.hashCode()} with its bits mixed, so that the
+     * fragments used by the top levels of the trie depend on every bit.
+     *
+     * @param key
+     *            the key to hash
+     * @return the mixed hash code
+     * @ensures hash = [key.hashCode() mixed]
+     */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> MIX_SHIFT_1;
+        h *= MIX_MULTIPLIER_1;
+        h ^= h >>> MIX_SHIFT_2;
+        h *= MIX_MULTIPLIER_2;
+        h ^= h >>> MIX_SHIFT_1;
+        return h;
+    }
+
+    /**
+     * Returns the bit of the fragment of {@code hash} used at {@code shift}.
+     *
+     * @param hash
+     *            the mixed hash code
+     * @param shift
+     *            the number of bits used by the levels above
+     * @return the bit
+     * @ensures bit = 2^((hash >> shift) mod 2^BITS)
+     */
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & FRAGMENT_MASK);
+    }
+
+    /**
+     * Returns the number of bits of {@code map} below {@code bit}.
+     *
+     * @param map
+     *            the bitmap
+     * @param bit
+     *            the bit
+     * @return the index of {@code bit} among the bits of {@code map}
+     * @ensures index = [number of bits set in map below bit]
+     */
+    private static int index(int map, int bit) {
+        return Integer.bitCount(map & (bit - 1));
+    }
+
+    /**
+     * Creator of initial representation.
+     */
+    private void createNewRep() {
+        this.owner = new Object();
+        this.root = new BitmapNode(this.owner, 0, 0, new Object[0]);
+        this.size = 0;
+    }
+
+    /**
+     * Returns a node holding the two given entries, one level below
+     * {@code shift}.
+     *
+     * @param k1
+     *            first key
+     * @param v1
+     *            first value
+     * @param h1
+     *            mixed hash code of {@code k1}
+     * @param k2
+     *            second key
+     * @param v2
+     *            second value
+     * @param h2
+     *            mixed hash code of {@code k2}
+     * @param shift
+     *            the number of bits used by the levels above the new node
+     * @param owner
+     *            owner of the new nodes
+     * @return the new node
+     * @requires k1 /= k2
+     * @ensures [merge holds exactly (k1, v1) and (k2, v2)]
+     */
+    private static Object merge(Object k1, Object v1, int h1, Object k2,
+            Object v2, int h2, int shift, Object owner) {
+        Object result;
+        if (shift >= Integer.SIZE) {
+            result = new CollisionNode(new Object[] { k1, v1, k2, v2 });
+        } else {
+            int b1 = bit(h1, shift);
+            int b2 = bit(h2, shift);
+            if (b1 == b2) {
+                Object child = merge(k1, v1, h1, k2, v2, h2, shift + BITS,
+                        owner);
+                result = new BitmapNode(owner, 0, b1, new Object[] { child });
+            } else if (Integer.compareUnsigned(b1, b2) < 0) {
+                result = new BitmapNode(owner, b1 | b2, 0,
+                        new Object[] { k1, v1, k2, v2 });
+            } else {
+                result = new BitmapNode(owner, b1 | b2, 0,
+                        new Object[] { k2, v2, k1, v1 });
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code n} with the child in content position {@code pos}
+     * replaced by {@code child}, changing {@code n} in place if
+     * {@code owner} owns it.
+     *
+     * @param n
+     *            the node
+     * @param pos
+     *            the content position of the child
+     * @param child
+     *            the new child
+     * @param owner
+     *            the token of the map making the change
+     * @return the updated node
+     */
+    private static BitmapNode setChild(BitmapNode n, int pos, Object child,
+            Object owner) {
+        BitmapNode result = n;
+        if (n.owner == owner) {
+            n.content[pos] = child;
+        } else {
+            Object[] content = n.content.clone();
+            content[pos] = child;
+            result = new BitmapNode(owner, n.dataMap, n.nodeMap, content);
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code n} with the entry ({@code key}, {@code value}) added at
+     * {@code bit}.
+     *
+     * @param n
+     *            the node
+     * @param bit
+     *            the bit of the new entry
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @param owner
+     *            owner of the new node
+     * @return the new node
+     * @requires [bit is in neither bitmap of n]
+     * @ensures [insertData is n with the entry added]
+     */
+    private static BitmapNode insertData(BitmapNode n, int bit, Object key,
+            Object value, Object owner) {
+        Object[] src = n.content;
+        int pos = 2 * index(n.dataMap, bit);
+        Object[] dst = new Object[src.length + 2];
+        System.arraycopy(src, 0, dst, 0, pos);
+        dst[pos] = key;
+        dst[pos + 1] = value;
+        System.arraycopy(src, pos, dst, pos + 2, src.length - pos);
+        return new BitmapNode(owner, n.dataMap | bit, n.nodeMap, dst);
+    }
+
+    /**
+     * Returns {@code n} with the entry at {@code bit} removed.
+     *
+     * @param n
+     *            the node
+     * @param bit
+     *            the bit of the entry
+     * @param owner
+     *            owner of the new node
+     * @return the new node
+     * @requires [bit is in the data bitmap of n]
+     * @ensures [removeData is n without that entry]
+     */
+    private static BitmapNode removeData(BitmapNode n, int bit,
+            Object owner) {
+        Object[] src = n.content;
+        int pos = 2 * index(n.dataMap, bit);
+        Object[] dst = new Object[src.length - 2];
+        System.arraycopy(src, 0, dst, 0, pos);
+        System.arraycopy(src, pos + 2, dst, pos, src.length - pos - 2);
+        return new BitmapNode(owner, n.dataMap & ~bit, n.nodeMap, dst);
+    }
+
+    /**
+     * Returns {@code n} with the entry at {@code bit} replaced by the child
+     * {@code child}.
+     *
+     * @param n
+     *            the node
+     * @param bit
+     *            the bit of the entry
+     * @param child
+     *            the child
+     * @param owner
+     *            owner of the new node
+     * @return the new node
+     * @requires [bit is in the data bitmap of n]
+     * @ensures [dataToChild is n with that entry replaced by child]
+     */
+    private static BitmapNode dataToChild(BitmapNode n, int bit, Object child,
+            Object owner) {
+        Object[] src = n.content;
+        int len = src.length;
+        int dataPos = 2 * index(n.dataMap, bit);
+        int nodePos = len - 2 - index(n.nodeMap, bit);
+        Object[] dst = new Object[len - 1];
+        System.arraycopy(src, 0, dst, 0, dataPos);
+        System.arraycopy(src, dataPos + 2, dst, dataPos, nodePos - dataPos);
+        dst[nodePos] = child;
+        System.arraycopy(src, nodePos + 2, dst, nodePos + 1,
+                len - nodePos - 2);
+        return new BitmapNode(owner, n.dataMap & ~bit, n.nodeMap | bit, dst);
+    }
+
+    /**
+     * Returns {@code n} with the child at {@code bit} replaced by the entry
+     * ({@code key}, {@code value}).
+     *
+     * @param n
+     *            the node
+     * @param bit
+     *            the bit of the child
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @param owner
+     *            owner of the new node
+     * @return the new node
+     * @requires [bit is in the node bitmap of n]
+     * @ensures [childToData is n with that child replaced by the entry]
+     */
+    private static BitmapNode childToData(BitmapNode n, int bit, Object key,
+            Object value, Object owner) {
+        Object[] src = n.content;
+        int len = src.length;
+        int dataPos = 2 * index(n.dataMap, bit);
+        int nodePos = len - 1 - index(n.nodeMap, bit);
+        Object[] dst = new Object[len + 1];
+        System.arraycopy(src, 0, dst, 0, dataPos);
+        dst[dataPos] = key;
+        dst[dataPos + 1] = value;
+        System.arraycopy(src, dataPos, dst, dataPos + 2, nodePos - dataPos);
+        System.arraycopy(src, nodePos + 1, dst, nodePos + 2,
+                len - nodePos - 1);
+        return new BitmapNode(owner, n.dataMap | bit, n.nodeMap & ~bit, dst);
+    }
+
+    /**
+     * Returns the content array of {@code n} if it holds exactly one entry
+     * and no children, or else null.
+     *
+     * @param n
+     *            the node
+     * @return the content of a single-entry node, or null
+     */
+    private static Object[] singleEntry(Object n) {
+        Object[] result = null;
+        if (n instanceof BitmapNode) {
+            BitmapNode b = (BitmapNode) n;
+            if (b.nodeMap == 0 && Integer.bitCount(b.dataMap) == 1) {
+                result = b.content;
+            }
+        } else {
+            CollisionNode c = (CollisionNode) n;
+            if (c.content.length == 2) {
+                result = c.content;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the trie {@code n} with ({@code key}, {@code value}) added.
+     *
+     * @param n
+     *            the node
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @param hash
+     *            the mixed hash code of {@code key}
+     * @param shift
+     *            the number of bits used by the levels above {@code n}
+     * @param owner
+     *            the token of the map making the change
+     * @return the updated node
+     * @requires key is not in the trie n
+     * @ensures [insert holds the entries of n and (key, value)]
+     */
+    private static Object insert(Object n, Object key, Object value,
+            int hash, int shift, Object owner) {
+        Object result;
+        if (n instanceof BitmapNode) {
+            BitmapNode b = (BitmapNode) n;
+            int bit = bit(hash, shift);
+            if ((b.dataMap & bit) != 0) {
+                int pos = 2 * index(b.dataMap, bit);
+                Object k = b.content[pos];
+                Object child = merge(k, b.content[pos + 1], hash(k), key,
+                        value, hash, shift + BITS, owner);
+                result = dataToChild(b, bit, child, owner);
+            } else if ((b.nodeMap & bit) != 0) {
+                int pos = b.content.length - 1 - index(b.nodeMap, bit);
+                Object child = insert(b.content[pos], key, value, hash,
+                        shift + BITS, owner);
+                result = setChild(b, pos, child, owner);
+            } else {
+                result = insertData(b, bit, key, value, owner);
+            }
+        } else {
+            Object[] src = ((CollisionNode) n).content;
+            Object[] dst = new Object[src.length + 2];
+            System.arraycopy(src, 0, dst, 0, src.length);
+            dst[src.length] = key;
+            dst[src.length + 1] = value;
+            result = new CollisionNode(dst);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the trie {@code n} with the entry for {@code key} removed.
+     * A child left with a single entry is replaced by that entry.
+     *
+     * @param n
+     *            the node
+     * @param key
+     *            the key
+     * @param hash
+     *            the mixed hash code of {@code key}
+     * @param shift
+     *            the number of bits used by the levels above {@code n}
+     * @param owner
+     *            the token of the map making the change
+     * @return the updated node
+     * @requires key is in the trie n
+     * @ensures [delete holds the entries of n except the one for key]
+     */
+    private static Object delete(Object n, Object key, int hash, int shift,
+            Object owner) {
+        Object result;
+        if (n instanceof BitmapNode) {
+            BitmapNode b = (BitmapNode) n;
+            int bit = bit(hash, shift);
+            if ((b.dataMap & bit) != 0) {
+                result = removeData(b, bit, owner);
+            } else {
+                int pos = b.content.length - 1 - index(b.nodeMap, bit);
+                Object child = delete(b.content[pos], key, hash,
+                        shift + BITS, owner);
+                Object[] single = singleEntry(child);
+                if (single == null) {
+                    result = setChild(b, pos, child, owner);
+                } else {
+                    result = childToData(b, bit, single[0], single[1],
+                            owner);
+                }
+            }
+        } else {
+            Object[] src = ((CollisionNode) n).content;
+            Object[] dst = new Object[src.length - 2];
+            int j = 0;
+            for (int i = 0; i < src.length; i += 2) {
+                if (!key.equals(src[i])) {
+                    dst[j] = src[i];
+                    dst[j + 1] = src[i + 1];
+                    j += 2;
+                }
+            }
+            result = new CollisionNode(dst);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value for {@code key} in {@code this}, or null if there is
+     * none.
+     *
+     * @param key
+     *            the key
+     * @return the value, or null
+     * @ensures <pre>
+     * (find = null  and  key is not in DOMAIN(this))  or
+     * (key, find) is in this
+     * </pre>
+     */
+    private Object find(Object key) {
+        int hash = hash(key);
+        Object n = this.root;
+        int shift = 0;
+        Object result = null;
+        boolean done = false;
+        while (!done) {
+            if (n instanceof BitmapNode) {
+                BitmapNode b = (BitmapNode) n;
+                int bit = bit(hash, shift);
+                if ((b.dataMap & bit) != 0) {
+                    int pos = 2 * index(b.dataMap, bit);
+                    if (key.equals(b.content[pos])) {
+                        result = b.content[pos + 1];
+                    }
+                    done = true;
+                } else if ((b.nodeMap & bit) != 0) {
+                    n = b.content[b.content.length - 1
+                            - index(b.nodeMap, bit)];
+                    shift += BITS;
+                } else {
+                    done = true;
+                }
+            } else {
+                Object[] content = ((CollisionNode) n).content;
+                for (int i = 0; i < content.length; i += 2) {
+                    if (key.equals(content[i])) {
+                        result = content[i + 1];
+                    }
+                }
+                done = true;
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public Map7() {
+
+        this.createNewRep();
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof Map7<?, ?> : ""
+                + "Violation of: source is of dynamic type Map7<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type Map7<?,?>, and
+         * the ?,? must be K,V or the call would not have compiled.
+         */
+        Map7<K, V> localSource = (Map7<K, V>) source;
+        this.root = localSource.root;
+        this.owner = localSource.owner;
+        this.size = localSource.size;
+        localSource.createNewRep();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
+
+        this.root = (BitmapNode) insert(this.root, key, value, hash(key), 0,
+                this.owner);
+        this.size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        V value = (V) this.find(key);
+        this.root = (BitmapNode) delete(this.root, key, hash(key), 0,
+                this.owner);
+        this.size--;
+        return new SimplePair<K, V>(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Pair<K, V> removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        // the first entry of the leftmost node is as good as any
+        Object n = this.root;
+        while (n instanceof BitmapNode && ((BitmapNode) n).dataMap == 0) {
+            Object[] content = ((BitmapNode) n).content;
+            n = content[content.length - 1];
+        }
+        Object[] content;
+        if (n instanceof BitmapNode) {
+            content = ((BitmapNode) n).content;
+        } else {
+            content = ((CollisionNode) n).content;
+        }
+        return this.remove((K) content[0]);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        return (V) this.find(key);
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        return this.find(key) != null;
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        return new Map7Iterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code Map7}.
+     */
+    private final class Map7Iterator implements Iterator<Pair<K, V>> {
+
+        /**
+         * Number of elements seen already (i.e., |~this.seen|).
+         */
+        private int numberSeen;
+
+        /**
+         * Nodes whose entries have not been visited yet.
+         */
+        private final Deque<Object> pending;
+
+        /**
+         * Content of the node whose entries are being visited.
+         */
+        private Object[] current;
+
+        /**
+         * Position in {@code current} of the next key.
+         */
+        private int currentIndex;
+
+        /**
+         * Position in {@code current} just past the last key and value.
+         */
+        private int currentEnd;
+
+        /**
+         * No-argument constructor.
+         */
+        Map7Iterator() {
+            this.numberSeen = 0;
+            this.pending = new ArrayDeque<Object>();
+            this.pending.push(Map7.this.root);
+            this.current = new Object[0];
+            this.currentIndex = 0;
+            this.currentEnd = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.numberSeen < Map7.this.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Pair<K, V> next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            this.numberSeen++;
+            while (this.currentIndex == this.currentEnd) {
+                Object n = this.pending.pop();
+                if (n instanceof BitmapNode) {
+                    BitmapNode b = (BitmapNode) n;
+                    this.current = b.content;
+                    this.currentEnd = 2 * Integer.bitCount(b.dataMap);
+                    for (int i = this.currentEnd; i < b.content.length; i++) {
+                        this.pending.push(b.content[i]);
+                    }
+                } else {
+                    this.current = ((CollisionNode) n).content;
+                    this.currentEnd = this.current.length;
+                }
+                this.currentIndex = 0;
+            }
+            Pair<K, V> result = new SimplePair<K, V>(
+                    (K) this.current[this.currentIndex],
+                    (V) this.current[this.currentIndex + 1]);
+            this.currentIndex += 2;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Returns a copy of {@code this} that shares its whole trie, in constant
+     * time. Later changes to either map copy the nodes they touch, so neither
+     * sees the other's changes.
+     *
+     * @return a copy of {@code this}
+     * @ensures snapshot = this
+     */
+    public final Map7<K, V> snapshot() {
+        // from now on neither map owns the shared nodes
+        this.owner = new Object();
+        Map7<K, V> result = new Map7<K, V>();
+        result.root = this.root;
+        result.size = this.size;
+        return result;
+    }
+
+}
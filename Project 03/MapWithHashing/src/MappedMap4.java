@@ -0,0 +1,726 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} that can be saved to a file as a compact hash-table image and
+ * reopened by memory-mapping that file, with implementations of primary
+ * methods.
+ * <p>
+ * {@code write} stores the entries of any {@code Map} whose keys and values
+ * have a {@code Codec} (such as {@code STRING}, {@code INTEGER}, and
+ * {@code LONG}) as an open-addressing table of (hash code, offset) slots
+ * followed by the encoded entries. {@code open} maps that file read-only with
+ * {@code FileChannel.map}; nothing is decoded up front, and {@code hasKey},
+ * {@code value}, {@code size}, and iteration work directly against the mapped
+ * bytes. The first call that changes {@code this} decodes every entry into a
+ * {@code Map4}, and from then on {@code this} behaves exactly like that
+ * {@code Map4}. A {@code MappedMap4} made with the no-argument constructor
+ * starts out in that heap form.
+ * <p>
+ * Offsets in the image are {@code int}s, so an image is limited to 2 GB.
+ * Keys are located by {@code hashCode}, so a key type's hash code must not
+ * change between the program that writes an image and the one that opens it
+ * (true of {@code String}, {@code Integer}, and {@code Long}).
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @convention <pre>
+ * [exactly one of $this.heap and $this.image is null]  and
+ * ($this.image /= null  implies
+ *    [$this.image holds a valid image written by write with
+ *     $this.keyCodec and $this.valueCodec, with $this.slots slots
+ *     starting at HEADER_BYTES]  and
+ *    $this.size = [number of entries in $this.image])
+ * </pre>
+ * @correspondence <pre>
+ * this = $this.heap  if $this.heap /= null, else
+ *        [the decoded entries of $this.image]
+ * </pre>
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class MappedMap4<K, V> extends MapSecondary<K, V> {
+
+    /**
+     * Conversion between values of type {@code T} and bytes in an image.
+     *
+     * @param <T>
+     *            type of values converted
+     */
+    public interface Codec<T> {
+
+        /**
+         * Returns the bytes representing {@code x}.
+         *
+         * @param x
+         *            the value to encode
+         * @return the encoding of {@code x}
+         * @requires x /= null
+         * @ensures decode(encode) = x
+         */
+        byte[] encode(T x);
+
+        /**
+         * Returns the value represented by the {@code length} bytes of
+         * {@code image} starting at {@code offset}.
+         *
+         * @param image
+         *            the image
+         * @param offset
+         *            index of the first byte
+         * @param length
+         *            number of bytes
+         * @return the decoded value
+         * @requires [those bytes were produced by encode]
+         * @ensures encode(decode) = [those bytes]
+         */
+        T decode(ByteBuffer image, int offset, int length);
+
+    }
+
+    /**
+     * {@code Codec} for {@code String}s, stored as UTF-8.
+     */
+    public static final Codec<String> STRING = new Codec<String>() {
+
+        @Override
+        public byte[] encode(String x) {
+            return x.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(ByteBuffer image, int offset, int length) {
+            return new String(copyBytes(image, offset, length),
+                    StandardCharsets.UTF_8);
+        }
+
+    };
+
+    /**
+     * {@code Codec} for {@code Integer}s, stored as 4 big-endian bytes.
+     */
+    public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+
+        @Override
+        public byte[] encode(Integer x) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(x).array();
+        }
+
+        @Override
+        public Integer decode(ByteBuffer image, int offset, int length) {
+            return image.getInt(offset);
+        }
+
+    };
+
+    /**
+     * {@code Codec} for {@code Long}s, stored as 8 big-endian bytes.
+     */
+    public static final Codec<Long> LONG = new Codec<Long>() {
+
+        @Override
+        public byte[] encode(Long x) {
+            return ByteBuffer.allocate(Long.BYTES).putLong(x).array();
+        }
+
+        @Override
+        public Long decode(ByteBuffer image, int offset, int length) {
+            return image.getLong(offset);
+        }
+
+    };
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * First four bytes of every image.
+     */
+    private static final int MAGIC = 0x4d415034;
+
+    /**
+     * Image format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Bytes in the header: magic, version, slot count, entry count.
+     */
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+
+    /**
+     * Bytes in each slot: hash code and entry offset.
+     */
+    private static final int SLOT_BYTES = 2 * Integer.BYTES;
+
+    /**
+     * Largest ratio of entries to slots in a written image.
+     */
+    private static final double MAXIMUM_LOAD = 0.5;
+
+    /**
+     * Larger shift of the hash spreading function.
+     */
+    private static final int SPREAD_SHIFT = 16;
+
+    /**
+     * Entries once {@code this} has been changed (or if it never came from an
+     * image), else null.
+     */
+    private Map4<K, V> heap;
+
+    /**
+     * Mapped image, until {@code this} is first changed, else null.
+     */
+    private ByteBuffer image;
+
+    /**
+     * Codec for keys in {@code image}.
+     */
+    private Codec<K> keyCodec;
+
+    /**
+     * Codec for values in {@code image}.
+     */
+    private Codec<V> valueCodec;
+
+    /**
+     * Number of slots in {@code image}.
+     */
+    private int slots;
+
+    /**
+     * Number of entries in {@code image}.
+     */
+    private int size;
+
+    /**
+     * Returns a copy of {@code length} bytes of {@code image} starting at
+     * {@code offset}.
+     *
+     * @param image
+     *            the image
+     * @param offset
+     *            index of the first byte
+     * @param length
+     *            number of bytes
+     * @return the bytes
+     */
+    private static byte[] copyBytes(ByteBuffer image, int offset,
+            int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = image.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns {@code hashCode} with its high bits folded into its low bits,
+     * since only the low bits choose a slot.
+     *
+     * @param hashCode
+     *            the hash code
+     * @return the spread hash code
+     */
+    private static int spread(int hashCode) {
+        return hashCode ^ (hashCode >>> SPREAD_SHIFT);
+    }
+
+    /**
+     * Creator of initial representation.
+     */
+    private void createNewRep() {
+        this.heap = new Map4<K, V>();
+        this.image = null;
+        this.keyCodec = null;
+        this.valueCodec = null;
+        this.slots = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Returns the offset of the entry for {@code key} in {@code $this.image},
+     * or 0 if there is none.
+     *
+     * @param key
+     *            the key to look for
+     * @return the entry offset, or 0
+     * @requires $this.image /= null
+     * @ensures <pre>
+     * (find = 0  and  key is not in DOMAIN(this))  or
+     * [the entry at find in $this.image has key key]
+     * </pre>
+     */
+    private int find(K key) {
+        byte[] bytes = this.keyCodec.encode(key);
+        int hash = spread(key.hashCode());
+        int mask = this.slots - 1;
+        int i = hash & mask;
+        int result = -1;
+        while (result < 0) {
+            int slot = HEADER_BYTES + i * SLOT_BYTES;
+            int offset = this.image.getInt(slot + Integer.BYTES);
+            if (offset == 0) {
+                result = 0;
+            } else if (this.image.getInt(slot) == hash
+                    && this.keyEquals(offset, bytes)) {
+                result = offset;
+            }
+            i = (i + 1) & mask;
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether the key of the entry at {@code offset} is encoded as
+     * {@code bytes}.
+     *
+     * @param offset
+     *            the entry offset
+     * @param bytes
+     *            the encoded key
+     * @return true iff the keys match
+     * @requires $this.image /= null
+     */
+    private boolean keyEquals(int offset, byte[] bytes) {
+        boolean result = this.image.getInt(offset) == bytes.length;
+        int start = offset + Integer.BYTES;
+        for (int j = 0; result && j < bytes.length; j++) {
+            result = this.image.get(start + j) == bytes[j];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the key of the entry at {@code offset}.
+     *
+     * @param offset
+     *            the entry offset
+     * @return the decoded key
+     * @requires $this.image /= null
+     */
+    private K keyAt(int offset) {
+        int length = this.image.getInt(offset);
+        return this.keyCodec.decode(this.image, offset + Integer.BYTES,
+                length);
+    }
+
+    /**
+     * Returns the value of the entry at {@code offset}.
+     *
+     * @param offset
+     *            the entry offset
+     * @return the decoded value
+     * @requires $this.image /= null
+     */
+    private V valueAt(int offset) {
+        int valueOffset = offset + Integer.BYTES + this.image.getInt(offset);
+        int length = this.image.getInt(valueOffset);
+        return this.valueCodec.decode(this.image,
+                valueOffset + Integer.BYTES, length);
+    }
+
+    /**
+     * Decodes every entry of {@code $this.image} into {@code $this.heap} and
+     * drops the image, if that has not happened already.
+     *
+     * @updates this
+     * @ensures this = #this and $this.heap /= null
+     */
+    private void promote() {
+        if (this.heap == null) {
+            Map4<K, V> entries = new Map4<K, V>();
+            for (int i = 0; i < this.slots; i++) {
+                int offset = this.image
+                        .getInt(HEADER_BYTES + i * SLOT_BYTES + Integer.BYTES);
+                if (offset != 0) {
+                    entries.add(this.keyAt(offset), this.valueAt(offset));
+                }
+            }
+            this.heap = entries;
+            this.image = null;
+        }
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public MappedMap4() {
+
+        this.createNewRep();
+
+    }
+
+    /**
+     * Constructor of a {@code MappedMap4} reading from {@code image}.
+     *
+     * @param image
+     *            the mapped image
+     * @param keyCodec
+     *            codec for keys
+     * @param valueCodec
+     *            codec for values
+     * @throws IOException
+     *             if {@code image} is not an image written by {@code write}
+     */
+    private MappedMap4(ByteBuffer image, Codec<K> keyCodec,
+            Codec<V> valueCodec) throws IOException {
+        if (image.capacity() < HEADER_BYTES || image.getInt(0) != MAGIC
+                || image.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Not a MappedMap4 image");
+        }
+        int slotCount = image.getInt(2 * Integer.BYTES);
+        int entryCount = image.getInt(3 * Integer.BYTES);
+        /*
+         * Lookups mask hash codes with slotCount - 1 and read slots without
+         * bounds checks of their own, so a damaged header must not get past
+         * here
+         */
+        long slotBytes = (long) slotCount * SLOT_BYTES;
+        if (slotCount <= 0 || (slotCount & (slotCount - 1)) != 0
+                || HEADER_BYTES + slotBytes > image.capacity()
+                || entryCount < 0 || entryCount >= slotCount) {
+            throw new IOException("Damaged MappedMap4 image header");
+        }
+        this.heap = null;
+        this.image = image;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.slots = slotCount;
+        this.size = entryCount;
+    }
+
+    /*
+     * Image methods ----------------------------------------------------------
+     */
+
+    /**
+     * Writes the entries of {@code m} to the file named {@code fileName} as
+     * an image that {@code open} can map.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param m
+     *            the {@code Map} to write
+     * @param fileName
+     *            the name of the file to write
+     * @param keyCodec
+     *            codec for keys
+     * @param valueCodec
+     *            codec for values
+     * @throws IOException
+     *             if the file cannot be written, or if the image would not
+     *             fit in 2 GB
+     * @ensures [file fileName holds an image of m]
+     */
+    public static <K, V> void write(Map<K, V> m, String fileName,
+            Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        assert m != null : "Violation of: m is not null";
+        assert fileName != null : "Violation of: fileName is not null";
+        assert keyCodec != null : "Violation of: keyCodec is not null";
+        assert valueCodec != null : "Violation of: valueCodec is not null";
+
+        int n = m.size();
+        int slots = 1;
+        while (slots < n / MAXIMUM_LOAD + 1) {
+            slots *= 2;
+        }
+        int mask = slots - 1;
+        int[] hashes = new int[slots];
+        int[] offsets = new int[slots];
+        byte[][] keys = new byte[n][];
+        byte[][] values = new byte[n][];
+        long offset = HEADER_BYTES + (long) slots * SLOT_BYTES;
+        int e = 0;
+        for (Pair<K, V> p : m) {
+            keys[e] = keyCodec.encode(p.key());
+            values[e] = valueCodec.encode(p.value());
+            int hash = spread(p.key().hashCode());
+            int i = hash & mask;
+            while (offsets[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            hashes[i] = hash;
+            offsets[i] = (int) offset;
+            offset += 2 * Integer.BYTES + keys[e].length + values[e].length;
+            e++;
+        }
+        /*
+         * Offsets are stored as ints, so check before writing anything, and
+         * the offsets cast above are never used if they wrapped
+         */
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("MappedMap4 image would not fit in 2 GB");
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(slots);
+            out.writeInt(n);
+            for (int i = 0; i < slots; i++) {
+                out.writeInt(hashes[i]);
+                out.writeInt(offsets[i]);
+            }
+            /*
+             * Entries go out in the same (iteration) order their offsets were
+             * assigned in
+             */
+            for (int j = 0; j < n; j++) {
+                out.writeInt(keys[j].length);
+                out.write(keys[j]);
+                out.writeInt(values[j].length);
+                out.write(values[j]);
+            }
+        }
+    }
+
+    /**
+     * Returns a {@code MappedMap4} whose entries are read on demand from the
+     * image in the file named {@code fileName}, mapped read-only.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param fileName
+     *            the name of a file written by {@code write}
+     * @param keyCodec
+     *            codec for keys, as used to write the file
+     * @param valueCodec
+     *            codec for values, as used to write the file
+     * @return the map
+     * @throws IOException
+     *             if the file cannot be mapped or is not an image
+     * @ensures open = [the entries of the image in file fileName]
+     */
+    public static <K, V> MappedMap4<K, V> open(String fileName,
+            Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        assert fileName != null : "Violation of: fileName is not null";
+        assert keyCodec != null : "Violation of: keyCodec is not null";
+        assert valueCodec != null : "Violation of: valueCodec is not null";
+
+        ByteBuffer image;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.READ)) {
+            image = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        return new MappedMap4<K, V>(image, keyCodec, valueCodec);
+    }
+
+    /**
+     * Reports whether {@code this} is still reading from a mapped image (as
+     * opposed to having been decoded into a {@code Map4}).
+     *
+     * @return true iff {@code this} is reading from a mapped image
+     */
+    public final boolean isMapped() {
+        return this.image != null;
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof MappedMap4<?, ?> : ""
+                + "Violation of: source is of dynamic type MappedMap4<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * MappedMap4<?,?>, and the ?,? must be K,V or the call would not have
+         * compiled.
+         */
+        MappedMap4<K, V> localSource = (MappedMap4<K, V>) source;
+        this.heap = localSource.heap;
+        this.image = localSource.image;
+        this.keyCodec = localSource.keyCodec;
+        this.valueCodec = localSource.valueCodec;
+        this.slots = localSource.slots;
+        this.size = localSource.size;
+        localSource.createNewRep();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
+
+        this.promote();
+        this.heap.add(key, value);
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        this.promote();
+        return this.heap.remove(key);
+    }
+
+    @Override
+    public final Pair<K, V> removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        this.promote();
+        return this.heap.removeAny();
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        V result;
+        if (this.heap != null) {
+            result = this.heap.value(key);
+        } else {
+            result = this.valueAt(this.find(key));
+        }
+        return result;
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        boolean result;
+        if (this.heap != null) {
+            result = this.heap.hasKey(key);
+        } else {
+            result = this.find(key) != 0;
+        }
+        return result;
+    }
+
+    @Override
+    public final int size() {
+        int result;
+        if (this.heap != null) {
+            result = this.heap.size();
+        } else {
+            result = this.size;
+        }
+        return result;
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        Iterator<Pair<K, V>> result;
+        if (this.heap != null) {
+            result = this.heap.iterator();
+        } else {
+            result = new MappedMap4Iterator();
+        }
+        return result;
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code MappedMap4}
+     * while it is reading from a mapped image.
+     */
+    private final class MappedMap4Iterator implements Iterator<Pair<K, V>> {
+
+        /**
+         * Number of elements seen already (i.e., |~this.seen|).
+         */
+        private int numberSeen;
+
+        /**
+         * Slot from which the next element will come (or before it).
+         */
+        private int currentSlot;
+
+        /**
+         * No-argument constructor.
+         */
+        MappedMap4Iterator() {
+            this.numberSeen = 0;
+            this.currentSlot = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.numberSeen < MappedMap4.this.size;
+        }
+
+        @Override
+        public Pair<K, V> next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            this.numberSeen++;
+            int offset = 0;
+            while (offset == 0) {
+                offset = MappedMap4.this.image.getInt(HEADER_BYTES
+                        + this.currentSlot * SLOT_BYTES + Integer.BYTES);
+                this.currentSlot++;
+            }
+            return new SimplePair<K, V>(MappedMap4.this.keyAt(offset),
+                    MappedMap4.this.valueAt(offset));
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
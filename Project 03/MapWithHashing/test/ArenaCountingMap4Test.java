@@ -0,0 +1,176 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * JUnit test fixture for {@code ArenaCountingMap4}.
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class ArenaCountingMap4Test {
+
+    /**
+     * Number of distinct keys used to force the hash table to grow.
+     */
+    private static final int MANY = 1000;
+
+    /**
+     * Keys needing one, two, three, and four UTF-8 bytes per code point.
+     */
+    private static final String[] WIDE_KEYS = { "plain", "caf\u00e9",
+        "\u6f22\u5b57", "\ud83d\ude00smile", "" };
+
+    //increment a new key, then an existing one
+    @Test
+    public final void testIncrement() {
+        ArenaCountingMap4 test = new ArenaCountingMap4();
+        assertEquals(1, test.increment("a"));
+        assertEquals(2, test.increment("a"));
+        assertEquals(1, test.increment("b"));
+        Map<String, Integer> ref = new Map1L<String, Integer>();
+        ref.add("a", 2);
+        ref.add("b", 1);
+        assertEquals(ref, test);
+    }
+
+    //increments past the int range throw and leave the count unchanged
+    @Test
+    public final void testIncrementOverflow() {
+        ArenaCountingMap4 test = new ArenaCountingMap4();
+        byte[] a = "a".getBytes(StandardCharsets.UTF_8);
+        test.increment("a", Integer.MAX_VALUE);
+        int thrown = 0;
+        try {
+            test.increment("a", 1);
+        } catch (ArithmeticException e) {
+            thrown++;
+        }
+        try {
+            test.increment(a, 0, a.length, 1);
+        } catch (ArithmeticException e) {
+            thrown++;
+        }
+        assertEquals(2, thrown);
+        assertEquals(Integer.MAX_VALUE, test.count("a"));
+        assertEquals(0, test.increment(a, 0, a.length, -Integer.MAX_VALUE));
+        assertEquals(1, test.size());
+    }
+
+    //count many keys, growing the hash table and the arena
+    @Test
+    public final void testIncrementMany() {
+        ArenaCountingMap4 test = new ArenaCountingMap4(1);
+        Map<String, Integer> ref = new Map1L<String, Integer>();
+        for (int i = 0; i < MANY; i++) {
+            for (int j = 0; j <= i % 3; j++) {
+                test.increment("k" + i);
+            }
+            ref.add("k" + i, i % 3 + 1);
+        }
+        assertEquals(ref, test);
+        for (int i = 0; i < MANY; i++) {
+            assertEquals(Integer.valueOf(i % 3 + 1), test.value("k" + i));
+        }
+    }
+
+    //characters, builders, and UTF-8 bytes name the same keys
+    @Test
+    public final void testCharSequenceAndBytes() {
+        ArenaCountingMap4 test = new ArenaCountingMap4();
+        for (String k : WIDE_KEYS) {
+            test.increment(new StringBuilder(k));
+            byte[] utf8 = ("<" + k + ">").getBytes(StandardCharsets.UTF_8);
+            assertEquals(2, test.increment(utf8, 1, utf8.length - 2, 1));
+            assertTrue(test.contains(utf8, 1, utf8.length - 2));
+            assertEquals(2, test.count(utf8, 1, utf8.length - 2));
+        }
+        Map<String, Integer> ref = new Map1L<String, Integer>();
+        for (String k : WIDE_KEYS) {
+            assertEquals(2, test.count(k));
+            assertTrue(test.hasKey(k));
+            ref.add(k, 2);
+        }
+        assertEquals(ref, test);
+        byte[] missing = "caf".getBytes(StandardCharsets.UTF_8);
+        assertFalse(test.contains(missing, 0, missing.length));
+        assertFalse(test.contains("caf\u00e9s"));
+    }
+
+    //a lone surrogate comes back exactly as it was added
+    @Test
+    public final void testLoneSurrogate() {
+        ArenaCountingMap4 test = new ArenaCountingMap4();
+        String lone = "x\ud800y";
+        test.add(lone, 1);
+        assertTrue(test.hasKey(lone));
+        assertFalse(test.hasKey("x\ufffdy"));
+        assertEquals(lone, test.removeAny().key());
+    }
+
+    //kernel add and remove mixed with increment, reclaiming arena bytes
+    @Test
+    public final void testAddRemove() {
+        ArenaCountingMap4 test = new ArenaCountingMap4(1);
+        Map<String, Integer> ref = new Map1L<String, Integer>();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, i);
+            ref.add("k" + i, i);
+        }
+        int full = test.arenaBytes();
+        final int kept = 4;
+        for (int i = 0; i < MANY; i++) {
+            if (i % kept != 0) {
+                Map.Pair<String, Integer> removed = test.remove("k" + i);
+                ref.remove("k" + i);
+                assertEquals("k" + i, removed.key());
+                assertEquals(Integer.valueOf(i), removed.value());
+            }
+        }
+        for (int i = 0; i < MANY; i += kept) {
+            assertEquals(i + 1, test.increment("k" + i));
+            ref.replaceValue("k" + i, i + 1);
+        }
+        assertEquals(ref, test);
+        assertTrue(test.arenaBytes() < full);
+    }
+
+    //removeAny until empty
+    @Test
+    public final void testRemoveAny() {
+        ArenaCountingMap4 test = new ArenaCountingMap4();
+        Map<String, Integer> ref = new Map1L<String, Integer>();
+        for (int i = 0; i < MANY; i++) {
+            test.increment("k" + i, i);
+            ref.add("k" + i, i);
+        }
+        while (test.size() > 0) {
+            Map.Pair<String, Integer> removed = test.removeAny();
+            assertEquals(ref.remove(removed.key()).value(), removed.value());
+        }
+        assertEquals(0, ref.size());
+        assertEquals(0, test.arenaBytes());
+    }
+
+    //transferFrom and clear
+    @Test
+    public final void testTransferFromAndClear() {
+        ArenaCountingMap4 test = new ArenaCountingMap4();
+        test.increment("a");
+        ArenaCountingMap4 moved = new ArenaCountingMap4();
+        moved.transferFrom(test);
+        assertEquals(0, test.size());
+        assertEquals(1, moved.count("a"));
+        moved.clear();
+        assertEquals(0, moved.size());
+        assertEquals(1, moved.increment("a"));
+    }
+
+}
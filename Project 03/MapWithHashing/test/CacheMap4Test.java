@@ -0,0 +1,169 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code CacheMap4} using default
+ * constructor, whose bound is too large to matter to the {@code Map} tests.
+ */
+public class CacheMap4Test extends MapTest {
+
+    /**
+     * Maximum size of the small caches.
+     */
+    private static final int SMALL = 100;
+
+    /**
+     * Number of entries added to overflow the small caches.
+     */
+    private static final int MANY = 1000;
+
+    /**
+     * Number of times each popular key is used.
+     */
+    private static final int USES = 5;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new CacheMap4<String, String>();
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    //LRU keeps the most recently used entries, touched ones included
+    @Test
+    public final void testLruEviction() {
+        CacheMap4<String, String> test = new CacheMap4<String, String>(SMALL,
+                CacheMap4.Policy.LRU);
+        for (int i = 0; i < SMALL; i++) {
+            test.add("k" + i, "v" + i);
+        }
+        assertEquals("v0", test.value("k0"));
+        test.add("new", "x");
+        assertEquals(SMALL, test.size());
+        assertTrue(test.hasKey("k0"));
+        assertFalse(test.hasKey("k1"));
+        assertTrue(test.hasKey("new"));
+        assertEquals(1, test.evictionCount());
+        for (int i = 0; i < MANY; i++) {
+            test.add("m" + i, "w" + i);
+            assertEquals(Math.min(SMALL, MANY + 1), test.size());
+        }
+        for (int i = MANY - SMALL; i < MANY; i++) {
+            assertEquals("w" + i, test.value("m" + i));
+        }
+    }
+
+    //LFU keeps frequently used entries through a scan of one-time keys
+    @Test
+    public final void testLfuScanResistance() {
+        CacheMap4<String, String> test = new CacheMap4<String, String>(SMALL,
+                CacheMap4.Policy.LFU);
+        for (int i = 0; i < SMALL / 2; i++) {
+            test.add("hot" + i, "h" + i);
+            for (int u = 0; u < USES; u++) {
+                test.value("hot" + i);
+            }
+        }
+        for (int i = 0; i < MANY; i++) {
+            test.add("scan" + i, "s" + i);
+            assertTrue(test.size() <= SMALL);
+        }
+        assertTrue(test.hasKey("scan" + (MANY - 1)));
+        for (int i = 0; i < SMALL / 2; i++) {
+            assertTrue(test.hasKey("hot" + i));
+        }
+    }
+
+    //a weigher bounds the total weight instead of the number of entries
+    @Test
+    public final void testWeigher() {
+        CacheMap4<String, String> test = new CacheMap4<String, String>(SMALL,
+                CacheMap4.Policy.LRU, (k, v) -> v.length());
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "value" + i);
+            assertTrue(test.weight() <= SMALL);
+        }
+        test.add("big", new String(new char[2 * SMALL]));
+        assertEquals(1, test.size());
+        assertTrue(test.hasKey("big"));
+    }
+
+    //LFU with a weigher keeps frequently used entries as its sketch grows
+    @Test
+    public final void testLfuWeigherScanResistance() {
+        final int weight = 2;
+        CacheMap4<String, String> test = new CacheMap4<String, String>(
+                weight * SMALL, CacheMap4.Policy.LFU, (k, v) -> weight);
+        for (int i = 0; i < SMALL / 2; i++) {
+            test.add("hot" + i, "h" + i);
+            for (int u = 0; u < USES; u++) {
+                test.value("hot" + i);
+            }
+        }
+        for (int i = 0; i < MANY; i++) {
+            test.add("scan" + i, "s" + i);
+            assertTrue(test.weight() <= weight * SMALL);
+        }
+        assertEquals(SMALL, test.size());
+        for (int i = 0; i < SMALL / 2; i++) {
+            assertTrue(test.hasKey("hot" + i));
+        }
+    }
+
+    //hits and misses are counted by hasKey
+    @Test
+    public final void testCounters() {
+        CacheMap4<String, String> test = new CacheMap4<String, String>(SMALL,
+                CacheMap4.Policy.LFU);
+        test.add("a", "b");
+        assertTrue(test.hasKey("a"));
+        assertTrue(test.hasKey("a"));
+        assertFalse(test.hasKey("c"));
+        assertEquals(2, test.hitCount());
+        assertEquals(1, test.missCount());
+        assertEquals(0, test.evictionCount());
+    }
+
+    //newInstance keeps the bound, policy, and weigher
+    @Test
+    public final void testNewInstanceKeepsConfiguration() {
+        CacheMap4<String, String> source = new CacheMap4<String, String>(
+                SMALL, CacheMap4.Policy.LRU, (k, v) -> v.length());
+        Map<String, String> test = source.newInstance();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "value" + i);
+        }
+        assertTrue(((CacheMap4<String, String>) test).weight() <= SMALL);
+        assertTrue(test.size() < SMALL);
+    }
+
+    //transferFrom moves the counters with the entries
+    @Test
+    public final void testTransferFromCounters() {
+        CacheMap4<String, String> source = new CacheMap4<String, String>(
+                SMALL, CacheMap4.Policy.LFU);
+        for (int i = 0; i <= SMALL; i++) {
+            source.add("k" + i, "v" + i);
+        }
+        source.hasKey("k" + SMALL);
+        source.hasKey("missing");
+        CacheMap4<String, String> test = new CacheMap4<String, String>();
+        test.transferFrom(source);
+        assertEquals(1, test.hitCount());
+        assertEquals(1, test.missCount());
+        assertEquals(1, test.evictionCount());
+        assertEquals(0, source.hitCount());
+        assertEquals(0, source.missCount());
+        assertEquals(0, source.evictionCount());
+    }
+
+}
@@ -0,0 +1,27 @@
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code CacheMap4} using the {@code LFU}
+ * (W-TinyLFU) policy, with a bound too large to matter to the {@code Map}
+ * tests.
+ */
+public class CacheMap4TestLfu extends MapTest {
+
+    /**
+     * Maximum size of the cache under test.
+     */
+    private static final int TEST_MAXIMUM_SIZE = 10_000;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new CacheMap4<String, String>(TEST_MAXIMUM_SIZE,
+                CacheMap4.Policy.LFU);
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+}
@@ -0,0 +1,170 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code ConcurrentMap4} using default
+ * constructor.
+ */
+public class ConcurrentMap4Test extends MapTest {
+
+    /**
+     * Number of threads used in the concurrent tests.
+     */
+    private static final int THREADS = 8;
+
+    /**
+     * Number of distinct keys used in the concurrent tests.
+     */
+    private static final int KEYS = 100;
+
+    /**
+     * Number of updates per key made by each thread.
+     */
+    private static final int ROUNDS = 200;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new ConcurrentMap4<String, String>();
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    /**
+     * Runs {@code task} on {@code THREADS} threads and waits for all of them.
+     *
+     * @param task
+     *            the work for each thread
+     */
+    private static void runOnThreads(Runnable task) {
+        Thread[] workers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            workers[t] = new Thread(task);
+            workers[t].start();
+        }
+        try {
+            for (Thread w : workers) {
+                w.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    //addOrReplace returns the old value
+    @Test
+    public final void testAddOrReplace() {
+        ConcurrentMap4<String, String> test = new ConcurrentMap4<>();
+        assertEquals(null, test.addOrReplace("a", "1"));
+        assertEquals("1", test.addOrReplace("a", "2"));
+        assertEquals("2", test.value("a"));
+        assertEquals(1, test.size());
+    }
+
+    //merge from several threads loses no updates
+    @Test
+    public final void testMergeConcurrent() {
+        final ConcurrentMap4<String, Integer> test = new ConcurrentMap4<>(4);
+        runOnThreads(() -> {
+            for (int r = 0; r < ROUNDS; r++) {
+                for (int k = 0; k < KEYS; k++) {
+                    test.merge("k" + k, 1, Integer::sum);
+                }
+            }
+        });
+        assertEquals(KEYS, test.size());
+        for (int k = 0; k < KEYS; k++) {
+            assertEquals(Integer.valueOf(THREADS * ROUNDS),
+                    test.value("k" + k));
+        }
+    }
+
+    //addOrReplace and removeAny from several threads keep size consistent
+    @Test
+    public final void testAddOrReplaceRemoveAnyConcurrent() {
+        final ConcurrentMap4<String, String> test = new ConcurrentMap4<>();
+        runOnThreads(() -> {
+            String name = Thread.currentThread().getName();
+            for (int k = 0; k < KEYS; k++) {
+                test.addOrReplace(name + k, "v");
+            }
+            for (int k = 0; k < KEYS / 2; k++) {
+                test.removeAny();
+            }
+        });
+        assertEquals(THREADS * KEYS / 2, test.size());
+        int seen = 0;
+        for (Map.Pair<String, String> p : test) {
+            seen++;
+        }
+        assertEquals(THREADS * KEYS / 2, seen);
+    }
+
+    //replaceValue from several threads never lets a key go missing
+    @Test
+    public final void testReplaceValueConcurrent() {
+        final ConcurrentMap4<String, String> test = new ConcurrentMap4<>(4);
+        for (int k = 0; k < KEYS; k++) {
+            test.add("k" + k, "v");
+        }
+        final AtomicInteger missing = new AtomicInteger();
+        runOnThreads(() -> {
+            String name = Thread.currentThread().getName();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (int k = 0; k < KEYS; k++) {
+                    test.replaceValue("k" + k, name);
+                    if (!test.hasKey("k" + k)) {
+                        missing.incrementAndGet();
+                    }
+                }
+            }
+        });
+        assertEquals(0, missing.get());
+        assertEquals(KEYS, test.size());
+    }
+
+    //key finds the key of a value in any segment
+    @Test
+    public final void testKey() {
+        Map<String, String> test = this.constructorTest();
+        for (int k = 0; k < KEYS; k++) {
+            test.add("k" + k, "v" + k);
+        }
+        for (int k = 0; k < KEYS; k++) {
+            assertEquals("k" + k, test.key("v" + k));
+        }
+        assertEquals(KEYS, test.size());
+    }
+
+    //threads emptying one map with removeAny remove each pair exactly once
+    @Test
+    public final void testRemoveAnyUntilEmptyConcurrent() {
+        final ConcurrentMap4<String, String> test = new ConcurrentMap4<>();
+        for (int k = 0; k < THREADS * KEYS; k++) {
+            test.add("k" + k, "v");
+        }
+        final ConcurrentMap4<String, String> removed = new ConcurrentMap4<>();
+        runOnThreads(() -> {
+            boolean empty = false;
+            while (!empty) {
+                try {
+                    removed.add(test.removeAny().key(), "v");
+                } catch (NoSuchElementException e) {
+                    empty = true;
+                }
+            }
+        });
+        assertEquals(0, test.size());
+        assertEquals(THREADS * KEYS, removed.size());
+    }
+
+}
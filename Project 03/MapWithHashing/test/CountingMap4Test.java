@@ -0,0 +1,149 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * JUnit test fixture for {@code CountingMap4}.
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class CountingMap4Test {
+
+    /**
+     * Number of distinct keys used to force the hash table to grow.
+     */
+    private static final int MANY = 1000;
+
+    //increment a new key, then an existing one
+    @Test
+    public final void testIncrement() {
+        CountingMap4 test = new CountingMap4();
+        assertEquals(1, test.increment("a"));
+        assertEquals(2, test.increment("a"));
+        assertEquals(1, test.increment("b"));
+        Map<String, Integer> ref = new Map1L<String, Integer>();
+        ref.add("a", 2);
+        ref.add("b", 1);
+        assertEquals(ref, test);
+    }
+
+    //increment by a delta, including a negative one
+    @Test
+    public final void testIncrementDelta() {
+        CountingMap4 test = new CountingMap4();
+        assertEquals(5, test.increment("a", 5));
+        assertEquals(2, test.increment("a", -3));
+        assertEquals(2, test.count("a"));
+        assertEquals(0, test.count("b"));
+        assertTrue(!test.hasKey("b"));
+        assertEquals(1, test.size());
+    }
+
+    //an increment past the int range throws and leaves the count unchanged
+    @Test
+    public final void testIncrementOverflow() {
+        CountingMap4 test = new CountingMap4();
+        test.increment("a", Integer.MAX_VALUE - 1);
+        assertEquals(Integer.MAX_VALUE, test.increment("a"));
+        boolean thrown = false;
+        try {
+            test.increment("a");
+        } catch (ArithmeticException e) {
+            thrown = true;
+        }
+        assertTrue(thrown);
+        assertEquals(Integer.MAX_VALUE, test.count("a"));
+        assertEquals(1, test.size());
+    }
+
+    //count many keys, growing the hash table
+    @Test
+    public final void testIncrementMany() {
+        CountingMap4 test = new CountingMap4(1);
+        Map<String, Integer> ref = new Map1L<String, Integer>();
+        for (int i = 0; i < MANY; i++) {
+            for (int j = 0; j <= i % 3; j++) {
+                test.increment("k" + i);
+            }
+            ref.add("k" + i, i % 3 + 1);
+        }
+        assertEquals(ref, test);
+        for (int i = 0; i < MANY; i++) {
+            assertEquals(Integer.valueOf(i % 3 + 1), test.value("k" + i));
+        }
+    }
+
+    //kernel add and remove mixed with increment
+    @Test
+    public final void testAddRemove() {
+        CountingMap4 test = new CountingMap4(1);
+        Map<String, Integer> ref = new Map1L<String, Integer>();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, i);
+            ref.add("k" + i, i);
+        }
+        for (int i = 0; i < MANY; i += 2) {
+            Map.Pair<String, Integer> removed = test.remove("k" + i);
+            ref.remove("k" + i);
+            assertEquals("k" + i, removed.key());
+            assertEquals(Integer.valueOf(i), removed.value());
+        }
+        for (int i = 1; i < MANY; i += 2) {
+            assertEquals(i + 1, test.increment("k" + i));
+            ref.replaceValue("k" + i, i + 1);
+        }
+        assertEquals(ref, test);
+    }
+
+    //removeAny until empty
+    @Test
+    public final void testRemoveAny() {
+        CountingMap4 test = new CountingMap4();
+        Map<String, Integer> ref = new Map1L<String, Integer>();
+        for (int i = 0; i < MANY; i++) {
+            test.increment("k" + i, i);
+            ref.add("k" + i, i);
+        }
+        while (test.size() > 0) {
+            Map.Pair<String, Integer> removed = test.removeAny();
+            assertEquals(ref.remove(removed.key()).value(), removed.value());
+        }
+        assertEquals(0, ref.size());
+    }
+
+    //iterate as Map.Pair<String, Integer>
+    @Test
+    public final void testIterator() {
+        CountingMap4 test = new CountingMap4();
+        test.increment("a", 3);
+        test.increment("b", 4);
+        int total = 0;
+        int seen = 0;
+        for (Map.Pair<String, Integer> p : test) {
+            total += p.value();
+            seen++;
+        }
+        assertEquals(2, seen);
+        assertEquals(7, total);
+    }
+
+    //transferFrom and clear
+    @Test
+    public final void testTransferFromAndClear() {
+        CountingMap4 test = new CountingMap4();
+        test.increment("a");
+        CountingMap4 moved = new CountingMap4();
+        moved.transferFrom(test);
+        assertEquals(0, test.size());
+        assertEquals(1, moved.count("a"));
+        moved.clear();
+        assertEquals(0, moved.size());
+        assertEquals(1, moved.increment("a"));
+    }
+
+}
@@ -0,0 +1,138 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * JUnit test fixture for {@code FrozenMap4}, which cannot be changed and so
+ * is tested against the maps it was frozen from.
+ */
+public class FrozenMap4Test {
+
+    /**
+     * Number of entries in the larger maps.
+     */
+    private static final int MANY = 1000;
+
+    /**
+     * Returns a {@code Map4} holding ("k"+i, "v"+i) for 0 <= i < {@code n}.
+     *
+     * @param n
+     *            the number of entries
+     * @return the map
+     */
+    private static Map<String, String> source(int n) {
+        Map<String, String> m = new Map4<String, String>();
+        for (int i = 0; i < n; i++) {
+            m.add("k" + i, "v" + i);
+        }
+        return m;
+    }
+
+    //freezing an empty map
+    @Test
+    public final void testFreezeEmpty() {
+        Map<String, String> m = new Map4<String, String>();
+        Map<String, String> frozen = FrozenMap4.freeze(m);
+        assertEquals(0, frozen.size());
+        assertFalse(frozen.hasKey("k0"));
+        assertEquals(m, frozen);
+        assertEquals(new FrozenMap4<String, String>(), frozen);
+    }
+
+    //freezing a single entry
+    @Test
+    public final void testFreezeOne() {
+        Map<String, String> m = source(1);
+        Map<String, String> frozen = FrozenMap4.freeze(m);
+        assertEquals(m, frozen);
+        assertEquals("v0", frozen.value("k0"));
+        assertFalse(frozen.hasKey("k1"));
+    }
+
+    //every key is found in its one slot and absent keys are not
+    @Test
+    public final void testFreezeMany() {
+        Map<String, String> m = source(MANY);
+        Map<String, String> frozen = FrozenMap4.freeze(m);
+        assertEquals(MANY, frozen.size());
+        for (int i = 0; i < MANY; i++) {
+            assertEquals("v" + i, frozen.value("k" + i));
+            assertFalse(frozen.hasKey("x" + i));
+        }
+        assertEquals(m, frozen);
+        assertEquals(frozen, m);
+        assertEquals(source(MANY), m);
+    }
+
+    //keys with equal hash codes sit beside keys with unique ones
+    @Test
+    public final void testFreezeSharedHashCodes() {
+        Map<String, String> m = new Map1L<String, String>();
+        String[] colliding = { "AaAa", "AaBB", "BBAa", "BBBB" };
+        for (String k : colliding) {
+            m.add(k, k + "v");
+        }
+        m.add("Aa", "a");
+        m.add("BB", "b");
+        m.add("unique", "u");
+        Map<String, String> frozen = FrozenMap4.freeze(m);
+        assertEquals(m, frozen);
+        for (String k : colliding) {
+            assertEquals(k + "v", frozen.value(k));
+        }
+        assertEquals("a", frozen.value("Aa"));
+        assertEquals("u", frozen.value("unique"));
+        assertFalse(frozen.hasKey("AaAaAa"));
+    }
+
+    //every method that would change the map fails fast
+    @Test
+    public final void testMutationsFail() {
+        Map<String, String> frozen = FrozenMap4.freeze(source(1));
+        int failures = 0;
+        try {
+            frozen.add("a", "b");
+        } catch (UnsupportedOperationException e) {
+            failures++;
+        }
+        try {
+            frozen.remove("k0");
+        } catch (UnsupportedOperationException e) {
+            failures++;
+        }
+        try {
+            frozen.removeAny();
+        } catch (UnsupportedOperationException e) {
+            failures++;
+        }
+        try {
+            frozen.clear();
+        } catch (UnsupportedOperationException e) {
+            failures++;
+        }
+        try {
+            frozen.transferFrom(FrozenMap4.freeze(source(1)));
+        } catch (UnsupportedOperationException e) {
+            failures++;
+        }
+        final int mutators = 5;
+        assertEquals(mutators, failures);
+        assertEquals(source(1), frozen);
+    }
+
+    //iteration sees every entry once
+    @Test
+    public final void testIterator() {
+        Map<String, String> m = source(MANY);
+        Map<String, String> seen = new Map1L<String, String>();
+        for (Map.Pair<String, String> p : FrozenMap4.freeze(m)) {
+            seen.add(p.key(), p.value());
+        }
+        assertEquals(m, seen);
+    }
+
+}
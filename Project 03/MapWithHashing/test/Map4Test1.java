@@ -0,0 +1,469 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code Map4} using non-default constructor
+ * and hash table size 1, so that the hash table has to grow and shrink.
+ */
+public class Map4Test1 extends MapTest {
+
+    /**
+     * Size of hash table to be used in tests.
+     */
+    private static final int TEST_HASH_TABLE_SIZE = 1;
+
+    /**
+     * Number of entries used to force several resizes.
+     */
+    private static final int MANY = 1000;
+
+    /**
+     * Number of two-character blocks in each colliding key.
+     */
+    private static final int COLLIDING_BLOCKS = 10;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new Map4<String, String>(TEST_HASH_TABLE_SIZE);
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    //remove every pair again so the hash table shrinks back
+    @Test
+    public final void testRemoveAll() {
+        Map<String, String> test = this.constructorTest();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+        }
+        for (int i = 0; i < MANY; i++) {
+            Map.Pair<String, String> removed = test.remove("k" + i);
+            assertEquals("k" + i, removed.key());
+            assertEquals("v" + i, removed.value());
+            assertEquals(MANY - i - 1, test.size());
+        }
+        assertEquals(this.constructorRef(), test);
+    }
+
+    /**
+     * Removes an arbitrary pair from {@code test} and checks that it is one
+     * of the pairs still in {@code ref}, which it is then removed from, so
+     * that no key can come back twice.
+     *
+     * @param test
+     *            the map under test
+     * @param ref
+     *            the pairs expected in {@code test}
+     */
+    private static void removeAnyChecked(Map<String, String> test,
+            Map<String, String> ref) {
+        Map.Pair<String, String> removed = test.removeAny();
+        assertTrue(ref.hasKey(removed.key()));
+        assertEquals(ref.remove(removed.key()).value(), removed.value());
+        assertEquals(ref.size(), test.size());
+    }
+
+    //removeAny returns each key once as the table grows, rehashes, shrinks
+    @Test
+    public final void testRemoveAnyWhileResizing() {
+        Map4<String, String> test = new Map4<String, String>(
+                TEST_HASH_TABLE_SIZE);
+        Map<String, String> ref = this.constructorRef();
+        final int every = 3;
+        int next = 0;
+        //growing: one removeAny after every three adds; a resize moves its
+        //buckets over several later calls, so some of these run mid-rehash
+        while (next < MANY) {
+            test.add("k" + next, "v" + next);
+            ref.add("k" + next, "v" + next);
+            next++;
+            if (next % every == 0) {
+                removeAnyChecked(test, ref);
+            }
+        }
+        //add until a resize starts, then removeAny while it is under way
+        int resizes = test.statistics().resizeCount();
+        while (test.statistics().resizeCount() == resizes) {
+            test.add("k" + next, "v" + next);
+            ref.add("k" + next, "v" + next);
+            next++;
+        }
+        for (int i = 0; i < every; i++) {
+            removeAnyChecked(test, ref);
+        }
+        //shrinking: one add after every three removeAnys, then empty it
+        while (ref.size() > every) {
+            for (int i = 0; i < every; i++) {
+                removeAnyChecked(test, ref);
+            }
+            test.add("k" + next, "v" + next);
+            ref.add("k" + next, "v" + next);
+            next++;
+        }
+        while (test.size() > 0) {
+            removeAnyChecked(test, ref);
+        }
+        assertEquals(0, ref.size());
+        assertTrue(test.statistics().resizeCount() > resizes + 1);
+    }
+
+    //transferFrom and clear in the middle of growing
+    @Test
+    public final void testTransferFromAndClear() {
+        Map<String, String> test = this.constructorTest();
+        Map<String, String> ref = this.constructorRef();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+            ref.add("k" + i, "v" + i);
+        }
+        Map<String, String> moved = this.constructorTest();
+        moved.transferFrom(test);
+        assertEquals(ref, moved);
+        assertEquals(this.constructorRef(), test);
+        test.add("a", "b");
+        assertEquals("b", test.value("a"));
+        moved.clear();
+        assertEquals(this.constructorRef(), moved);
+        moved.add("a", "b");
+        assertEquals(test, moved);
+    }
+
+    //empty the map and fill it again after its buckets have been released
+    @Test
+    public final void testRefillAfterEmpty() {
+        Map<String, String> test = this.constructorTest();
+        Map<String, String> ref = this.constructorRef();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+        }
+        while (test.size() > 0) {
+            test.removeAny();
+        }
+        assertTrue(!test.hasKey("k0"));
+        for (int i = 0; i < MANY; i++) {
+            test.add("j" + i, "w" + i);
+            ref.add("j" + i, "w" + i);
+        }
+        assertEquals(ref, test);
+    }
+
+    //statistics account for every bucket and entry, old and new
+    @Test
+    public final void testStatistics() {
+        Map4<String, String> test = new Map4<String, String>(
+                TEST_HASH_TABLE_SIZE);
+        Map4.Statistics empty = test.statistics();
+        assertEquals(0, empty.bucketCount());
+        assertEquals(0, empty.maxChainLength());
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+        }
+        Map4.Statistics stats = test.statistics();
+        int[] histogram = stats.occupancyHistogram();
+        int buckets = 0;
+        int entries = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            buckets += histogram[i];
+            entries += i * histogram[i];
+        }
+        assertEquals(stats.bucketCount(), buckets);
+        assertEquals(MANY, entries);
+        assertEquals(histogram.length - 1, stats.maxChainLength());
+        assertTrue(stats.resizeCount() > 0);
+        assertTrue(stats.meanChainLength() >= 1);
+        assertTrue(stats.successfulProbes() >= 1);
+        assertTrue(stats.bytesPerEntry() > 0);
+    }
+
+    //transferFrom moves the resize count along with the entries
+    @Test
+    public final void testStatisticsTransferFrom() {
+        Map4<String, String> source = new Map4<String, String>(
+                TEST_HASH_TABLE_SIZE);
+        for (int i = 0; i < MANY; i++) {
+            source.add("k" + i, "v" + i);
+        }
+        int resizes = source.statistics().resizeCount();
+        assertTrue(resizes > 0);
+        Map4<String, String> test = new Map4<String, String>(
+                TEST_HASH_TABLE_SIZE);
+        test.add("x", "y");
+        test.transferFrom(source);
+        assertEquals(resizes, test.statistics().resizeCount());
+        assertEquals(0, source.statistics().resizeCount());
+    }
+
+    //a tree bucket keeps lookups short even though its chain is long
+    @Test
+    public final void testStatisticsCollidingKeys() {
+        String[] keys = collidingKeys(COLLIDING_BLOCKS);
+        Map4<String, String> test = new Map4<String, String>(
+                TEST_HASH_TABLE_SIZE);
+        for (String k : keys) {
+            test.add(k, k + "v");
+        }
+        Map4.Statistics stats = test.statistics();
+        assertEquals(keys.length, stats.maxChainLength());
+        assertEquals(1, stats.occupancyHistogram()[keys.length]);
+        assertTrue(stats.successfulProbes() < 2 * COLLIDING_BLOCKS);
+    }
+
+    /**
+     * Splits {@code s} as far as it will go, checks that every piece returns
+     * exactly as many entries as it reported, and returns the total.
+     *
+     * @param s
+     *            the spliterator
+     * @return the number of entries returned by all the pieces
+     */
+    private static long splitAndCount(
+            Spliterator<Map.Pair<String, String>> s) {
+        long expected = s.getExactSizeIfKnown();
+        Spliterator<Map.Pair<String, String>> other = s.trySplit();
+        long result;
+        if (other == null) {
+            final long[] count = { 0 };
+            s.forEachRemaining(p -> count[0]++);
+            result = count[0];
+        } else {
+            result = splitAndCount(s) + splitAndCount(other);
+        }
+        assertEquals(expected, result);
+        return result;
+    }
+
+    //splitting on bucket ranges keeps exact sizes, even mid-resize
+    @Test
+    public final void testSpliterator() {
+        Map4<String, String> test = new Map4<String, String>(
+                TEST_HASH_TABLE_SIZE);
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+            if (i % (MANY / 10) == 0) {
+                assertEquals(i + 1, splitAndCount(test.spliterator()));
+            }
+        }
+        assertEquals(MANY, splitAndCount(test.spliterator()));
+    }
+
+    //sequential and parallel streams see every entry once
+    @Test
+    public final void testStream() {
+        Map4<String, String> test = new Map4<String, String>(
+                TEST_HASH_TABLE_SIZE);
+        assertEquals(0, test.stream().count());
+        long expected = 0;
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+            expected += i;
+        }
+        assertEquals(MANY, test.stream().count());
+        assertEquals(MANY, test.parallelStream().map(p -> p.key()).distinct()
+                .count());
+        assertEquals(expected, test.parallelStream()
+                .mapToLong(p -> Long.parseLong(p.value().substring(1)))
+                .sum());
+    }
+
+    //addOrReplace adds new keys and reports the value it replaces
+    @Test
+    public final void testAddOrReplace() {
+        Map4<String, String> test = new Map4<String, String>(
+                TEST_HASH_TABLE_SIZE);
+        Map<String, String> ref = this.constructorRef();
+        for (int i = 0; i < MANY; i++) {
+            assertEquals(null, test.addOrReplace("k" + i, "v" + i));
+            ref.add("k" + i, "v" + i);
+        }
+        for (int i = 0; i < MANY; i += 2) {
+            assertEquals("v" + i, test.addOrReplace("k" + i, "w" + i));
+            ref.replaceValue("k" + i, "w" + i);
+        }
+        assertEquals(MANY, test.size());
+        assertEquals(ref, test);
+    }
+
+    //merge counts repeated keys, in list and tree buckets alike
+    @Test
+    public final void testMerge() {
+        String[] keys = collidingKeys(COLLIDING_BLOCKS);
+        Map4<String, Integer> test = new Map4<String, Integer>();
+        for (int i = 0; i < MANY; i++) {
+            test.merge("k" + (i % 2), 1, Integer::sum);
+        }
+        final int uses = 3;
+        for (int u = 0; u < uses; u++) {
+            for (String k : keys) {
+                test.merge(k, 1, Integer::sum);
+            }
+        }
+        assertEquals(2 + keys.length, test.size());
+        assertEquals(MANY / 2, (int) test.value("k0"));
+        assertEquals(MANY / 2, (int) test.value("k1"));
+        for (String k : keys) {
+            assertEquals(uses, (int) test.value(k));
+        }
+    }
+
+    //computeIfAbsent calls its function only for missing keys
+    @Test
+    public final void testComputeIfAbsent() {
+        Map4<String, String> test = new Map4<String, String>(
+                TEST_HASH_TABLE_SIZE);
+        final int distinct = 10;
+        final int[] calls = { 0 };
+        for (int i = 0; i < MANY; i++) {
+            String v = test.computeIfAbsent("k" + (i % distinct), k -> {
+                calls[0]++;
+                return k + "v";
+            });
+            assertEquals("k" + (i % distinct) + "v", v);
+        }
+        assertEquals(distinct, calls[0]);
+        assertEquals(distinct, test.size());
+    }
+
+    //replaceValue works in place, in list and tree buckets alike
+    @Test
+    public final void testReplaceValue() {
+        String[] keys = collidingKeys(COLLIDING_BLOCKS);
+        Map<String, String> test = this.constructorTest();
+        test.add("plain", "p");
+        for (String k : keys) {
+            test.add(k, k + "v");
+        }
+        assertEquals("p", test.replaceValue("plain", "q"));
+        assertEquals("q", test.value("plain"));
+        for (String k : keys) {
+            assertEquals(k + "v", test.replaceValue(k, k + "w"));
+        }
+        for (String k : keys) {
+            assertEquals(k + "w", test.value(k));
+        }
+        assertEquals(keys.length + 1, test.size());
+    }
+
+    //valueOrDefault finds keys in list and tree buckets and misses others
+    @Test
+    public final void testValueOrDefault() {
+        String[] keys = collidingKeys(COLLIDING_BLOCKS);
+        Map4<String, String> test = new Map4<String, String>(
+                TEST_HASH_TABLE_SIZE);
+        assertEquals("none", test.valueOrDefault("plain", "none"));
+        test.add("plain", "p");
+        for (String k : keys) {
+            test.add(k, k + "v");
+        }
+        assertEquals("p", test.valueOrDefault("plain", "none"));
+        for (String k : keys) {
+            assertEquals(k + "v", test.valueOrDefault(k, null));
+        }
+        assertEquals(null, test.valueOrDefault("missing", null));
+        assertEquals(keys.length + 1, test.size());
+    }
+
+    //key and hasValue find values in list and tree buckets, old and new
+    @Test
+    public final void testKeyAndHasValue() {
+        String[] keys = collidingKeys(COLLIDING_BLOCKS);
+        Map<String, String> test = this.constructorTest();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+            assertEquals("k" + i, test.key("v" + i));
+            assertEquals("k" + i / 2, test.key("v" + i / 2));
+        }
+        for (String k : keys) {
+            test.add(k, k + "v");
+        }
+        for (String k : keys) {
+            assertTrue(test.hasValue(k + "v"));
+            assertEquals(k, test.key(k + "v"));
+        }
+        assertTrue(!test.hasValue("v" + MANY));
+        assertTrue(!test.hasValue(keys[0]));
+        assertEquals(MANY + keys.length, test.size());
+    }
+
+    /**
+     * Returns the pairs ("k"+i, "v"+i) for 0 <= i < {@code n}.
+     *
+     * @param n
+     *            the number of pairs
+     * @return the pairs
+     */
+    private static List<Map.Pair<String, String>> pairs(int n) {
+        Map<String, String> m = new Map1L<String, String>();
+        for (int i = 0; i < n; i++) {
+            m.add("k" + i, "v" + i);
+        }
+        List<Map.Pair<String, String>> result = new ArrayList<>();
+        for (Map.Pair<String, String> p : m) {
+            result.add(p);
+        }
+        return result;
+    }
+
+    //a bulk-loaded map behaves like one built by add, through later changes
+    @Test
+    public final void testBulkLoad() {
+        @SuppressWarnings("unchecked")
+        Map.Pair<String, String>[] array = pairs(MANY)
+                .toArray(new Map.Pair[MANY]);
+        Map4<String, String> test = Map4.bulkLoad(array);
+        Map<String, String> ref = this.constructorRef();
+        for (Map.Pair<String, String> p : array) {
+            ref.add(p.key(), p.value());
+        }
+        assertEquals(ref, test);
+        assertEquals(0, test.statistics().resizeCount());
+        test.add("extra", "x");
+        ref.add("extra", "x");
+        for (int i = 0; i < MANY; i += 2) {
+            assertEquals(ref.remove("k" + i), test.remove("k" + i));
+        }
+        assertEquals(ref, test);
+        while (test.size() > 0) {
+            Map.Pair<String, String> removed = test.removeAny();
+            assertEquals(ref.remove(removed.key()), removed);
+        }
+        assertEquals(0, ref.size());
+        assertEquals(0, Map4.bulkLoad(Arrays.copyOf(array, 0)).size());
+    }
+
+    //iterators, streams, and colliding keys load the same way
+    @Test
+    public final void testBulkLoadIteratorAndStream() {
+        List<Map.Pair<String, String>> list = pairs(MANY);
+        Map<String, String> ref = this.constructorRef();
+        for (Map.Pair<String, String> p : list) {
+            ref.add(p.key(), p.value());
+        }
+        assertEquals(ref, Map4.bulkLoad(list.iterator()));
+        assertEquals(ref, Map4.bulkLoad(list.parallelStream()));
+        Map<String, String> colliding = this.constructorRef();
+        for (String k : collidingKeys(COLLIDING_BLOCKS)) {
+            colliding.add(k, k + "v");
+        }
+        List<Map.Pair<String, String>> collidingList = new ArrayList<>();
+        for (Map.Pair<String, String> p : colliding) {
+            collidingList.add(p);
+        }
+        Map4<String, String> test = Map4.bulkLoad(collidingList.stream());
+        assertEquals(colliding, test);
+        assertEquals(colliding.size(), test.statistics().maxChainLength());
+    }
+
+}
@@ -0,0 +1,67 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code Map6} using default constructor.
+ */
+public class Map6Test extends MapTest {
+
+    /**
+     * Number of two-character blocks in each colliding key; 2^6 keys with one
+     * hash code are more than two slots and a {@code STASH_SIZE} stash hold.
+     */
+    private static final int COLLIDING_BLOCKS = 6;
+
+    /**
+     * Number of ordinary keys added alongside the colliding ones.
+     */
+    private static final int OTHERS = 100;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new Map6<String, String>();
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    //keys with equal hash codes share both slots, so the stash has to grow,
+    //and removing from the middle of the stash keeps the rest reachable
+    @Test
+    public final void testStashGrowth() {
+        String[] keys = collidingKeys(COLLIDING_BLOCKS);
+        Map<String, String> test = this.constructorTest();
+        Map<String, String> ref = this.constructorRef();
+        for (int i = 0; i < OTHERS; i++) {
+            test.add("k" + i, "v" + i);
+            ref.add("k" + i, "v" + i);
+        }
+        for (String k : keys) {
+            test.add(k, k + "v");
+            ref.add(k, k + "v");
+        }
+        assertEquals(ref, test);
+        for (int i = 1; i < keys.length; i += 3) {
+            assertEquals(keys[i] + "v", test.remove(keys[i]).value());
+            ref.remove(keys[i]);
+            for (int j = 0; j < keys.length; j++) {
+                assertEquals(ref.hasKey(keys[j]), test.hasKey(keys[j]));
+            }
+        }
+        for (int i = 1; i < keys.length; i += 3) {
+            test.add(keys[i], "again");
+            ref.add(keys[i], "again");
+        }
+        assertEquals(ref, test);
+        for (int i = 0; i < OTHERS; i++) {
+            assertEquals("v" + i, test.value("k" + i));
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code Map7}.
+ */
+public class Map7Test extends MapTest {
+
+    /**
+     * Number of entries in the larger maps, enough for several trie levels.
+     */
+    private static final int MANY = 5000;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new Map7<String, String>();
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    //many adds and removes agree with Map1L at every size
+    @Test
+    public final void testAddRemoveMany() {
+        Map<String, String> test = this.constructorTest();
+        Map<String, String> ref = this.constructorRef();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+            ref.add("k" + i, "v" + i);
+        }
+        assertEquals(ref, test);
+        for (int i = 0; i < MANY; i += 2) {
+            assertEquals(ref.remove("k" + i), test.remove("k" + i));
+        }
+        assertEquals(ref, test);
+        while (test.size() > 0) {
+            Map.Pair<String, String> p = test.removeAny();
+            assertEquals(ref.remove(p.key()), p);
+        }
+        assertEquals(0, ref.size());
+    }
+
+    //a snapshot and its source change independently
+    @Test
+    public final void testSnapshot() {
+        Map7<String, String> test = new Map7<String, String>();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+        }
+        Map7<String, String> copy = test.snapshot();
+        assertEquals(test, copy);
+        for (int i = 0; i < MANY; i += 2) {
+            test.remove("k" + i);
+            test.add("k" + i, "w" + i);
+        }
+        copy.add("extra", "x");
+        for (int i = 0; i < MANY; i++) {
+            String v;
+            if (i % 2 == 0) {
+                v = "w";
+            } else {
+                v = "v";
+            }
+            assertEquals(v + i, test.value("k" + i));
+            assertEquals("v" + i, copy.value("k" + i));
+        }
+        assertFalse(test.hasKey("extra"));
+        assertEquals(MANY, test.size());
+        assertEquals(MANY + 1, copy.size());
+    }
+
+    //snapshots of snapshots keep their own contents
+    @Test
+    public final void testSnapshotChain() {
+        Map7<String, String> test = new Map7<String, String>();
+        Map7<String, String> first = test.snapshot();
+        test.add("a", "1");
+        Map7<String, String> second = test.snapshot();
+        test.add("b", "2");
+        Map7<String, String> third = second.snapshot();
+        second.remove("a");
+        assertEquals(0, first.size());
+        assertEquals(0, second.size());
+        assertEquals(1, third.size());
+        assertEquals("1", third.value("a"));
+        assertEquals(2, test.size());
+    }
+
+    //keys with equal hash codes share a collision node
+    @Test
+    public final void testCollisionNode() {
+        Map<String, String> test = this.constructorTest();
+        Map<String, String> ref = this.constructorRef();
+        String[] colliding = { "AaAa", "AaBB", "BBAa", "BBBB" };
+        for (String k : colliding) {
+            test.add(k, k + "v");
+            ref.add(k, k + "v");
+        }
+        test.add("Aa", "a");
+        ref.add("Aa", "a");
+        assertEquals(ref, test);
+        assertFalse(test.hasKey("AaAaAa"));
+        for (String k : colliding) {
+            assertEquals(ref.remove(k), test.remove(k));
+            assertEquals(ref, test);
+        }
+        assertTrue(test.hasKey("Aa"));
+    }
+
+}
@@ -14,6 +14,16 @@ import components.map.Map;
  */
 public abstract class MapTest {
 
+    /**
+     * Number of entries used to force a hash table to grow.
+     */
+    private static final int MANY = 1000;
+
+    /**
+     * Number of two-character blocks in each colliding key.
+     */
+    private static final int COLLIDING_BLOCKS = 8;
+
     /**
      * Invokes the appropriate {@code Map} constructor for the implementation
      * under test and returns the result.
@@ -82,6 +92,28 @@ public abstract class MapTest {
         return map;
     }
 
+    /**
+     * Returns 2^{@code blocks} distinct strings that all have the same
+     * {@code hashCode}, built from the blocks "Aa" and "BB" (which have equal
+     * hash codes).
+     *
+     * @param blocks
+     *            number of blocks per string
+     * @return the strings
+     */
+    protected static String[] collidingKeys(int blocks) {
+        String[] keys = { "" };
+        for (int b = 0; b < blocks; b++) {
+            String[] longer = new String[2 * keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                longer[2 * i] = keys[i] + "Aa";
+                longer[2 * i + 1] = keys[i] + "BB";
+            }
+            keys = longer;
+        }
+        return keys;
+    }
+
     // TODO - add test cases for constructor, add, remove, removeAny, value,
     // hasKey, and size
 
@@ -203,4 +235,82 @@ public abstract class MapTest {
         assertEquals(test.size(), 0);
     }
 
+    //add enough pairs to grow a hash table several times
+    @Test
+    public final void testAddMany() {
+        Map<String, String> test = this.constructorTest();
+        Map<String, String> ref = this.constructorRef();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+            ref.add("k" + i, "v" + i);
+        }
+        assertEquals(ref, test);
+        for (int i = 0; i < MANY; i++) {
+            assertTrue(test.hasKey("k" + i));
+            assertEquals("v" + i, test.value("k" + i));
+        }
+        assertTrue(!test.hasKey("k" + MANY));
+    }
+
+    //remove every other pair, leaving holes that later lookups pass over
+    @Test
+    public final void testRemoveMany() {
+        Map<String, String> test = this.constructorTest();
+        Map<String, String> ref = this.constructorRef();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+            ref.add("k" + i, "v" + i);
+        }
+        for (int i = 0; i < MANY; i += 2) {
+            Map.Pair<String, String> removed = test.remove("k" + i);
+            ref.remove("k" + i);
+            assertEquals("k" + i, removed.key());
+            assertEquals("v" + i, removed.value());
+        }
+        assertEquals(ref, test);
+        for (int i = 1; i < MANY; i += 2) {
+            assertTrue(test.hasKey("k" + i));
+        }
+    }
+
+    //removeAny until empty
+    @Test
+    public final void testRemoveAnyMany() {
+        Map<String, String> test = this.constructorTest();
+        Map<String, String> ref = this.constructorRef();
+        for (int i = 0; i < MANY; i++) {
+            test.add("k" + i, "v" + i);
+            ref.add("k" + i, "v" + i);
+        }
+        while (test.size() > 0) {
+            Map.Pair<String, String> removed = test.removeAny();
+            assertEquals(ref.remove(removed.key()).value(), removed.value());
+        }
+        assertEquals(0, ref.size());
+    }
+
+    //keys with equal hash codes are still told apart
+    @Test
+    public final void testCollidingKeys() {
+        String[] keys = collidingKeys(COLLIDING_BLOCKS);
+        Map<String, String> test = this.constructorTest();
+        Map<String, String> ref = this.constructorRef();
+        for (String k : keys) {
+            assertEquals(keys[0].hashCode(), k.hashCode());
+            test.add(k, k + "v");
+            ref.add(k, k + "v");
+        }
+        assertEquals(ref, test);
+        for (int i = 0; i < keys.length; i += 2) {
+            assertEquals(keys[i] + "v", test.remove(keys[i]).value());
+            ref.remove(keys[i]);
+        }
+        assertEquals(ref, test);
+        while (test.size() > 0) {
+            Map.Pair<String, String> removed = test.removeAny();
+            assertEquals(ref.remove(removed.key()).value(), removed.value());
+        }
+        assertEquals(0, ref.size());
+    }
+
 }
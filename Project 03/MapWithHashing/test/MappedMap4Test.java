@@ -0,0 +1,148 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code MappedMap4}, starting each test
+ * from a mapped image of an empty {@code Map}.
+ */
+public class MappedMap4Test extends MapTest {
+
+    /**
+     * Number of entries in the larger images.
+     */
+    private static final int MANY = 1000;
+
+    /**
+     * Returns the name of a new temporary file, deleted when the JVM exits.
+     *
+     * @return the file name
+     */
+    private static String tempFileName() {
+        try {
+            File f = File.createTempFile("MappedMap4Test", ".img");
+            f.deleteOnExit();
+            return f.getPath();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Writes {@code m} to a temporary file and opens it again.
+     *
+     * @param <V>
+     *            type of values
+     * @param m
+     *            the map to write
+     * @param valueCodec
+     *            codec for values
+     * @return the mapped copy of {@code m}
+     */
+    private static <V> MappedMap4<String, V> roundTrip(Map<String, V> m,
+            MappedMap4.Codec<V> valueCodec) {
+        String fileName = tempFileName();
+        try {
+            MappedMap4.write(m, fileName, MappedMap4.STRING, valueCodec);
+            return MappedMap4.open(fileName, MappedMap4.STRING, valueCodec);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return roundTrip(new Map1L<String, String>(), MappedMap4.STRING);
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    //lookups and iteration read the image without decoding it
+    @Test
+    public final void testReadMapped() {
+        Map<String, Integer> ref = new Map4<String, Integer>();
+        for (int i = 0; i < MANY; i++) {
+            ref.add("k" + i, i);
+        }
+        MappedMap4<String, Integer> test = roundTrip(ref, MappedMap4.INTEGER);
+        assertTrue(test.isMapped());
+        assertEquals(MANY, test.size());
+        for (int i = 0; i < MANY; i++) {
+            assertTrue(test.hasKey("k" + i));
+            assertEquals(Integer.valueOf(i), test.value("k" + i));
+        }
+        assertFalse(test.hasKey("k" + MANY));
+        assertEquals(ref, test);
+        assertTrue(test.isMapped());
+    }
+
+    //the first change decodes the image
+    @Test
+    public final void testPromote() {
+        Map<String, Long> ref = new Map1L<String, Long>();
+        ref.add("a", 1L);
+        ref.add("\u00e9t\u00e9", 2L);
+        MappedMap4<String, Long> test = roundTrip(ref, MappedMap4.LONG);
+        assertEquals(Long.valueOf(2L), test.value("\u00e9t\u00e9"));
+        test.add("b", 3L);
+        ref.add("b", 3L);
+        assertFalse(test.isMapped());
+        assertEquals(ref, test);
+        assertEquals(Long.valueOf(1L), test.remove("a").value());
+    }
+
+    //transferFrom moves a still-mapped image
+    @Test
+    public final void testTransferFromMapped() {
+        Map<String, String> ref = new Map1L<String, String>();
+        ref.add("a", "b");
+        MappedMap4<String, String> source = roundTrip(ref, MappedMap4.STRING);
+        MappedMap4<String, String> test = new MappedMap4<String, String>();
+        test.transferFrom(source);
+        assertTrue(test.isMapped());
+        assertEquals(ref, test);
+        assertEquals(0, source.size());
+    }
+
+    //open rejects an image whose slot count is damaged
+    @Test
+    public final void testOpenDamagedHeader() {
+        Map<String, String> ref = new Map1L<String, String>();
+        for (int i = 0; i < MANY; i++) {
+            ref.add("k" + i, "v" + i);
+        }
+        final int slotCountPosition = 2 * Integer.BYTES;
+        final int[] damaged = { 0, 3, 1 << 24 };
+        for (int slotCount : damaged) {
+            String fileName = tempFileName();
+            boolean rejected = false;
+            try {
+                MappedMap4.write(ref, fileName, MappedMap4.STRING,
+                        MappedMap4.STRING);
+                try (RandomAccessFile f = new RandomAccessFile(fileName,
+                        "rw")) {
+                    f.seek(slotCountPosition);
+                    f.writeInt(slotCount);
+                }
+                MappedMap4.open(fileName, MappedMap4.STRING,
+                        MappedMap4.STRING);
+            } catch (IOException e) {
+                rejected = true;
+            }
+            assertTrue(rejected);
+        }
+    }
+
+}
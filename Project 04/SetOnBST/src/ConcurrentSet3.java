@@ -0,0 +1,748 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import components.set.Set;
+import components.set.SetSecondary;
+
+/**
+ * Ordered {@code Set} that may be used from several threads at once,
+ * represented as a lock-free skip list, with implementations of primary
+ * methods and atomic {@code addIfAbsent} and {@code removeIfPresent}.
+ * <p>
+ * Each node is linked into the lists of levels 0 through its own top level,
+ * chosen at random so that about half the nodes of each level also appear
+ * in the next. No thread ever waits for another. {@code contains} only
+ * reads, and never retries. An update changes links with compare-and-set
+ * and retries only when another update changed the same link first. A node
+ * is removed in two steps. First each of its links is marked by putting a
+ * marker node between it and its successor, which stops any node from
+ * being linked in after it; its element leaves the set in the instant its
+ * level-0 link is marked. Then it is unlinked, either by the remover or by
+ * any search that runs into it. Marker nodes are only made on removal, so
+ * a search follows exactly one reference per step. Searches start at the
+ * highest level any node has been linked into, which an insertion raises
+ * with compare-and-set before linking a taller node, rather than at
+ * {@code MAX_LEVEL}. {@code size} adds up per-thread counters and reads no
+ * links at all.
+ * <p>
+ * Kernel methods are individually atomic, but sequences of them are not: an
+ * element found absent by {@code contains} may have been added by the time
+ * {@code add} is called, violating its precondition. Use {@code addIfAbsent}
+ * and {@code removeIfPresent} when other threads may add or remove the same
+ * elements. {@code removeAny} claims the smallest element no other thread
+ * has claimed, so concurrent calls never return the same element; since
+ * other threads may empty the set at any time, it does not rely on its
+ * precondition, and throws {@code NoSuchElementException} if it finds no
+ * element left to claim. Iteration is in increasing order and only weakly
+ * consistent with updates made while it runs. {@code clear},
+ * {@code newInstance}, and {@code transferFrom} are not atomic with respect
+ * to other calls and should be made by one thread while no other thread is
+ * using either set.
+ *
+ * @param <T>
+ *            type of {@code Set} elements
+ * @mathdefinitions <pre>
+ * IS_MARKED(
+ *   n: Node,
+ *   i: integer
+ *  ): boolean is
+ *  n.next[i] /= null  and  n.next[i].isMarker
+ *
+ * LEVEL(
+ *   n: Node,
+ *   i: integer
+ *  ): string of Node is
+ *  [the nodes reached from n by following the links of level i, passing
+ *   over marker nodes, up to the end of the list]
+ * </pre>
+ * @convention <pre>
+ * $this.head.value = null  and  |$this.head.next| = MAX_LEVEL  and
+ * 1 <= $this.height <= MAX_LEVEL  and
+ * for all i: integer where ($this.height <= i < MAX_LEVEL)
+ *   (LEVEL($this.head, i) = <>)  and
+ * for all i: integer where (0 <= i < MAX_LEVEL)
+ *   ([the values of the nodes n of LEVEL($this.head, i) are in
+ *     strictly increasing order, ignoring those with IS_MARKED(n, i)]  and
+ *    [every node of LEVEL($this.head, i + 1) that is not removed is also
+ *     in LEVEL($this.head, i)])  and
+ * [when no update is running]
+ *   $this.count = |{n: Node where (n is in LEVEL($this.head, 0)  and
+ *                                  not IS_MARKED(n, 0))}|
+ * </pre>
+ * @correspondence <pre>
+ * this = {n: Node where (n is in LEVEL($this.head, 0)  and
+ *                        not IS_MARKED(n, 0)) (n.value)}
+ * </pre>
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class ConcurrentSet3<T extends Comparable<T>> extends SetSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Number of levels, enough for billions of elements.
+     */
+    private static final int MAX_LEVEL = 32;
+
+    /**
+     * Handle through which the links of nodes are read and swapped
+     * atomically.
+     */
+    private static final VarHandle NEXT = MethodHandles
+            .arrayElementVarHandle(Node[].class);
+
+    /**
+     * Node of the skip list, or a marker placed after a node being removed.
+     *
+     * @param <T>
+     *            type of values
+     */
+    private static final class Node<T> {
+
+        /**
+         * Value, or null in the head and in markers.
+         */
+        private final T value;
+
+        /**
+         * Link to the next node of each level this node is in, read and
+         * written through {@code NEXT} once the node is in the list; a
+         * marker has one link, to the successor of the node it marks.
+         */
+        private final Node<T>[] next;
+
+        /**
+         * Whether this is a marker.
+         */
+        private final boolean isMarker;
+
+        /**
+         * Constructor of a node.
+         *
+         * @param value
+         *            the value
+         * @param levels
+         *            the number of levels the node is in
+         */
+        @SuppressWarnings("unchecked")
+        Node(T value, int levels) {
+            this.value = value;
+            this.next = new Node[levels];
+            this.isMarker = false;
+        }
+
+        /**
+         * Constructor of a marker.
+         *
+         * @param succ
+         *            the successor of the node being marked, or null
+         */
+        @SuppressWarnings("unchecked")
+        Node(Node<T> succ) {
+            this.value = null;
+            this.next = new Node[] { succ };
+            this.isMarker = true;
+        }
+
+    }
+
+    /**
+     * Head of every level, holding no value.
+     */
+    private Node<T> head;
+
+    /**
+     * Size of abstract {@code this}, kept without reading the links.
+     */
+    private LongAdder count;
+
+    /**
+     * Number of the lowest levels that nodes may be linked into, where
+     * searches start; it only grows.
+     */
+    private AtomicInteger height;
+
+    /**
+     * Returns a random number of levels for a new node: 1 with probability
+     * 1/2, 2 with probability 1/4, and so on, up to {@code MAX_LEVEL}.
+     *
+     * @return the number of levels
+     * @ensures 1 <= randomLevels <= MAX_LEVEL
+     */
+    private static int randomLevels() {
+        int bits = ThreadLocalRandom.current().nextInt();
+        return Integer.numberOfTrailingZeros(bits | (1 << (MAX_LEVEL - 1)))
+                + 1;
+    }
+
+    /**
+     * Returns the link of {@code n} on level {@code level}.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the node
+     * @param level
+     *            the level
+     * @return n.next[level], read atomically
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T> link(Node<T> n, int level) {
+        return (Node<T>) NEXT.getVolatile(n.next, level);
+    }
+
+    /**
+     * Sets the link of {@code n} on level {@code level} to {@code update} if
+     * it is still {@code expected}, atomically.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the node
+     * @param level
+     *            the level
+     * @param expected
+     *            the link expected
+     * @param update
+     *            the new link
+     * @return true if the link was changed
+     * @updates n.next
+     * @ensures <pre>
+     * casLink = (#n.next[level] = expected)  and
+     * (casLink  implies  n.next[level] = update)
+     * </pre>
+     */
+    private static <T> boolean casLink(Node<T> n, int level, Node<T> expected,
+            Node<T> update) {
+        return NEXT.compareAndSet(n.next, level, expected, update);
+    }
+
+    /**
+     * Reports whether {@code n} has been removed from the set.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the node
+     * @return true if the level-0 link of n is marked
+     * @ensures isRemoved = IS_MARKED(n, 0)
+     */
+    private static <T> boolean isRemoved(Node<T> n) {
+        Node<T> s = link(n, 0);
+        return s != null && s.isMarker;
+    }
+
+    /**
+     * Returns the node after {@code n} on level {@code level}, looking past
+     * the marker if {@code n} is being removed.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the node
+     * @param level
+     *            the level
+     * @return the successor of n, or null if there is none
+     */
+    private static <T> Node<T> successor(Node<T> n, int level) {
+        Node<T> result = link(n, level);
+        if (result != null && result.isMarker) {
+            result = result.next[0];
+        }
+        return result;
+    }
+
+    /**
+     * Finds, on each level, the last node with a value smaller than
+     * {@code x} and the node after it, unlinking the removed nodes it passes.
+     * Gives up as soon as another thread changes a link it is trying to
+     * unlink. Levels at or above {@code height}, which held no nodes when the
+     * search started, get the head and null.
+     *
+     * @param x
+     *            the value to look for
+     * @param preds
+     *            receives the last node before {@code x} on each level
+     * @param succs
+     *            receives the node after preds[i] on each level i, or null
+     * @return true if every unlinking succeeded, false if the search must
+     *         start over
+     * @updates preds, succs
+     * @requires |preds| = |succs| = MAX_LEVEL
+     * @ensures <pre>
+     * tryFind  implies
+     *  [for each level i, preds[i] is the last node of the level whose value
+     *   is smaller than x, and succs[i] was the node after it]
+     * </pre>
+     */
+    private boolean tryFind(T x, Node<T>[] preds, Node<T>[] succs) {
+        boolean ok = true;
+        Node<T> pred = this.head;
+        int top = this.height.get();
+        for (int i = top; i < MAX_LEVEL; i++) {
+            preds[i] = pred;
+            succs[i] = null;
+        }
+        int level = top - 1;
+        while (ok && level >= 0) {
+            Node<T> curr = link(pred, level);
+            // pred may have been removed since it was reached
+            ok = curr == null || !curr.isMarker;
+            boolean before = true;
+            while (ok && before && curr != null) {
+                Node<T> succ = link(curr, level);
+                if (succ != null && succ.isMarker) {
+                    ok = casLink(pred, level, curr, succ.next[0]);
+                    curr = succ.next[0];
+                } else if (curr.value.compareTo(x) < 0) {
+                    pred = curr;
+                    curr = succ;
+                } else {
+                    before = false;
+                }
+            }
+            preds[level] = pred;
+            succs[level] = curr;
+            level--;
+        }
+        return ok;
+    }
+
+    /**
+     * Finds, on each level, the last node with a value smaller than
+     * {@code x} and the node after it, unlinking the removed nodes it passes.
+     *
+     * @param x
+     *            the value to look for
+     * @param preds
+     *            receives the last node before {@code x} on each level
+     * @param succs
+     *            receives the node after preds[i] on each level i, or null
+     * @return true if succs[0] holds {@code x}
+     * @updates preds, succs
+     * @requires |preds| = |succs| = MAX_LEVEL
+     * @ensures <pre>
+     * [for each level i, preds[i] is the last node of the level whose value
+     *  is smaller than x, and succs[i] was the node after it]  and
+     * find = (succs[0] /= null  and  succs[0].value = x)
+     * </pre>
+     */
+    private boolean find(T x, Node<T>[] preds, Node<T>[] succs) {
+        boolean ok = this.tryFind(x, preds, succs);
+        while (!ok) {
+            // another thread changed the links; start over from the head
+            ok = this.tryFind(x, preds, succs);
+        }
+        return succs[0] != null && succs[0].value.compareTo(x) == 0;
+    }
+
+    /**
+     * Adds {@code x} if it is not already in {@code this}.
+     *
+     * @param x
+     *            the element to add
+     * @return true if x was added, false if it was already there
+     * @aliases reference {@code x}
+     * @updates this
+     * @ensures this = #this union {x} and insert = (x is not in #this)
+     */
+    @SuppressWarnings("unchecked")
+    private boolean insert(T x) {
+        Node<T>[] preds = new Node[MAX_LEVEL];
+        Node<T>[] succs = new Node[MAX_LEVEL];
+        int levels = randomLevels();
+        Node<T> fresh = new Node<T>(x, levels);
+        boolean found = this.find(x, preds, succs);
+        boolean added = false;
+        while (!found && !added) {
+            // fresh is not shared yet, so its own link is set plainly
+            fresh.next[0] = succs[0];
+            added = casLink(preds[0], 0, succs[0], fresh);
+            if (!added) {
+                found = this.find(x, preds, succs);
+            }
+        }
+        if (added) {
+            this.count.increment();
+            int top = this.height.get();
+            while (top < levels && !this.height.compareAndSet(top, levels)) {
+                top = this.height.get();
+            }
+            /*
+             * x is in the set now; link the upper levels, which only speed up
+             * searches, unless another thread starts removing fresh first (a
+             * level that was empty when preds was found gets the head and
+             * null, and is found again if that link has changed since)
+             */
+            int level = 1;
+            while (level < levels && !isRemoved(fresh)) {
+                Node<T> succ = succs[level];
+                Node<T> old = link(fresh, level);
+                boolean current = (old == null || !old.isMarker)
+                        && (old == succ || casLink(fresh, level, old, succ));
+                if (!current) {
+                    // fresh is being removed, so stop linking it
+                    level = levels;
+                } else if (casLink(preds[level], level, succ, fresh)) {
+                    level++;
+                } else {
+                    this.find(x, preds, succs);
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Marks the link of {@code victim} on level {@code level}, unless it is
+     * marked already, so that no node can be linked after it on that level.
+     *
+     * @param <T>
+     *            type of values
+     * @param victim
+     *            the node being removed
+     * @param level
+     *            the level
+     * @return true if this call marked the link, false if another did
+     * @updates victim
+     * @ensures <pre>
+     * mark = (not IS_MARKED(#victim, level))  and  IS_MARKED(victim, level)
+     * </pre>
+     */
+    private static <T> boolean mark(Node<T> victim, int level) {
+        boolean placed = false;
+        Node<T> succ = link(victim, level);
+        while (!placed && (succ == null || !succ.isMarker)) {
+            placed = casLink(victim, level, succ, new Node<T>(succ));
+            succ = link(victim, level);
+        }
+        return placed;
+    }
+
+    /**
+     * Removes {@code victim} from the set if no other thread does it first,
+     * and then unlinks it.
+     *
+     * @param victim
+     *            the node to remove
+     * @return true if this call removed victim, false if another did
+     * @updates this
+     * @ensures <pre>
+     * claim = [victim was not removed, and this call removed it]  and
+     * [victim is removed]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private boolean claim(Node<T> victim) {
+        for (int level = victim.next.length - 1; level > 0; level--) {
+            mark(victim, level);
+        }
+        boolean claimed = mark(victim, 0);
+        if (claimed) {
+            this.count.decrement();
+            // unlink victim, and any other removed node on the way
+            this.find(victim.value, new Node[MAX_LEVEL], new Node[MAX_LEVEL]);
+        }
+        return claimed;
+    }
+
+    /**
+     * Removes the element equal to {@code x} if it is in {@code this}.
+     *
+     * @param x
+     *            the element to remove
+     * @return the element removed, or null if there was none
+     * @updates this
+     * @ensures <pre>
+     * this = #this \ {x}  and
+     * ((x is in #this  and  delete = x)  or
+     *  (x is not in #this  and  delete = null))
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private T delete(T x) {
+        Node<T>[] preds = new Node[MAX_LEVEL];
+        Node<T>[] succs = new Node[MAX_LEVEL];
+        T result = null;
+        if (this.find(x, preds, succs) && this.claim(succs[0])) {
+            result = succs[0].value;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first node at or after {@code n} on level 0 that has not
+     * been removed.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the node to start from, or null
+     * @return the first node not removed, or null if there is none
+     */
+    private static <T> Node<T> skipRemoved(Node<T> n) {
+        Node<T> result = n;
+        while (result != null && isRemoved(result)) {
+            result = successor(result, 0);
+        }
+        return result;
+    }
+
+    /**
+     * Creator of initial representation.
+     */
+    private void createNewRep() {
+
+        this.head = new Node<T>(null, MAX_LEVEL);
+        this.count = new LongAdder();
+        this.height = new AtomicInteger(1);
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public ConcurrentSet3() {
+
+        this.createNewRep();
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Set<T> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public final void transferFrom(Set<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof ConcurrentSet3<?> : ""
+                + "Violation of: source is of dynamic type ConcurrentSet3<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * ConcurrentSet3<?>, and the ? must be T or the call would not have
+         * compiled.
+         */
+        ConcurrentSet3<T> localSource = (ConcurrentSet3<T>) source;
+        this.head = localSource.head;
+        this.count = localSource.count;
+        this.height = localSource.height;
+        localSource.createNewRep();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        boolean added = this.insert(x);
+        assert added : "Violation of: x is not in this";
+    }
+
+    @Override
+    public final T remove(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        T result = this.delete(x);
+        assert result != null : "Violation of: x is in this";
+        return result;
+    }
+
+    /**
+     * Removes and returns an arbitrary element of {@code this}. Other threads
+     * may empty {@code this} between a check of {@code size} and this call,
+     * so instead of relying on {@code this /= empty_set}, this throws
+     * {@code NoSuchElementException} if a scan from the smallest element
+     * finds none left to claim.
+     *
+     * @return the element removed from {@code this}
+     * @throws NoSuchElementException
+     *             if no element was left to claim
+     * @updates this
+     * @ensures <pre>
+     * removeAny is in #this  and
+     * this = #this \ {removeAny}
+     * </pre>
+     */
+    @Override
+    public final T removeAny() {
+        /*
+         * Claim the first node no other thread has claimed; a thread that
+         * loses the race for one node moves on to the next, and starts over
+         * from the head if it runs off the end, since elements may have been
+         * added behind it
+         */
+        T result = null;
+        boolean empty = false;
+        while (result == null && !empty) {
+            Node<T> n = skipRemoved(link(this.head, 0));
+            empty = n == null;
+            while (result == null && n != null) {
+                if (this.claim(n)) {
+                    result = n.value;
+                } else {
+                    n = skipRemoved(successor(n, 0));
+                }
+            }
+        }
+        if (empty) {
+            throw new NoSuchElementException("no element left to claim");
+        }
+        return result;
+    }
+
+    @Override
+    public final boolean contains(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        Node<T> pred = this.head;
+        Node<T> curr = null;
+        for (int level = this.height.get() - 1; level >= 0; level--) {
+            curr = successor(pred, level);
+            boolean before = true;
+            while (before && curr != null) {
+                Node<T> succ = link(curr, level);
+                if (succ != null && succ.isMarker) {
+                    curr = succ.next[0];
+                } else if (curr.value.compareTo(x) < 0) {
+                    pred = curr;
+                    curr = succ;
+                } else {
+                    before = false;
+                }
+            }
+        }
+        return curr != null && curr.value.compareTo(x) == 0;
+    }
+
+    @Override
+    public final int size() {
+        return this.count.intValue();
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new ConcurrentSet3Iterator();
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code x} to {@code this} unless it is already there, atomically.
+     *
+     * @param x
+     *            the element to add
+     * @return true if x was added, false if it was already in this
+     * @aliases reference {@code x}
+     * @updates this
+     * @requires x /= null
+     * @ensures this = #this union {x} and addIfAbsent = (x is not in #this)
+     */
+    public final boolean addIfAbsent(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        return this.insert(x);
+    }
+
+    /**
+     * Removes {@code x} from {@code this} if it is there, atomically.
+     *
+     * @param x
+     *            the element to remove
+     * @return true if x was removed, false if it was not in this
+     * @updates this
+     * @requires x /= null
+     * @ensures this = #this \ {x} and removeIfPresent = (x is in #this)
+     */
+    public final boolean removeIfPresent(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        return this.delete(x) != null;
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code ConcurrentSet3}, visiting the elements in increasing order. It
+     * follows the level-0 links as it goes, so it sees an element added or
+     * removed ahead of it by another thread depending on whether the update
+     * happened before it got there.
+     */
+    private final class ConcurrentSet3Iterator implements Iterator<T> {
+
+        /**
+         * Node of the next element, or null if there is none.
+         */
+        private Node<T> nextNode;
+
+        /**
+         * No-argument constructor.
+         */
+        ConcurrentSet3Iterator() {
+            this.nextNode = skipRemoved(link(ConcurrentSet3.this.head, 0));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.nextNode != null;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T result = this.nextNode.value;
+            this.nextNode = skipRemoved(successor(this.nextNode, 0));
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,162 @@
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+import components.set.Set;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Throughput benchmark for {@code ConcurrentSet3}: several threads look up,
+ * add, and remove random elements of one shared set, first through
+ * {@code ConcurrentSet3} and then through a single {@code Set3c} guarded by
+ * one lock, for 1, 2, 4, ... threads up to the number of available
+ * processors. Of every {@code MIX} operations, one adds, one removes, and the
+ * rest are {@code contains}.
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public final class ConcurrentSet3Benchmark {
+
+    /**
+     * Number of distinct elements; the set starts with half of them.
+     */
+    private static final int ELEMENTS = 100_000;
+
+    /**
+     * Number of operations made by each thread.
+     */
+    private static final int OPERATIONS_PER_THREAD = 2_000_000;
+
+    /**
+     * Number of operations in each group of one add, one remove, and
+     * lookups.
+     */
+    private static final int MIX = 10;
+
+    /**
+     * Number of untimed warm-up rounds.
+     */
+    private static final int WARM_UP_ROUNDS = 2;
+
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private ConcurrentSet3Benchmark() {
+    }
+
+    /**
+     * Makes {@code OPERATIONS_PER_THREAD} random operations on a shared set
+     * on each of {@code threads} threads, and returns the elapsed time in
+     * nanoseconds.
+     *
+     * @param threads
+     *            the number of threads
+     * @param lockFree
+     *            whether to use {@code ConcurrentSet3} (true) or one
+     *            {@code Set3c} behind a single lock (false)
+     * @return the elapsed time in nanoseconds
+     * @requires threads > 0
+     * @ensures run = [time taken to make all the operations]
+     */
+    private static long run(int threads, final boolean lockFree) {
+        final ConcurrentSet3<Integer> shared = new ConcurrentSet3<>();
+        final Set<Integer> single = new Set3c<>();
+        final ReentrantLock singleLock = new ReentrantLock();
+        for (int i = 0; i < ELEMENTS; i += 2) {
+            shared.add(i);
+            single.add(i);
+        }
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread(() -> {
+                Random rand = new Random(seed);
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    Integer x = rand.nextInt(ELEMENTS);
+                    int op = i % MIX;
+                    if (lockFree) {
+                        if (op == 0) {
+                            shared.addIfAbsent(x);
+                        } else if (op == 1) {
+                            shared.removeIfPresent(x);
+                        } else {
+                            shared.contains(x);
+                        }
+                    } else {
+                        singleLock.lock();
+                        try {
+                            boolean present = single.contains(x);
+                            if (op == 0 && !present) {
+                                single.add(x);
+                            } else if (op == 1 && present) {
+                                single.remove(x);
+                            }
+                        } finally {
+                            singleLock.unlock();
+                        }
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers) {
+            w.start();
+        }
+        try {
+            for (Thread w : workers) {
+                w.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError("Benchmark interrupted");
+        }
+        long elapsed = System.nanoTime() - start;
+        int size = shared.size();
+        if (!lockFree) {
+            size = single.size();
+        }
+        assert size <= ELEMENTS : "Violation of: only known elements added";
+        return elapsed;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments
+     */
+    public static void main(String[] args) {
+        SimpleWriter out = new SimpleWriter1L();
+        int cores = Runtime.getRuntime().availableProcessors();
+        out.println("Making " + OPERATIONS_PER_THREAD
+                + " operations per thread, " + cores
+                + " processors available");
+        for (int r = 0; r < WARM_UP_ROUNDS; r++) {
+            run(cores, true);
+            run(cores, false);
+        }
+        out.println("threads\tlock-free Mops/s\tspeedup\tone lock Mops/s");
+        double base = 0;
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            double ops = (double) threads * OPERATIONS_PER_THREAD;
+            double lockFree = ops / run(threads, true) * NANOS_PER_SECOND
+                    / 1e6;
+            double single = ops / run(threads, false) * NANOS_PER_SECOND
+                    / 1e6;
+            if (threads == 1) {
+                base = lockFree;
+            }
+            out.println(threads + "\t" + String.format("%.2f", lockFree) + "\t"
+                    + String.format("%.2fx", lockFree / base) + "\t"
+                    + String.format("%.2f", single));
+        }
+        out.close();
+    }
+
+}
@@ -0,0 +1,415 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.set.Set;
+import components.set.SetSecondary;
+
+/**
+ * Immutable ordered {@code Set} built once from another {@code Set} by
+ * {@code freeze}, and represented as a binary search tree laid out in one
+ * array in breadth-first (Eytzinger) order, with implementations of primary
+ * methods.
+ * <p>
+ * The root is in slot 1 and the children of slot k are in slots 2k and
+ * 2k + 1, so a search follows no references between nodes: each step is
+ * {@code k = 2 * k + [1 if x is larger]}, with no branch on which way to go,
+ * and the slots of the first levels, which every search reads, share a few
+ * cache lines. When the loop falls off the bottom of the tree, the slot of
+ * the answer is recovered from the bits of k: the turns taken are the bits
+ * below its leading 1, so the last left (or right) turn is found by
+ * stripping trailing 1s (or 0s).
+ * <p>
+ * Besides {@code contains}, {@code FrozenSet3} answers {@code floor},
+ * {@code ceiling}, and {@code rank} with one such search each, and iterates
+ * in increasing order. Every method that would change {@code this} throws
+ * {@code UnsupportedOperationException}.
+ *
+ * @param <T>
+ *            type of {@code Set} elements
+ * @mathdefinitions <pre>
+ * IN_ORDER(
+ *   n: integer
+ *  ): string of integer is
+ *  [the slots 1, 2, ..., n - 1 in the order an in-order traversal of the
+ *   tree in which the children of k are 2k and 2k + 1 visits them]
+ * </pre>
+ * @convention <pre>
+ * |$this.slots| = |$this.ranks| > 0  and  $this.slots[0] = null  and
+ * [the entries of $this.slots at IN_ORDER(|$this.slots|) are in strictly
+ *  increasing order]  and
+ * for all i: integer
+ *     where (0 <= i < |$this.slots| - 1)
+ *   ($this.ranks[IN_ORDER(|$this.slots|)[i]] = i)
+ * </pre>
+ * @correspondence <pre>
+ * this = {k: integer where (0 < k < |$this.slots|) ($this.slots[k])}
+ * </pre>
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class FrozenSet3<T extends Comparable<T>> extends SetSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Message of the exception thrown by every method that would change
+     * {@code this}.
+     */
+    private static final String FROZEN = "FrozenSet3 cannot be changed";
+
+    /**
+     * Elements in breadth-first order of the tree, from slot 1; slot 0
+     * stays null, and stands for no element.
+     */
+    private T[] slots;
+
+    /**
+     * Number of smaller elements of the element in each slot.
+     */
+    private int[] ranks;
+
+    /**
+     * Fills the slots of the subtree rooted at slot {@code k} with the
+     * entries of {@code sorted} from position {@code next} on, in order.
+     *
+     * @param <T>
+     *            type of elements
+     * @param sorted
+     *            the elements, in increasing order
+     * @param slots
+     *            the slots to fill
+     * @param ranks
+     *            receives the position in sorted of each element placed
+     * @param k
+     *            the root of the subtree
+     * @param next
+     *            position in sorted of the first element to place
+     * @return position in sorted after the last element placed
+     * @updates slots, ranks
+     * @requires |slots| = |ranks| = |sorted| + 1 and 0 < k
+     * @ensures <pre>
+     * [the slots of the subtree rooted at k, in in-order order, hold
+     *  sorted[next, fill), and their ranks are next, ..., fill - 1]
+     * </pre>
+     */
+    private static <T> int fill(T[] sorted, T[] slots, int[] ranks, int k,
+            int next) {
+        int result = next;
+        if (k < slots.length) {
+            result = fill(sorted, slots, ranks, 2 * k, result);
+            slots[k] = sorted[result];
+            ranks[k] = result;
+            result++;
+            result = fill(sorted, slots, ranks, 2 * k + 1, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the slot of the smallest element not less than {@code x}, or
+     * 0 if there is none.
+     *
+     * @param x
+     *            the bound
+     * @return the slot of the smallest element >= x, or 0
+     * @requires x /= null
+     * @ensures <pre>
+     * (lowerBound > 0  and  x <= $this.slots[lowerBound]  and
+     *  [no element of this between x and $this.slots[lowerBound]])  or
+     * (lowerBound = 0  and  [every element of this is smaller than x])
+     * </pre>
+     */
+    private int lowerBound(T x) {
+        T[] a = this.slots;
+        int k = 1;
+        while (k < a.length) {
+            int c = x.compareTo(a[k]);
+            // 1 if c > 0, else 0, from sign bits rather than a branch
+            k = 2 * k + ((-c & ~c) >>> (Integer.SIZE - 1));
+        }
+        // go back up past the right turns, and past the last left turn
+        return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+    }
+
+    /**
+     * Returns the slot of the largest element not greater than {@code x}, or
+     * 0 if there is none.
+     *
+     * @param x
+     *            the bound
+     * @return the slot of the largest element <= x, or 0
+     * @requires x /= null
+     * @ensures <pre>
+     * (floorSlot > 0  and  $this.slots[floorSlot] <= x  and
+     *  [no element of this between $this.slots[floorSlot] and x])  or
+     * (floorSlot = 0  and  [every element of this is larger than x])
+     * </pre>
+     */
+    private int floorSlot(T x) {
+        T[] a = this.slots;
+        int k = 1;
+        while (k < a.length) {
+            int c = a[k].compareTo(x);
+            // 1 unless c > 0, from sign bits rather than a branch
+            k = 2 * k + 1 - ((-c & ~c) >>> (Integer.SIZE - 1));
+        }
+        // go back up past the left turns, and past the last right turn
+        return k >>> (Integer.numberOfTrailingZeros(k) + 1);
+    }
+
+    /**
+     * Creator of initial representation.
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep() {
+
+        this.slots = (T[]) new Comparable[1];
+        this.ranks = new int[1];
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor, for the empty set.
+     */
+    public FrozenSet3() {
+
+        this.createNewRep();
+
+    }
+
+    /**
+     * Returns an immutable copy of {@code source}.
+     *
+     * @param <T>
+     *            type of {@code Set} elements
+     * @param source
+     *            the set to copy
+     * @return the frozen copy
+     * @ensures freeze = source
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Comparable<T>> FrozenSet3<T> freeze(
+            Set<T> source) {
+        assert source != null : "Violation of: source is not null";
+
+        T[] sorted = (T[]) new Comparable[source.size()];
+        int count = 0;
+        for (T x : source) {
+            sorted[count] = x;
+            count++;
+        }
+        // nearly free when source, like Set3c, iterates in order
+        Arrays.sort(sorted);
+        FrozenSet3<T> result = new FrozenSet3<T>();
+        result.slots = (T[]) new Comparable[count + 1];
+        result.ranks = new int[count + 1];
+        fill(sorted, result.slots, result.ranks, 1, 0);
+        return result;
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Set<T> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        throw new UnsupportedOperationException(FROZEN);
+    }
+
+    @Override
+    public final void transferFrom(Set<T> source) {
+        throw new UnsupportedOperationException(FROZEN);
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        throw new UnsupportedOperationException(FROZEN);
+    }
+
+    @Override
+    public final T remove(T x) {
+        throw new UnsupportedOperationException(FROZEN);
+    }
+
+    @Override
+    public final T removeAny() {
+        throw new UnsupportedOperationException(FROZEN);
+    }
+
+    @Override
+    public final boolean contains(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        int k = this.lowerBound(x);
+        return k > 0 && x.compareTo(this.slots[k]) == 0;
+    }
+
+    @Override
+    public final int size() {
+        return this.slots.length - 1;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new FrozenSet3Iterator();
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Reports the largest element of {@code this} not greater than {@code x}.
+     *
+     * @param x
+     *            the bound
+     * @return the largest element {@code <= x}, or null if there is none
+     * @requires x /= null
+     * @ensures <pre>
+     * (floor is in this  and  floor <= x  and
+     *  for all y: T where (y is in this  and  y <= x) (y <= floor))  or
+     * (floor = null  and  for all y: T where (y is in this) (x < y))
+     * </pre>
+     */
+    public final T floor(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        return this.slots[this.floorSlot(x)];
+    }
+
+    /**
+     * Reports the smallest element of {@code this} not less than {@code x}.
+     *
+     * @param x
+     *            the bound
+     * @return the smallest element {@code >= x}, or null if there is none
+     * @requires x /= null
+     * @ensures <pre>
+     * (ceiling is in this  and  x <= ceiling  and
+     *  for all y: T where (y is in this  and  x <= y) (ceiling <= y))  or
+     * (ceiling = null  and  for all y: T where (y is in this) (y < x))
+     * </pre>
+     */
+    public final T ceiling(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        return this.slots[this.lowerBound(x)];
+    }
+
+    /**
+     * Reports the number of elements of {@code this} smaller than {@code x}.
+     * {@code x} need not be in {@code this}.
+     *
+     * @param x
+     *            the element to rank
+     * @return the number of elements smaller than {@code x}
+     * @requires x /= null
+     * @ensures rank = |{y: T where (y is in this  and  y < x)}|
+     */
+    public final int rank(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        int k = this.lowerBound(x);
+        int result = this.size();
+        if (k > 0) {
+            result = this.ranks[k];
+        }
+        return result;
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code FrozenSet3},
+     * visiting the elements in increasing order.
+     */
+    private final class FrozenSet3Iterator implements Iterator<T> {
+
+        /**
+         * Number of elements seen already (i.e., |~this.seen|).
+         */
+        private int numberSeen;
+
+        /**
+         * Slot of the next element.
+         */
+        private int currentSlot;
+
+        /**
+         * No-argument constructor.
+         */
+        FrozenSet3Iterator() {
+            this.numberSeen = 0;
+            this.currentSlot = 1;
+            this.descendLeft();
+        }
+
+        /**
+         * Moves {@code currentSlot} to the leftmost slot of its subtree.
+         */
+        private void descendLeft() {
+            int n = FrozenSet3.this.slots.length;
+            while (2 * this.currentSlot < n) {
+                this.currentSlot = 2 * this.currentSlot;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.numberSeen < FrozenSet3.this.size();
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            this.numberSeen++;
+            T result = FrozenSet3.this.slots[this.currentSlot];
+            if (2 * this.currentSlot + 1 < FrozenSet3.this.slots.length) {
+                this.currentSlot = 2 * this.currentSlot + 1;
+                this.descendLeft();
+            } else {
+                // climb past the right turns, and past the last left turn
+                this.currentSlot >>>= Integer
+                        .numberOfTrailingZeros(~this.currentSlot) + 1;
+            }
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+import components.set.Set;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Benchmark of lookups in {@code FrozenSet3} (one array in breadth-first
+ * order) against {@code Set3c} (linked nodes) and {@code Set3a} (a
+ * {@code BinaryTree}): for each size, each set is filled with the even
+ * numbers below twice that size, and then asked about {@code LOOKUPS} random
+ * numbers in that range, half of which are present, by {@code contains} and,
+ * where it has one, {@code floor}. The time per lookup is reported in
+ * nanoseconds.
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public final class FrozenSetBenchmark {
+
+    /**
+     * Set sizes to compare.
+     */
+    private static final int[] SIZES = { 100_000, 1_000_000, 10_000_000 };
+
+    /**
+     * Number of lookups timed for each set.
+     */
+    private static final int LOOKUPS = 2_000_000;
+
+    /**
+     * Seed of the random lookups, the same for every set.
+     */
+    private static final long SEED = 2231L;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private FrozenSetBenchmark() {
+    }
+
+    /**
+     * Returns {@code LOOKUPS} random numbers in [0, 2 * {@code n}).
+     *
+     * @param n
+     *            the size of the sets
+     * @return the numbers to look up
+     */
+    private static Integer[] lookups(int n) {
+        Random rand = new Random(SEED);
+        Integer[] result = new Integer[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            result[i] = rand.nextInt(2 * n);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the nanoseconds per call of {@code contains} on {@code s} for
+     * the entries of {@code xs}, and checks that half of them, give or take
+     * a few, are found.
+     *
+     * @param s
+     *            the set
+     * @param xs
+     *            the elements to look up
+     * @return nanoseconds per lookup
+     */
+    private static long timeContains(Set<Integer> s, Integer[] xs) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (Integer x : xs) {
+            if (s.contains(x)) {
+                found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assert Math.abs(2 * found - xs.length) < xs.length / 10 : ""
+                + "about half the lookups should succeed";
+        return elapsed / xs.length;
+    }
+
+    /**
+     * Returns the nanoseconds per call of {@code floor} for the entries of
+     * {@code xs}.
+     *
+     * @param floor
+     *            the floor method of the set
+     * @param xs
+     *            the elements to look up
+     * @return nanoseconds per lookup
+     */
+    private static long timeFloor(UnaryOperator<Integer> floor,
+            Integer[] xs) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (Integer x : xs) {
+            if (floor.apply(x) != null) {
+                found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assert found > 0 : "some lookups should find a floor";
+        return elapsed / xs.length;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments
+     */
+    public static void main(String[] args) {
+        SimpleWriter out = new SimpleWriter1L();
+        out.println("time in ns per lookup");
+        out.println("size\tset\tcontains\tfloor");
+        for (int n : SIZES) {
+            Set3c<Integer> linked = new Set3c<Integer>();
+            for (int i = 0; i < n; i++) {
+                linked.add(2 * i);
+            }
+            FrozenSet3<Integer> frozen = FrozenSet3.freeze(linked);
+            Integer[] xs = lookups(n);
+            Set<Integer> tree = Set3a.bulkLoad(linked.iterator());
+            out.println(n + "\tSet3a\t" + timeContains(tree, xs) + "\t-");
+            out.println(n + "\tSet3c\t" + timeContains(linked, xs) + "\t"
+                    + timeFloor(linked::floor, xs));
+            out.println(n + "\tFrozenSet3\t" + timeContains(frozen, xs) + "\t"
+                    + timeFloor(frozen::floor, xs));
+        }
+        out.close();
+    }
+
+}
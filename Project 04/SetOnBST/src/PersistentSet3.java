@@ -0,0 +1,644 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.set.Set;
+import components.set.SetSecondary;
+
+/**
+ * {@code Set} represented as a persistent weight-balanced binary search tree,
+ * with implementations of primary methods.
+ * <p>
+ * The tree is balanced as in {@code Set3c}, but {@code add} and
+ * {@code remove} never change a node that may be reachable from another set:
+ * they copy the O(log n) nodes on the path they touch, rebalancing the
+ * copies, and share every other subtree with the previous version. So
+ * {@code snapshot} returns a copy of {@code this} in constant time by
+ * sharing the whole tree, and a snapshot is never changed by anything done
+ * to {@code this} afterwards. Once handed to other threads (through a
+ * volatile field, a concurrent collection, or the start of the thread), it
+ * can be read by all of them at once without locking.
+ * <p>
+ * For batch edits, {@code beginBatch} switches {@code this} to a transient
+ * mode, as in {@code Map7}: the set owns the nodes it creates until the
+ * next {@code snapshot} or {@code endBatch}, and changes them in place, so a
+ * run of {@code add}s and {@code remove}s copies a path only the first time
+ * it reaches nodes shared with a snapshot. {@code endBatch} returns to
+ * copying every path. The mode belongs to the set object; it is not part of
+ * its value and is not moved by {@code transferFrom}.
+ *
+ * @param <T>
+ *            type of {@code Set} elements
+ * @mathdefinitions <pre>
+ * IS_BST(
+ *   n: Node
+ *  ): boolean satisfies
+ *  [the tree rooted at n satisfies the binary search tree properties with
+ *   the ordering reported by compareTo for T, including that it has no
+ *   duplicate values]
+ *
+ * IS_WEIGHT_BALANCED(
+ *   n: Node
+ *  ): boolean satisfies
+ *  [for every node m of the tree rooted at n,
+ *   SIZE(m.right) + 1 <= DELTA * (SIZE(m.left) + 1)  and
+ *   SIZE(m.left) + 1 <= DELTA * (SIZE(m.right) + 1)  and
+ *   m.size = SIZE(m.left) + SIZE(m.right) + 1]
+ *
+ * SIZE(
+ *   n: Node
+ *  ): integer is
+ *  [0 if n is null, else the number of nodes in the tree rooted at n]
+ *
+ * VALUES(
+ *   n: Node
+ *  ): finite set of T is
+ *  [the values of the nodes in the tree rooted at n]
+ * </pre>
+ * @convention <pre>
+ * IS_BST($this.root)  and  IS_WEIGHT_BALANCED($this.root)  and
+ * [every node is reachable from at most one set, or is never changed]  and
+ * ($this.owner = null  or
+ *  [every node whose owner is $this.owner is reachable only from
+ *   $this.root])
+ * </pre>
+ * @correspondence this = VALUES($this.root)
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class PersistentSet3<T extends Comparable<T>>
+        extends SetSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Largest ratio allowed between the weights (sizes plus one) of the two
+     * subtrees of any node.
+     */
+    private static final int DELTA = 3;
+
+    /**
+     * Weight ratio that decides between a single and a double rotation.
+     */
+    private static final int GAMMA = 2;
+
+    /**
+     * Node of the tree.
+     *
+     * @param <T>
+     *            type of values
+     */
+    private static final class Node<T> {
+
+        /**
+         * Token of the set or operation that may change this node in place.
+         */
+        private final Object owner;
+
+        /**
+         * Value.
+         */
+        private final T value;
+
+        /**
+         * Left subtree.
+         */
+        private Node<T> left;
+
+        /**
+         * Right subtree.
+         */
+        private Node<T> right;
+
+        /**
+         * Number of nodes in the subtree rooted here.
+         */
+        private int size;
+
+        /**
+         * Constructor of a leaf.
+         *
+         * @param owner
+         *            token of the owner
+         * @param value
+         *            the value
+         */
+        Node(Object owner, T value) {
+            this.owner = owner;
+            this.value = value;
+            this.size = 1;
+        }
+
+    }
+
+    /**
+     * Root of the tree, or null if it is empty.
+     */
+    private Node<T> root;
+
+    /**
+     * Token identifying the nodes this set may change in place, or null
+     * outside batch mode.
+     */
+    private Object owner;
+
+    /**
+     * Returns the number of nodes in the tree rooted at {@code n}.
+     *
+     * @param n
+     *            the subtree, or null
+     * @return SIZE(n)
+     */
+    private static int size(Node<?> n) {
+        int result = 0;
+        if (n != null) {
+            result = n.size;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a node with the value of {@code n} and the given children,
+     * which is {@code n} itself, changed in place, if {@code owner} owns it,
+     * and a copy of it otherwise.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the node
+     * @param left
+     *            the new left subtree
+     * @param right
+     *            the new right subtree
+     * @param owner
+     *            the token of the set or operation making the change
+     * @return the updated node
+     * @ensures <pre>
+     * with.value = n.value  and  with.left = left  and  with.right = right
+     * and  with.size = SIZE(left) + SIZE(right) + 1  and
+     * (n.owner /= owner  implies  n = #n)
+     * </pre>
+     */
+    private static <T> Node<T> with(Node<T> n, Node<T> left, Node<T> right,
+            Object owner) {
+        Node<T> result = n;
+        if (n.owner != owner) {
+            result = new Node<T>(owner, n.value);
+        }
+        result.left = left;
+        result.right = right;
+        result.size = size(left) + size(right) + 1;
+        return result;
+    }
+
+    /**
+     * Rotates {@code n} left, with {@code r} in place of its right child.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree
+     * @param r
+     *            the right child to use
+     * @param owner
+     *            the token of the set or operation making the change
+     * @return the new root of the subtree
+     */
+    private static <T> Node<T> rotateLeft(Node<T> n, Node<T> r,
+            Object owner) {
+        Node<T> l = with(n, n.left, r.left, owner);
+        return with(r, l, r.right, owner);
+    }
+
+    /**
+     * Rotates {@code n} right, with {@code l} in place of its left child.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree
+     * @param l
+     *            the left child to use
+     * @param owner
+     *            the token of the set or operation making the change
+     * @return the new root of the subtree
+     */
+    private static <T> Node<T> rotateRight(Node<T> n, Node<T> l,
+            Object owner) {
+        Node<T> r = with(n, l.right, n.right, owner);
+        return with(l, l.left, r, owner);
+    }
+
+    /**
+     * Restores the weight balance at {@code n} with a single or double
+     * rotation if needed, copying the nodes it moves unless {@code owner}
+     * owns them.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree, owned by owner, whose children are
+     *            weight-balanced and were balanced against each other before
+     *            one value was added to or removed from one of them
+     * @param owner
+     *            the token of the set or operation making the change
+     * @return the root of the balanced subtree
+     */
+    private static <T> Node<T> balance(Node<T> n, Object owner) {
+        int wl = size(n.left) + 1;
+        int wr = size(n.right) + 1;
+        Node<T> result = n;
+        if (wr > DELTA * wl) {
+            Node<T> r = n.right;
+            if (size(r.left) + 1 >= GAMMA * (size(r.right) + 1)) {
+                r = rotateRight(r, r.left, owner);
+            }
+            result = rotateLeft(n, r, owner);
+        } else if (wl > DELTA * wr) {
+            Node<T> l = n.left;
+            if (size(l.right) + 1 >= GAMMA * (size(l.left) + 1)) {
+                l = rotateLeft(l, l.right, owner);
+            }
+            result = rotateRight(n, l, owner);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the tree {@code n} with {@code x} added.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree, or null
+     * @param x
+     *            the value to add
+     * @param owner
+     *            the token of the set or operation making the change
+     * @return the root of the new subtree
+     * @requires IS_BST(n)  and  IS_WEIGHT_BALANCED(n)  and  x is not in n
+     * @ensures <pre>
+     * IS_BST(insert)  and  IS_WEIGHT_BALANCED(insert)  and
+     * VALUES(insert) = VALUES(n) union {x}
+     * </pre>
+     */
+    private static <T extends Comparable<T>> Node<T> insert(Node<T> n, T x,
+            Object owner) {
+        Node<T> result;
+        if (n == null) {
+            result = new Node<T>(owner, x);
+        } else if (x.compareTo(n.value) < 0) {
+            result = balance(
+                    with(n, insert(n.left, x, owner), n.right, owner), owner);
+        } else {
+            result = balance(
+                    with(n, n.left, insert(n.right, x, owner), owner), owner);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the tree {@code n} without its smallest value.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree
+     * @param owner
+     *            the token of the set or operation making the change
+     * @return the root of the new subtree
+     * @requires n /= null  and  IS_WEIGHT_BALANCED(n)
+     * @ensures <pre>
+     * IS_WEIGHT_BALANCED(deleteMin)  and
+     * VALUES(deleteMin) = VALUES(n) \ {[the smallest value in n]}
+     * </pre>
+     */
+    private static <T> Node<T> deleteMin(Node<T> n, Object owner) {
+        Node<T> result = n.right;
+        if (n.left != null) {
+            result = balance(
+                    with(n, deleteMin(n.left, owner), n.right, owner), owner);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the tree {@code n} with {@code x} removed.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree
+     * @param x
+     *            the value to remove
+     * @param owner
+     *            the token of the set or operation making the change
+     * @return the root of the new subtree
+     * @requires IS_BST(n)  and  IS_WEIGHT_BALANCED(n)  and  x is in n
+     * @ensures <pre>
+     * IS_BST(delete)  and  IS_WEIGHT_BALANCED(delete)  and
+     * VALUES(delete) = VALUES(n) \ {x}
+     * </pre>
+     */
+    private static <T extends Comparable<T>> Node<T> delete(Node<T> n, T x,
+            Object owner) {
+        int c = x.compareTo(n.value);
+        Node<T> result;
+        if (c < 0) {
+            result = balance(
+                    with(n, delete(n.left, x, owner), n.right, owner), owner);
+        } else if (c > 0) {
+            result = balance(
+                    with(n, n.left, delete(n.right, x, owner), owner), owner);
+        } else if (n.left == null) {
+            result = n.right;
+        } else if (n.right == null) {
+            result = n.left;
+        } else {
+            /*
+             * Values are never changed in place, so the smallest value of
+             * the right subtree takes the place of x in a new node
+             */
+            Node<T> s = n.right;
+            while (s.left != null) {
+                s = s.left;
+            }
+            Node<T> top = new Node<T>(owner, s.value);
+            result = balance(
+                    with(top, n.left, deleteMin(n.right, owner), owner),
+                    owner);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the token under which an update of {@code this} may change
+     * nodes in place: the owner in batch mode, and otherwise a new token that
+     * only lets the update change the nodes it creates itself.
+     *
+     * @return the token for one update
+     */
+    private Object editToken() {
+        Object result = this.owner;
+        if (result == null) {
+            result = new Object();
+        }
+        return result;
+    }
+
+    /**
+     * Creator of initial representation.
+     */
+    private void createNewRep() {
+
+        this.root = null;
+        if (this.owner != null) {
+            // the old nodes may live on elsewhere, so stop owning them
+            this.owner = new Object();
+        }
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public PersistentSet3() {
+
+        this.createNewRep();
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Set<T> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public final void transferFrom(Set<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof PersistentSet3<?> : ""
+                + "Violation of: source is of dynamic type PersistentSet3<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * PersistentSet3<?>, and the ? must be T or the call would not have
+         * compiled.
+         */
+        PersistentSet3<T> localSource = (PersistentSet3<T>) source;
+        this.root = localSource.root;
+        localSource.createNewRep();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert !this.contains(x) : "Violation of: x is not in this";
+
+        this.root = insert(this.root, x, this.editToken());
+    }
+
+    @Override
+    public final T remove(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.contains(x) : "Violation of: x is in this";
+
+        Node<T> n = this.root;
+        int c = x.compareTo(n.value);
+        while (c != 0) {
+            if (c < 0) {
+                n = n.left;
+            } else {
+                n = n.right;
+            }
+            c = x.compareTo(n.value);
+        }
+        this.root = delete(this.root, x, this.editToken());
+        return n.value;
+    }
+
+    @Override
+    public final T removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        /*
+         * The root is as good as any element, and is found without searching
+         */
+        return this.remove(this.root.value);
+    }
+
+    @Override
+    public final boolean contains(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        Node<T> n = this.root;
+        boolean found = false;
+        while (n != null && !found) {
+            int c = x.compareTo(n.value);
+            if (c == 0) {
+                found = true;
+            } else if (c < 0) {
+                n = n.left;
+            } else {
+                n = n.right;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public final int size() {
+        return size(this.root);
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new PersistentSet3Iterator();
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Returns a copy of {@code this} that shares its whole tree, in constant
+     * time. Later changes to either set copy the nodes they touch, so neither
+     * sees the other's changes, and the copy may be read by other threads
+     * while {@code this} keeps changing. The copy is not in batch mode.
+     *
+     * @return a copy of {@code this}
+     * @ensures snapshot = this
+     */
+    public final PersistentSet3<T> snapshot() {
+        if (this.owner != null) {
+            // from now on neither set owns the shared nodes
+            this.owner = new Object();
+        }
+        PersistentSet3<T> result = new PersistentSet3<T>();
+        result.root = this.root;
+        return result;
+    }
+
+    /**
+     * Switches {@code this} to batch mode, in which {@code add} and
+     * {@code remove} change in place the nodes {@code this} has created since
+     * the switch or its last {@code snapshot}, instead of copying them.
+     *
+     * @ensures this = #this
+     */
+    public final void beginBatch() {
+        this.owner = new Object();
+    }
+
+    /**
+     * Switches {@code this} out of batch mode, so that from now on
+     * {@code add} and {@code remove} copy every node they change.
+     *
+     * @ensures this = #this
+     */
+    public final void endBatch() {
+        this.owner = null;
+    }
+
+    /**
+     * Reports whether {@code this} is in batch mode.
+     *
+     * @return true if {@code beginBatch} was called more recently than
+     *         {@code endBatch}
+     * @ensures isBatch = [this is in batch mode]
+     */
+    public final boolean isBatch() {
+        return this.owner != null;
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code PersistentSet3},
+     * visiting the elements in increasing order.
+     */
+    private final class PersistentSet3Iterator implements Iterator<T> {
+
+        /**
+         * Nodes whose values and right subtrees have not been visited yet,
+         * with the next one on top.
+         */
+        private final Deque<Node<T>> pending;
+
+        /**
+         * No-argument constructor.
+         */
+        PersistentSet3Iterator() {
+            this.pending = new ArrayDeque<Node<T>>();
+            this.pushLeft(PersistentSet3.this.root);
+        }
+
+        /**
+         * Pushes {@code n} and the left spine of its subtree.
+         *
+         * @param n
+         *            the subtree, or null
+         */
+        private void pushLeft(Node<T> n) {
+            Node<T> m = n;
+            while (m != null) {
+                this.pending.push(m);
+                m = m.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.pending.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            Node<T> n = this.pending.pop();
+            this.pushLeft(n.right);
+            return n.value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
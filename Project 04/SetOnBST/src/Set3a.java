@@ -1,4 +1,8 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 
 import components.binarytree.BinaryTree;
@@ -200,6 +204,69 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
         return result;
     }
 
+    /**
+     * Reports whether the entries of {@code xs} are in strictly increasing
+     * order.
+     *
+     * @param <T>
+     *            type of entries
+     * @param xs
+     *            the entries
+     * @return true if each entry is smaller than the next
+     * @ensures <pre>
+     * isStrictlyIncreasing =
+     *  [for all i where (0 < i < |xs|) (xs[i - 1] < xs[i])]
+     * </pre>
+     */
+    private static <T extends Comparable<T>> boolean isStrictlyIncreasing(
+            List<T> xs) {
+        boolean result = true;
+        int i = 1;
+        while (result && i < xs.size()) {
+            result = xs.get(i - 1).compareTo(xs.get(i)) < 0;
+            i++;
+        }
+        return result;
+    }
+
+    /**
+     * Builds in {@code t} a perfectly balanced tree of the entries of
+     * {@code sorted} in [{@code lo}, {@code hi}), taking the middle entry as
+     * the root. No entries are compared.
+     *
+     * @param <T>
+     *            type of {@code BinaryTree} labels
+     * @param t
+     *            the {@code BinaryTree} to build
+     * @param sorted
+     *            the labels, in strictly increasing order
+     * @param lo
+     *            the index of the first label
+     * @param hi
+     *            the index after the last label
+     * @replaces t
+     * @requires <pre>
+     * 0 <= lo <= hi <= |sorted|  and
+     * [sorted is in strictly increasing order]
+     * </pre>
+     * @ensures <pre>
+     * IS_BST(t)  and  labels(t) = [the entries of sorted[lo, hi)]  and
+     * [the sizes of the two subtrees of every node of t differ by at most 1]
+     * </pre>
+     */
+    private static <T> void buildTree(BinaryTree<T> t, List<T> sorted, int lo,
+            int hi) {
+        t.clear();
+        if (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            BinaryTree<T> left = t.newInstance();
+            BinaryTree<T> right = t.newInstance();
+            buildTree(left, sorted, lo, mid);
+            buildTree(right, sorted, mid + 1, hi);
+            t.assemble(sorted.get(mid), left, right);
+        }
+    }
+
     /**
      * Creator of initial representation.
      */
@@ -353,4 +420,91 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
         return this.tree.iterator();
     }
 
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Returns a new {@code Set3a} holding the entries of {@code elements} in
+     * a perfectly balanced tree. If the entries are already in increasing
+     * order, as when reloading a set saved by iterating over a sorted one,
+     * the tree is built in linear time after one pass to check the order;
+     * otherwise a sorted copy is made first. {@code elements} is not changed.
+     *
+     * @param <T>
+     *            type of {@code Set} elements
+     * @param elements
+     *            the elements to load
+     * @return the new set
+     * @requires <pre>
+     * elements /= null  and  [no entry of elements is null]  and
+     * [no two entries of elements are equal]
+     * </pre>
+     * @ensures bulkLoad = [the set of the entries of elements]
+     */
+    public static <T extends Comparable<T>> Set3a<T> bulkLoad(T[] elements) {
+        assert elements != null : "Violation of: elements is not null";
+
+        return bulkLoad(Arrays.asList(elements));
+    }
+
+    /**
+     * Returns a new {@code Set3a} holding the elements {@code it} yields, in
+     * a perfectly balanced tree. If they come in increasing order the tree
+     * is built in linear time; otherwise they are sorted first.
+     *
+     * @param <T>
+     *            type of {@code Set} elements
+     * @param it
+     *            the elements to load
+     * @return the new set
+     * @updates it
+     * @requires <pre>
+     * it /= null  and  [it yields no null element]  and
+     * [no two elements it yields are equal]
+     * </pre>
+     * @ensures <pre>
+     * bulkLoad = [the set of the elements #it yields]  and
+     * [it has no more elements]
+     * </pre>
+     */
+    public static <T extends Comparable<T>> Set3a<T> bulkLoad(Iterator<T> it) {
+        assert it != null : "Violation of: it is not null";
+
+        List<T> elements = new ArrayList<T>();
+        while (it.hasNext()) {
+            elements.add(it.next());
+        }
+        return bulkLoad(elements);
+    }
+
+    /**
+     * Returns a new {@code Set3a} holding the entries of {@code elements},
+     * sorting a copy of them first unless they are already sorted.
+     *
+     * @param <T>
+     *            type of {@code Set} elements
+     * @param elements
+     *            the elements to load
+     * @return the new set
+     * @requires <pre>
+     * [no entry of elements is null]  and
+     * [no two entries of elements are equal]
+     * </pre>
+     * @ensures bulkLoad = [the set of the entries of elements]
+     */
+    private static <T extends Comparable<T>> Set3a<T> bulkLoad(
+            List<T> elements) {
+        List<T> sorted = elements;
+        if (!isStrictlyIncreasing(sorted)) {
+            sorted = new ArrayList<T>(elements);
+            Collections.sort(sorted);
+            assert isStrictlyIncreasing(sorted) : ""
+                    + "Violation of: [no two entries of elements are equal]";
+        }
+        Set3a<T> result = new Set3a<T>();
+        buildTree(result.tree, sorted, 0, sorted.size());
+        return result;
+    }
+
 }
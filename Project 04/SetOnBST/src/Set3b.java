@@ -0,0 +1,405 @@
+import java.util.Iterator;
+
+import components.binarytree.BinaryTree;
+import components.binarytree.BinaryTree1;
+import components.set.Set;
+import components.set.SetSecondary;
+
+/**
+ * {@code Set} represented as a {@code BinaryTree} (maintained as a
+ * weight-balanced binary search tree) of elements with implementations of
+ * primary methods.
+ * <p>
+ * Unlike {@code Set3a}, every {@code add} and {@code remove} rebalances the
+ * subtrees on its path with at most one single or double rotation each, using
+ * the sizes the {@code BinaryTree} already keeps, so the tree stays within a
+ * constant factor of the best height no matter the order of the elements.
+ * Adding a sorted or reverse-sorted sequence therefore takes O(log n) per
+ * element instead of O(n), and the recursion never gets deeper than the
+ * (logarithmic) height of the tree.
+ *
+ * @param <T>
+ *            type of {@code Set} elements
+ * @mathdefinitions <pre>
+ * IS_BST(
+ *   tree: binary tree of T
+ *  ): boolean satisfies
+ *  [tree satisfies the binary search tree properties as described in the
+ *   slides with the ordering reported by compareTo for T, including that
+ *   it has no duplicate labels]
+ *
+ * IS_WEIGHT_BALANCED(
+ *   tree: binary tree of T
+ *  ): boolean satisfies
+ *  [for every subtree compose(x, left, right) of tree,
+ *   |right| + 1 <= DELTA * (|left| + 1)  and
+ *   |left| + 1 <= DELTA * (|right| + 1)]
+ * </pre>
+ * @convention IS_BST($this.tree) and IS_WEIGHT_BALANCED($this.tree)
+ * @correspondence this = labels($this.tree)
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class Set3b<T extends Comparable<T>> extends SetSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Largest ratio allowed between the weights (sizes plus one) of the two
+     * subtrees of any node.
+     */
+    private static final int DELTA = 3;
+
+    /**
+     * Weight ratio that decides between a single and a double rotation.
+     */
+    private static final int GAMMA = 2;
+
+    /**
+     * Elements included in {@code this}.
+     */
+    private BinaryTree<T> tree;
+
+    /**
+     * Returns whether {@code x} is in {@code t}.
+     *
+     * @param <T>
+     *            type of {@code BinaryTree} labels
+     * @param t
+     *            the {@code BinaryTree} to be searched
+     * @param x
+     *            the label to be searched for
+     * @return true if t contains x, false otherwise
+     * @requires IS_BST(t)
+     * @ensures isInTree = (x is in labels(t))
+     */
+    private static <T extends Comparable<T>> boolean isInTree(BinaryTree<T> t,
+            T x) {
+        assert t != null : "Violation of: t is not null";
+        assert x != null : "Violation of: x is not null";
+
+        boolean result = false;
+        if (t.size() > 0) {
+            BinaryTree<T> left = t.newInstance();
+            BinaryTree<T> right = t.newInstance();
+            T r = t.disassemble(left, right);
+            int c = x.compareTo(r);
+            if (c == 0) {
+                result = true; // x is in the root of t
+            } else if (c < 0) {
+                result = isInTree(left, x); // x might be in the left tree
+            } else {
+                result = isInTree(right, x); // x might be in the right tree
+            }
+            t.assemble(r, left, right); // restore t
+        }
+        return result;
+    }
+
+    /**
+     * Assembles into {@code t} a weight-balanced tree with the labels of
+     * {@code left}, {@code r}, and {@code right}, in that order, rotating once
+     * or twice if one side has become too heavy.
+     *
+     * @param <T>
+     *            type of {@code BinaryTree} labels
+     * @param t
+     *            the {@code BinaryTree} to assemble
+     * @param r
+     *            the label between those of {@code left} and {@code right}
+     * @param left
+     *            the left subtree
+     * @param right
+     *            the right subtree
+     * @updates t, left, right
+     * @requires <pre>
+     * IS_BST(left)  and  IS_WEIGHT_BALANCED(left)  and
+     * IS_BST(right)  and  IS_WEIGHT_BALANCED(right)  and
+     * [every label of left < r < every label of right]  and
+     * [left and right were balanced against each other before one label was
+     *  added to or removed from one of them]
+     * </pre>
+     * @ensures <pre>
+     * IS_BST(t)  and  IS_WEIGHT_BALANCED(t)  and
+     * labels(t) = labels(#left) union {r} union labels(#right)  and
+     * left = empty_tree  and  right = empty_tree
+     * </pre>
+     */
+    private static <T> void balance(BinaryTree<T> t, T r, BinaryTree<T> left,
+            BinaryTree<T> right) {
+        int wl = left.size() + 1;
+        int wr = right.size() + 1;
+        if (wr > DELTA * wl) {
+            BinaryTree<T> rl = t.newInstance();
+            BinaryTree<T> rr = t.newInstance();
+            T rRoot = right.disassemble(rl, rr);
+            BinaryTree<T> newLeft = t.newInstance();
+            if (rl.size() + 1 < GAMMA * (rr.size() + 1)) {
+                // single rotation to the left
+                newLeft.assemble(r, left, rl);
+                t.assemble(rRoot, newLeft, rr);
+            } else {
+                // double rotation: the root of rl rises to the top
+                BinaryTree<T> rll = t.newInstance();
+                BinaryTree<T> rlr = t.newInstance();
+                T rlRoot = rl.disassemble(rll, rlr);
+                BinaryTree<T> newRight = t.newInstance();
+                newLeft.assemble(r, left, rll);
+                newRight.assemble(rRoot, rlr, rr);
+                t.assemble(rlRoot, newLeft, newRight);
+            }
+        } else if (wl > DELTA * wr) {
+            BinaryTree<T> ll = t.newInstance();
+            BinaryTree<T> lr = t.newInstance();
+            T lRoot = left.disassemble(ll, lr);
+            BinaryTree<T> newRight = t.newInstance();
+            if (lr.size() + 1 < GAMMA * (ll.size() + 1)) {
+                // single rotation to the right
+                newRight.assemble(r, lr, right);
+                t.assemble(lRoot, ll, newRight);
+            } else {
+                // double rotation: the root of lr rises to the top
+                BinaryTree<T> lrl = t.newInstance();
+                BinaryTree<T> lrr = t.newInstance();
+                T lrRoot = lr.disassemble(lrl, lrr);
+                BinaryTree<T> newLeft = t.newInstance();
+                newLeft.assemble(lRoot, ll, lrl);
+                newRight.assemble(r, lrr, right);
+                t.assemble(lrRoot, newLeft, newRight);
+            }
+        } else {
+            t.assemble(r, left, right);
+        }
+    }
+
+    /**
+     * Inserts {@code x} in {@code t}.
+     *
+     * @param <T>
+     *            type of {@code BinaryTree} labels
+     * @param t
+     *            the {@code BinaryTree} to be searched
+     * @param x
+     *            the label to be inserted
+     * @aliases reference {@code x}
+     * @updates t
+     * @requires <pre>
+     * IS_BST(t)  and  IS_WEIGHT_BALANCED(t)  and  x is not in labels(t)
+     * </pre>
+     * @ensures <pre>
+     * IS_BST(t)  and  IS_WEIGHT_BALANCED(t)  and
+     * labels(t) = labels(#t) union {x}
+     * </pre>
+     */
+    private static <T extends Comparable<T>> void insertInTree(BinaryTree<T> t,
+            T x) {
+        assert t != null : "Violation of: t is not null";
+        assert x != null : "Violation of: x is not null";
+
+        BinaryTree<T> left = t.newInstance();
+        BinaryTree<T> right = t.newInstance();
+        if (t.size() == 0) {
+            t.assemble(x, left, right); // insert x in an empty tree t
+        } else {
+            T r = t.disassemble(left, right);
+            if (r.compareTo(x) > 0) {
+                insertInTree(left, x); // insert x in the left tree
+            } else {
+                insertInTree(right, x); // insert x in the right tree
+            }
+            balance(t, r, left, right); // restore t, rotating if needed
+        }
+
+    }
+
+    /**
+     * Removes and returns the smallest (left-most) label in {@code t}.
+     *
+     * @param <T>
+     *            type of {@code BinaryTree} labels
+     * @param t
+     *            the {@code BinaryTree} from which to remove the label
+     * @return the smallest label in the given {@code BinaryTree}
+     * @updates t
+     * @requires IS_BST(t) and IS_WEIGHT_BALANCED(t) and |t| > 0
+     * @ensures <pre>
+     * IS_BST(t)  and  IS_WEIGHT_BALANCED(t)  and
+     *  removeSmallest = [the smallest label in #t]  and
+     *  labels(t) = labels(#t) \ {removeSmallest}
+     * </pre>
+     */
+    private static <T> T removeSmallest(BinaryTree<T> t) {
+        assert t != null : "Violation of: t is not null";
+        assert t.size() > 0 : "Violation of: |t| > 0";
+
+        BinaryTree<T> left = t.newInstance();
+        BinaryTree<T> right = t.newInstance();
+        T r = t.disassemble(left, right);
+        T result = r;
+        if (left.size() > 0) {
+            result = removeSmallest(left);
+            balance(t, r, left, right);
+        } else {
+            t.transferFrom(right); // the smallest label is the root itself
+        }
+        return result;
+    }
+
+    /**
+     * Finds label {@code x} in {@code t}, removes it from {@code t}, and
+     * returns it.
+     *
+     * @param <T>
+     *            type of {@code BinaryTree} labels
+     * @param t
+     *            the {@code BinaryTree} from which to remove label {@code x}
+     * @param x
+     *            the label to be removed
+     * @return the removed label
+     * @updates t
+     * @requires <pre>
+     * IS_BST(t)  and  IS_WEIGHT_BALANCED(t)  and  x is in labels(t)
+     * </pre>
+     * @ensures <pre>
+     * IS_BST(t)  and  IS_WEIGHT_BALANCED(t)  and  removeFromTree = x  and
+     *  labels(t) = labels(#t) \ {x}
+     * </pre>
+     */
+    private static <T extends Comparable<T>> T removeFromTree(BinaryTree<T> t,
+            T x) {
+        assert t != null : "Violation of: t is not null";
+        assert x != null : "Violation of: x is not null";
+        assert t.size() > 0 : "Violation of: x is in labels(t)";
+
+        BinaryTree<T> left = t.newInstance();
+        BinaryTree<T> right = t.newInstance();
+        T r = t.disassemble(left, right);
+        T result = r;
+        int c = r.compareTo(x);
+        if (c > 0) {
+            result = removeFromTree(left, x); // x is in the left tree
+            balance(t, r, left, right);
+        } else if (c < 0) {
+            result = removeFromTree(right, x); // x is in the right tree
+            balance(t, r, left, right);
+        } else if (right.size() == 0) {
+            t.transferFrom(left); // x is the root node
+        } else {
+            T smallest = removeSmallest(right);
+            balance(t, smallest, left, right);
+        }
+        return result;
+    }
+
+    /**
+     * Creator of initial representation.
+     */
+    private void createNewRep() {
+
+        this.tree = new BinaryTree1<T>();
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public Set3b() {
+
+        this.createNewRep();
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Set<T> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public final void transferFrom(Set<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof Set3b<?> : ""
+                + "Violation of: source is of dynamic type Set3b<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type Set3b<?>, and
+         * the ? must be T or the call would not have compiled.
+         */
+        Set3b<T> localSource = (Set3b<T>) source;
+        this.tree = localSource.tree;
+        localSource.createNewRep();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert !this.contains(x) : "Violation of: x is not in this";
+
+        insertInTree(this.tree, x);
+
+    }
+
+    @Override
+    public final T remove(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.contains(x) : "Violation of: x is in this";
+
+        return removeFromTree(this.tree, x);
+
+    }
+
+    @Override
+    public final T removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        /*
+         * The root is as good as any element, and is found without searching
+         */
+        return removeFromTree(this.tree, this.tree.root());
+    }
+
+    @Override
+    public final boolean contains(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        return isInTree(this.tree, x);
+    }
+
+    @Override
+    public final int size() {
+
+        return this.tree.size();
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return this.tree.iterator();
+    }
+
+}
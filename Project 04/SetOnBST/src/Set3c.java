@@ -0,0 +1,1385 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import components.set.Set;
+import components.set.SetSecondary;
+
+/**
+ * {@code Set} represented as a weight-balanced binary search tree of its own
+ * compact nodes, with implementations of primary methods.
+ * <p>
+ * This keeps the ordering and balance of {@code Set3b}, but instead of taking
+ * a {@code BinaryTree} apart and putting it back together on every level, it
+ * follows child links in a loop. {@code contains} allocates nothing and
+ * never writes to the tree. {@code add} allocates only the new node and
+ * {@code remove} allocates nothing: both walk down once, remembering the
+ * path in an array that is kept between calls, and then walk back up it to
+ * fix sizes and rebalance.
+ * <p>
+ * Because every node knows the size of its subtree, {@code Set3c} also
+ * answers order-statistic and range queries ({@code select}, {@code rank},
+ * {@code floor}, {@code ceiling}, {@code countInRange}) in one walk from the
+ * root, and iterates over a range in either direction lazily, holding only
+ * one path of the tree at a time.
+ * <p>
+ * {@code union}, {@code intersection}, {@code difference}, and
+ * {@code isSubset} with another {@code Set3c} work on the two trees whole,
+ * splitting one around the root of the other and joining the results back
+ * together, so that combining sets of sizes m <= n takes O(m log(n/m + 1))
+ * comparisons instead of a {@code contains} per element. The two halves of
+ * each large split are combined in parallel in the common
+ * {@code ForkJoinPool}.
+ *
+ * @param <T>
+ *            type of {@code Set} elements
+ * @mathdefinitions <pre>
+ * IS_BST(
+ *   n: Node
+ *  ): boolean satisfies
+ *  [the tree rooted at n satisfies the binary search tree properties with
+ *   the ordering reported by compareTo for T, including that it has no
+ *   duplicate values]
+ *
+ * IS_WEIGHT_BALANCED(
+ *   n: Node
+ *  ): boolean satisfies
+ *  [for every node m of the tree rooted at n,
+ *   SIZE(m.right) + 1 <= DELTA * (SIZE(m.left) + 1)  and
+ *   SIZE(m.left) + 1 <= DELTA * (SIZE(m.right) + 1)  and
+ *   m.size = SIZE(m.left) + SIZE(m.right) + 1]
+ *
+ * SIZE(
+ *   n: Node
+ *  ): integer is
+ *  [0 if n is null, else the number of nodes in the tree rooted at n]
+ *
+ * VALUES(
+ *   n: Node
+ *  ): finite set of T is
+ *  [the values of the nodes in the tree rooted at n]
+ * </pre>
+ * @convention <pre>
+ * IS_BST($this.root)  and  IS_WEIGHT_BALANCED($this.root)  and
+ * |$this.path| > 0
+ * </pre>
+ * @correspondence this = VALUES($this.root)
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public class Set3c<T extends Comparable<T>> extends SetSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Largest ratio allowed between the weights (sizes plus one) of the two
+     * subtrees of any node.
+     */
+    private static final int DELTA = 3;
+
+    /**
+     * Weight ratio that decides between a single and a double rotation.
+     */
+    private static final int GAMMA = 2;
+
+    /**
+     * Initial length of the path array, enough for trees of thousands of
+     * elements.
+     */
+    private static final int INITIAL_PATH_LENGTH = 32;
+
+    /**
+     * Combined size of two trees below which they are combined by one task
+     * rather than split between two.
+     */
+    private static final int COMBINE_GRAIN = 1 << 12;
+
+    /**
+     * Operation code for {@code combine}: elements in either tree.
+     */
+    private static final int UNION = 0;
+
+    /**
+     * Operation code for {@code combine}: elements in both trees.
+     */
+    private static final int INTERSECTION = 1;
+
+    /**
+     * Operation code for {@code combine}: elements in the first tree only.
+     */
+    private static final int DIFFERENCE = 2;
+
+    /**
+     * Node of the tree.
+     *
+     * @param <T>
+     *            type of values
+     */
+    private static final class Node<T> {
+
+        /**
+         * Value.
+         */
+        private T value;
+
+        /**
+         * Left subtree.
+         */
+        private Node<T> left;
+
+        /**
+         * Right subtree.
+         */
+        private Node<T> right;
+
+        /**
+         * Number of nodes in the subtree rooted here.
+         */
+        private int size;
+
+        /**
+         * Constructor of a leaf.
+         *
+         * @param value
+         *            the value
+         */
+        Node(T value) {
+            this.value = value;
+            this.size = 1;
+        }
+
+    }
+
+    /**
+     * Root of the tree, or null if it is empty.
+     */
+    private Node<T> root;
+
+    /**
+     * Ancestors of the node being added or removed, from the root down; kept
+     * between calls so that updates need not allocate it.
+     */
+    private Node<T>[] path;
+
+    /**
+     * Returns the number of nodes in the tree rooted at {@code n}.
+     *
+     * @param n
+     *            the subtree, or null
+     * @return SIZE(n)
+     */
+    private static int size(Node<?> n) {
+        int result = 0;
+        if (n != null) {
+            result = n.size;
+        }
+        return result;
+    }
+
+    /**
+     * Rotates {@code n} left.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree, with a right child
+     * @return the new root of the subtree
+     */
+    private static <T> Node<T> rotateLeft(Node<T> n) {
+        Node<T> r = n.right;
+        n.right = r.left;
+        r.left = n;
+        r.size = n.size;
+        n.size = size(n.left) + size(n.right) + 1;
+        return r;
+    }
+
+    /**
+     * Rotates {@code n} right.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree, with a left child
+     * @return the new root of the subtree
+     */
+    private static <T> Node<T> rotateRight(Node<T> n) {
+        Node<T> l = n.left;
+        n.left = l.right;
+        l.right = n;
+        l.size = n.size;
+        n.size = size(n.left) + size(n.right) + 1;
+        return l;
+    }
+
+    /**
+     * Recomputes the size of {@code n} and restores the weight balance at
+     * {@code n} with a single or double rotation if needed.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree, whose children are weight-balanced and were
+     *            balanced against each other before one value was added to
+     *            or removed from one of them
+     * @return the root of the balanced subtree
+     */
+    private static <T> Node<T> balance(Node<T> n) {
+        int wl = size(n.left) + 1;
+        int wr = size(n.right) + 1;
+        n.size = wl + wr - 1;
+        Node<T> result = n;
+        if (wr > DELTA * wl) {
+            Node<T> r = n.right;
+            if (size(r.left) + 1 >= GAMMA * (size(r.right) + 1)) {
+                n.right = rotateRight(r);
+            }
+            result = rotateLeft(n);
+        } else if (wl > DELTA * wr) {
+            Node<T> l = n.left;
+            if (size(l.right) + 1 >= GAMMA * (size(l.left) + 1)) {
+                n.left = rotateLeft(l);
+            }
+            result = rotateRight(n);
+        }
+        return result;
+    }
+
+    /**
+     * Records {@code n} as the ancestor at {@code depth}, growing the path
+     * array if the tree has become deeper than ever before.
+     *
+     * @param depth
+     *            the depth of {@code n}
+     * @param n
+     *            the node
+     * @updates $this.path
+     * @ensures $this.path[depth] = n
+     */
+    private void push(int depth, Node<T> n) {
+        if (depth == this.path.length) {
+            this.path = Arrays.copyOf(this.path, 2 * depth);
+        }
+        this.path[depth] = n;
+    }
+
+    /**
+     * Fixes sizes and balance from the ancestor at {@code depth} up to the
+     * root, after a child of that ancestor has changed.
+     *
+     * @param depth
+     *            the depth of the deepest changed ancestor
+     * @updates $this.root
+     * @requires <pre>
+     * [$this.path[0, depth] is the path from $this.root to a node whose
+     *  subtrees are weight-balanced and were balanced against each other
+     *  before one value was added or removed]
+     * </pre>
+     * @ensures <pre>
+     * IS_WEIGHT_BALANCED($this.root)  and
+     * VALUES($this.root) = VALUES(#$this.root)
+     * </pre>
+     */
+    private void rebuild(int depth) {
+        Node<T> old = this.path[depth];
+        Node<T> fresh = balance(old);
+        for (int i = depth - 1; i >= 0; i--) {
+            Node<T> p = this.path[i];
+            if (p.left == old) {
+                p.left = fresh;
+            } else {
+                p.right = fresh;
+            }
+            old = p;
+            fresh = balance(p);
+        }
+        for (int i = 0; i <= depth; i++) {
+            this.path[i] = null;
+        }
+        this.root = fresh;
+    }
+
+    /**
+     * Reports whether {@code x} is in the tree rooted at {@code n}, without
+     * allocating or changing anything.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree, or null
+     * @param x
+     *            the value to look for
+     * @return true if x is in the subtree, false otherwise
+     * @requires IS_BST(n)
+     * @ensures isIn = (x is in VALUES(n))
+     */
+    private static <T extends Comparable<T>> boolean isIn(Node<T> n, T x) {
+        Node<T> m = n;
+        boolean found = false;
+        while (m != null && !found) {
+            int c = x.compareTo(m.value);
+            if (c == 0) {
+                found = true;
+            } else if (c < 0) {
+                m = m.left;
+            } else {
+                m = m.right;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Joins {@code l}, the value of {@code k}, and {@code r} into one
+     * weight-balanced tree, using {@code k} as the node for its value. The
+     * smaller tree is hung at the matching depth of the spine of the larger
+     * one, so this takes time proportional to the difference of their
+     * heights.
+     *
+     * @param <T>
+     *            type of values
+     * @param l
+     *            the tree of smaller values, or null
+     * @param k
+     *            the node of the middle value
+     * @param r
+     *            the tree of larger values, or null
+     * @return the joined tree
+     * @updates l, k, r
+     * @requires <pre>
+     * IS_BST(l)  and  IS_WEIGHT_BALANCED(l)  and
+     * IS_BST(r)  and  IS_WEIGHT_BALANCED(r)  and
+     * [every value of l < k.value < every value of r]
+     * </pre>
+     * @ensures <pre>
+     * IS_BST(join)  and  IS_WEIGHT_BALANCED(join)  and
+     * VALUES(join) = VALUES(#l) union {#k.value} union VALUES(#r)
+     * </pre>
+     */
+    private static <T> Node<T> join(Node<T> l, Node<T> k, Node<T> r) {
+        int wl = size(l) + 1;
+        int wr = size(r) + 1;
+        Node<T> result;
+        if (DELTA * wl < wr) {
+            r.left = join(l, k, r.left);
+            result = balance(r);
+        } else if (DELTA * wr < wl) {
+            l.right = join(l.right, k, r);
+            result = balance(l);
+        } else {
+            k.left = l;
+            k.right = r;
+            k.size = wl + wr - 1;
+            result = k;
+        }
+        return result;
+    }
+
+    /**
+     * Removes the node of the largest value from the tree rooted at
+     * {@code n}.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree
+     * @param removed
+     *            receives the removed node in entry 0
+     * @return the remaining tree
+     * @updates n, removed
+     * @requires <pre>
+     * n /= null  and  IS_BST(n)  and  IS_WEIGHT_BALANCED(n)  and
+     * |removed| > 0
+     * </pre>
+     * @ensures <pre>
+     * IS_BST(removeMax)  and  IS_WEIGHT_BALANCED(removeMax)  and
+     * VALUES(removeMax) = VALUES(#n) \ {removed[0].value}  and
+     * removed[0].value = [the largest value of #n]
+     * </pre>
+     */
+    private static <T> Node<T> removeMax(Node<T> n, Node<T>[] removed) {
+        Node<T> result = n.left;
+        if (n.right == null) {
+            removed[0] = n;
+        } else {
+            n.right = removeMax(n.right, removed);
+            result = balance(n);
+        }
+        return result;
+    }
+
+    /**
+     * Joins {@code l} and {@code r} into one weight-balanced tree, using the
+     * largest node of {@code l} as the middle node.
+     *
+     * @param <T>
+     *            type of values
+     * @param l
+     *            the tree of smaller values, or null
+     * @param r
+     *            the tree of larger values, or null
+     * @return the joined tree
+     * @updates l, r
+     * @requires <pre>
+     * IS_BST(l)  and  IS_WEIGHT_BALANCED(l)  and
+     * IS_BST(r)  and  IS_WEIGHT_BALANCED(r)  and
+     * [every value of l < every value of r]
+     * </pre>
+     * @ensures <pre>
+     * IS_BST(concat)  and  IS_WEIGHT_BALANCED(concat)  and
+     * VALUES(concat) = VALUES(#l) union VALUES(#r)
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T> concat(Node<T> l, Node<T> r) {
+        Node<T> result = r;
+        if (l != null) {
+            Node<T>[] removed = new Node[1];
+            Node<T> rest = removeMax(l, removed);
+            result = join(rest, removed[0], r);
+        }
+        return result;
+    }
+
+    /**
+     * Splits the tree rooted at {@code n} around {@code x} into the trees of
+     * the values smaller and larger than {@code x}, and returns the node of
+     * {@code x} itself, if there is one, detached from both.
+     *
+     * @param <T>
+     *            type of values
+     * @param n
+     *            the subtree, or null
+     * @param x
+     *            the value to split around
+     * @param parts
+     *            receives the tree of smaller values in entry 0 and the tree
+     *            of larger values in entry 1
+     * @return the node of x, or null if x is not in the subtree
+     * @updates n, parts
+     * @requires <pre>
+     * IS_BST(n)  and  IS_WEIGHT_BALANCED(n)  and  |parts| > 1
+     * </pre>
+     * @ensures <pre>
+     * IS_BST(parts[0])  and  IS_WEIGHT_BALANCED(parts[0])  and
+     * IS_BST(parts[1])  and  IS_WEIGHT_BALANCED(parts[1])  and
+     * VALUES(parts[0]) = {y: T where (y is in VALUES(#n)  and  y < x)}  and
+     * VALUES(parts[1]) = {y: T where (y is in VALUES(#n)  and  x < y)}  and
+     * ((x is in VALUES(#n)  and  split.value = x)  or
+     *  (x is not in VALUES(#n)  and  split = null))
+     * </pre>
+     */
+    private static <T extends Comparable<T>> Node<T> split(Node<T> n, T x,
+            Node<T>[] parts) {
+        Node<T> found = null;
+        if (n == null) {
+            parts[0] = null;
+            parts[1] = null;
+        } else {
+            int c = x.compareTo(n.value);
+            if (c == 0) {
+                found = n;
+                parts[0] = n.left;
+                parts[1] = n.right;
+            } else if (c < 0) {
+                found = split(n.left, x, parts);
+                parts[1] = join(parts[1], n, n.right);
+            } else {
+                found = split(n.right, x, parts);
+                parts[0] = join(n.left, n, parts[0]);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Combines the trees rooted at {@code a} and {@code b} by {@code op},
+     * reusing their nodes. One tree is split around the root of the other,
+     * and the two pairs of halves are combined recursively, in parallel if
+     * they are large enough, before being joined again.
+     *
+     * @param <T>
+     *            type of values
+     * @param op
+     *            {@code UNION}, {@code INTERSECTION}, or {@code DIFFERENCE}
+     * @param a
+     *            the first tree, or null
+     * @param b
+     *            the second tree, or null
+     * @return the combined tree
+     * @updates a, b
+     * @requires <pre>
+     * IS_BST(a)  and  IS_WEIGHT_BALANCED(a)  and
+     * IS_BST(b)  and  IS_WEIGHT_BALANCED(b)  and
+     * [a and b share no nodes]
+     * </pre>
+     * @ensures <pre>
+     * IS_BST(combine)  and  IS_WEIGHT_BALANCED(combine)  and
+     * VALUES(combine) =
+     *  [VALUES(#a) union, intersection, or difference VALUES(#b), by op]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Comparable<T>> Node<T> combine(int op,
+            Node<T> a, Node<T> b) {
+        Node<T> result;
+        if (a == null || b == null) {
+            if (op == UNION && a == null) {
+                result = b;
+            } else if (op == INTERSECTION) {
+                result = null;
+            } else {
+                result = a;
+            }
+        } else {
+            boolean large = size(a) + size(b) > COMBINE_GRAIN;
+            Node<T>[] parts = new Node[2];
+            Node<T> pivot;
+            Node<T> found;
+            Node<T> lowA;
+            Node<T> highA;
+            Node<T> lowB;
+            Node<T> highB;
+            if (op == DIFFERENCE) {
+                /*
+                 * Split a, so that the node of b's root can be dropped
+                 */
+                pivot = b;
+                lowB = b.left;
+                highB = b.right;
+                found = split(a, b.value, parts);
+                lowA = parts[0];
+                highA = parts[1];
+            } else {
+                pivot = a;
+                lowA = a.left;
+                highA = a.right;
+                found = split(b, a.value, parts);
+                lowB = parts[0];
+                highB = parts[1];
+            }
+            Node<T> low;
+            Node<T> high;
+            if (large) {
+                CombineTask<T> lowTask = new CombineTask<T>(op, lowA, lowB);
+                lowTask.fork();
+                high = combine(op, highA, highB);
+                low = lowTask.join();
+            } else {
+                low = combine(op, lowA, lowB);
+                high = combine(op, highA, highB);
+            }
+            if (op == UNION || (op == INTERSECTION && found != null)) {
+                result = join(low, pivot, high);
+            } else {
+                result = concat(low, high);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether every value of the tree rooted at {@code a} is in the
+     * tree rooted at {@code b}, where both lie strictly between {@code lo}
+     * and {@code hi}. Neither tree is changed, and the two halves of a large
+     * {@code a} are checked in parallel.
+     *
+     * @param <T>
+     *            type of values
+     * @param a
+     *            the tree whose values are looked for, or null
+     * @param b
+     *            a tree holding every value of the set searched that lies
+     *            between lo and hi, or null
+     * @param lo
+     *            the bound below the values of a, or null for none
+     * @param hi
+     *            the bound above the values of a, or null for none
+     * @return true if every value of a is in b, false otherwise
+     * @requires <pre>
+     * IS_BST(a)  and  IS_BST(b)  and
+     * [every value of a lies strictly between lo and hi]
+     * </pre>
+     * @ensures isSubtree = (VALUES(a) is subset of VALUES(b))
+     */
+    private static <T extends Comparable<T>> boolean isSubtree(Node<T> a,
+            Node<T> b, T lo, T hi) {
+        boolean result = true;
+        if (a != null) {
+            /*
+             * Narrow b to its smallest subtree holding the whole range
+             */
+            Node<T> c = b;
+            boolean narrowed = false;
+            while (c != null && !narrowed) {
+                if (hi != null && hi.compareTo(c.value) <= 0) {
+                    c = c.left;
+                } else if (lo != null && c.value.compareTo(lo) <= 0) {
+                    c = c.right;
+                } else {
+                    narrowed = true;
+                }
+            }
+            result = size(a) <= size(c) && isIn(c, a.value);
+            if (result) {
+                if (size(a) > COMBINE_GRAIN) {
+                    SubsetTask<T> lowTask = new SubsetTask<T>(a.left, c, lo,
+                            a.value);
+                    lowTask.fork();
+                    result = isSubtree(a.right, c, a.value, hi);
+                    result = lowTask.join() && result;
+                } else {
+                    result = isSubtree(a.left, c, lo, a.value)
+                            && isSubtree(a.right, c, a.value, hi);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creator of initial representation.
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep() {
+
+        this.root = null;
+        this.path = new Node[INITIAL_PATH_LENGTH];
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public Set3c() {
+
+        this.createNewRep();
+
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Set<T> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public final void transferFrom(Set<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof Set3c<?> : ""
+                + "Violation of: source is of dynamic type Set3c<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type Set3c<?>, and
+         * the ? must be T or the call would not have compiled.
+         */
+        Set3c<T> localSource = (Set3c<T>) source;
+        this.root = localSource.root;
+        this.path = localSource.path;
+        localSource.createNewRep();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert !this.contains(x) : "Violation of: x is not in this";
+
+        Node<T> leaf = new Node<T>(x);
+        if (this.root == null) {
+            this.root = leaf;
+        } else {
+            int depth = 0;
+            Node<T> n = this.root;
+            Node<T> parent = null;
+            while (n != null) {
+                this.push(depth, n);
+                depth++;
+                parent = n;
+                if (x.compareTo(n.value) < 0) {
+                    n = n.left;
+                } else {
+                    n = n.right;
+                }
+            }
+            if (x.compareTo(parent.value) < 0) {
+                parent.left = leaf;
+            } else {
+                parent.right = leaf;
+            }
+            this.rebuild(depth - 1);
+        }
+    }
+
+    @Override
+    public final T remove(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.contains(x) : "Violation of: x is in this";
+
+        int depth = 0;
+        Node<T> n = this.root;
+        int c = x.compareTo(n.value);
+        while (c != 0) {
+            this.push(depth, n);
+            depth++;
+            if (c < 0) {
+                n = n.left;
+            } else {
+                n = n.right;
+            }
+            c = x.compareTo(n.value);
+        }
+        T result = n.value;
+        if (n.left != null && n.right != null) {
+            /*
+             * Move the smallest value of the right subtree into n, and remove
+             * its node instead
+             */
+            this.push(depth, n);
+            depth++;
+            Node<T> s = n.right;
+            while (s.left != null) {
+                this.push(depth, s);
+                depth++;
+                s = s.left;
+            }
+            n.value = s.value;
+            n = s;
+        }
+        Node<T> child = n.left;
+        if (child == null) {
+            child = n.right;
+        }
+        if (depth == 0) {
+            this.root = child;
+        } else {
+            Node<T> parent = this.path[depth - 1];
+            if (parent.left == n) {
+                parent.left = child;
+            } else {
+                parent.right = child;
+            }
+            this.rebuild(depth - 1);
+        }
+        return result;
+    }
+
+    @Override
+    public final T removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        /*
+         * The root is as good as any element, and is found without searching
+         */
+        return this.remove(this.root.value);
+    }
+
+    @Override
+    public final boolean contains(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        return isIn(this.root, x);
+    }
+
+    @Override
+    public final int size() {
+        return size(this.root);
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new Set3cIterator(null, null, true);
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Reports the element of {@code this} with exactly {@code k} smaller
+     * elements.
+     *
+     * @param k
+     *            the rank of the element wanted, counting from 0
+     * @return the element of rank {@code k}
+     * @requires 0 <= k < |this|
+     * @ensures <pre>
+     * select is in this  and
+     * |{y: T where (y is in this  and  y < select)}| = k
+     * </pre>
+     */
+    public final T select(int k) {
+        assert 0 <= k : "Violation of: 0 <= k";
+        assert k < this.size() : "Violation of: k < |this|";
+
+        Node<T> n = this.root;
+        int i = k;
+        int leftSize = size(n.left);
+        while (i != leftSize) {
+            if (i < leftSize) {
+                n = n.left;
+            } else {
+                i -= leftSize + 1;
+                n = n.right;
+            }
+            leftSize = size(n.left);
+        }
+        return n.value;
+    }
+
+    /**
+     * Reports the number of elements of {@code this} smaller than {@code x}.
+     * {@code x} need not be in {@code this}.
+     *
+     * @param x
+     *            the element to rank
+     * @return the number of elements smaller than {@code x}
+     * @requires x /= null
+     * @ensures rank = |{y: T where (y is in this  and  y < x)}|
+     */
+    public final int rank(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        Node<T> n = this.root;
+        int result = 0;
+        while (n != null) {
+            int c = x.compareTo(n.value);
+            if (c < 0) {
+                n = n.left;
+            } else if (c == 0) {
+                result += size(n.left);
+                n = null;
+            } else {
+                result += size(n.left) + 1;
+                n = n.right;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports the largest element of {@code this} not greater than {@code x}.
+     *
+     * @param x
+     *            the bound
+     * @return the largest element {@code <= x}, or null if there is none
+     * @requires x /= null
+     * @ensures <pre>
+     * (floor is in this  and  floor <= x  and
+     *  for all y: T where (y is in this  and  y <= x) (y <= floor))  or
+     * (floor = null  and  for all y: T where (y is in this) (x < y))
+     * </pre>
+     */
+    public final T floor(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        Node<T> n = this.root;
+        T result = null;
+        while (n != null) {
+            int c = x.compareTo(n.value);
+            if (c < 0) {
+                n = n.left;
+            } else {
+                result = n.value;
+                if (c == 0) {
+                    n = null;
+                } else {
+                    n = n.right;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports the smallest element of {@code this} not less than {@code x}.
+     *
+     * @param x
+     *            the bound
+     * @return the smallest element {@code >= x}, or null if there is none
+     * @requires x /= null
+     * @ensures <pre>
+     * (ceiling is in this  and  x <= ceiling  and
+     *  for all y: T where (y is in this  and  x <= y) (ceiling <= y))  or
+     * (ceiling = null  and  for all y: T where (y is in this) (y < x))
+     * </pre>
+     */
+    public final T ceiling(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        Node<T> n = this.root;
+        T result = null;
+        while (n != null) {
+            int c = x.compareTo(n.value);
+            if (c > 0) {
+                n = n.right;
+            } else {
+                result = n.value;
+                if (c == 0) {
+                    n = null;
+                } else {
+                    n = n.left;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports the number of elements of {@code this} in [{@code lo},
+     * {@code hi}).
+     *
+     * @param lo
+     *            the smallest element counted
+     * @param hi
+     *            the bound above the elements counted
+     * @return the number of elements {@code y} with {@code lo <= y < hi}
+     * @requires lo /= null and hi /= null
+     * @ensures <pre>
+     * countInRange = |{y: T where (y is in this  and  lo <= y  and  y < hi)}|
+     * </pre>
+     */
+    public final int countInRange(T lo, T hi) {
+        assert lo != null : "Violation of: lo is not null";
+        assert hi != null : "Violation of: hi is not null";
+
+        int result = 0;
+        if (lo.compareTo(hi) < 0) {
+            result = this.rank(hi) - this.rank(lo);
+        }
+        return result;
+    }
+
+    /**
+     * Returns an iterator over the elements of {@code this} in [{@code lo},
+     * {@code hi}), in increasing order. The iterator finds each element as
+     * it is asked for, and {@code this} must not be changed while it is in
+     * use.
+     *
+     * @param lo
+     *            the smallest element visited
+     * @param hi
+     *            the bound above the elements visited
+     * @return the iterator
+     * @requires lo /= null and hi /= null
+     * @ensures <pre>
+     * [range visits, in increasing order, exactly the elements y of this
+     *  with lo <= y < hi]
+     * </pre>
+     */
+    public final Iterator<T> range(T lo, T hi) {
+        assert lo != null : "Violation of: lo is not null";
+        assert hi != null : "Violation of: hi is not null";
+
+        return new Set3cIterator(lo, hi, true);
+    }
+
+    /**
+     * Returns an iterator over the elements of {@code this} in [{@code lo},
+     * {@code hi}), in decreasing order. The iterator finds each element as
+     * it is asked for, and {@code this} must not be changed while it is in
+     * use.
+     *
+     * @param lo
+     *            the smallest element visited
+     * @param hi
+     *            the bound above the elements visited
+     * @return the iterator
+     * @requires lo /= null and hi /= null
+     * @ensures <pre>
+     * [descendingRange visits, in decreasing order, exactly the elements y
+     *  of this with lo <= y < hi]
+     * </pre>
+     */
+    public final Iterator<T> descendingRange(T lo, T hi) {
+        assert lo != null : "Violation of: lo is not null";
+        assert hi != null : "Violation of: hi is not null";
+
+        return new Set3cIterator(lo, hi, false);
+    }
+
+    /**
+     * Adds to {@code this} every element of {@code s} not already in it,
+     * reusing the nodes of both trees, and clears {@code s}.
+     *
+     * @param s
+     *            the set whose elements are added
+     * @updates this
+     * @clears s
+     * @requires s /= null and s is not this
+     * @ensures this = #this union #s
+     */
+    public final void union(Set3c<T> s) {
+        assert s != null : "Violation of: s is not null";
+        assert s != this : "Violation of: s is not this";
+
+        this.root = ForkJoinPool.commonPool()
+                .invoke(new CombineTask<T>(UNION, this.root, s.root));
+        s.createNewRep();
+    }
+
+    /**
+     * Removes from {@code this} every element not in {@code s}, and clears
+     * {@code s}.
+     *
+     * @param s
+     *            the set whose elements are kept
+     * @updates this
+     * @clears s
+     * @requires s /= null and s is not this
+     * @ensures this = #this intersection #s
+     */
+    public final void intersection(Set3c<T> s) {
+        assert s != null : "Violation of: s is not null";
+        assert s != this : "Violation of: s is not this";
+
+        this.root = ForkJoinPool.commonPool()
+                .invoke(new CombineTask<T>(INTERSECTION, this.root, s.root));
+        s.createNewRep();
+    }
+
+    /**
+     * Removes from {@code this} every element in {@code s}, and clears
+     * {@code s}.
+     *
+     * @param s
+     *            the set whose elements are removed
+     * @updates this
+     * @clears s
+     * @requires s /= null and s is not this
+     * @ensures this = #this \ #s
+     */
+    public final void difference(Set3c<T> s) {
+        assert s != null : "Violation of: s is not null";
+        assert s != this : "Violation of: s is not this";
+
+        this.root = ForkJoinPool.commonPool()
+                .invoke(new CombineTask<T>(DIFFERENCE, this.root, s.root));
+        s.createNewRep();
+    }
+
+    @Override
+    public final boolean isSubset(Set<T> s) {
+        assert s != null : "Violation of: s is not null";
+
+        boolean result;
+        if (s instanceof Set3c<?>) {
+            /*
+             * This cast cannot fail since the test above would have failed in
+             * that case: s must be of dynamic type Set3c<?>, and the ? must be
+             * T or the call would not have compiled.
+             */
+            Set3c<T> other = (Set3c<T>) s;
+            result = ForkJoinPool.commonPool().invoke(
+                    new SubsetTask<T>(this.root, other.root, null, null));
+        } else {
+            result = super.isSubset(s);
+        }
+        return result;
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code Set3c}, visiting
+     * the elements between two optional bounds in increasing or decreasing
+     * order.
+     */
+    private final class Set3cIterator implements Iterator<T> {
+
+        /**
+         * Nodes whose values, and subtrees on the far side in the direction
+         * of iteration, have not been visited yet, next to visit last, in
+         * entries [0, depth).
+         */
+        private Node<T>[] stack;
+
+        /**
+         * Number of nodes on {@code stack}.
+         */
+        private int depth;
+
+        /**
+         * Smallest element to visit, or null if there is no lower bound.
+         */
+        private final T lo;
+
+        /**
+         * Bound above the elements to visit, or null if there is no upper
+         * bound.
+         */
+        private final T hi;
+
+        /**
+         * Whether elements are visited in increasing order.
+         */
+        private final boolean ascending;
+
+        /**
+         * Constructor.
+         *
+         * @param lo
+         *            smallest element to visit, or null for no lower bound
+         * @param hi
+         *            bound above the elements to visit, or null for no upper
+         *            bound
+         * @param ascending
+         *            whether to visit elements in increasing order
+         */
+        @SuppressWarnings("unchecked")
+        Set3cIterator(T lo, T hi, boolean ascending) {
+            this.stack = new Node[Set3c.this.path.length];
+            this.depth = 0;
+            this.lo = lo;
+            this.hi = hi;
+            this.ascending = ascending;
+            /*
+             * Push the path to the first element in range, skipping the
+             * subtrees entirely out of range on the starting side
+             */
+            Node<T> n = Set3c.this.root;
+            while (n != null) {
+                boolean before;
+                if (this.ascending) {
+                    before = lo != null && n.value.compareTo(lo) < 0;
+                } else {
+                    before = hi != null && hi.compareTo(n.value) <= 0;
+                }
+                if (before) {
+                    n = this.far(n);
+                } else {
+                    this.push(n);
+                    n = this.near(n);
+                }
+            }
+        }
+
+        /**
+         * Returns the child of {@code n} on the side visited first.
+         *
+         * @param n
+         *            the node
+         * @return the child of n visited before n
+         */
+        private Node<T> near(Node<T> n) {
+            Node<T> result = n.right;
+            if (this.ascending) {
+                result = n.left;
+            }
+            return result;
+        }
+
+        /**
+         * Returns the child of {@code n} on the side visited last.
+         *
+         * @param n
+         *            the node
+         * @return the child of n visited after n
+         */
+        private Node<T> far(Node<T> n) {
+            Node<T> result = n.left;
+            if (this.ascending) {
+                result = n.right;
+            }
+            return result;
+        }
+
+        /**
+         * Pushes {@code n} onto the stack.
+         *
+         * @param n
+         *            the node
+         */
+        private void push(Node<T> n) {
+            if (this.depth == this.stack.length) {
+                this.stack = Arrays.copyOf(this.stack, 2 * this.depth);
+            }
+            this.stack[this.depth] = n;
+            this.depth++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean result = this.depth > 0;
+            if (result) {
+                T next = this.stack[this.depth - 1].value;
+                if (this.ascending) {
+                    result = this.hi == null || next.compareTo(this.hi) < 0;
+                } else {
+                    result = this.lo == null || this.lo.compareTo(next) <= 0;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            this.depth--;
+            Node<T> n = this.stack[this.depth];
+            this.stack[this.depth] = null;
+            Node<T> m = this.far(n);
+            while (m != null) {
+                this.push(m);
+                m = this.near(m);
+            }
+            return n.value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+    /**
+     * Task combining two trees for {@code union}, {@code intersection}, and
+     * {@code difference}.
+     *
+     * @param <T>
+     *            type of values
+     */
+    private static final class CombineTask<T extends Comparable<T>>
+            extends RecursiveTask<Node<T>> {
+
+        /**
+         * Serialization version, as required of a {@code RecursiveTask}.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * {@code UNION}, {@code INTERSECTION}, or {@code DIFFERENCE}.
+         */
+        private final int op;
+
+        /**
+         * The first tree.
+         */
+        private final transient Node<T> a;
+
+        /**
+         * The second tree.
+         */
+        private final transient Node<T> b;
+
+        /**
+         * Constructor.
+         *
+         * @param op
+         *            {@code UNION}, {@code INTERSECTION}, or
+         *            {@code DIFFERENCE}
+         * @param a
+         *            the first tree
+         * @param b
+         *            the second tree
+         */
+        CombineTask(int op, Node<T> a, Node<T> b) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        protected Node<T> compute() {
+            return combine(this.op, this.a, this.b);
+        }
+
+    }
+
+    /**
+     * Task checking that one tree holds every value of another, for
+     * {@code isSubset}.
+     *
+     * @param <T>
+     *            type of values
+     */
+    private static final class SubsetTask<T extends Comparable<T>>
+            extends RecursiveTask<Boolean> {
+
+        /**
+         * Serialization version, as required of a {@code RecursiveTask}.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The tree whose values are looked for.
+         */
+        private final transient Node<T> a;
+
+        /**
+         * The tree searched.
+         */
+        private final transient Node<T> b;
+
+        /**
+         * The bound below the values of {@code a}, or null for none.
+         */
+        private final transient T lo;
+
+        /**
+         * The bound above the values of {@code a}, or null for none.
+         */
+        private final transient T hi;
+
+        /**
+         * Constructor.
+         *
+         * @param a
+         *            the tree whose values are looked for
+         * @param b
+         *            the tree searched
+         * @param lo
+         *            the bound below the values of a, or null for none
+         * @param hi
+         *            the bound above the values of a, or null for none
+         */
+        SubsetTask(Node<T> a, Node<T> b, T lo, T hi) {
+            this.a = a;
+            this.b = b;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Boolean compute() {
+            return isSubtree(this.a, this.b, this.lo, this.hi);
+        }
+
+    }
+
+}
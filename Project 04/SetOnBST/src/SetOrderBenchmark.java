@@ -0,0 +1,143 @@
+import java.util.Random;
+
+import components.set.Set;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Benchmark of {@code Set3b} (weight-balanced) and {@code Set3c}
+ * (weight-balanced, on its own nodes) against {@code Set3a} (unbalanced) when
+ * the elements arrive in random, sorted, and reverse-sorted order: for each
+ * size, each set is filled with that many elements in each order, and the
+ * time to add them all, to look each one up, and to remove them all again is
+ * reported in milliseconds. {@code Set3a} is skipped on ordered input larger
+ * than {@code UNBALANCED_LIMIT}, where its recursion would be as deep as the
+ * input is long.
+ *
+ * @author Zhuoyang Li + Xinci Ma
+ *
+ */
+public final class SetOrderBenchmark {
+
+    /**
+     * Set sizes to compare.
+     */
+    private static final int[] SIZES = { 1_000, 4_000, 100_000 };
+
+    /**
+     * Largest ordered input given to {@code Set3a}.
+     */
+    private static final int UNBALANCED_LIMIT = 4_000;
+
+    /**
+     * Names of the orders in which elements are added.
+     */
+    private static final String[] ORDERS = { "random", "sorted", "reverse" };
+
+    /**
+     * Nanoseconds in a millisecond.
+     */
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private SetOrderBenchmark() {
+    }
+
+    /**
+     * Returns 0, 1, ..., {@code n} - 1 in the order named by {@code order}.
+     *
+     * @param n
+     *            the number of elements
+     * @param order
+     *            one of {@code ORDERS}
+     * @return the elements
+     * @ensures <pre>
+     * [elements is a permutation of 0, 1, ..., n - 1 in the given order]
+     * </pre>
+     */
+    private static Integer[] elements(int n, String order) {
+        Integer[] result = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            if (order.equals("reverse")) {
+                result[i] = n - 1 - i;
+            } else {
+                result[i] = i;
+            }
+        }
+        if (order.equals("random")) {
+            Random rand = new Random(n);
+            for (int i = n - 1; i > 0; i--) {
+                int j = rand.nextInt(i + 1);
+                Integer tmp = result[i];
+                result[i] = result[j];
+                result[j] = tmp;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds, looks up, and removes every element of {@code xs} in {@code s},
+     * in that order, and returns a row of the report.
+     *
+     * @param name
+     *            name of the set
+     * @param s
+     *            the set
+     * @param xs
+     *            the elements
+     * @return the report row
+     * @updates s
+     * @requires s = {} and [the entries of xs are distinct]
+     * @ensures <pre>
+     * s = {}  and
+     * row = [name and the times to add, look up, and remove, separated by
+     *        tabs]
+     * </pre>
+     */
+    private static String row(String name, Set<Integer> s, Integer[] xs) {
+        long start = System.nanoTime();
+        for (Integer x : xs) {
+            s.add(x);
+        }
+        long added = System.nanoTime();
+        for (Integer x : xs) {
+            s.contains(x);
+        }
+        long found = System.nanoTime();
+        for (Integer x : xs) {
+            s.remove(x);
+        }
+        long removed = System.nanoTime();
+        return name + "\t" + (added - start) / NANOS_PER_MILLI + "\t"
+                + (found - added) / NANOS_PER_MILLI + "\t"
+                + (removed - found) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments
+     */
+    public static void main(String[] args) {
+        SimpleWriter out = new SimpleWriter1L();
+        out.println("time in ms to add, contains, and remove every element");
+        out.println("set\tadd\tcontains\tremove");
+        for (int n : SIZES) {
+            for (String order : ORDERS) {
+                Integer[] xs = elements(n, order);
+                String label = "(" + n + ", " + order + ")";
+                if (n <= UNBALANCED_LIMIT || order.equals("random")) {
+                    out.println(row("Set3a" + label, new Set3a<Integer>(), xs));
+                }
+                out.println(row("Set3b" + label, new Set3b<Integer>(), xs));
+                out.println(row("Set3c" + label, new Set3c<Integer>(), xs));
+            }
+        }
+        out.close();
+    }
+
+}
@@ -0,0 +1,210 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import components.set.Set;
+import components.set.Set1L;
+
+/**
+ * Customized JUnit test fixture for {@code ConcurrentSet3}.
+ */
+public class ConcurrentSet3Test extends SetTest {
+
+    /**
+     * Number of threads used in the concurrent tests.
+     */
+    private static final int THREADS = 8;
+
+    /**
+     * Number of distinct elements used in the concurrent tests.
+     */
+    private static final int KEYS = 2000;
+
+    @Override
+    protected final Set<String> constructorTest() {
+        return new ConcurrentSet3<String>();
+    }
+
+    @Override
+    protected final Set<String> constructorRef() {
+        return new Set1L<String>();
+    }
+
+    /**
+     * Returns i as a string padded with zeros, so that the strings sort in
+     * the order of the numbers.
+     *
+     * @param i
+     *            the number
+     * @return the padded string
+     */
+    private static String key(int i) {
+        return String.format("%06d", i);
+    }
+
+    /**
+     * Runs {@code task} on {@code THREADS} threads and waits for all of them.
+     *
+     * @param task
+     *            the work for each thread
+     */
+    private static void runOnThreads(Runnable task) {
+        Thread[] workers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            workers[t] = new Thread(task);
+            workers[t].start();
+        }
+        try {
+            for (Thread w : workers) {
+                w.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    //addIfAbsent and removeIfPresent report whether they changed the set
+    @Test
+    public final void testAddIfAbsentAndRemoveIfPresent() {
+        ConcurrentSet3<String> test = new ConcurrentSet3<>();
+        assertTrue(test.addIfAbsent("a"));
+        assertFalse(test.addIfAbsent("a"));
+        assertEquals(1, test.size());
+        assertTrue(test.removeIfPresent("a"));
+        assertFalse(test.removeIfPresent("a"));
+        assertEquals(0, test.size());
+    }
+
+    //iteration is in increasing order whatever the order of adds
+    @Test
+    public final void testIterationOrder() {
+        Set<String> test = this.constructorTest();
+        final int stride = 7;
+        for (int i = 0; i < KEYS; i++) {
+            test.add(key(i * stride % KEYS));
+        }
+        int expected = 0;
+        for (String x : test) {
+            assertEquals(key(expected), x);
+            expected++;
+        }
+        assertEquals(KEYS, expected);
+    }
+
+    //searches that start at the levels in use still find every element
+    //after the set is moved away and another is cleared
+    @Test
+    public final void testTransferFromAndClear() {
+        Set<String> source = this.constructorTest();
+        for (int i = 0; i < KEYS; i++) {
+            source.add(key(i));
+        }
+        Set<String> test = this.constructorTest();
+        test.add(key(KEYS));
+        test.clear();
+        test.transferFrom(source);
+        assertEquals(0, source.size());
+        source.add(key(0));
+        assertTrue(source.contains(key(0)));
+        assertFalse(source.contains(key(1)));
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(test.contains(key(i)));
+            assertEquals(key(i), test.remove(key(i)));
+            assertFalse(test.contains(key(i)));
+        }
+        assertEquals(0, test.size());
+    }
+
+    //threads adding the same elements add each exactly once
+    @Test
+    public final void testAddIfAbsentConcurrent() {
+        final ConcurrentSet3<String> test = new ConcurrentSet3<>();
+        final AtomicInteger added = new AtomicInteger();
+        runOnThreads(() -> {
+            for (int i = 0; i < KEYS; i++) {
+                if (test.addIfAbsent(key(i))) {
+                    added.incrementAndGet();
+                }
+            }
+        });
+        assertEquals(KEYS, added.get());
+        assertEquals(KEYS, test.size());
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(test.contains(key(i)));
+        }
+    }
+
+    //threads adding and removing disjoint elements while others read
+    @Test
+    public final void testMixedConcurrent() {
+        final ConcurrentSet3<String> test = new ConcurrentSet3<>();
+        final AtomicInteger next = new AtomicInteger();
+        runOnThreads(() -> {
+            int t = next.getAndIncrement();
+            for (int i = t; i < KEYS; i += THREADS) {
+                test.add(key(i));
+            }
+            for (int i = t; i < KEYS; i += 2 * THREADS) {
+                assertEquals(key(i), test.remove(key(i)));
+            }
+            for (int i = 0; i < KEYS; i++) {
+                test.contains(key(i));
+            }
+        });
+        Set<String> ref = this.constructorRef();
+        for (int i = 0; i < KEYS; i++) {
+            if (i % (2 * THREADS) >= THREADS) {
+                ref.add(key(i));
+            }
+        }
+        assertEquals(ref, test);
+        assertEquals(ref.size(), test.size());
+    }
+
+    //removeAny from several threads never returns an element twice
+    @Test
+    public final void testRemoveAnyConcurrent() {
+        final ConcurrentSet3<String> test = new ConcurrentSet3<>();
+        for (int i = 0; i < KEYS; i++) {
+            test.add(key(i));
+        }
+        final ConcurrentSet3<String> removed = new ConcurrentSet3<>();
+        runOnThreads(() -> {
+            for (int i = 0; i < KEYS / THREADS; i++) {
+                removed.add(test.removeAny());
+            }
+        });
+        assertEquals(0, test.size());
+        assertEquals(KEYS, removed.size());
+        assertFalse(test.iterator().hasNext());
+    }
+
+    //threads emptying one set with removeAny remove each element once
+    @Test
+    public final void testRemoveAnyUntilEmptyConcurrent() {
+        final ConcurrentSet3<String> test = new ConcurrentSet3<>();
+        for (int i = 0; i < KEYS; i++) {
+            test.add(key(i));
+        }
+        final ConcurrentSet3<String> removed = new ConcurrentSet3<>();
+        runOnThreads(() -> {
+            boolean empty = false;
+            while (!empty) {
+                try {
+                    removed.add(test.removeAny());
+                } catch (NoSuchElementException e) {
+                    empty = true;
+                }
+            }
+        });
+        assertEquals(0, test.size());
+        assertEquals(KEYS, removed.size());
+        assertFalse(test.iterator().hasNext());
+    }
+
+}
@@ -0,0 +1,143 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import components.set.Set;
+import components.set.Set1L;
+
+/**
+ * JUnit test fixture for {@code FrozenSet3}, which cannot be changed and so
+ * is tested against the sets it was frozen from.
+ */
+public class FrozenSet3Test {
+
+    /**
+     * Number of elements in the larger sets, not one less than a power of
+     * two, so that the last level of the tree is partly filled.
+     */
+    private static final int MANY = 1000;
+
+    /**
+     * Returns i as a string padded with zeros, so that the strings sort in
+     * the order of the numbers.
+     *
+     * @param i
+     *            the number
+     * @return the padded string
+     */
+    private static String key(int i) {
+        return String.format("%06d", i);
+    }
+
+    /**
+     * Returns a {@code Set1L} holding key(0), key(step), key(2 * step), ...
+     * below key(n).
+     *
+     * @param n
+     *            the bound on the numbers
+     * @param step
+     *            distance between consecutive elements
+     * @return the set
+     */
+    private static Set<String> source(int n, int step) {
+        Set<String> s = new Set1L<String>();
+        for (int i = 0; i < n; i += step) {
+            s.add(key(i));
+        }
+        return s;
+    }
+
+    //freezing an empty set
+    @Test
+    public final void testFreezeEmpty() {
+        Set<String> s = new Set1L<String>();
+        FrozenSet3<String> frozen = FrozenSet3.freeze(s);
+        assertEquals(0, frozen.size());
+        assertFalse(frozen.contains("a"));
+        assertNull(frozen.floor("a"));
+        assertNull(frozen.ceiling("a"));
+        assertEquals(0, frozen.rank("a"));
+        assertEquals(s, frozen);
+        assertEquals(new FrozenSet3<String>(), frozen);
+    }
+
+    //every size up to a few levels, so every shape of last level is built
+    @Test
+    public final void testFreezeEachSize() {
+        final int largest = 40;
+        for (int n = 1; n <= largest; n++) {
+            Set<String> s = source(n, 1);
+            FrozenSet3<String> frozen = FrozenSet3.freeze(s);
+            assertEquals(s, frozen);
+            Iterator<String> it = frozen.iterator();
+            for (int i = 0; i < n; i++) {
+                assertEquals(key(i), it.next());
+                assertTrue(frozen.contains(key(i)));
+                assertEquals(i, frozen.rank(key(i)));
+            }
+            assertFalse(it.hasNext());
+            assertFalse(frozen.contains(key(n)));
+        }
+    }
+
+    //floor, ceiling, and rank on elements, between them, and beyond both
+    @Test
+    public final void testFloorCeilingAndRank() {
+        final int step = 3;
+        FrozenSet3<String> frozen = FrozenSet3.freeze(source(MANY, step));
+        for (int i = 0; i < MANY - step; i++) {
+            assertEquals(i % step == 0, frozen.contains(key(i)));
+            assertEquals(key(i - i % step), frozen.floor(key(i)));
+            assertEquals(key(i + (step - i % step) % step),
+                    frozen.ceiling(key(i)));
+            assertEquals((i + step - 1) / step, frozen.rank(key(i)));
+        }
+        assertNull(frozen.floor(""));
+        assertEquals(key(0), frozen.ceiling(""));
+        assertEquals(0, frozen.rank(""));
+        assertEquals(key(MANY - 1), frozen.floor(key(MANY)));
+        assertNull(frozen.ceiling(key(MANY)));
+        assertEquals(frozen.size(), frozen.rank(key(MANY)));
+    }
+
+    //every method that would change the set fails fast
+    @Test
+    public final void testMutationsFail() {
+        Set<String> frozen = FrozenSet3.freeze(source(1, 1));
+        int failures = 0;
+        try {
+            frozen.add("a");
+        } catch (UnsupportedOperationException e) {
+            failures++;
+        }
+        try {
+            frozen.remove(key(0));
+        } catch (UnsupportedOperationException e) {
+            failures++;
+        }
+        try {
+            frozen.removeAny();
+        } catch (UnsupportedOperationException e) {
+            failures++;
+        }
+        try {
+            frozen.clear();
+        } catch (UnsupportedOperationException e) {
+            failures++;
+        }
+        try {
+            frozen.transferFrom(FrozenSet3.freeze(source(1, 1)));
+        } catch (UnsupportedOperationException e) {
+            failures++;
+        }
+        final int mutators = 5;
+        assertEquals(mutators, failures);
+        assertEquals(source(1, 1), frozen);
+    }
+
+}
@@ -0,0 +1,215 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import components.set.Set;
+import components.set.Set1L;
+
+/**
+ * Customized JUnit test fixture for {@code PersistentSet3}.
+ */
+public class PersistentSet3Test extends SetTest {
+
+    /**
+     * Number of elements in the larger sets.
+     */
+    private static final int MANY = 5000;
+
+    /**
+     * Number of threads reading a snapshot at once.
+     */
+    private static final int READERS = 4;
+
+    @Override
+    protected final Set<String> constructorTest() {
+        return new PersistentSet3<String>();
+    }
+
+    @Override
+    protected final Set<String> constructorRef() {
+        return new Set1L<String>();
+    }
+
+    /**
+     * Returns i as a string padded with zeros, so that the strings sort in
+     * the order of the numbers.
+     *
+     * @param i
+     *            the number
+     * @return the padded string
+     */
+    private static String key(int i) {
+        return String.format("%06d", i);
+    }
+
+    //many adds and removes agree with Set1L, and iterate in order
+    @Test
+    public final void testAddRemoveMany() {
+        Set<String> test = this.constructorTest();
+        Set<String> ref = this.constructorRef();
+        for (int i = 0; i < MANY; i++) {
+            test.add(key(i));
+            ref.add(key(i));
+        }
+        for (int i = 0; i < MANY; i += 3) {
+            assertEquals(ref.remove(key(i)), test.remove(key(i)));
+        }
+        assertEquals(ref, test);
+        String previous = "";
+        for (String x : test) {
+            assertTrue(previous.compareTo(x) < 0);
+            previous = x;
+        }
+        while (test.size() > 0) {
+            String x = test.removeAny();
+            assertTrue(ref.contains(x));
+            ref.remove(x);
+        }
+        assertEquals(0, ref.size());
+    }
+
+    //a snapshot and its source change independently
+    @Test
+    public final void testSnapshot() {
+        PersistentSet3<String> test = new PersistentSet3<String>();
+        for (int i = 0; i < MANY; i += 2) {
+            test.add(key(i));
+        }
+        PersistentSet3<String> copy = test.snapshot();
+        assertEquals(test, copy);
+        for (int i = 0; i < MANY; i += 2) {
+            test.remove(key(i));
+            test.add(key(i + 1));
+        }
+        copy.add("extra");
+        for (int i = 0; i < MANY; i++) {
+            assertEquals(i % 2 == 1, test.contains(key(i)));
+            assertEquals(i % 2 == 0, copy.contains(key(i)));
+        }
+        assertFalse(test.contains("extra"));
+        assertEquals(MANY / 2, test.size());
+        assertEquals(MANY / 2 + 1, copy.size());
+    }
+
+    //snapshots of snapshots keep their own contents
+    @Test
+    public final void testSnapshotChain() {
+        PersistentSet3<String> test = new PersistentSet3<String>();
+        PersistentSet3<String> first = test.snapshot();
+        test.add("a");
+        PersistentSet3<String> second = test.snapshot();
+        test.add("b");
+        PersistentSet3<String> third = second.snapshot();
+        second.remove("a");
+        assertEquals(0, first.size());
+        assertEquals(0, second.size());
+        assertEquals(1, third.size());
+        assertTrue(third.contains("a"));
+        assertEquals(2, test.size());
+    }
+
+    //batch edits leave a snapshot taken in the middle unchanged
+    @Test
+    public final void testBatch() {
+        PersistentSet3<String> test = new PersistentSet3<String>();
+        test.beginBatch();
+        assertTrue(test.isBatch());
+        for (int i = 0; i < MANY; i++) {
+            test.add(key(i));
+        }
+        PersistentSet3<String> copy = test.snapshot();
+        assertTrue(test.isBatch());
+        assertFalse(copy.isBatch());
+        for (int i = 0; i < MANY; i += 2) {
+            test.remove(key(i));
+        }
+        for (int i = MANY; i < 2 * MANY; i++) {
+            test.add(key(i));
+        }
+        test.endBatch();
+        assertFalse(test.isBatch());
+        test.remove(key(1));
+        assertEquals(MANY, copy.size());
+        for (int i = 0; i < MANY; i++) {
+            assertTrue(copy.contains(key(i)));
+        }
+        assertEquals(MANY / 2 - 1 + MANY, test.size());
+        assertFalse(test.contains(key(0)));
+        assertFalse(test.contains(key(1)));
+        assertTrue(test.contains(key(3)));
+    }
+
+    //a set transferred out of a batch-mode set is not changed by its source
+    @Test
+    public final void testBatchTransferFrom() {
+        PersistentSet3<String> source = new PersistentSet3<String>();
+        source.beginBatch();
+        for (int i = 0; i < MANY; i++) {
+            source.add(key(i));
+        }
+        PersistentSet3<String> test = new PersistentSet3<String>();
+        test.transferFrom(source);
+        PersistentSet3<String> copy = test.snapshot();
+        source.transferFrom(test);
+        assertTrue(source.isBatch());
+        for (int i = 0; i < MANY; i++) {
+            source.remove(key(i));
+        }
+        assertEquals(0, source.size());
+        assertEquals(MANY, copy.size());
+        for (int i = 0; i < MANY; i++) {
+            assertTrue(copy.contains(key(i)));
+        }
+    }
+
+    //threads read one snapshot while its source keeps changing
+    @Test
+    public final void testSnapshotReadByOtherThreads() {
+        final PersistentSet3<String> test = new PersistentSet3<String>();
+        for (int i = 0; i < MANY; i += 2) {
+            test.add(key(i));
+        }
+        final PersistentSet3<String> copy = test.snapshot();
+        final AtomicInteger wrong = new AtomicInteger();
+        Thread[] readers = new Thread[READERS];
+        for (int t = 0; t < READERS; t++) {
+            readers[t] = new Thread(() -> {
+                for (int round = 0; round < READERS; round++) {
+                    int seen = 0;
+                    for (String x : copy) {
+                        if (!x.equals(key(2 * seen))) {
+                            wrong.incrementAndGet();
+                        }
+                        seen++;
+                    }
+                    for (int i = 0; i < MANY; i++) {
+                        if (copy.contains(key(i)) != (i % 2 == 0)) {
+                            wrong.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        test.beginBatch();
+        for (int i = 0; i < MANY; i += 2) {
+            test.remove(key(i));
+            test.add(key(i + 1));
+        }
+        try {
+            for (Thread r : readers) {
+                r.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        assertEquals(0, wrong.get());
+        assertEquals(MANY / 2, copy.size());
+        assertEquals(MANY / 2, test.size());
+    }
+
+}
@@ -1,3 +1,13 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
 import components.set.Set;
 import components.set.Set1L;
 
@@ -6,6 +16,12 @@ import components.set.Set1L;
  */
 public class Set3aTest extends SetTest {
 
+    /**
+     * Number of elements in the larger sets, more than an unbalanced tree
+     * could hold in sorted order without overflowing the stack.
+     */
+    private static final int MANY = 100000;
+
     @Override
     protected final Set<String> constructorTest() {
         return new Set3a<String>();
@@ -16,4 +32,60 @@ public class Set3aTest extends SetTest {
         return new Set1L<String>();
     }
 
+    /**
+     * Returns i as a string padded with zeros, so that the strings sort in
+     * the order of the numbers.
+     *
+     * @param i
+     *            the number
+     * @return the padded string
+     */
+    private static String key(int i) {
+        return String.format("%06d", i);
+    }
+
+    //bulkLoad of a sorted array builds a tree shallow enough to search
+    @Test
+    public final void testBulkLoadSorted() {
+        String[] elements = new String[MANY];
+        for (int i = 0; i < MANY; i++) {
+            elements[i] = key(i);
+        }
+        Set<String> test = Set3a.bulkLoad(elements);
+        assertEquals(MANY, test.size());
+        for (int i = 0; i < MANY; i++) {
+            assertTrue(test.contains(key(i)));
+            assertEquals(key(i), elements[i]);
+        }
+        test.add(key(MANY));
+        assertEquals(key(0), test.remove(key(0)));
+        assertEquals(MANY, test.size());
+    }
+
+    //bulkLoad of unsorted elements from an iterator sorts them first
+    @Test
+    public final void testBulkLoadUnsorted() {
+        final int count = 1000;
+        List<String> elements = new ArrayList<String>();
+        Set<String> ref = this.constructorRef();
+        for (int i = 0; i < count; i++) {
+            elements.add(key(i));
+            ref.add(key(i));
+        }
+        Collections.shuffle(elements, new Random(count));
+        Set<String> test = Set3a.bulkLoad(elements.iterator());
+        assertEquals(ref, test);
+    }
+
+    //bulkLoad of no elements, and of one
+    @Test
+    public final void testBulkLoadSmall() {
+        Set<String> test = Set3a.bulkLoad(new String[0]);
+        assertEquals(this.constructorRef(), test);
+        test = Set3a.bulkLoad(new String[] { "a" });
+        Set<String> ref = this.constructorRef();
+        ref.add("a");
+        assertEquals(ref, test);
+    }
+
 }
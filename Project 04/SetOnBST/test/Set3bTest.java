@@ -0,0 +1,85 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.set.Set;
+import components.set.Set1L;
+
+/**
+ * Customized JUnit test fixture for {@code Set3b}.
+ */
+public class Set3bTest extends SetTest {
+
+    /**
+     * Number of elements in the larger sets, more than an unbalanced tree
+     * could hold in sorted order without overflowing the stack.
+     */
+    private static final int MANY = 20000;
+
+    @Override
+    protected final Set<String> constructorTest() {
+        return new Set3b<String>();
+    }
+
+    @Override
+    protected final Set<String> constructorRef() {
+        return new Set1L<String>();
+    }
+
+    /**
+     * Returns i as a string padded with zeros, so that the strings sort in
+     * the order of the numbers.
+     *
+     * @param i
+     *            the number
+     * @return the padded string
+     */
+    private static String key(int i) {
+        return String.format("%06d", i);
+    }
+
+    //sorted and reverse-sorted adds, then removes in the same orders
+    @Test
+    public final void testSortedAndReverseSorted() {
+        Set<String> test = this.constructorTest();
+        for (int i = 0; i < MANY; i++) {
+            test.add(key(i));
+        }
+        for (int i = MANY; i < 2 * MANY; i++) {
+            test.add(key(3 * MANY - 1 - i));
+        }
+        assertEquals(2 * MANY, test.size());
+        for (int i = 0; i < 2 * MANY; i++) {
+            assertTrue(test.contains(key(i)));
+        }
+        for (int i = 0; i < MANY; i++) {
+            assertEquals(key(i), test.remove(key(i)));
+        }
+        for (int i = 2 * MANY - 1; i >= MANY; i--) {
+            assertEquals(key(i), test.remove(key(i)));
+        }
+        assertEquals(0, test.size());
+    }
+
+    //removeAny empties a large set, and iteration stays in order
+    @Test
+    public final void testRemoveAnyAndOrder() {
+        Set<String> test = this.constructorTest();
+        Set<String> ref = this.constructorRef();
+        for (int i = 0; i < MANY; i++) {
+            test.add(key(i));
+            ref.add(key(i));
+        }
+        String previous = "";
+        for (String x : test) {
+            assertTrue(previous.compareTo(x) < 0);
+            previous = x;
+        }
+        while (test.size() > 0) {
+            ref.remove(test.removeAny());
+        }
+        assertEquals(0, ref.size());
+    }
+
+}
@@ -0,0 +1,299 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import components.set.Set;
+import components.set.Set1L;
+
+/**
+ * Customized JUnit test fixture for {@code Set3c}.
+ */
+public class Set3cTest extends SetTest {
+
+    /**
+     * Number of elements in the larger sets, more than an unbalanced tree
+     * could hold in sorted order without overflowing the stack.
+     */
+    private static final int MANY = 20000;
+
+    @Override
+    protected final Set<String> constructorTest() {
+        return new Set3c<String>();
+    }
+
+    @Override
+    protected final Set<String> constructorRef() {
+        return new Set1L<String>();
+    }
+
+    /**
+     * Returns i as a string padded with zeros, so that the strings sort in
+     * the order of the numbers.
+     *
+     * @param i
+     *            the number
+     * @return the padded string
+     */
+    private static String key(int i) {
+        return String.format("%06d", i);
+    }
+
+    //sorted and reverse-sorted adds, then removes in the same orders
+    @Test
+    public final void testSortedAndReverseSorted() {
+        Set<String> test = this.constructorTest();
+        for (int i = 0; i < MANY; i++) {
+            test.add(key(i));
+        }
+        for (int i = MANY; i < 2 * MANY; i++) {
+            test.add(key(3 * MANY - 1 - i));
+        }
+        assertEquals(2 * MANY, test.size());
+        for (int i = 0; i < 2 * MANY; i++) {
+            assertTrue(test.contains(key(i)));
+        }
+        for (int i = 0; i < MANY; i++) {
+            assertEquals(key(i), test.remove(key(i)));
+        }
+        for (int i = 2 * MANY - 1; i >= MANY; i--) {
+            assertEquals(key(i), test.remove(key(i)));
+        }
+        assertEquals(0, test.size());
+    }
+
+    //removing elements with two children, then iterating in order
+    @Test
+    public final void testRemoveInnerAndOrder() {
+        Set<String> test = this.constructorTest();
+        Set<String> ref = this.constructorRef();
+        for (int i = 0; i < MANY; i++) {
+            test.add(key(i));
+            ref.add(key(i));
+        }
+        final int step = 3;
+        for (int i = 0; i < MANY; i += step) {
+            test.remove(key(i));
+            ref.remove(key(i));
+        }
+        assertEquals(ref, test);
+        String previous = "";
+        for (String x : test) {
+            assertTrue(previous.compareTo(x) < 0);
+            previous = x;
+        }
+        while (test.size() > 0) {
+            ref.remove(test.removeAny());
+        }
+        assertEquals(0, ref.size());
+    }
+
+    //contains leaves the set, and the order of its elements, unchanged
+    @Test
+    public final void testContainsDoesNotChangeSet() {
+        Set<String> test = this.constructorTest();
+        for (int i = 0; i < MANY; i += 2) {
+            test.add(key(i));
+        }
+        for (int i = 0; i < MANY; i++) {
+            assertEquals(i % 2 == 0, test.contains(key(i)));
+        }
+        Iterator<String> it = test.iterator();
+        for (int i = 0; i < MANY; i += 2) {
+            assertEquals(key(i), it.next());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    //contains allocates nothing, where the JVM can measure it
+    @Test
+    public final void testContainsDoesNotAllocate() {
+        Set<String> test = this.constructorTest();
+        String[] keys = new String[MANY];
+        for (int i = 0; i < MANY; i++) {
+            keys[i] = key(i);
+            test.add(keys[i]);
+        }
+        java.lang.management.ThreadMXBean bean = ManagementFactory
+                .getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counter;
+            counter = (com.sun.management.ThreadMXBean) bean;
+            long id = Thread.currentThread().getId();
+            int found = 0;
+            long before = counter.getThreadAllocatedBytes(id);
+            for (int i = 0; i < MANY; i++) {
+                if (test.contains(keys[i])) {
+                    found++;
+                }
+            }
+            long after = counter.getThreadAllocatedBytes(id);
+            assertEquals(MANY, found);
+            /*
+             * Allow for the little the measurement itself might allocate, far
+             * less than one object per call
+             */
+            assertTrue(after - before < MANY);
+        }
+    }
+
+    /**
+     * Returns a {@code Set3c} holding key(0), key(step), key(2 * step), ...
+     * below key(MANY).
+     *
+     * @param step
+     *            distance between consecutive elements
+     * @return the set
+     */
+    private static Set3c<String> every(int step) {
+        Set3c<String> result = new Set3c<String>();
+        for (int i = 0; i < MANY; i += step) {
+            result.add(key(i));
+        }
+        return result;
+    }
+
+    //select and rank are inverse, and rank counts absent elements too
+    @Test
+    public final void testSelectAndRank() {
+        final int step = 3;
+        Set3c<String> test = every(step);
+        int n = test.size();
+        for (int k = 0; k < n; k++) {
+            assertEquals(key(step * k), test.select(k));
+            assertEquals(k, test.rank(key(step * k)));
+            assertEquals(k + 1, test.rank(key(step * k + 1)));
+        }
+        assertEquals(0, test.rank(""));
+        assertEquals(n, test.rank(key(MANY)));
+        assertEquals(0, new Set3c<String>().rank("a"));
+    }
+
+    //floor and ceiling, on elements, between them, and beyond both ends
+    @Test
+    public final void testFloorAndCeiling() {
+        final int step = 4;
+        Set3c<String> test = every(step);
+        for (int i = 0; i < MANY - step; i++) {
+            assertEquals(key(i - i % step), test.floor(key(i)));
+            assertEquals(key(i + (step - i % step) % step),
+                    test.ceiling(key(i)));
+        }
+        assertNull(test.floor(""));
+        assertEquals(key(0), test.ceiling(""));
+        assertEquals(key(MANY - step), test.floor(key(MANY)));
+        assertNull(test.ceiling(key(MANY)));
+        assertNull(new Set3c<String>().floor("a"));
+    }
+
+    //countInRange over ranges that are empty, partial, and cover everything
+    @Test
+    public final void testCountInRange() {
+        final int step = 5;
+        final int lo = 101;
+        final int hi = 1_000;
+        Set3c<String> test = every(step);
+        assertEquals(test.size(), test.countInRange("", key(MANY)));
+        assertEquals((hi - 1) / step - (lo - 1) / step,
+                test.countInRange(key(lo), key(hi)));
+        assertEquals(1, test.countInRange(key(hi), key(hi + 1)));
+        assertEquals(0, test.countInRange(key(hi), key(hi)));
+        assertEquals(0, test.countInRange(key(hi), key(lo)));
+    }
+
+    //range and descendingRange visit exactly the elements in [lo, hi)
+    @Test
+    public final void testRangeIterators() {
+        final int step = 2;
+        final int lo = 999;
+        final int hi = 1_500;
+        Set3c<String> test = every(step);
+        Iterator<String> up = test.range(key(lo), key(hi));
+        for (int i = lo + 1; i < hi; i += step) {
+            assertEquals(key(i), up.next());
+        }
+        assertFalse(up.hasNext());
+        Iterator<String> down = test.descendingRange(key(lo), key(hi));
+        for (int i = hi - step; i >= lo; i -= step) {
+            assertEquals(key(i), down.next());
+        }
+        assertFalse(down.hasNext());
+        Iterator<String> all = test.descendingRange("", key(MANY));
+        for (int i = MANY - step; i >= 0; i -= step) {
+            assertEquals(key(i), all.next());
+        }
+        assertFalse(all.hasNext());
+        assertFalse(test.range(key(hi), key(lo)).hasNext());
+        assertFalse(new Set3c<String>().range("a", "b").hasNext());
+    }
+
+    //union of overlapping sets, large enough to be split between tasks
+    @Test
+    public final void testUnion() {
+        final int step = 2;
+        final int otherStep = 3;
+        Set3c<String> test = every(step);
+        Set3c<String> other = every(otherStep);
+        Set<String> ref = this.constructorRef();
+        for (int i = 0; i < MANY; i++) {
+            if (i % step == 0 || i % otherStep == 0) {
+                ref.add(key(i));
+            }
+        }
+        test.union(other);
+        assertEquals(ref, test);
+        assertEquals(0, other.size());
+        test.union(new Set3c<String>());
+        assertEquals(ref, test);
+    }
+
+    //intersection and difference of overlapping sets
+    @Test
+    public final void testIntersectionAndDifference() {
+        final int step = 2;
+        final int otherStep = 3;
+        Set<String> both = this.constructorRef();
+        Set<String> onlyFirst = this.constructorRef();
+        for (int i = 0; i < MANY; i += step) {
+            if (i % otherStep == 0) {
+                both.add(key(i));
+            } else {
+                onlyFirst.add(key(i));
+            }
+        }
+        Set3c<String> test = every(step);
+        Set3c<String> other = every(otherStep);
+        test.intersection(other);
+        assertEquals(both, test);
+        assertEquals(0, other.size());
+        test = every(step);
+        test.difference(every(otherStep));
+        assertEquals(onlyFirst, test);
+        test.intersection(new Set3c<String>());
+        assertEquals(0, test.size());
+    }
+
+    //isSubset against another Set3c, and against another kind of set
+    @Test
+    public final void testIsSubset() {
+        final int step = 6;
+        final int otherStep = 3;
+        Set3c<String> small = every(step);
+        Set3c<String> large = every(otherStep);
+        assertTrue(small.isSubset(large));
+        assertFalse(large.isSubset(small));
+        large.remove(key(MANY / step * step));
+        assertFalse(small.isSubset(large));
+        assertTrue(new Set3c<String>().isSubset(small));
+        Set<String> ref = this.constructorRef();
+        ref.add(key(0));
+        assertFalse(small.isSubset(ref));
+        assertEquals(MANY / step + 1, small.size());
+    }
+
+}